@@ -2,20 +2,47 @@ package roxtools;
 
 import static org.slf4j.LoggerFactory.getLogger;
 
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.lang.ref.ReferenceQueue;
 import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
 
 import org.slf4j.Logger;
 
+/**
+ * A pool of int linked lists, sharing the same links and data blocks.
+ * <p>
+ * The blocks can be in the heap ({@code int[][]}), off-heap (direct memory) or memory-mapped in a file.
+ * A file-backed pool can be reopened after {@link #flush()}/{@link #close()}, and its lists
+ * restored with {@link #openLinkedListUnreferenced(int[])} from the state returned by {@link #getLinkedListState(BigLinkedIntList)}.
+ * <p>
+ * Only unreferenced lists ({@link #createLinkedListUnreferenced()}) can be persisted: the slots of a referenced list
+ * are released by {@link #clearUnreferencedLists()} once the list is collected, so a saved state would point to
+ * reused slots. An unreferenced list keeps its slots until it is cleared.
+ */
 @SuppressWarnings("unchecked")
-final public class BigLinkedIntListPool {
+final public class BigLinkedIntListPool implements Closeable {
 	
 	private static final Logger LOG = getLogger(BigLinkedIntListPool.class);
 	
+	static final private int FILE_MAGIC = 0x424C4950 ;
+	static final private int FILE_VERSION = 1 ;
+	static final private int FILE_HEADER_SIZE = 64 ;
+	
 	final protected int blockSize ;
 	
 	private int poolCapacity ;
@@ -24,54 +51,279 @@ final public class BigLinkedIntListPool {
 	private int[][] linksReversed ;
 	private int[][] data ;
 	
+	// Off-heap blocks, used instead of the int[][] blocks:
+	final private boolean offHeap ;
+	private IntBuffer[] linksBuffers ;
+	private IntBuffer[] linksReversedBuffers ;
+	private IntBuffer[] dataBuffers ;
+	
+	final private File file ;
+	private RandomAccessFile fileIO ;
+	private MappedByteBuffer fileHeader ;
+	
 	public BigLinkedIntListPool() {
 		this(1, 1024*64) ;
 	}
 	
 	public BigLinkedIntListPool(int initalBlocks, int blockSize) {
+		this(initalBlocks, blockSize, false) ;
+	}
+	
+	/**
+	 * @param offHeap If true the blocks are allocated in direct memory, outside of the Java heap.
+	 */
+	public BigLinkedIntListPool(int initalBlocks, int blockSize, boolean offHeap) {
 		this.blockSize = blockSize ;
+		this.offHeap = offHeap ;
+		this.file = null ;
 		
-		this.links = new int[initalBlocks][blockSize] ;
-		this.linksReversed = new int[initalBlocks][blockSize] ;
-		
-		int[][] data = new int[initalBlocks][blockSize] ;
+		if (offHeap) {
+			this.linksBuffers = new IntBuffer[0] ;
+			this.linksReversedBuffers = new IntBuffer[0] ;
+			this.dataBuffers = new IntBuffer[0] ;
+			
+			try {
+				for (int i = 0; i < initalBlocks; i++) {
+					appendBufferBlock();
+				}
+			}
+			catch (IOException e) {
+				throw new IllegalStateException(e) ;
+			}
+		}
+		else {
+			this.links = new int[initalBlocks][blockSize] ;
+			this.linksReversed = new int[initalBlocks][blockSize] ;
+			
+			int[][] data = new int[initalBlocks][blockSize] ;
+			
+			this.data = data ;
+		}
 		
 		poolCapacity = (initalBlocks * blockSize) -1 ;
+	}
+	
+	public BigLinkedIntListPool(File file) throws IOException {
+		this(file, 1, 1024*64) ;
+	}
+	
+	/**
+	 * A pool with the blocks memory-mapped in {@code file}. If {@code file} already
+	 * has a pool, it's reopened with its own block size, ignoring {@code initalBlocks} and {@code blockSize}.
+	 * <p>
+	 * The state of the pool (size and free indexes) is only written to the file
+	 * at {@link #flush()} and {@link #close()}.
+	 */
+	public BigLinkedIntListPool(File file, int initalBlocks, int blockSize) throws IOException {
+		this.offHeap = true ;
+		this.file = file ;
+		
+		RandomAccessFile fileIO = new RandomAccessFile(file, "rw") ;
+		
+		try {
+			boolean reopen = fileIO.length() >= FILE_HEADER_SIZE ;
+			
+			this.fileIO = fileIO ;
+			this.fileHeader = fileIO.getChannel().map(MapMode.READ_WRITE, 0, FILE_HEADER_SIZE) ;
+			this.fileHeader.order(ByteOrder.LITTLE_ENDIAN) ;
+			
+			this.linksBuffers = new IntBuffer[0] ;
+			this.linksReversedBuffers = new IntBuffer[0] ;
+			this.dataBuffers = new IntBuffer[0] ;
+			
+			if (reopen) {
+				ByteBuffer header = this.fileHeader ;
+				
+				if ( header.getInt(0) != FILE_MAGIC ) throw new IOException("Not a BigLinkedIntListPool file: "+ file) ;
+				if ( header.getInt(4) != FILE_VERSION ) throw new IOException("Unsupported BigLinkedIntListPool file version: "+ header.getInt(4)) ;
+				
+				this.blockSize = header.getInt(8) ;
+				int blocks = header.getInt(12) ;
+				
+				for (int i = 0; i < blocks; i++) {
+					appendBufferBlock();
+				}
+				
+				this.poolCapacity = header.getInt(16) ;
+				this.poolSize = header.getInt(20) ;
+				this.freeIndex = header.getInt(24) ;
+				this.releaseIndexCount = header.getInt(28) ;
+				this.releasedIndexesSize = header.getInt(32) ;
+			}
+			else {
+				this.blockSize = blockSize ;
+				
+				for (int i = 0; i < initalBlocks; i++) {
+					appendBufferBlock();
+				}
+				
+				poolCapacity = (initalBlocks * blockSize) -1 ;
+				
+				writeFileHeader();
+			}
+		}
+		catch (IOException e) {
+			fileIO.close();
+			throw e ;
+		}
+	}
+	
+	public boolean isOffHeap() {
+		return offHeap ;
+	}
+	
+	/**
+	 * @return The file of a file-backed pool, or null.
+	 */
+	public File getFile() {
+		return file ;
+	}
+	
+	public int getBlocks() {
+		return offHeap ? dataBuffers.length : data.length ;
+	}
+	
+	private void appendBufferBlock() throws IOException {
+		long intsSize = blockSize * 4L ;
 		
-		this.data = data ;
+		ByteBuffer block ;
+		
+		if (file != null) {
+			long pos = FILE_HEADER_SIZE + (dataBuffers.length * intsSize * 3) ;
+			block = fileIO.getChannel().map(MapMode.READ_WRITE, pos, intsSize * 3) ;
+		}
+		else {
+			block = ByteBuffer.allocateDirect( (int) (intsSize * 3) ) ;
+		}
+		
+		int prevSize = dataBuffers.length ;
+		int newSize = prevSize+1 ;
+		
+		IntBuffer[] links2 = new IntBuffer[newSize] ;
+		IntBuffer[] linksReversed2 = new IntBuffer[newSize] ;
+		IntBuffer[] data2 = new IntBuffer[newSize] ;
+		
+		System.arraycopy(linksBuffers, 0, links2, 0, prevSize);
+		System.arraycopy(linksReversedBuffers, 0, linksReversed2, 0, prevSize);
+		System.arraycopy(dataBuffers, 0, data2, 0, prevSize);
+		
+		links2[prevSize] = sliceInts(block, 0) ;
+		linksReversed2[prevSize] = sliceInts(block, 1) ;
+		data2[prevSize] = sliceInts(block, 2) ;
+		
+		this.linksBuffers = links2 ;
+		this.linksReversedBuffers = linksReversed2 ;
+		this.dataBuffers = data2 ;
 	}
 	
-	public int capacity() {
-		return poolCapacity ;
+	private IntBuffer sliceInts(ByteBuffer block, int part) {
+		int intsSize = blockSize * 4 ;
+		
+		ByteBuffer slice = block.duplicate() ;
+		slice.position(intsSize * part) ;
+		slice.limit(intsSize * (part+1)) ;
+		
+		// Fixed order, since a file-backed pool can be reopened in another platform:
+		return slice.slice().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer() ;
 	}
 	
-	public int size() {
-		return poolSize ;
+	private void writeFileHeader() {
+		ByteBuffer header = this.fileHeader ;
+		
+		header.putInt(0, FILE_MAGIC) ;
+		header.putInt(4, FILE_VERSION) ;
+		header.putInt(8, blockSize) ;
+		header.putInt(12, dataBuffers.length) ;
+		header.putInt(16, poolCapacity) ;
+		header.putInt(20, poolSize) ;
+		header.putInt(24, freeIndex) ;
+		header.putInt(28, releaseIndexCount) ;
+		header.putInt(32, releasedIndexesSize) ;
 	}
 	
-	private void addBlock() {
+	/**
+	 * Writes the pool state and the blocks of a file-backed pool to its file. Does nothing for other pools.
+	 */
+	public void flush() {
+		if (file == null) return ;
 		
 		synchronized (freeIndex_MUTEX) {
-			int prevSize = links.length ;
-			int newSize = prevSize+1 ;
+			if (fileIO == null) return ;
 			
-			int[][] links2 = new int[newSize][] ;
-			int[][] linksReversed2 = new int[newSize][] ;
-			int[][] data2 = new int[newSize][] ;
+			writeFileHeader();
 			
-			System.arraycopy(links, 0, links2, 0, prevSize);
-			System.arraycopy(linksReversed, 0, linksReversed2, 0, prevSize);
-			System.arraycopy(data, 0, data2, 0, prevSize);
+			// The blocks are sliced from MappedByteBuffers, so force the whole file:
+			try {
+				fileIO.getChannel().force(false);
+			}
+			catch (IOException e) {
+				throw new IllegalStateException(e) ;
+			}
 			
-			links2[prevSize] = new int[blockSize] ;
-			linksReversed2[prevSize] = new int[blockSize] ;
-			data2[prevSize] = new int[blockSize] ;
+			fileHeader.force() ;
+		}
+	}
+	
+	/**
+	 * Flushes and closes the file of a file-backed pool. The pool and its lists can't be used after close.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (file == null) return ;
+		
+		synchronized (freeIndex_MUTEX) {
+			if (fileIO == null) return ;
 			
-			this.links = links2 ;
-			this.linksReversed = linksReversed2 ;
-			this.data = data2 ;
+			flush();
 			
-			poolCapacity += blockSize ;
+			fileIO.close();
+			fileIO = null ;
+		}
+	}
+	
+	public int capacity() {
+		return poolCapacity ;
+	}
+	
+	public int size() {
+		return poolSize ;
+	}
+	
+	private void addBlock() {
+		
+		synchronized (freeIndex_MUTEX) {
+			if (offHeap) {
+				try {
+					appendBufferBlock();
+				}
+				catch (IOException e) {
+					throw new IllegalStateException("Can't add block to pool file: "+ file, e) ;
+				}
+				
+				poolCapacity += blockSize ;
+			}
+			else {
+				int prevSize = links.length ;
+				int newSize = prevSize+1 ;
+				
+				int[][] links2 = new int[newSize][] ;
+				int[][] linksReversed2 = new int[newSize][] ;
+				int[][] data2 = new int[newSize][] ;
+				
+				System.arraycopy(links, 0, links2, 0, prevSize);
+				System.arraycopy(linksReversed, 0, linksReversed2, 0, prevSize);
+				System.arraycopy(data, 0, data2, 0, prevSize);
+				
+				links2[prevSize] = new int[blockSize] ;
+				linksReversed2[prevSize] = new int[blockSize] ;
+				data2[prevSize] = new int[blockSize] ;
+				
+				this.links = links2 ;
+				this.linksReversed = linksReversed2 ;
+				this.data = data2 ;
+				
+				poolCapacity += blockSize ;
+			}
 		}
 		
 		LOG.trace("ADDED BLOCK> size/capacity: {} / {} ; memory: {}KB", this.poolSize , this.poolCapacity , (getUsedMemory()/1024) );
@@ -115,7 +367,13 @@ final public class BigLinkedIntListPool {
 		int innerIdx = idx - (blockIdx*blockSize) ;
 		
 		synchronized (freeIndex_MUTEX) {
-			this.links[blockIdx][innerIdx] = this.freeIndex ;
+			if (offHeap) {
+				this.linksBuffers[blockIdx].put(innerIdx, this.freeIndex) ;
+			}
+			else {
+				this.links[blockIdx][innerIdx] = this.freeIndex ;
+			}
+			
 			this.freeIndex = idx ;
 			
 			releaseIndexCount++ ;
@@ -128,36 +386,153 @@ final public class BigLinkedIntListPool {
 	protected void setData(int idx , int elem) {
 		int blockIdx = idx / blockSize ;
 		int innerIdx = idx - (blockIdx*blockSize) ;
-		this.data[blockIdx][innerIdx] = elem ;
+		
+		if (offHeap) {
+			this.dataBuffers[blockIdx].put(innerIdx, elem) ;
+		}
+		else {
+			this.data[blockIdx][innerIdx] = elem ;
+		}
 	}
 	
 	protected int getData(int idx) {
 		int blockIdx = idx / blockSize ;
 		int innerIdx = idx - (blockIdx*blockSize) ;
-		return this.data[blockIdx][innerIdx] ;
+		
+		if (offHeap) {
+			return this.dataBuffers[blockIdx].get(innerIdx) ;
+		}
+		else {
+			return this.data[blockIdx][innerIdx] ;
+		}
 	}
 	
 	protected void setLink(int idx , int link) {
 		int blockIdx = idx / blockSize ;
 		int innerIdx = idx - (blockIdx*blockSize) ;
-		this.links[blockIdx][innerIdx] = link ;
 		
-		blockIdx = link / blockSize ;
-		innerIdx = link - (blockIdx*blockSize) ;
+		int linkBlockIdx = link / blockSize ;
+		int linkInnerIdx = link - (linkBlockIdx*blockSize) ;
 		
-		this.linksReversed[blockIdx][innerIdx] = idx ;
+		if (offHeap) {
+			this.linksBuffers[blockIdx].put(innerIdx, link) ;
+			this.linksReversedBuffers[linkBlockIdx].put(linkInnerIdx, idx) ;
+		}
+		else {
+			this.links[blockIdx][innerIdx] = link ;
+			this.linksReversed[linkBlockIdx][linkInnerIdx] = idx ;
+		}
 	}
 	
 	protected int getLink(int idx) {
 		int blockIdx = idx / blockSize ;
 		int innerIdx = idx - (blockIdx*blockSize) ;
-		return this.links[blockIdx][innerIdx] ;
+		
+		if (offHeap) {
+			return this.linksBuffers[blockIdx].get(innerIdx) ;
+		}
+		else {
+			return this.links[blockIdx][innerIdx] ;
+		}
 	}
 	
 	protected int getLinkReversed(int idx) {
 		int blockIdx = idx / blockSize ;
 		int innerIdx = idx - (blockIdx*blockSize) ;
-		return this.linksReversed[blockIdx][innerIdx] ;
+		
+		if (offHeap) {
+			return this.linksReversedBuffers[blockIdx].get(innerIdx) ;
+		}
+		else {
+			return this.linksReversed[blockIdx][innerIdx] ;
+		}
+	}
+	
+	/**
+	 * Copies {@code length} elements, following the links from {@code cursor}.
+	 * 
+	 * @return The link after the last copied element.
+	 */
+	protected int copyData(int cursor, int[] a, int off, int length) {
+		int blockSize = this.blockSize ;
+		int limit = off+length ;
+		
+		if (offHeap) {
+			IntBuffer[] links = this.linksBuffers ;
+			IntBuffer[] data = this.dataBuffers ;
+			
+			for (int i = off; i < limit; i++) {
+				int blockIdx = cursor / blockSize ;
+				int innerIdx = cursor - (blockIdx*blockSize) ;
+				
+				a[i] = data[blockIdx].get(innerIdx) ;
+				cursor = links[blockIdx].get(innerIdx) ;
+			}
+		}
+		else {
+			int[][] links = this.links ;
+			int[][] data = this.data ;
+			
+			for (int i = off; i < limit; i++) {
+				int blockIdx = cursor / blockSize ;
+				int innerIdx = cursor - (blockIdx*blockSize) ;
+				
+				a[i] = data[blockIdx][innerIdx] ;
+				cursor = links[blockIdx][innerIdx] ;
+			}
+		}
+		
+		return cursor ;
+	}
+	
+	protected void forEachData(int cursor, int length, IntConsumer consumer) {
+		int blockSize = this.blockSize ;
+		
+		if (offHeap) {
+			IntBuffer[] links = this.linksBuffers ;
+			IntBuffer[] data = this.dataBuffers ;
+			
+			for (int i = length-1; i >= 0; i--) {
+				int blockIdx = cursor / blockSize ;
+				int innerIdx = cursor - (blockIdx*blockSize) ;
+				
+				consumer.accept( data[blockIdx].get(innerIdx) ) ;
+				cursor = links[blockIdx].get(innerIdx) ;
+			}
+		}
+		else {
+			int[][] links = this.links ;
+			int[][] data = this.data ;
+			
+			for (int i = length-1; i >= 0; i--) {
+				int blockIdx = cursor / blockSize ;
+				int innerIdx = cursor - (blockIdx*blockSize) ;
+				
+				consumer.accept( data[blockIdx][innerIdx] ) ;
+				cursor = links[blockIdx][innerIdx] ;
+			}
+		}
+	}
+	
+	/**
+	 * @return The state of {@code list} in this pool: [head, tail, size]. Can be used to reopen the list
+	 * with {@link #openLinkedListUnreferenced(int[])}, usually after reopening a file-backed pool.
+	 * @throws IllegalArgumentException If {@code list} isn't an unreferenced list of this pool.
+	 */
+	public int[] getLinkedListState(BigLinkedIntList list) {
+		if (list.getPool() != this) throw new IllegalArgumentException("List from another pool") ;
+		if ( !(list instanceof BigLinkedIntListUnreferenced) ) throw new IllegalArgumentException("Only unreferenced lists can be persisted") ;
+		
+		return ((BigLinkedIntListUnreferenced) list).getState() ;
+	}
+	
+	/**
+	 * Reopens an unreferenced list from a state returned by {@link #getLinkedListState(BigLinkedIntList)}.
+	 */
+	public BigLinkedIntList openLinkedListUnreferenced(int[] state) {
+		BigLinkedIntListUnreferenced linkedList = new BigLinkedIntListUnreferenced(this) ;
+		linkedList.setState(state);
+		return linkedList ;
 	}
 	
 	public BigLinkedIntList createLinkedList() {
@@ -410,9 +785,71 @@ final public class BigLinkedIntListPool {
 
 		public Iterator<Integer> iterator() ;
 
+		/**
+		 * Calls {@code consumer} for each element, in order, without boxing.
+		 */
+		public void forEachInt(IntConsumer consumer) ;
+
+		/**
+		 * @return A cursor that copies the elements into int[] chunks. Not valid after the list is changed.
+		 */
+		public BigLinkedIntListCursor cursor() ;
+
+		/**
+		 * Removes all the elements that satisfy {@code filter}.
+		 * 
+		 * @return The number of removed elements.
+		 */
+		public int removeIf(IntPredicate filter) ;
+
 		public String toString() ;
 	}
 	
+	/**
+	 * Copies the elements of a list into int[] chunks, walking the links directly:
+	 * <pre>
+	 * int[] buffer = new int[1024] ;
+	 * int n ;
+	 * while ( (n = cursor.drainTo(buffer)) > 0 ) { ... }
+	 * </pre>
+	 */
+	final static public class BigLinkedIntListCursor {
+		final private BigLinkedIntListPool pool ;
+		private int cursor ;
+		private int remaining ;
+		
+		private BigLinkedIntListCursor(BigLinkedIntListPool pool, int headLinkIdx, int size) {
+			this.pool = pool ;
+			this.cursor = headLinkIdx ;
+			this.remaining = size ;
+		}
+		
+		public boolean hasNext() {
+			return remaining > 0 ;
+		}
+		
+		public int remaining() {
+			return remaining ;
+		}
+		
+		public int drainTo(int[] a) {
+			return drainTo(a, 0, a.length) ;
+		}
+		
+		/**
+		 * @return The number of copied elements, or 0 if there are no more elements.
+		 */
+		public int drainTo(int[] a, int off, int length) {
+			int n = Math.min(length, remaining) ;
+			if (n <= 0) return 0 ;
+			
+			this.cursor = pool.copyData(cursor, a, off, n) ;
+			this.remaining -= n ;
+			
+			return n ;
+		}
+	}
+	
 	static public class BigLinkedIntListReferenced implements BigLinkedIntList {
 		final private BigLinkedIntListReference ref ;
 		
@@ -553,6 +990,18 @@ final public class BigLinkedIntListPool {
 			return ref.iterator();
 		}
 
+		public void forEachInt(IntConsumer consumer) {
+			ref.forEachInt(consumer);
+		}
+
+		public BigLinkedIntListCursor cursor() {
+			return ref.cursor();
+		}
+
+		public int removeIf(IntPredicate filter) {
+			return ref.removeIf(filter);
+		}
+
 		public String toString() {
 			return ref.toString();
 		}
@@ -701,29 +1150,17 @@ final public class BigLinkedIntListPool {
 				return removeLast() ;
 			}
 			
-			int blockSize = pool.blockSize ;
-			int[][] links = pool.links ;
-			
-			int blockIdx ;
-			int innerIdx ;
-			
 			int cursor = this.headLinkIdx ;
 			int prevCursor = cursor ;
 			
 			for (int i = idx-1 ; i >= 0 ; i--) {
-				blockIdx = cursor / blockSize ;
-				innerIdx = cursor % blockSize ;
-				
 				prevCursor = cursor ;
-				cursor = links[blockIdx][innerIdx] ;
+				cursor = pool.getLink(cursor) ;
 			}
 			
-			blockIdx = cursor / blockSize ;
-			innerIdx = cursor % blockSize ;
-			
-			int prevData = pool.data[blockIdx][innerIdx] ;
+			int prevData = pool.getData(cursor) ;
 			
-			int linkNext = pool.links[blockIdx][innerIdx] ;
+			int linkNext = pool.getLink(cursor) ;
 			
 			pool.setLink(prevCursor, linkNext);
 			
@@ -770,50 +1207,25 @@ final public class BigLinkedIntListPool {
 		public Integer getFromHead(int idx) {
 			if (idx >= size) return null ;
 			
-			int blockSize = pool.blockSize ;
-			int[][] links = pool.links ;
-			
-			int blockIdx ;
-			int innerIdx ;
-			
 			int cursor = this.headLinkIdx ;
 			
 			for (int i = idx-1 ; i >= 0 ; i--) {
-				blockIdx = cursor / blockSize ;
-				innerIdx = cursor % blockSize ;
-				
-				cursor = links[blockIdx][innerIdx] ;
+				cursor = pool.getLink(cursor) ;
 			}
 			
-			blockIdx = cursor / blockSize ;
-			innerIdx = cursor % blockSize ;
-			
-			return pool.data[blockIdx][innerIdx] ;
+			return pool.getData(cursor) ;
 		}
 		
 		public Integer getFromTail(int idx) {
 			if (idx >= size) return null ;
 			
-			int blockSize = pool.blockSize ;
-			int[][] linksReversed = pool.linksReversed;
-			
-			int blockIdx ;
-			int innerIdx ;
-			
 			int cursor = this.tailLinkIdx ;
 			
 			for (int i = (size-idx)-2 ; i >= 0 ; i--) {
-				blockIdx = cursor / blockSize ;
-				innerIdx = cursor % blockSize ;
-				
-				
-				cursor = linksReversed[blockIdx][innerIdx] ;
+				cursor = pool.getLinkReversed(cursor) ;
 			}
 			
-			blockIdx = cursor / blockSize ;
-			innerIdx = cursor % blockSize ;
-			
-			return pool.data[blockIdx][innerIdx] ;
+			return pool.getData(cursor) ;
 		}
 		
 		public void setAll(List<Integer> elems) {
@@ -831,20 +1243,12 @@ final public class BigLinkedIntListPool {
 				while ( size < elemsSz ) ;
 			}
 			
-			int blockSize = pool.blockSize ;
-			
 			int cursor = this.headLinkIdx ;
 			int setSz = 0 ;
 			
-			int blockIdx ;
-			int innerIdx ;
-			
 			while ( setSz < size ) {
-				blockIdx = cursor / blockSize ;
-				innerIdx = cursor - (blockIdx*blockSize) ;
-				
-				pool.data[blockIdx][innerIdx] = elems.get(setSz) ;
-				cursor = pool.links[blockIdx][innerIdx] ;
+				pool.setData(cursor, elems.get(setSz)) ;
+				cursor = pool.getLink(cursor) ;
 				
 				setSz++ ;
 			}
@@ -866,20 +1270,12 @@ final public class BigLinkedIntListPool {
 				while ( size < elems.length ) ;
 			}
 			
-			int blockSize = pool.blockSize ;
-			
 			int cursor = this.headLinkIdx ;
 			int setSz = 0 ;
 			
-			int blockIdx ;
-			int innerIdx ;
-			
 			while ( setSz < size ) {
-				blockIdx = cursor / blockSize ;
-				innerIdx = cursor - (blockIdx*blockSize) ;
-				
-				pool.data[blockIdx][innerIdx] = elems[setSz] ;
-				cursor = pool.links[blockIdx][innerIdx] ;
+				pool.setData(cursor, elems[setSz]) ;
+				cursor = pool.getLink(cursor) ;
 				
 				setSz++ ;
 			}
@@ -901,20 +1297,12 @@ final public class BigLinkedIntListPool {
 				while ( size < elems.length ) ;
 			}
 			
-			int blockSize = pool.blockSize ;
-			
 			int cursor = this.headLinkIdx ;
 			int setSz = 0 ;
 			
-			int blockIdx ;
-			int innerIdx ;
-			
 			while ( setSz < size ) {
-				blockIdx = cursor / blockSize ;
-				innerIdx = cursor - (blockIdx*blockSize) ;
-				
-				pool.data[blockIdx][innerIdx] = elems[setSz] ;
-				cursor = pool.links[blockIdx][innerIdx] ;
+				pool.setData(cursor, elems[setSz]) ;
+				cursor = pool.getLink(cursor) ;
 				
 				setSz++ ;
 			}
@@ -938,27 +1326,15 @@ final public class BigLinkedIntListPool {
 		public Integer setFromHead(int idx, Integer elem) {
 			if (idx >= size) return null ;
 			
-			int blockSize = pool.blockSize ;
-			int[][] links = pool.links ;
-			
-			int blockIdx ;
-			int innerIdx ;
-			
 			int cursor = this.headLinkIdx ;
 			
 			for (int i = idx-1 ; i >= 0 ; i--) {
-				blockIdx = cursor / blockSize ;
-				innerIdx = cursor % blockSize ;
-				
-				cursor = links[blockIdx][innerIdx] ;
+				cursor = pool.getLink(cursor) ;
 			}
 			
-			blockIdx = cursor / blockSize ;
-			innerIdx = cursor % blockSize ;
-			
-			int prevData = pool.data[blockIdx][innerIdx] ;
+			int prevData = pool.getData(cursor) ;
 			
-			pool.data[blockIdx][innerIdx] = elem ;
+			pool.setData(cursor, elem) ;
 			
 			return prevData ;
 		}
@@ -966,28 +1342,15 @@ final public class BigLinkedIntListPool {
 		public Integer setFromTail(int idx, Integer elem) {
 			if (idx >= size) return null ;
 			
-			int blockSize = pool.blockSize ;
-			int[][] linksReversed = pool.linksReversed;
-			
-			int blockIdx ;
-			int innerIdx ;
-			
 			int cursor = this.tailLinkIdx ;
 			
 			for (int i = (size-idx)-2 ; i >= 0 ; i--) {
-				blockIdx = cursor / blockSize ;
-				innerIdx = cursor % blockSize ;
-				
-				
-				cursor = linksReversed[blockIdx][innerIdx] ;
+				cursor = pool.getLinkReversed(cursor) ;
 			}
 			
-			blockIdx = cursor / blockSize ;
-			innerIdx = cursor % blockSize ;
-			
-			int prevData = pool.data[blockIdx][innerIdx] ;
+			int prevData = pool.getData(cursor) ;
 			
-			pool.data[blockIdx][innerIdx] = elem ;
+			pool.setData(cursor, elem) ;
 			
 			return prevData ;
 		}
@@ -1029,15 +1392,7 @@ final public class BigLinkedIntListPool {
 		
 		public int[] toIntArray() {
 			int[] a = new int[size] ;
-			int aSz = 0 ;
-			
-			int cursor = this.headLinkIdx ;
-			
-			while ( aSz < size ) {
-				a[aSz++] = pool.getData(cursor);
-				cursor = pool.getLink(cursor);
-			}
-			
+			pool.copyData(headLinkIdx, a, 0, size) ;
 			return a ;
 		}
 		
@@ -1052,6 +1407,7 @@ final public class BigLinkedIntListPool {
 			while ( copy < length ) {
 				a[off++] = pool.getData(cursor);
 				cursor = pool.getLink(cursor);
+				copy++ ;
 			}
 		}
 		
@@ -1060,13 +1416,7 @@ final public class BigLinkedIntListPool {
 		}
 		
 		public void copyIntoArray(int[] a, int off, int length) {
-			int cursor = this.headLinkIdx ;
-			
-			int copy = 0 ;
-			while ( copy < length ) {
-				a[off++] = pool.getData(cursor);
-				cursor = pool.getLink(cursor);
-			}
+			pool.copyData(headLinkIdx, a, off, length) ;
 		}
 		
 		public Iterator<Integer> iterator() {
@@ -1096,6 +1446,58 @@ final public class BigLinkedIntListPool {
 			};
 		}
 		
+		public void forEachInt(IntConsumer consumer) {
+			pool.forEachData(headLinkIdx, size, consumer);
+		}
+		
+		public BigLinkedIntListCursor cursor() {
+			return new BigLinkedIntListCursor(pool, headLinkIdx, size) ;
+		}
+		
+		public int removeIf(IntPredicate filter) {
+			int size = this.size ;
+			
+			int cursor = this.headLinkIdx ;
+			int prevCursor = 0 ;
+			int removed = 0 ;
+			
+			for (int i = 0; i < size; i++) {
+				boolean last = i == size-1 ;
+				
+				// The link of the last element isn't valid:
+				int next = last ? 0 : pool.getLink(cursor) ;
+				
+				if ( filter.test( pool.getData(cursor) ) ) {
+					if (prevCursor == 0) {
+						this.headLinkIdx = next ;
+					}
+					else if (!last) {
+						pool.setLink(prevCursor, next);
+					}
+					
+					if (last) {
+						this.tailLinkIdx = prevCursor ;
+					}
+					
+					pool.releaseIndex(cursor);
+					removed++ ;
+				}
+				else {
+					prevCursor = cursor ;
+				}
+				
+				cursor = next ;
+			}
+			
+			this.size -= removed ;
+			
+			if (this.size == 0) {
+				this.headLinkIdx = this.tailLinkIdx = 0 ;
+			}
+			
+			return removed ;
+		}
+		
 		@Override
 		public String toString() {
 			return "[ head:"+ headLinkIdx +" ... tail:"+ tailLinkIdx +" ; size: "+ size +"]" ;
@@ -1235,29 +1637,17 @@ final public class BigLinkedIntListPool {
 				return removeLast() ;
 			}
 			
-			int blockSize = pool.blockSize ;
-			int[][] links = pool.links ;
-			
-			int blockIdx ;
-			int innerIdx ;
-			
 			int cursor = this.headLinkIdx ;
 			int prevCursor = cursor ;
 			
 			for (int i = idx-1 ; i >= 0 ; i--) {
-				blockIdx = cursor / blockSize ;
-				innerIdx = cursor % blockSize ;
-				
 				prevCursor = cursor ;
-				cursor = links[blockIdx][innerIdx] ;
+				cursor = pool.getLink(cursor) ;
 			}
 			
-			blockIdx = cursor / blockSize ;
-			innerIdx = cursor % blockSize ;
+			int prevData = pool.getData(cursor) ;
 			
-			int prevData = pool.data[blockIdx][innerIdx] ;
-			
-			int linkNext = pool.links[blockIdx][innerIdx] ;
+			int linkNext = pool.getLink(cursor) ;
 			
 			pool.setLink(prevCursor, linkNext);
 			
@@ -1304,50 +1694,25 @@ final public class BigLinkedIntListPool {
 		public Integer getFromHead(int idx) {
 			if (idx >= size) return null ;
 			
-			int blockSize = pool.blockSize ;
-			int[][] links = pool.links ;
-			
-			int blockIdx ;
-			int innerIdx ;
-			
 			int cursor = this.headLinkIdx ;
 			
 			for (int i = idx-1 ; i >= 0 ; i--) {
-				blockIdx = cursor / blockSize ;
-				innerIdx = cursor % blockSize ;
-				
-				cursor = links[blockIdx][innerIdx] ;
+				cursor = pool.getLink(cursor) ;
 			}
 			
-			blockIdx = cursor / blockSize ;
-			innerIdx = cursor % blockSize ;
-			
-			return pool.data[blockIdx][innerIdx] ;
+			return pool.getData(cursor) ;
 		}
 		
 		public Integer getFromTail(int idx) {
 			if (idx >= size) return null ;
 			
-			int blockSize = pool.blockSize ;
-			int[][] linksReversed = pool.linksReversed;
-			
-			int blockIdx ;
-			int innerIdx ;
-			
 			int cursor = this.tailLinkIdx ;
 			
 			for (int i = (size-idx)-2 ; i >= 0 ; i--) {
-				blockIdx = cursor / blockSize ;
-				innerIdx = cursor % blockSize ;
-				
-				
-				cursor = linksReversed[blockIdx][innerIdx] ;
+				cursor = pool.getLinkReversed(cursor) ;
 			}
 			
-			blockIdx = cursor / blockSize ;
-			innerIdx = cursor % blockSize ;
-			
-			return pool.data[blockIdx][innerIdx] ;
+			return pool.getData(cursor) ;
 		}
 		
 		public void setAll(List<Integer> elems) {
@@ -1365,20 +1730,12 @@ final public class BigLinkedIntListPool {
 				while ( size < elemsSz ) ;
 			}
 			
-			int blockSize = pool.blockSize ;
-			
 			int cursor = this.headLinkIdx ;
 			int setSz = 0 ;
 			
-			int blockIdx ;
-			int innerIdx ;
-			
 			while ( setSz < size ) {
-				blockIdx = cursor / blockSize ;
-				innerIdx = cursor - (blockIdx*blockSize) ;
-				
-				pool.data[blockIdx][innerIdx] = elems.get(setSz) ;
-				cursor = pool.links[blockIdx][innerIdx] ;
+				pool.setData(cursor, elems.get(setSz)) ;
+				cursor = pool.getLink(cursor) ;
 				
 				setSz++ ;
 			}
@@ -1400,20 +1757,12 @@ final public class BigLinkedIntListPool {
 				while ( size < elems.length ) ;
 			}
 			
-			int blockSize = pool.blockSize ;
-			
 			int cursor = this.headLinkIdx ;
 			int setSz = 0 ;
 			
-			int blockIdx ;
-			int innerIdx ;
-			
 			while ( setSz < size ) {
-				blockIdx = cursor / blockSize ;
-				innerIdx = cursor - (blockIdx*blockSize) ;
-				
-				pool.data[blockIdx][innerIdx] = elems[setSz] ;
-				cursor = pool.links[blockIdx][innerIdx] ;
+				pool.setData(cursor, elems[setSz]) ;
+				cursor = pool.getLink(cursor) ;
 				
 				setSz++ ;
 			}
@@ -1435,20 +1784,12 @@ final public class BigLinkedIntListPool {
 				while ( size < elems.length ) ;
 			}
 			
-			int blockSize = pool.blockSize ;
-			
 			int cursor = this.headLinkIdx ;
 			int setSz = 0 ;
 			
-			int blockIdx ;
-			int innerIdx ;
-			
 			while ( setSz < size ) {
-				blockIdx = cursor / blockSize ;
-				innerIdx = cursor - (blockIdx*blockSize) ;
-				
-				pool.data[blockIdx][innerIdx] = elems[setSz] ;
-				cursor = pool.links[blockIdx][innerIdx] ;
+				pool.setData(cursor, elems[setSz]) ;
+				cursor = pool.getLink(cursor) ;
 				
 				setSz++ ;
 			}
@@ -1472,27 +1813,15 @@ final public class BigLinkedIntListPool {
 		public Integer setFromHead(int idx, Integer elem) {
 			if (idx >= size) return null ;
 			
-			int blockSize = pool.blockSize ;
-			int[][] links = pool.links ;
-			
-			int blockIdx ;
-			int innerIdx ;
-			
 			int cursor = this.headLinkIdx ;
 			
 			for (int i = idx-1 ; i >= 0 ; i--) {
-				blockIdx = cursor / blockSize ;
-				innerIdx = cursor % blockSize ;
-				
-				cursor = links[blockIdx][innerIdx] ;
+				cursor = pool.getLink(cursor) ;
 			}
 			
-			blockIdx = cursor / blockSize ;
-			innerIdx = cursor % blockSize ;
-			
-			int prevData = pool.data[blockIdx][innerIdx] ;
+			int prevData = pool.getData(cursor) ;
 			
-			pool.data[blockIdx][innerIdx] = elem ;
+			pool.setData(cursor, elem) ;
 			
 			return prevData ;
 		}
@@ -1500,28 +1829,15 @@ final public class BigLinkedIntListPool {
 		public Integer setFromTail(int idx, Integer elem) {
 			if (idx >= size) return null ;
 			
-			int blockSize = pool.blockSize ;
-			int[][] linksReversed = pool.linksReversed;
-			
-			int blockIdx ;
-			int innerIdx ;
-			
 			int cursor = this.tailLinkIdx ;
 			
 			for (int i = (size-idx)-2 ; i >= 0 ; i--) {
-				blockIdx = cursor / blockSize ;
-				innerIdx = cursor % blockSize ;
-				
-				
-				cursor = linksReversed[blockIdx][innerIdx] ;
+				cursor = pool.getLinkReversed(cursor) ;
 			}
 			
-			blockIdx = cursor / blockSize ;
-			innerIdx = cursor % blockSize ;
-			
-			int prevData = pool.data[blockIdx][innerIdx] ;
+			int prevData = pool.getData(cursor) ;
 			
-			pool.data[blockIdx][innerIdx] = elem ;
+			pool.setData(cursor, elem) ;
 			
 			return prevData ;
 		}
@@ -1563,15 +1879,7 @@ final public class BigLinkedIntListPool {
 		
 		public int[] toIntArray() {
 			int[] a = new int[size] ;
-			int aSz = 0 ;
-			
-			int cursor = this.headLinkIdx ;
-			
-			while ( aSz < size ) {
-				a[aSz++] = pool.getData(cursor);
-				cursor = pool.getLink(cursor);
-			}
-			
+			pool.copyData(headLinkIdx, a, 0, size) ;
 			return a ;
 		}
 		
@@ -1586,6 +1894,7 @@ final public class BigLinkedIntListPool {
 			while ( copy < length ) {
 				a[off++] = pool.getData(cursor);
 				cursor = pool.getLink(cursor);
+				copy++ ;
 			}
 		}
 		
@@ -1594,13 +1903,7 @@ final public class BigLinkedIntListPool {
 		}
 		
 		public void copyIntoArray(int[] a, int off, int length) {
-			int cursor = this.headLinkIdx ;
-			
-			int copy = 0 ;
-			while ( copy < length ) {
-				a[off++] = pool.getData(cursor);
-				cursor = pool.getLink(cursor);
-			}
+			pool.copyData(headLinkIdx, a, off, length) ;
 		}
 		
 		public Iterator<Integer> iterator() {
@@ -1630,6 +1933,70 @@ final public class BigLinkedIntListPool {
 			};
 		}
 		
+		public void forEachInt(IntConsumer consumer) {
+			pool.forEachData(headLinkIdx, size, consumer);
+		}
+		
+		public BigLinkedIntListCursor cursor() {
+			return new BigLinkedIntListCursor(pool, headLinkIdx, size) ;
+		}
+		
+		public int removeIf(IntPredicate filter) {
+			int size = this.size ;
+			
+			int cursor = this.headLinkIdx ;
+			int prevCursor = 0 ;
+			int removed = 0 ;
+			
+			for (int i = 0; i < size; i++) {
+				boolean last = i == size-1 ;
+				
+				// The link of the last element isn't valid:
+				int next = last ? 0 : pool.getLink(cursor) ;
+				
+				if ( filter.test( pool.getData(cursor) ) ) {
+					if (prevCursor == 0) {
+						this.headLinkIdx = next ;
+					}
+					else if (!last) {
+						pool.setLink(prevCursor, next);
+					}
+					
+					if (last) {
+						this.tailLinkIdx = prevCursor ;
+					}
+					
+					pool.releaseIndex(cursor);
+					removed++ ;
+				}
+				else {
+					prevCursor = cursor ;
+				}
+				
+				cursor = next ;
+			}
+			
+			this.size -= removed ;
+			
+			if (this.size == 0) {
+				this.headLinkIdx = this.tailLinkIdx = 0 ;
+			}
+			
+			return removed ;
+		}
+		
+		protected int[] getState() {
+			return new int[] { headLinkIdx , tailLinkIdx , size } ;
+		}
+		
+		protected void setState(int[] state) {
+			if (this.size != 0) throw new IllegalStateException("List not empty") ;
+			
+			this.headLinkIdx = state[0] ;
+			this.tailLinkIdx = state[1] ;
+			this.size = state[2] ;
+		}
+		
 		@Override
 		public String toString() {
 			return "[ head:"+ headLinkIdx +" ... tail:"+ tailLinkIdx +" ; size: "+ size +"]" ;
@@ -1639,9 +2006,8 @@ final public class BigLinkedIntListPool {
 	public long getUsedMemory() {
 		long total = 0 ;
 		
-		total += this.links.length * (blockSize * 4L) ;
-		total += this.linksReversed.length * (blockSize * 4L) ;
-		total += this.data.length * (blockSize * 8L) ;
+		// links, linksReversed and data:
+		total += getBlocks() * (blockSize * 4L * 3) ;
 		
 		return total ;
 	}
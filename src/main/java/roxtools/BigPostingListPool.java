@@ -0,0 +1,530 @@
+package roxtools;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+import org.slf4j.Logger;
+
+/**
+ * A pool of compressed, sorted and append-only int lists (posting lists), a compact
+ * alternative to {@link BigLinkedIntListPool} for lists of sorted ids.
+ * <p>
+ * A list is a linked list of fixed size chunks, instead of a linked list of ints. Each chunk has a header
+ * [next chunk, first value, last value, count, used bytes] and the deltas between its values encoded as variable-byte ints.
+ * {@link Cursor#skipTo(int)} skips whole chunks using the header last value, without decoding them.
+ * <p>
+ * Lists aren't released automatically: call {@link BigPostingList#clear()} to release the chunks of a list.
+ */
+final public class BigPostingListPool {
+	
+	private static final Logger LOG = getLogger(BigPostingListPool.class);
+	
+	static final private int HEADER_INTS = 5 ;
+	static final private int HEADER_NEXT = 0 ;
+	static final private int HEADER_FIRST = 1 ;
+	static final private int HEADER_LAST = 2 ;
+	static final private int HEADER_COUNT = 3 ;
+	static final private int HEADER_BYTES = 4 ;
+	
+	// Max size of a variable-byte int:
+	static final private int MAX_VARINT_SIZE = 5 ;
+	
+	final protected int blockChunks ;
+	final protected int chunkBytes ;
+	
+	private int chunksCapacity ;
+	
+	private int[][] headers ;
+	private byte[][] data ;
+	
+	public BigPostingListPool() {
+		this(1, 1024*4, 128) ;
+	}
+	
+	/**
+	 * @param blockChunks Number of chunks per allocated block.
+	 * @param chunkBytes Size of the compressed data of each chunk.
+	 */
+	public BigPostingListPool(int initalBlocks, int blockChunks, int chunkBytes) {
+		if (chunkBytes < MAX_VARINT_SIZE) throw new IllegalArgumentException("chunkBytes < "+ MAX_VARINT_SIZE +": "+ chunkBytes) ;
+		
+		this.blockChunks = blockChunks ;
+		this.chunkBytes = chunkBytes ;
+		
+		this.headers = new int[initalBlocks][blockChunks * HEADER_INTS] ;
+		this.data = new byte[initalBlocks][blockChunks * chunkBytes] ;
+		
+		// Chunk 0 is the null chunk:
+		this.chunksCapacity = (initalBlocks * blockChunks) -1 ;
+	}
+	
+	public int capacity() {
+		return chunksCapacity ;
+	}
+	
+	/**
+	 * @return Number of used chunks.
+	 */
+	public int size() {
+		return chunksSize ;
+	}
+	
+	private void addBlock() {
+		
+		synchronized (freeChunk_MUTEX) {
+			int prevSize = headers.length ;
+			int newSize = prevSize+1 ;
+			
+			int[][] headers2 = new int[newSize][] ;
+			byte[][] data2 = new byte[newSize][] ;
+			
+			System.arraycopy(headers, 0, headers2, 0, prevSize);
+			System.arraycopy(data, 0, data2, 0, prevSize);
+			
+			headers2[prevSize] = new int[blockChunks * HEADER_INTS] ;
+			data2[prevSize] = new byte[blockChunks * chunkBytes] ;
+			
+			this.headers = headers2 ;
+			this.data = data2 ;
+			
+			chunksCapacity += blockChunks ;
+		}
+		
+		LOG.trace("ADDED BLOCK> chunks size/capacity: {} / {} ; memory: {}KB", this.chunksSize , this.chunksCapacity , (getUsedMemory()/1024) );
+		
+	}
+	
+	final private Mutex freeChunk_MUTEX = new Mutex() ;
+	
+	private int chunksSize = 0 ;
+	private int freeChunk = 1 ;
+	
+	protected int nextFreeChunk() {
+		
+		synchronized (freeChunk_MUTEX) {
+			if (chunksSize == chunksCapacity) {
+				addBlock();
+			}
+			
+			int freeChunk = this.freeChunk ;
+			int nextFreeChunk = getHeader(freeChunk, HEADER_NEXT) ;
+			
+			if (nextFreeChunk == 0) {
+				this.freeChunk = freeChunk +1 ;
+			}
+			else {
+				this.freeChunk = nextFreeChunk ;
+				setHeader(freeChunk, HEADER_NEXT, 0) ;
+			}
+			
+			chunksSize++ ;
+			
+			return freeChunk ;
+		}
+	}
+	
+	protected void releaseChunk(int chunk) {
+		synchronized (freeChunk_MUTEX) {
+			setHeader(chunk, HEADER_NEXT, this.freeChunk) ;
+			this.freeChunk = chunk ;
+			
+			this.chunksSize-- ;
+		}
+	}
+	
+	protected int getHeader(int chunk, int field) {
+		int blockIdx = chunk / blockChunks ;
+		int innerIdx = chunk - (blockIdx*blockChunks) ;
+		return this.headers[blockIdx][innerIdx*HEADER_INTS + field] ;
+	}
+	
+	protected void setHeader(int chunk, int field, int val) {
+		int blockIdx = chunk / blockChunks ;
+		int innerIdx = chunk - (blockIdx*blockChunks) ;
+		this.headers[blockIdx][innerIdx*HEADER_INTS + field] = val ;
+	}
+	
+	public BigPostingList createPostingList() {
+		return new BigPostingList(this) ;
+	}
+	
+	public long getUsedMemory() {
+		return headers.length * ( (blockChunks * HEADER_INTS * 4L) + (blockChunks * (long) chunkBytes) ) ;
+	}
+	
+	////////////////////////////////////////////////
+	
+	/**
+	 * @return A new list of this pool with the values present in both {@code a} and {@code b}.
+	 */
+	public BigPostingList intersect(BigPostingList a, BigPostingList b) {
+		BigPostingList result = createPostingList() ;
+		
+		if ( a.isEmpty() || b.isEmpty() ) return result ;
+		
+		// Leapfrog: each cursor skips to the current value of the other one.
+		Cursor cursorA = a.cursor() ;
+		Cursor cursorB = b.cursor() ;
+		
+		if ( !cursorA.next() || !cursorB.next() ) return result ;
+		
+		while (true) {
+			int valA = cursorA.value() ;
+			int valB = cursorB.value() ;
+			
+			if (valA == valB) {
+				result.add(valA);
+				if ( !cursorA.next() || !cursorB.next() ) break ;
+			}
+			else if (valA < valB) {
+				if ( !cursorA.skipTo(valB) ) break ;
+			}
+			else {
+				if ( !cursorB.skipTo(valA) ) break ;
+			}
+		}
+		
+		return result ;
+	}
+	
+	/**
+	 * @return A new list of this pool with the values present in {@code a} or {@code b}.
+	 */
+	public BigPostingList union(BigPostingList a, BigPostingList b) {
+		BigPostingList result = createPostingList() ;
+		
+		Cursor cursorA = a.cursor() ;
+		Cursor cursorB = b.cursor() ;
+		
+		boolean hasA = cursorA.next() ;
+		boolean hasB = cursorB.next() ;
+		
+		while (hasA && hasB) {
+			int valA = cursorA.value() ;
+			int valB = cursorB.value() ;
+			
+			if (valA < valB) {
+				result.add(valA);
+				hasA = cursorA.next() ;
+			}
+			else if (valB < valA) {
+				result.add(valB);
+				hasB = cursorB.next() ;
+			}
+			else {
+				result.add(valA);
+				hasA = cursorA.next() ;
+				hasB = cursorB.next() ;
+			}
+		}
+		
+		while (hasA) {
+			result.add(cursorA.value());
+			hasA = cursorA.next() ;
+		}
+		
+		while (hasB) {
+			result.add(cursorB.value());
+			hasB = cursorB.next() ;
+		}
+		
+		return result ;
+	}
+	
+	////////////////////////////////////////////////
+	
+	final static public class BigPostingList {
+		final private BigPostingListPool pool ;
+		private int headChunk ;
+		private int tailChunk ;
+		private int size ;
+		
+		private BigPostingList(BigPostingListPool pool) {
+			this.pool = pool ;
+			this.headChunk = this.tailChunk = 0 ;
+			this.size = 0 ;
+		}
+		
+		public BigPostingListPool getPool() {
+			return pool;
+		}
+		
+		public int size() {
+			return size ;
+		}
+		
+		public boolean isEmpty() {
+			return size == 0 ;
+		}
+		
+		/**
+		 * @param elem Must be greater than the last value of the list.
+		 */
+		public void add(int elem) {
+			BigPostingListPool pool = this.pool ;
+			
+			if (size == 0) {
+				this.headChunk = this.tailChunk = newChunk(elem) ;
+				this.size = 1 ;
+				return ;
+			}
+			
+			int tailChunk = this.tailChunk ;
+			int last = pool.getHeader(tailChunk, HEADER_LAST) ;
+			
+			if (elem <= last) throw new IllegalArgumentException("Value not greater than last value: "+ elem +" <= "+ last) ;
+			
+			// Unsigned delta, so any pair of ints fits:
+			int delta = elem - last ;
+			int used = pool.getHeader(tailChunk, HEADER_BYTES) ;
+			
+			if ( used + varIntSize(delta) > pool.chunkBytes ) {
+				int chunk = newChunk(elem) ;
+				pool.setHeader(tailChunk, HEADER_NEXT, chunk) ;
+				this.tailChunk = chunk ;
+			}
+			else {
+				int blockIdx = tailChunk / pool.blockChunks ;
+				int innerIdx = tailChunk - (blockIdx*pool.blockChunks) ;
+				
+				byte[] data = pool.data[blockIdx] ;
+				int pos = (innerIdx * pool.chunkBytes) + used ;
+				
+				while ( (delta & ~0x7F) != 0 ) {
+					data[pos++] = (byte) ((delta & 0x7F) | 0x80) ;
+					delta >>>= 7 ;
+				}
+				data[pos++] = (byte) delta ;
+				
+				pool.setHeader(tailChunk, HEADER_BYTES, pos - (innerIdx * pool.chunkBytes)) ;
+				pool.setHeader(tailChunk, HEADER_COUNT, pool.getHeader(tailChunk, HEADER_COUNT) +1) ;
+				pool.setHeader(tailChunk, HEADER_LAST, elem) ;
+			}
+			
+			this.size++ ;
+		}
+		
+		private int newChunk(int first) {
+			int chunk = pool.nextFreeChunk() ;
+			
+			pool.setHeader(chunk, HEADER_NEXT, 0) ;
+			pool.setHeader(chunk, HEADER_FIRST, first) ;
+			pool.setHeader(chunk, HEADER_LAST, first) ;
+			pool.setHeader(chunk, HEADER_COUNT, 1) ;
+			pool.setHeader(chunk, HEADER_BYTES, 0) ;
+			
+			return chunk ;
+		}
+		
+		/**
+		 * @param elems Sorted values, greater than the last value of the list.
+		 */
+		public void addAll(int[] elems) {
+			addAll(elems, 0, elems.length);
+		}
+		
+		public void addAll(int[] elems, int off, int length) {
+			int limit = off+length ;
+			
+			for (int i = off; i < limit; i++) {
+				add( elems[i] );
+			}
+		}
+		
+		/**
+		 * Releases all the chunks of this list.
+		 */
+		public void clear() {
+			int chunk = this.headChunk ;
+			
+			while (chunk != 0) {
+				int next = pool.getHeader(chunk, HEADER_NEXT) ;
+				pool.releaseChunk(chunk);
+				chunk = next ;
+			}
+			
+			this.headChunk = this.tailChunk = 0 ;
+			this.size = 0 ;
+		}
+		
+		public Integer getFirst() {
+			if (size == 0) return null ;
+			return pool.getHeader(headChunk, HEADER_FIRST) ;
+		}
+		
+		public Integer getLast() {
+			if (size == 0) return null ;
+			return pool.getHeader(tailChunk, HEADER_LAST) ;
+		}
+		
+		public boolean contains(int elem) {
+			Cursor cursor = cursor() ;
+			return cursor.skipTo(elem) && cursor.value() == elem ;
+		}
+		
+		/**
+		 * @return The number of chunks used by this list.
+		 */
+		public int getChunks() {
+			int count = 0 ;
+			
+			int chunk = this.headChunk ;
+			while (chunk != 0) {
+				count++ ;
+				chunk = pool.getHeader(chunk, HEADER_NEXT) ;
+			}
+			
+			return count ;
+		}
+		
+		public Cursor cursor() {
+			return new Cursor(this) ;
+		}
+		
+		public int[] toIntArray() {
+			int[] a = new int[size] ;
+			int aSz = 0 ;
+			
+			Cursor cursor = cursor() ;
+			while ( cursor.next() ) {
+				a[aSz++] = cursor.value() ;
+			}
+			
+			return a ;
+		}
+		
+		@Override
+		public String toString() {
+			return "[ head:"+ headChunk +" ... tail:"+ tailChunk +" ; size: "+ size +"]" ;
+		}
+	}
+	
+	static private int varIntSize(int val) {
+		if ( (val & (0xFFFFFFFF << 7)) == 0 ) return 1 ;
+		if ( (val & (0xFFFFFFFF << 14)) == 0 ) return 2 ;
+		if ( (val & (0xFFFFFFFF << 21)) == 0 ) return 3 ;
+		if ( (val & (0xFFFFFFFF << 28)) == 0 ) return 4 ;
+		return 5 ;
+	}
+	
+	/**
+	 * A forward cursor over a {@link BigPostingList}. Doesn't allocate while iterating.
+	 * <p>
+	 * Usage: {@code while ( cursor.next() ) { cursor.value() ... }}
+	 */
+	final static public class Cursor {
+		final private BigPostingListPool pool ;
+		
+		private int chunk ;
+		private int chunkCount ;
+		private int chunkIdx ;
+		
+		private byte[] data ;
+		private int dataPos ;
+		
+		private int value ;
+		private boolean started ;
+		
+		private Cursor(BigPostingList list) {
+			this.pool = list.pool ;
+			this.chunk = list.headChunk ;
+			
+			if (chunk != 0) enterChunk() ;
+		}
+		
+		private void enterChunk() {
+			BigPostingListPool pool = this.pool ;
+			
+			int blockIdx = chunk / pool.blockChunks ;
+			int innerIdx = chunk - (blockIdx*pool.blockChunks) ;
+			
+			this.data = pool.data[blockIdx] ;
+			this.dataPos = innerIdx * pool.chunkBytes ;
+			this.chunkCount = pool.getHeader(chunk, HEADER_COUNT) ;
+			this.chunkIdx = 0 ;
+		}
+		
+		/**
+		 * Moves to the next value.
+		 *
+		 * @return false if there are no more values.
+		 */
+		public boolean next() {
+			while (true) {
+				if (chunk == 0) return false ;
+				
+				if (chunkIdx < chunkCount) {
+					if (chunkIdx == 0) {
+						value = pool.getHeader(chunk, HEADER_FIRST) ;
+					}
+					else {
+						value += readVarInt() ;
+					}
+					
+					chunkIdx++ ;
+					started = true ;
+					return true ;
+				}
+				
+				chunk = pool.getHeader(chunk, HEADER_NEXT) ;
+				if (chunk != 0) enterChunk() ;
+			}
+		}
+		
+		private int readVarInt() {
+			byte[] data = this.data ;
+			int pos = this.dataPos ;
+			
+			int b = data[pos++] ;
+			int val = b & 0x7F ;
+			int shift = 7 ;
+			
+			while (b < 0) {
+				b = data[pos++] ;
+				val |= (b & 0x7F) << shift ;
+				shift += 7 ;
+			}
+			
+			this.dataPos = pos ;
+			return val ;
+		}
+		
+		/**
+		 * Moves forward to the first value greater than or equal to {@code target}.
+		 * Stays at the current value if it already satisfies {@code target}.
+		 *
+		 * @return false if there's no such value.
+		 */
+		public boolean skipTo(int target) {
+			if (chunk == 0) return false ;
+			
+			if (started && value >= target) return true ;
+			
+			// Skip the chunks that only have smaller values:
+			while ( pool.getHeader(chunk, HEADER_LAST) < target ) {
+				chunk = pool.getHeader(chunk, HEADER_NEXT) ;
+				if (chunk == 0) return false ;
+				
+				enterChunk();
+			}
+			
+			while ( next() ) {
+				if (value >= target) return true ;
+			}
+			
+			return false ;
+		}
+		
+		/**
+		 * @return The current value. Only valid after {@link #next()} or {@link #skipTo(int)} returns true.
+		 */
+		public int value() {
+			return value ;
+		}
+	}
+	
+	@Override
+	public String toString() {
+		return this.getClass().getName() +"[chunks size: "+ chunksSize +" ; capacity: "+ chunksCapacity +" ; memory: "+ (getUsedMemory()/1024) +"KB]";
+	}
+
+}
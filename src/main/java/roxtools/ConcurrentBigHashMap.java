@@ -0,0 +1,977 @@
+package roxtools;
+
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * A concurrent version of {@link BigHashMap}, that can replace a {@link java.util.concurrent.ConcurrentHashMap}
+ * without creating a {@code Node} object for each entry.
+ * <p>
+ * The keys are distributed by hashcode over independent segments. Each segment has the same internal
+ * data structure of {@link BigHashMap}: blocks of memory with the keys, values, hashcodes and links of the
+ * groups linked lists, and a table of groups with the minimal and maximal hashcode of each group (avoiding
+ * the search of keys not stored in a group). Each segment is protected by its own {@link StampedLock}.
+ * <p>
+ * Reads don't lock: a read is done optimistically over the arrays of the segment, and is validated
+ * by the stamp of the segment lock (a write publishes its changes when it releases the lock). Only a read
+ * that overlaps a write in the same segment is repeated with a read lock.
+ * <p>
+ * Null keys and values are not allowed. The iterators are weakly consistent: each segment is
+ * iterated over a snapshot of its entries, taken when the iterator reaches the segment.
+ *
+ * @param <K>
+ * @param <V>
+ */
+final public class ConcurrentBigHashMap<K,V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>, Iterable<K> {
+
+	private static final int MASK_REMOVE_NEGATIVE_SIGN = 0x7FFFFFFF;
+
+	static final private int GROUPS_ATTRS = 5 ;
+
+	static final private int IDX_INIT = 0 ;
+	static final private int IDX_END = 1 ;
+	static final private int IDX_TOTAL = 2 ;
+	static final private int IDX_MIN_HASH = 3 ;
+	static final private int IDX_MAX_HASH = 4 ;
+
+	static final public int DEFAULT_SEGMENTS = 16 ;
+	static final public int DEFAULT_INITIAL_GROUPS = 100 ;
+	static final public int DEFAULT_GROUP_SIZE_AVERAGE = 10 ;
+	static final public int DEFAULT_MEMORY_BLOCK_SIZE = 1024*4 ;
+
+	/**
+	 * A {@link BigHashMap} without the Map API. The group attributes are accessed with offsets in
+	 * local variables (not with {@code groupSetInternals()}), since readers run concurrently.
+	 * Writes should hold the write lock.
+	 */
+	static final private class Segment extends StampedLock {
+		private static final long serialVersionUID = 1L;
+
+		final int groupSizeAverage ;
+		final int memoryBlockSize ;
+
+		Object[][] memKeys ;
+		Object[][] memVals ;
+		int[][] memNext ;
+		int[][] memHash ;
+
+		int memSize ;
+		int memCapacity ;
+
+		int[] groupsMem ;
+
+		volatile int size ;
+		int removeCount ;
+		int threshold ;
+
+		Segment(int initialGroups, int groupSizeAverage, int memoryBlockSize) {
+			int initialMemory = initialGroups * groupSizeAverage ;
+
+			int blocks = initialMemory / memoryBlockSize ;
+			if ( initialMemory % memoryBlockSize != 0 ) blocks++ ;
+
+			this.memKeys = new Object[blocks][] ;
+			this.memVals = new Object[blocks][] ;
+			this.memNext = new int[blocks][] ;
+			this.memHash = new int[blocks][] ;
+
+			for (int i = 0; i < blocks; i++) {
+				memKeys[i] = new Object[memoryBlockSize] ;
+				memVals[i] = new Object[memoryBlockSize] ;
+				memNext[i] = new int[memoryBlockSize] ;
+				memHash[i] = new int[memoryBlockSize] ;
+			}
+
+			this.memCapacity = blocks * memoryBlockSize ;
+
+			this.groupsMem = createGroups(initialGroups) ;
+
+			this.groupSizeAverage = groupSizeAverage ;
+			this.memoryBlockSize = memoryBlockSize ;
+
+			this.threshold = initialGroups * groupSizeAverage ;
+		}
+
+		static private int[] createGroups(int totalGroups) {
+			int[] groupsMem = new int[totalGroups*GROUPS_ATTRS] ;
+
+			for (int i = 0; i < groupsMem.length; i += GROUPS_ATTRS) {
+				groupsMem[i+IDX_INIT] = -1 ;
+				groupsMem[i+IDX_END] = -1 ;
+			}
+
+			return groupsMem ;
+		}
+
+		int groupsTotal() {
+			return groupsMem.length / GROUPS_ATTRS ;
+		}
+
+		private void ensureMemoryCapacity(int capacity) {
+			while (memCapacity < capacity) {
+				int prevMemBlocks = memKeys.length ;
+				int newMemBlocks = prevMemBlocks + 1 ;
+
+				Object[][] keys2 = new Object[newMemBlocks][] ;
+				System.arraycopy(memKeys, 0, keys2, 0, prevMemBlocks);
+				keys2[prevMemBlocks] = new Object[memoryBlockSize] ;
+
+				Object[][] vals2 = new Object[newMemBlocks][] ;
+				System.arraycopy(memVals, 0, vals2, 0, prevMemBlocks);
+				vals2[prevMemBlocks] = new Object[memoryBlockSize] ;
+
+				int[][] next2 = new int[newMemBlocks][] ;
+				System.arraycopy(memNext, 0, next2, 0, prevMemBlocks);
+				next2[prevMemBlocks] = new int[memoryBlockSize] ;
+
+				int[][] hash2 = new int[newMemBlocks][] ;
+				System.arraycopy(memHash, 0, hash2, 0, prevMemBlocks);
+				hash2[prevMemBlocks] = new int[memoryBlockSize] ;
+
+				memKeys = keys2 ;
+				memVals = vals2 ;
+				memNext = next2 ;
+				memHash = hash2 ;
+
+				memCapacity = newMemBlocks * memoryBlockSize ;
+			}
+		}
+
+		/**
+		 * Safe to be called without lock (optimistic read): the arrays are read once, and the walk
+		 * of the group is bounded, since the links can be changing. A result of an optimistic read is only valid
+		 * after the validation of the stamp.
+		 *
+		 * @return the position of the key, or -1 if not found.
+		 */
+		int positionOf(int hashcode, Object key) {
+			int[] groupsMem = this.groupsMem ;
+			Object[][] memKeys = this.memKeys ;
+			int[][] memHash = this.memHash ;
+			int[][] memNext = this.memNext ;
+
+			int g = ( (hashcode & MASK_REMOVE_NEGATIVE_SIGN) % (groupsMem.length/GROUPS_ATTRS) ) * GROUPS_ATTRS ;
+
+			if ( groupsMem[g+IDX_TOTAL] == 0 ) return -1 ;
+			if ( hashcode < groupsMem[g+IDX_MIN_HASH] || hashcode > groupsMem[g+IDX_MAX_HASH] ) return -1 ;
+
+			int cursor = groupsMem[g+IDX_INIT] ;
+			int limit = memKeys.length * memoryBlockSize ;
+
+			while (cursor >= 0) {
+				if (--limit < 0) return -1 ;
+
+				int blk = cursor/memoryBlockSize ;
+				int blkI = cursor-(blk*memoryBlockSize) ;
+
+				if ( memHash[blk][blkI] == hashcode ) {
+					Object k = memKeys[blk][blkI] ;
+					if ( k == key || (k != null && k.equals(key)) ) return cursor ;
+				}
+
+				cursor = memNext[blk][blkI] ;
+			}
+
+			return -1 ;
+		}
+
+		/**
+		 * Safe to be called without lock (optimistic read).
+		 */
+		Object get(int hashcode, Object key) {
+			int pos = positionOf(hashcode, key) ;
+			if (pos < 0) return null ;
+
+			int blk = pos/memoryBlockSize ;
+			return memVals[blk][ pos-(blk*memoryBlockSize) ] ;
+		}
+
+		Object put(int hashcode, Object key, Object val, boolean onlyIfAbsent) {
+			int pos = positionOf(hashcode, key) ;
+
+			if (pos >= 0) {
+				int blk = pos/memoryBlockSize ;
+				int blkI = pos-(blk*memoryBlockSize) ;
+
+				Object prevVal = memVals[blk][blkI] ;
+				if (!onlyIfAbsent) memVals[blk][blkI] = val ;
+
+				return prevVal ;
+			}
+
+			if (memSize >= threshold) {
+				reHash( groupsTotal()*2 ) ;
+			}
+
+			ensureMemoryCapacity(memSize+1) ;
+
+			pos = memSize++ ;
+
+			int blk = pos/memoryBlockSize ;
+			int blkI = pos-(blk*memoryBlockSize) ;
+
+			memKeys[blk][blkI] = key ;
+			memVals[blk][blkI] = val ;
+			memHash[blk][blkI] = hashcode ;
+			memNext[blk][blkI] = -1 ;
+
+			groupLink(hashcode, pos) ;
+
+			size++ ;
+
+			return null ;
+		}
+
+		/**
+		 * Links a written position at the end of its group.
+		 */
+		private void groupLink(int hashcode, int pos) {
+			int[] groupsMem = this.groupsMem ;
+			int g = ( (hashcode & MASK_REMOVE_NEGATIVE_SIGN) % groupsTotal() ) * GROUPS_ATTRS ;
+
+			if ( groupsMem[g+IDX_TOTAL] > 0 ) {
+				int end = groupsMem[g+IDX_END] ;
+				int blk = end/memoryBlockSize ;
+				int blkI = end-(blk*memoryBlockSize) ;
+				memNext[blk][blkI] = pos ;
+
+				if (hashcode > groupsMem[g+IDX_MAX_HASH]) groupsMem[g+IDX_MAX_HASH] = hashcode ;
+				if (hashcode < groupsMem[g+IDX_MIN_HASH]) groupsMem[g+IDX_MIN_HASH] = hashcode ;
+			}
+			else {
+				groupsMem[g+IDX_INIT] = pos ;
+				groupsMem[g+IDX_MIN_HASH] = groupsMem[g+IDX_MAX_HASH] = hashcode ;
+			}
+
+			groupsMem[g+IDX_END] = pos ;
+			groupsMem[g+IDX_TOTAL]++ ;
+		}
+
+		Object replace(int hashcode, Object key, Object expectedVal, Object val) {
+			int pos = positionOf(hashcode, key) ;
+			if (pos < 0) return null ;
+
+			int blk = pos/memoryBlockSize ;
+			int blkI = pos-(blk*memoryBlockSize) ;
+
+			Object prevVal = memVals[blk][blkI] ;
+
+			if ( expectedVal != null && !expectedVal.equals(prevVal) ) return null ;
+
+			memVals[blk][blkI] = val ;
+
+			return prevVal ;
+		}
+
+		/**
+		 * @param expectedVal If not null, only removes if the current value is equal.
+		 * @return the removed value, or null if not removed.
+		 */
+		Object remove(int hashcode, Object key, Object expectedVal) {
+			int[] groupsMem = this.groupsMem ;
+			int g = ( (hashcode & MASK_REMOVE_NEGATIVE_SIGN) % groupsTotal() ) * GROUPS_ATTRS ;
+
+			if ( groupsMem[g+IDX_TOTAL] == 0 ) return null ;
+			if ( hashcode < groupsMem[g+IDX_MIN_HASH] || hashcode > groupsMem[g+IDX_MAX_HASH] ) return null ;
+
+			int prev = -1 ;
+			int pos = groupsMem[g+IDX_INIT] ;
+
+			while (pos >= 0) {
+				int blk = pos/memoryBlockSize ;
+				int blkI = pos-(blk*memoryBlockSize) ;
+
+				if ( memHash[blk][blkI] == hashcode && memKeys[blk][blkI].equals(key) ) break ;
+
+				prev = pos ;
+				pos = memNext[blk][blkI] ;
+			}
+
+			if (pos < 0) return null ;
+
+			int blk = pos/memoryBlockSize ;
+			int blkI = pos-(blk*memoryBlockSize) ;
+
+			Object prevVal = memVals[blk][blkI] ;
+
+			if ( expectedVal != null && !expectedVal.equals(prevVal) ) return null ;
+
+			int next = memNext[blk][blkI] ;
+
+			memKeys[blk][blkI] = null ;
+			memVals[blk][blkI] = null ;
+			memNext[blk][blkI] = -1 ;
+
+			if (prev >= 0) {
+				blk = prev/memoryBlockSize ;
+				blkI = prev-(blk*memoryBlockSize) ;
+				memNext[blk][blkI] = next ;
+			}
+
+			groupsMem[g+IDX_TOTAL]-- ;
+
+			if ( groupsMem[g+IDX_TOTAL] == 0 ) {
+				groupsMem[g+IDX_INIT] = -1 ;
+				groupsMem[g+IDX_END] = -1 ;
+			}
+			else {
+				if ( groupsMem[g+IDX_INIT] == pos ) groupsMem[g+IDX_INIT] = next ;
+				if ( groupsMem[g+IDX_END] == pos ) groupsMem[g+IDX_END] = prev ;
+
+				if ( groupsMem[g+IDX_MIN_HASH] == hashcode || groupsMem[g+IDX_MAX_HASH] == hashcode ) {
+					groupUpdateMinMaxHashcode(g) ;
+				}
+			}
+
+			size-- ;
+
+			if (pos == memSize-1) {
+				--memSize ;
+			}
+			else {
+				removeCount++ ;
+
+				if (removeCount >= memSize/2) {
+					compact() ;
+				}
+			}
+
+			return prevVal ;
+		}
+
+		private void groupUpdateMinMaxHashcode(int g) {
+			int cursor = groupsMem[g+IDX_INIT] ;
+
+			int minHashcode = 0 ;
+			int maxHashcode = 0 ;
+			int count = 0 ;
+
+			while (cursor >= 0) {
+				int blk = cursor/memoryBlockSize ;
+				int blkI = cursor-(blk*memoryBlockSize) ;
+
+				int hc = memHash[blk][blkI] ;
+
+				if (++count == 1) {
+					minHashcode = maxHashcode = hc ;
+				}
+				else {
+					if (hc < minHashcode) minHashcode = hc ;
+					if (hc > maxHashcode) maxHashcode = hc ;
+				}
+
+				cursor = memNext[blk][blkI] ;
+			}
+
+			groupsMem[g+IDX_MIN_HASH] = minHashcode ;
+			groupsMem[g+IDX_MAX_HASH] = maxHashcode ;
+		}
+
+		void compact() {
+			int size = this.size ;
+			int groupsSize = size % groupSizeAverage == 0 ? size/groupSizeAverage : size/groupSizeAverage+1 ;
+
+			if ( size == memSize && groupsTotal() == groupsSize ) return ;
+
+			reHash(groupsSize > 0 ? groupsSize : 1) ;
+		}
+
+		/**
+		 * Same algorithm of {@link BigHashMap#reHash(int)}: the positions are compacted in place,
+		 * keeping the order of insertion.
+		 */
+		private void reHash(int totalGroups) {
+			this.groupsMem = createGroups(totalGroups) ;
+
+			int prevMemSize = memSize ;
+			int skip = 0 ;
+
+			memSize = 0 ;
+
+			for (int i = 0; i < prevMemSize; i++) {
+				int blk = i/memoryBlockSize ;
+				int blkI = i-(blk*memoryBlockSize) ;
+
+				Object key = memKeys[blk][blkI] ;
+
+				if (key == null) {
+					++skip ;
+					continue ;
+				}
+
+				Object val = memVals[blk][blkI] ;
+				int hc = memHash[blk][blkI] ;
+
+				int pos = memSize++ ;
+
+				blk = pos/memoryBlockSize ;
+				blkI = pos-(blk*memoryBlockSize) ;
+
+				memKeys[blk][blkI] = key ;
+				memVals[blk][blkI] = val ;
+				memHash[blk][blkI] = hc ;
+				memNext[blk][blkI] = -1 ;
+
+				groupLink(hc, pos) ;
+			}
+
+			for (int i = prevMemSize-skip; i < prevMemSize; i++) {
+				int blk = i/memoryBlockSize ;
+				int blkI = i-(blk*memoryBlockSize) ;
+				memKeys[blk][blkI] = null ;
+				memVals[blk][blkI] = null ;
+			}
+
+			int neededMemBlks = memSize / memoryBlockSize + 1 ;
+
+			if ( neededMemBlks < memKeys.length ) {
+				Object[][] keys2 = new Object[neededMemBlks][] ;
+				System.arraycopy(memKeys, 0, keys2, 0, neededMemBlks);
+
+				Object[][] vals2 = new Object[neededMemBlks][] ;
+				System.arraycopy(memVals, 0, vals2, 0, neededMemBlks);
+
+				int[][] next2 = new int[neededMemBlks][] ;
+				System.arraycopy(memNext, 0, next2, 0, neededMemBlks);
+
+				int[][] hash2 = new int[neededMemBlks][] ;
+				System.arraycopy(memHash, 0, hash2, 0, neededMemBlks);
+
+				memKeys = keys2 ;
+				memVals = vals2 ;
+				memNext = next2 ;
+				memHash = hash2 ;
+
+				memCapacity = neededMemBlks * memoryBlockSize ;
+			}
+
+			this.threshold = totalGroups * groupSizeAverage ;
+			this.removeCount = 0 ;
+		}
+
+		void clear() {
+			this.groupsMem = createGroups( groupsTotal() ) ;
+
+			for (int i = 0; i < memSize; i++) {
+				int blk = i/memoryBlockSize ;
+				int blkI = i-(blk*memoryBlockSize) ;
+				memKeys[blk][blkI] = null ;
+				memVals[blk][blkI] = null ;
+			}
+
+			this.memSize = 0 ;
+			this.size = 0 ;
+			this.removeCount = 0 ;
+		}
+
+		boolean containsValue(Object value) {
+			for (int i = 0; i < memSize; i++) {
+				int blk = i/memoryBlockSize ;
+				int blkI = i-(blk*memoryBlockSize) ;
+
+				Object val = memVals[blk][blkI] ;
+				if ( val != null && val.equals(value) ) return true ;
+			}
+
+			return false ;
+		}
+
+		/**
+		 * @return the entries in order of insertion, as pairs of key and value.
+		 */
+		Object[] snapshot() {
+			Object[] snapshot = new Object[size*2] ;
+			int snapshotSz = 0 ;
+
+			for (int i = 0; i < memSize; i++) {
+				int blk = i/memoryBlockSize ;
+				int blkI = i-(blk*memoryBlockSize) ;
+
+				Object key = memKeys[blk][blkI] ;
+
+				if (key != null) {
+					snapshot[snapshotSz++] = key ;
+					snapshot[snapshotSz++] = memVals[blk][blkI] ;
+				}
+			}
+
+			assert( snapshotSz == snapshot.length ) ;
+
+			return snapshot ;
+		}
+	}
+
+	/////////////////////////////////////////////////////////////////////////////////////
+
+	final private Segment[] segments ;
+	final private int segmentsMask ;
+
+	public ConcurrentBigHashMap() {
+		this(DEFAULT_SEGMENTS) ;
+	}
+
+	public ConcurrentBigHashMap(int segments) {
+		this(segments, DEFAULT_INITIAL_GROUPS) ;
+	}
+
+	public ConcurrentBigHashMap(int segments, int initialGroups) {
+		this(segments, initialGroups, DEFAULT_GROUP_SIZE_AVERAGE, DEFAULT_MEMORY_BLOCK_SIZE) ;
+	}
+
+	/**
+	 * @param segments The number of independent segments, rounded up to a power of 2. Should be proportional to the number of concurrent writers. (Default: 16)
+	 * @param initialGroups The initial number of groups of all the segments. (Default: 100)
+	 * @param groupSizeAverage The group size average to be maintained. (Default: 10)
+	 * @param memoryBlockSize The size of each block of memory of a segment. Blocks are allocated by demand. (Default: 4096)
+	 *
+	 * @see BigHashMap#BigHashMap(int, int, int)
+	 */
+	public ConcurrentBigHashMap(int segments, int initialGroups, int groupSizeAverage, int memoryBlockSize) {
+		if (segments <= 0) segments = 1 ;
+		if (segments > 1 << 16) segments = 1 << 16 ;
+		if (initialGroups <= 0) initialGroups = 1 ;
+		if (groupSizeAverage <= 0) groupSizeAverage = 1 ;
+		if (memoryBlockSize <= 0) throw new IllegalArgumentException("Invalid memoryBlockSize: "+ memoryBlockSize) ;
+
+		int totalSegments = Integer.highestOneBit(segments) ;
+		if (totalSegments < segments) totalSegments <<= 1 ;
+
+		int segmentGroups = initialGroups / totalSegments ;
+		if (segmentGroups <= 0) segmentGroups = 1 ;
+
+		this.segments = new Segment[totalSegments] ;
+
+		for (int i = 0; i < totalSegments; i++) {
+			this.segments[i] = new Segment(segmentGroups, groupSizeAverage, memoryBlockSize) ;
+		}
+
+		this.segmentsMask = totalSegments-1 ;
+	}
+
+	public int getSegments() {
+		return segments.length ;
+	}
+
+	/**
+	 * The segment is selected by the mixed bits of the hashcode, independent of the group selection
+	 * inside the segment ({@code hashcode % groupsTotal}).
+	 */
+	private Segment segmentFor(int hashcode) {
+		int h = hashcode * 0x9E3779B9 ;
+		return segments[ (h ^ (h >>> 16)) & segmentsMask ] ;
+	}
+
+	private Object read(Segment segment, int hashcode, Object key) {
+		long stamp = segment.tryOptimisticRead() ;
+
+		if (stamp != 0) {
+			try {
+				Object val = segment.get(hashcode, key) ;
+				if ( segment.validate(stamp) ) return val ;
+			}
+			catch (RuntimeException e) {
+				// The optimistic read overlapped a write and saw inconsistent arrays. Repeated below with lock.
+			}
+		}
+
+		stamp = segment.readLock() ;
+		try {
+			return segment.get(hashcode, key) ;
+		}
+		finally {
+			segment.unlockRead(stamp);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public V get(Object key) {
+		int hc = key.hashCode() ;
+		return (V) read( segmentFor(hc) , hc , key ) ;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		int hc = key.hashCode() ;
+		return read( segmentFor(hc) , hc , key ) != null ;
+	}
+
+	@Override
+	public V put(K key, V val) {
+		return put(key, val, false) ;
+	}
+
+	@Override
+	public V putIfAbsent(K key, V val) {
+		return put(key, val, true) ;
+	}
+
+	@SuppressWarnings("unchecked")
+	private V put(K key, V val, boolean onlyIfAbsent) {
+		if (val == null) throw new NullPointerException("Null value") ;
+
+		int hc = key.hashCode() ;
+		Segment segment = segmentFor(hc) ;
+
+		long stamp = segment.writeLock() ;
+		try {
+			return (V) segment.put(hc, key, val, onlyIfAbsent) ;
+		}
+		finally {
+			segment.unlockWrite(stamp);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public V replace(K key, V val) {
+		if (val == null) throw new NullPointerException("Null value") ;
+
+		int hc = key.hashCode() ;
+		Segment segment = segmentFor(hc) ;
+
+		long stamp = segment.writeLock() ;
+		try {
+			return (V) segment.replace(hc, key, null, val) ;
+		}
+		finally {
+			segment.unlockWrite(stamp);
+		}
+	}
+
+	@Override
+	public boolean replace(K key, V oldValue, V newValue) {
+		if (oldValue == null || newValue == null) throw new NullPointerException("Null value") ;
+
+		int hc = key.hashCode() ;
+		Segment segment = segmentFor(hc) ;
+
+		long stamp = segment.writeLock() ;
+		try {
+			return segment.replace(hc, key, oldValue, newValue) != null ;
+		}
+		finally {
+			segment.unlockWrite(stamp);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public V remove(Object key) {
+		int hc = key.hashCode() ;
+		Segment segment = segmentFor(hc) ;
+
+		long stamp = segment.writeLock() ;
+		try {
+			return (V) segment.remove(hc, key, null) ;
+		}
+		finally {
+			segment.unlockWrite(stamp);
+		}
+	}
+
+	@Override
+	public boolean remove(Object key, Object value) {
+		if (value == null) return false ;
+
+		int hc = key.hashCode() ;
+		Segment segment = segmentFor(hc) ;
+
+		long stamp = segment.writeLock() ;
+		try {
+			return segment.remove(hc, key, value) != null ;
+		}
+		finally {
+			segment.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * The sum of the sizes of the segments. Not a snapshot if there are concurrent writes.
+	 */
+	@Override
+	public int size() {
+		long size = 0 ;
+
+		for (Segment segment : segments) {
+			size += segment.size ;
+		}
+
+		return size > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) size ;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		for (Segment segment : segments) {
+			if (segment.size > 0) return false ;
+		}
+		return true ;
+	}
+
+	@Override
+	public boolean containsValue(Object value) {
+		if (value == null) throw new NullPointerException("Null value") ;
+
+		for (Segment segment : segments) {
+			long stamp = segment.readLock() ;
+			try {
+				if ( segment.containsValue(value) ) return true ;
+			}
+			finally {
+				segment.unlockRead(stamp);
+			}
+		}
+
+		return false ;
+	}
+
+	@Override
+	public void clear() {
+		for (Segment segment : segments) {
+			long stamp = segment.writeLock() ;
+			try {
+				segment.clear();
+			}
+			finally {
+				segment.unlockWrite(stamp);
+			}
+		}
+	}
+
+	/**
+	 * Rehashes each segment to the group size average, releasing the memory blocks after removals.
+	 *
+	 * @see BigHashMap#compact()
+	 */
+	public void compact() {
+		for (Segment segment : segments) {
+			long stamp = segment.writeLock() ;
+			try {
+				segment.compact();
+			}
+			finally {
+				segment.unlockWrite(stamp);
+			}
+		}
+	}
+
+	/////////////////////////////////////////////////////////////////////////////////////
+
+	abstract private class SnapshotIterator<T> implements Iterator<T> {
+		private int segmentIdx = 0 ;
+		private Object[] snapshot ;
+		private int cursor ;
+
+		Object lastKey ;
+		Object lastVal ;
+
+		@Override
+		public boolean hasNext() {
+			while ( snapshot == null || cursor >= snapshot.length ) {
+				if ( segmentIdx >= segments.length ) return false ;
+
+				Segment segment = segments[segmentIdx++] ;
+
+				long stamp = segment.readLock() ;
+				try {
+					snapshot = segment.snapshot() ;
+				}
+				finally {
+					segment.unlockRead(stamp);
+				}
+
+				cursor = 0 ;
+			}
+
+			return true ;
+		}
+
+		protected void nextEntry() {
+			if ( !hasNext() ) throw new NoSuchElementException() ;
+
+			lastKey = snapshot[cursor] ;
+			lastVal = snapshot[cursor+1] ;
+
+			cursor += 2 ;
+		}
+
+		@Override
+		public void remove() {
+			if (lastKey == null) throw new IllegalStateException() ;
+
+			ConcurrentBigHashMap.this.remove(lastKey) ;
+			lastKey = null ;
+		}
+	}
+
+	private class KeyIterator extends SnapshotIterator<K> {
+		@SuppressWarnings("unchecked")
+		@Override
+		public K next() {
+			nextEntry();
+			return (K) lastKey ;
+		}
+	}
+
+	private class ValueIterator extends SnapshotIterator<V> {
+		@SuppressWarnings("unchecked")
+		@Override
+		public V next() {
+			nextEntry();
+			return (V) lastVal ;
+		}
+	}
+
+	private class EntryIterator extends SnapshotIterator<Entry<K, V>> {
+		@SuppressWarnings("unchecked")
+		@Override
+		public Entry<K, V> next() {
+			nextEntry();
+			return new MapEntry( (K) lastKey , (V) lastVal ) ;
+		}
+	}
+
+	/**
+	 * An entry of an iterator. {@link #setValue(Object)} writes through to the map.
+	 */
+	private class MapEntry extends SimpleEntry<K, V> {
+		private static final long serialVersionUID = 1L;
+
+		public MapEntry(K key, V value) {
+			super(key, value);
+		}
+
+		@Override
+		public V setValue(V value) {
+			V prevVal = super.setValue(value) ;
+			ConcurrentBigHashMap.this.put( getKey() , value ) ;
+			return prevVal ;
+		}
+	}
+
+	/**
+	 * Returns a weakly consistent {@code Iterator} of keys.
+	 * The keys of each segment are in the order of insertion.
+	 */
+	@Override
+	public Iterator<K> iterator() {
+		return new KeyIterator() ;
+	}
+
+	public Iterator<V> iteratorValues() {
+		return new ValueIterator() ;
+	}
+
+	public Iterator<Entry<K, V>> iteratorEntries() {
+		return new EntryIterator() ;
+	}
+
+	@Override
+	public Set<K> keySet() {
+		return new KeySet() ;
+	}
+
+	private class KeySet extends AbstractSet<K> {
+		@Override
+		public Iterator<K> iterator() {
+			return ConcurrentBigHashMap.this.iterator() ;
+		}
+
+		@Override
+		public int size() {
+			return ConcurrentBigHashMap.this.size() ;
+		}
+
+		@Override
+		public boolean contains(Object o) {
+			return containsKey(o) ;
+		}
+
+		@Override
+		public boolean remove(Object o) {
+			return ConcurrentBigHashMap.this.remove(o) != null ;
+		}
+
+		@Override
+		public void clear() {
+			ConcurrentBigHashMap.this.clear();
+		}
+	}
+
+	@Override
+	public Collection<V> values() {
+		return new ValueCollection() ;
+	}
+
+	private class ValueCollection extends AbstractCollection<V> {
+		@Override
+		public Iterator<V> iterator() {
+			return iteratorValues() ;
+		}
+
+		@Override
+		public int size() {
+			return ConcurrentBigHashMap.this.size() ;
+		}
+
+		@Override
+		public boolean contains(Object o) {
+			return containsValue(o) ;
+		}
+
+		@Override
+		public void clear() {
+			ConcurrentBigHashMap.this.clear();
+		}
+	}
+
+	@Override
+	public Set<Entry<K, V>> entrySet() {
+		return new EntrySet() ;
+	}
+
+	private class EntrySet extends AbstractSet<Entry<K, V>> {
+		@Override
+		public Iterator<Entry<K, V>> iterator() {
+			return iteratorEntries() ;
+		}
+
+		@Override
+		public boolean contains(Object o) {
+			if (!(o instanceof Map.Entry)) return false ;
+
+			Map.Entry<?,?> entry = (Map.Entry<?,?>) o ;
+
+			Object val = get( entry.getKey() ) ;
+			return val != null && val.equals( entry.getValue() ) ;
+		}
+
+		@Override
+		public boolean remove(Object o) {
+			if (!(o instanceof Map.Entry)) return false ;
+
+			Map.Entry<?,?> entry = (Map.Entry<?,?>) o ;
+
+			return ConcurrentBigHashMap.this.remove( entry.getKey() , entry.getValue() ) ;
+		}
+
+		@Override
+		public int size() {
+			return ConcurrentBigHashMap.this.size() ;
+		}
+
+		@Override
+		public void clear() {
+			ConcurrentBigHashMap.this.clear();
+		}
+	}
+
+}
@@ -0,0 +1,410 @@
+package roxtools.collection;
+
+import java.util.Arrays;
+
+/**
+ * An open addressing hash map of {@code int} keys and {@code V} values, with a primitive only API.
+ * <p>
+ * The keys and values are stored in 2 parallel arrays (no object per entry), with linear probing
+ * and backward shift deletion (no tombstones, so removals don't degrade the lookups).
+ * The key 0 marks the free slots, so its value is stored apart.
+ * <p>
+ * Generated from {@code src/main/templates/roxtools/collection/PrimitiveOpenHashMap.java.template}
+ * by {@code PrimitiveOpenHashMapGenerator}: don't edit it directly.
+ */
+final public class PrimitiveOpenHashMapIntObject<V> {
+
+	static final public float DEFAULT_LOAD_FACTOR = 0.75f ;
+	static final public int DEFAULT_EXPECTED_SIZE = 16 ;
+
+	static final private int MAX_CAPACITY = 1 << 30 ;
+
+	static private int hash(int key) {
+		int h = key * 0x9E3779B9 ;
+		return h ^ (h >>> 16) ;
+	}
+
+	static private int tableSize(int expectedSize, float loadFactor) {
+		long needed = (long) Math.ceil( expectedSize / (double) loadFactor ) + 1 ;
+
+		if (needed > MAX_CAPACITY) throw new IllegalStateException("Capacity limit reached: "+ expectedSize) ;
+
+		int capacity = 2 ;
+		while (capacity < needed) capacity <<= 1 ;
+
+		return capacity ;
+	}
+
+	/**
+	 * Receives the entries of {@link PrimitiveOpenHashMapIntObject#forEach(KeyValueConsumer)}.
+	 */
+	public interface KeyValueConsumer<V> {
+		public void accept(int key, V value) ;
+	}
+
+	private int[] keys ;
+	private V[] values ;
+
+	private int mask ;
+	private int maxFill ;
+	private int size ;
+
+	private boolean hasFreeKey ;
+	private V freeKeyValue ;
+
+	final private float loadFactor ;
+
+	public PrimitiveOpenHashMapIntObject() {
+		this(DEFAULT_EXPECTED_SIZE) ;
+	}
+
+	public PrimitiveOpenHashMapIntObject(int expectedSize) {
+		this(expectedSize, DEFAULT_LOAD_FACTOR) ;
+	}
+
+	public PrimitiveOpenHashMapIntObject(int expectedSize, float loadFactor) {
+		if (expectedSize < 0) throw new IllegalArgumentException("Invalid expectedSize: "+ expectedSize) ;
+		if ( !(loadFactor > 0 && loadFactor < 1) ) throw new IllegalArgumentException("Invalid loadFactor: "+ loadFactor) ;
+
+		this.loadFactor = loadFactor ;
+
+		allocate( tableSize(expectedSize, loadFactor) ) ;
+	}
+
+	@SuppressWarnings("unchecked")
+	private void allocate(int capacity) {
+		this.keys = new int[capacity] ;
+		this.values = (V[]) new Object[capacity] ;
+
+		this.mask = capacity-1 ;
+		this.maxFill = Math.min( (int) (capacity * loadFactor) , capacity-1 ) ;
+	}
+
+	public int size() {
+		return size ;
+	}
+
+	public boolean isEmpty() {
+		return size == 0 ;
+	}
+
+	/**
+	 * @return the number of slots of the table.
+	 */
+	public int capacity() {
+		return keys.length ;
+	}
+
+	/**
+	 * @return the slot of a non 0 key, or -1 if absent.
+	 */
+	private int slotOf(int key) {
+		int[] keys = this.keys ;
+		int mask = this.mask ;
+
+		int pos = hash(key) & mask ;
+
+		while (true) {
+			int k = keys[pos] ;
+
+			if (k == key) return pos ;
+			if (k == 0) return -1 ;
+
+			pos = (pos+1) & mask ;
+		}
+	}
+
+	public boolean containsKey(int key) {
+		if (key == 0) return hasFreeKey ;
+		return slotOf(key) >= 0 ;
+	}
+
+	/**
+	 * @return the value of the key, or {@code null} if absent.
+	 */
+	public V get(int key) {
+		return getOrDefault(key, null) ;
+	}
+
+	public V getOrDefault(int key, V defaultValue) {
+		if (key == 0) return hasFreeKey ? freeKeyValue : defaultValue ;
+
+		int pos = slotOf(key) ;
+		return pos >= 0 ? values[pos] : defaultValue ;
+	}
+
+	/**
+	 * @return the previous value, or {@code null} if absent.
+	 */
+	public V put(int key, V value) {
+		return put(key, value, false) ;
+	}
+
+	/**
+	 * @return the current value (not replaced), or {@code null} if absent.
+	 */
+	public V putIfAbsent(int key, V value) {
+		return put(key, value, true) ;
+	}
+
+	private V put(int key, V value, boolean onlyIfAbsent) {
+		if (key == 0) {
+			if (hasFreeKey) {
+				V prev = freeKeyValue ;
+				if (!onlyIfAbsent) freeKeyValue = value ;
+				return prev ;
+			}
+
+			hasFreeKey = true ;
+			freeKeyValue = value ;
+			size++ ;
+
+			return null ;
+		}
+
+		int[] keys = this.keys ;
+		int mask = this.mask ;
+
+		int pos = hash(key) & mask ;
+
+		while (true) {
+			int k = keys[pos] ;
+
+			if (k == 0) break ;
+
+			if (k == key) {
+				V prev = values[pos] ;
+				if (!onlyIfAbsent) values[pos] = value ;
+				return prev ;
+			}
+
+			pos = (pos+1) & mask ;
+		}
+
+		keys[pos] = key ;
+		values[pos] = value ;
+
+		if (++size > maxFill) rehash( keys.length*2 ) ;
+
+		return null ;
+	}
+
+	/**
+	 * @return the removed value, or {@code null} if absent.
+	 */
+	public V remove(int key) {
+		if (key == 0) {
+			if (!hasFreeKey) return null ;
+
+			V prev = freeKeyValue ;
+
+			hasFreeKey = false ;
+			freeKeyValue = null ;
+			size-- ;
+
+			return prev ;
+		}
+
+		int pos = slotOf(key) ;
+		if (pos < 0) return null ;
+
+		V prev = values[pos] ;
+
+		shiftKeys(pos) ;
+		size-- ;
+
+		return prev ;
+	}
+
+	/**
+	 * Backward shift deletion: moves back the following keys of the probe sequence that
+	 * can be in the removed slot, until a free slot.
+	 */
+	private void shiftKeys(int pos) {
+		int[] keys = this.keys ;
+		V[] values = this.values ;
+		int mask = this.mask ;
+
+		while (true) {
+			int last = pos ;
+			pos = (pos+1) & mask ;
+
+			int k ;
+
+			while (true) {
+				k = keys[pos] ;
+
+				if (k == 0) {
+					keys[last] = 0 ;
+					values[last] = null ;
+					return ;
+				}
+
+				int slot = hash(k) & mask ;
+
+				// The key can be moved to last if its slot isn't in (last, pos] (circular):
+				if ( last <= pos ? (last >= slot || slot > pos) : (last >= slot && slot > pos) ) break ;
+
+				pos = (pos+1) & mask ;
+			}
+
+			keys[last] = k ;
+			values[last] = values[pos] ;
+		}
+	}
+
+	private void rehash(int capacity) {
+		int[] prevKeys = this.keys ;
+		V[] prevValues = this.values ;
+
+		allocate(capacity) ;
+
+		int[] keys = this.keys ;
+		V[] values = this.values ;
+		int mask = this.mask ;
+
+		for (int i = 0; i < prevKeys.length; i++) {
+			int k = prevKeys[i] ;
+			if (k == 0) continue ;
+
+			int pos = hash(k) & mask ;
+			while ( keys[pos] != 0 ) pos = (pos+1) & mask ;
+
+			keys[pos] = k ;
+			values[pos] = prevValues[i] ;
+		}
+	}
+
+	/**
+	 * Removes all the entries, keeping the capacity.
+	 */
+	public void clear() {
+		if (size == 0) return ;
+
+		Arrays.fill(keys, 0) ;
+		Arrays.fill(values, null) ;
+
+		hasFreeKey = false ;
+		freeKeyValue = null ;
+		size = 0 ;
+	}
+
+	/**
+	 * Shrinks (or grows) the table to the minimal capacity for the current size.
+	 */
+	public void trim() {
+		int capacity = tableSize(size, loadFactor) ;
+		if (capacity != keys.length) rehash(capacity) ;
+	}
+
+	//////////////////////////////////////////////////////////////////////////
+
+	public void forEach(KeyValueConsumer<? super V> consumer) {
+		if (hasFreeKey) consumer.accept(0, freeKeyValue) ;
+
+		int[] keys = this.keys ;
+		V[] values = this.values ;
+
+		for (int i = 0; i < keys.length; i++) {
+			int k = keys[i] ;
+			if (k != 0) consumer.accept(k, values[i]) ;
+		}
+	}
+
+	public int[] keysToArray() {
+		int[] array = new int[size] ;
+		int arraySz = 0 ;
+
+		if (hasFreeKey) array[arraySz++] = 0 ;
+
+		for (int k : keys) {
+			if (k != 0) array[arraySz++] = k ;
+		}
+
+		return array ;
+	}
+
+	/**
+	 * @return a cursor over the entries, without allocation per entry. The map shouldn't be changed while iterating.
+	 */
+	public Cursor cursor() {
+		return new Cursor() ;
+	}
+
+	final public class Cursor {
+		// -1: the free key.
+		private int pos = -2 ;
+
+		private int key ;
+		private V value ;
+
+		private Cursor() {
+		}
+
+		/**
+		 * Moves to the next entry.
+		 *
+		 * @return false if there are no more entries.
+		 */
+		public boolean next() {
+			if (pos == -2) {
+				pos = -1 ;
+
+				if (hasFreeKey) {
+					key = 0 ;
+					value = freeKeyValue ;
+					return true ;
+				}
+			}
+
+			int[] keys = PrimitiveOpenHashMapIntObject.this.keys ;
+
+			while (++pos < keys.length) {
+				int k = keys[pos] ;
+
+				if (k != 0) {
+					key = k ;
+					value = values[pos] ;
+					return true ;
+				}
+			}
+
+			return false ;
+		}
+
+		public int key() {
+			return key ;
+		}
+
+		public V value() {
+			return value ;
+		}
+
+		/**
+		 * Replaces the value of the current entry.
+		 */
+		public void setValue(V value) {
+			if (pos < 0) freeKeyValue = value ;
+			else values[pos] = value ;
+
+			this.value = value ;
+		}
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder str = new StringBuilder() ;
+		str.append('{') ;
+
+		Cursor cursor = cursor() ;
+
+		while ( cursor.next() ) {
+			if (str.length() > 1) str.append(", ") ;
+			str.append( cursor.key() ).append('=').append( cursor.value() ) ;
+		}
+
+		str.append('}') ;
+		return str.toString() ;
+	}
+
+}
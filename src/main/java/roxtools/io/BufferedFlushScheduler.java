@@ -0,0 +1,160 @@
+package roxtools.io;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the scheduled flushes of {@link BufferedInputOutput} instances in a pool of daemon threads, so a slow
+ * disk write only delays the flushes of its own file, and accounts the unflushed bytes of all its instances
+ * to apply back-pressure on writers (see {@link #setMaxUnflushedBytes(long)}).
+ * <p>
+ * Can be shared by many instances (see {@link BufferedInputOutput#setDefaultFlushScheduler(BufferedFlushScheduler)}).
+ */
+final public class BufferedFlushScheduler {
+
+	static final public long DEFAULT_MAX_UNFLUSHED_BYTES = 1024L*1024*64 ;
+
+	static public int getDefaultThreads() {
+		int processors = Runtime.getRuntime().availableProcessors() ;
+		return Math.max(2, Math.min(4, processors)) ;
+	}
+
+	static final private AtomicInteger threadCount = new AtomicInteger() ;
+
+	final private ScheduledThreadPoolExecutor executor ;
+
+	final private AtomicLong unflushedBytes = new AtomicLong() ;
+
+	/**
+	 * The instances holding unflushed bytes.
+	 */
+	final private Set<BufferedInputOutput> unflushedInstances = ConcurrentHashMap.newKeySet() ;
+
+	private volatile long maxUnflushedBytes ;
+
+	public BufferedFlushScheduler() {
+		this(getDefaultThreads(), DEFAULT_MAX_UNFLUSHED_BYTES) ;
+	}
+
+	/**
+	 * @param maxUnflushedBytes Limit of unflushed bytes of all the instances. Above it the instances holding the bytes are flushed. 0 disables back-pressure.
+	 */
+	public BufferedFlushScheduler(int threads, long maxUnflushedBytes) {
+		if (threads <= 0) throw new IllegalArgumentException("Invalid threads: "+ threads) ;
+
+		this.executor = new ScheduledThreadPoolExecutor(threads, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "BufferedInputOutput::flusher-"+ threadCount.incrementAndGet()) ;
+				thread.setDaemon(true);
+				return thread ;
+			}
+		}) ;
+
+		this.executor.setRemoveOnCancelPolicy(true);
+
+		setMaxUnflushedBytes(maxUnflushedBytes);
+	}
+
+	public int getThreads() {
+		return executor.getCorePoolSize() ;
+	}
+
+	public void setMaxUnflushedBytes(long maxUnflushedBytes) {
+		if (maxUnflushedBytes < 0) throw new IllegalArgumentException("Invalid maxUnflushedBytes: "+ maxUnflushedBytes) ;
+		this.maxUnflushedBytes = maxUnflushedBytes;
+	}
+
+	public long getMaxUnflushedBytes() {
+		return maxUnflushedBytes;
+	}
+
+	/**
+	 * @return the unflushed bytes of all the instances using this scheduler.
+	 */
+	public long getUnflushedBytes() {
+		return unflushedBytes.get() ;
+	}
+
+	public boolean isOverUnflushedLimit() {
+		long max = this.maxUnflushedBytes ;
+		return max > 0 && unflushedBytes.get() > max ;
+	}
+
+	/**
+	 * @return the number of instances holding unflushed bytes.
+	 */
+	public int getUnflushedInstances() {
+		return unflushedInstances.size() ;
+	}
+
+	/**
+	 * @param holding If {@code instance} still holds unflushed bytes after the change.
+	 */
+	protected void addUnflushedBytes(BufferedInputOutput instance, long bytes, boolean holding) {
+		if (holding) {
+			unflushedInstances.add(instance) ;
+		}
+		else {
+			unflushedInstances.remove(instance) ;
+		}
+
+		unflushedBytes.addAndGet(bytes) ;
+	}
+
+	/**
+	 * Flushes now, in the scheduler threads, the instances holding unflushed bytes (except {@code caller}).
+	 */
+	protected void requestFlushes(BufferedInputOutput caller) {
+		if ( executor.isShutdown() ) return ;
+
+		for (final BufferedInputOutput instance : unflushedInstances) {
+			if ( instance == caller || !instance.requestBackPressureFlush() ) continue ;
+
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					instance.backPressureFlush();
+				}
+			});
+		}
+	}
+
+	/**
+	 * @return the number of scheduled tasks waiting to run.
+	 */
+	public int getPendingTasks() {
+		return executor.getQueue().size() ;
+	}
+
+	public ScheduledFuture<?> schedule(Runnable task, long delay) {
+		return executor.schedule(task, delay, TimeUnit.MILLISECONDS) ;
+	}
+
+	public ScheduledFuture<?> scheduleRepeatedly(Runnable task, long delay) {
+		return executor.scheduleWithFixedDelay(task, delay, delay, TimeUnit.MILLISECONDS) ;
+	}
+
+	/**
+	 * Stops the threads. Pending flushes are discarded.
+	 */
+	public void shutdown() {
+		executor.shutdownNow() ;
+	}
+
+	public boolean isShutdown() {
+		return executor.isShutdown() ;
+	}
+
+	@Override
+	public String toString() {
+		return "BufferedFlushScheduler[threads: "+ getThreads() +" ; unflushedBytes: "+ unflushedBytes +"/"+ maxUnflushedBytes +" ; unflushedInstances: "+ getUnflushedInstances() +" ; pendingTasks: "+ getPendingTasks() +"]" ;
+	}
+
+}
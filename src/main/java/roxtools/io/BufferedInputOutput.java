@@ -5,14 +5,56 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.RandomAccessFile;
 import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
 import java.util.Comparator;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import roxtools.RoxDeque;
 
 final public class BufferedInputOutput implements DirectReadWriteIO {
 	
+	static volatile private BufferedPageCache defaultPageCache ;
+	
+	/**
+	 * Sets the page cache used by the next created instances (that don't specify one), allowing all of
+	 * them to share the same memory budget. If null (default), cached blocks are only kept by {@link SoftReference}s.
+	 */
+	static public void setDefaultPageCache(BufferedPageCache pageCache) {
+		defaultPageCache = pageCache ;
+	}
+	
+	static public BufferedPageCache getDefaultPageCache() {
+		return defaultPageCache ;
+	}
+	
+	static private BufferedFlushScheduler defaultFlushScheduler ;
+	
+	/**
+	 * Sets the flush scheduler used by the next created instances.
+	 */
+	static synchronized public void setDefaultFlushScheduler(BufferedFlushScheduler flushScheduler) {
+		if (flushScheduler == null) throw new NullPointerException("Null flushScheduler") ;
+		defaultFlushScheduler = flushScheduler ;
+	}
+	
+	/**
+	 * @return the default flush scheduler. Created on the first call if not set.
+	 */
+	static synchronized public BufferedFlushScheduler getDefaultFlushScheduler() {
+		if (defaultFlushScheduler == null) defaultFlushScheduler = new BufferedFlushScheduler() ;
+		return defaultFlushScheduler ;
+	}
+	
 	final private Object mutex ;
 	final private int blockSize ;
 	final private long blockSizeL ;
@@ -22,7 +64,34 @@ final public class BufferedInputOutput implements DirectReadWriteIO {
 	final private SeekableInput in;
 	final private SeekableOutput out;
 	
+	final private BufferedPageCache pageCache ;
+	
+	/**
+	 * Used for positional IO of off-heap pages, when the instance was created over a {@link RandomAccessFile}.
+	 */
+	final private FileChannel channel ;
+	
+	private BufferedFlushScheduler flushScheduler ;
+	
 	private long size = 0 ;
+	
+	/**
+	 * Called before the written blocks are flushed to the output, holding the mutex (including the scheduled flushes
+	 * and the back-pressure flushes). Used to write a log (that should be durable before the data) first.
+	 */
+	static public interface FlushListener {
+		public void beforeFlush(BufferedInputOutput bufferedInputOutput) throws IOException ;
+	}
+	
+	private volatile FlushListener flushListener ;
+	
+	public FlushListener getFlushListener() {
+		return flushListener;
+	}
+	
+	public void setFlushListener(FlushListener flushListener) {
+		this.flushListener = flushListener;
+	}
 
 	public BufferedInputOutput(int blockSize, RandomAccessFile randomAccessFile) throws IOException {
 		this(blockSize, randomAccessFile, null) ;
@@ -32,14 +101,28 @@ final public class BufferedInputOutput implements DirectReadWriteIO {
 		this(blockSize, new RandomAccessInput(randomAccessFile), new RandomAccessOutput(randomAccessFile), mutex) ;
 	}
 	
+	public BufferedInputOutput(int blockSize, RandomAccessFile randomAccessFile, Object mutex, BufferedPageCache pageCache) throws IOException {
+		this(blockSize, new RandomAccessInput(randomAccessFile), new RandomAccessOutput(randomAccessFile), mutex, pageCache) ;
+	}
+	
 	public BufferedInputOutput(int blockSize, SeekableInput in, SeekableOutput out) throws IOException {
 		this(blockSize, in, out, null) ;
 	}
 	
 	public BufferedInputOutput(int blockSize, SeekableInput in, SeekableOutput out, Object mutex) throws IOException {
+		this(blockSize, in, out, mutex, defaultPageCache) ;
+	}
+	
+	/**
+	 * @param pageCache The cache that holds the blocks of this instance. If null, blocks are only kept by {@link SoftReference}s.
+	 * If it's an off-heap cache (see {@link BufferedPageCache#isOffHeap()}) blocks are kept in direct memory and, when
+	 * created over a {@link RandomAccessFile}, read and written through {@link FileChannel} positional IO.
+	 */
+	public BufferedInputOutput(int blockSize, SeekableInput in, SeekableOutput out, Object mutex, BufferedPageCache pageCache) throws IOException {
 		super();
 		
 		this.mutex = mutex != null ? mutex : this ;
+		this.pageCache = pageCache ;
 		
 		this.blockSize = blockSize;
 		this.blockSizeL = blockSize ;
@@ -49,6 +132,12 @@ final public class BufferedInputOutput implements DirectReadWriteIO {
 		this.in = in ;
 		this.out = out ;
 		
+		this.channel = in instanceof RandomAccessInput ? ((RandomAccessInput) in).getChannel() : null ;
+		
+		this.flushScheduler = getDefaultFlushScheduler() ;
+		
+		Arrays.fill(streamLastBlock, -2) ;
+		
 		this.size = in.length();
 		
 		if ( in.length() != out.length() ) throw new IOException("Input length() different of Output! "+ in.length() +" != "+ out.length()) ;
@@ -58,6 +147,29 @@ final public class BufferedInputOutput implements DirectReadWriteIO {
 		return mutex;
 	}
 	
+	public BufferedPageCache getPageCache() {
+		return pageCache;
+	}
+	
+	public BufferedFlushScheduler getFlushScheduler() {
+		synchronized (mutex) {
+			return flushScheduler;
+		}
+	}
+	
+	/**
+	 * Changes the scheduler of the next scheduled flushes. The unflushed bytes are accounted to the new scheduler.
+	 */
+	public void setFlushScheduler(BufferedFlushScheduler flushScheduler) {
+		if (flushScheduler == null) throw new NullPointerException("Null flushScheduler") ;
+		
+		synchronized (mutex) {
+			this.flushScheduler.addUnflushedBytes(this, -unflushedDataSize, false);
+			this.flushScheduler = flushScheduler;
+			this.flushScheduler.addUnflushedBytes(this, unflushedDataSize, unflushedDataSize > 0);
+		}
+	}
+	
 	public int read(long pos) throws IOException {
 		
 		synchronized (mutex) {
@@ -69,10 +181,7 @@ final public class BufferedInputOutput implements DirectReadWriteIO {
 			
 			Block block = getBlockForRead(blockIdx) ;
 			
-			byte[] blockData = block.get() ;
-			assert( blockData != null );
-			
-			int b = blockData[blkPos] & 0xFF ;
+			int b = block.read(blkPos) ;
 			
 			block.releaseRead();
 			
@@ -91,15 +200,14 @@ final public class BufferedInputOutput implements DirectReadWriteIO {
 			
 			Block block = getBlockForWrite(blockIdx) ;
 			
-			byte[] blockData = block.get() ;
-			assert( blockData != null );
+			block.write(blkPos, b) ;
 			
-			blockData[blkPos] = (byte) b ;
-			
-			unflushedDataSize += block.markWriteRegion(blkPos, 1);
+			addUnflushedDataSize( block.markWriteRegion(blkPos, 1) );
 			
 			long newPos = pos+1 ;
 			if (newPos > size) size = newPos ;
+			
+			applyBackPressure();
 		}
 		
 	}
@@ -108,8 +216,17 @@ final public class BufferedInputOutput implements DirectReadWriteIO {
 		return read(pos, buffer, 0, buffer.length) ;
 	}
 	
+	/**
+	 * Reads from the cached blocks. If the instance was created over a {@link RandomAccessFile}, the blocks not cached
+	 * are read with {@link FileChannel} positional IO outside the mutex (see {@link #readPositional(long, byte[], int, int)}),
+	 * so concurrent misses are served in parallel.
+	 */
 	public int read(long pos, byte[] buffer, int offset, int length) throws IOException {
 		
+		if ( canUseChannel() ) {
+			return readPositional(pos, buffer, offset, length) ;
+		}
+		
 		synchronized (mutex) {
 			if (pos > size) return -1 ;
 			
@@ -129,10 +246,7 @@ final public class BufferedInputOutput implements DirectReadWriteIO {
 				
 				int lng = length > rest ? rest : length ;
 				
-				byte[] blockData = block.get() ;
-				assert( blockData != null );
-				
-				System.arraycopy(blockData, blkPos, buffer, offset, lng);
+				block.read(blkPos, buffer, offset, lng);
 				
 				block.releaseRead();
 				
@@ -149,6 +263,87 @@ final public class BufferedInputOutput implements DirectReadWriteIO {
 		
 	}
 	
+	/**
+	 * Copies the cached blocks holding the mutex, and reads each missing block outside of it, installing the block
+	 * in a short critical section. A read that spans many blocks isn't atomic in relation to concurrent writes.
+	 */
+	private int readPositional(long pos, byte[] buffer, int offset, int length) throws IOException {
+		int read = 0 ;
+		
+		Block loaded = null ;
+		int loadedIdx = -1 ;
+		long loadedVersion = 0 ;
+		
+		try {
+			while (true) {
+				int missIdx = -1 ;
+				long missVersion = 0 ;
+				long missSize = 0 ;
+				
+				synchronized (mutex) {
+					if (pos > size) return read > 0 ? read : -1 ;
+					
+					while (length > 0) {
+						long remain = size-pos ;
+						if (remain <= 0) break ;
+						
+						int blockIdx = getBlockIndexForPos(pos) ;
+						int blkPos = getPosInBlock(blockIdx, pos) ;
+						
+						Block block ;
+						
+						if (blockIdx == loadedIdx) {
+							block = installBlock(blockIdx, loaded, loadedVersion) ;
+							loaded = null ;
+							loadedIdx = -1 ;
+						}
+						else {
+							block = getCachedBlockForRead(blockIdx) ;
+							
+							if (block == null) {
+								missIdx = blockIdx ;
+								missVersion = modVersion ;
+								missSize = size ;
+								break ;
+							}
+						}
+						
+						int rest = blockSize-blkPos ;
+						if (rest > remain) rest = (int) remain ;
+						
+						int lng = length > rest ? rest : length ;
+						
+						block.read(blkPos, buffer, offset, lng);
+						
+						block.releaseRead();
+						
+						offset += lng ;
+						length -= lng ;
+						
+						read += lng ;
+						
+						pos += lng ;
+					}
+					
+					if (missIdx < 0) return read ;
+				}
+				
+				if (loaded != null) {
+					loaded.dispose();
+					loaded = null ;
+				}
+				
+				loaded = loadBlock(missIdx, missSize) ;
+				loadedIdx = missIdx ;
+				loadedVersion = missVersion ;
+			}
+		}
+		finally {
+			if (loaded != null) loaded.dispose();
+		}
+		
+	}
+	
 	public int write(long pos, byte[] buffer) throws IOException {
 		return write(pos, buffer, 0, buffer.length) ;
 	}
@@ -169,12 +364,9 @@ final public class BufferedInputOutput implements DirectReadWriteIO {
 				
 				int lng = length > rest ? rest : length ;
 				
-				byte[] blockData = block.get() ;
-				assert( blockData != null );
+				block.write(blkPos, buffer, offset, lng) ;
 				
-				System.arraycopy(buffer, offset, blockData, blkPos, lng) ;
-				
-				unflushedDataSize += block.markWriteRegion(blkPos, lng);
+				addUnflushedDataSize( block.markWriteRegion(blkPos, lng) );
 				
 				offset += lng ;
 				length -= lng ;
@@ -186,6 +378,10 @@ final public class BufferedInputOutput implements DirectReadWriteIO {
 			
 			assert(length == 0) ;
 			
+			if (pos > size) size = pos ;
+			
+			applyBackPressure();
+			
 			return write ;
 		}
 		
@@ -216,12 +412,41 @@ final public class BufferedInputOutput implements DirectReadWriteIO {
 		
 	}
 	
-	private class Block extends SoftReference<byte[]> implements Comparable<Block> {
+	/**
+	 * A cached block. Its data is kept by a {@link BufferedPageCache.Page} if there's a page cache (in direct memory
+	 * if the cache is off-heap), otherwise by a {@link SoftReference} (strongly referenced while held for read or with unflushed writes).
+	 */
+	private class Block implements Comparable<Block> {
 
 		final private int index ;
+		
+		final private SoftReference<byte[]> ref ;
+		final private BufferedPageCache.Page page ;
+		
+		/**
+		 * Creates the block already held for read.
+		 */
 		public Block(int index, byte[] referent) {
-			super(referent);
 			this.index = index ;
+			
+			if (pageCache != null) {
+				this.ref = null ;
+				this.page = pageCache.admit(referent) ;
+			}
+			else {
+				this.ref = new SoftReference<byte[]>(referent) ;
+				this.page = null ;
+				this.holderRead = referent ;
+			}
+		}
+		
+		/**
+		 * Creates the block over an off-heap page, already pinned (held for read).
+		 */
+		public Block(int index, BufferedPageCache.Page page) {
+			this.index = index ;
+			this.ref = null ;
+			this.page = page ;
 		}
 		
 		@Override
@@ -232,64 +457,159 @@ final public class BufferedInputOutput implements DirectReadWriteIO {
 		public int getIndex() {
 			return index ;
 		}
+		
+		public boolean isDirect() {
+			return page != null && page.isDirect() ;
+		}
+		
+		public byte[] get() {
+			return page != null ? page.get() : ref.get() ;
+		}
+		
+		public ByteBuffer getBuffer() {
+			return page.getBuffer() ;
+		}
+		
+		// Data access. Only while held for read or write:
+		
+		public int read(int pos) {
+			if ( isDirect() ) return getBuffer().get(pos) & 0xFF ;
+			return get()[pos] & 0xFF ;
+		}
+		
+		public void write(int pos, int b) {
+			if ( isDirect() ) getBuffer().put(pos, (byte) b) ;
+			else get()[pos] = (byte) b ;
+		}
+		
+		public void read(int pos, byte[] buffer, int offset, int length) {
+			if ( isDirect() ) {
+				ByteBuffer data = getBuffer().duplicate() ;
+				data.position(pos) ;
+				data.get(buffer, offset, length) ;
+			}
+			else {
+				System.arraycopy(get(), pos, buffer, offset, length);
+			}
+		}
+		
+		public void write(int pos, byte[] buffer, int offset, int length) {
+			if ( isDirect() ) {
+				ByteBuffer data = getBuffer().duplicate() ;
+				data.position(pos) ;
+				data.put(buffer, offset, length) ;
+			}
+			else {
+				System.arraycopy(buffer, offset, get(), pos, length);
+			}
+		}
 
 		private byte[] holderRead ;
 		private byte[] holderWrite ;
 		
 		@SuppressWarnings("unused")
 		public boolean isHolding() {
-			return holderRead != null || holderWrite != null ;
+			return holderRead != null || isHoldingWrite() ;
 		}
 		
 		public boolean isHoldingWrite() {
-			return holderWrite != null ;
-		}
-		
-		public void holdRead() {
-			this.holderRead = get();
+			return page != null ? page.isDirty() : holderWrite != null ;
 		}
 		
 		public void releaseRead() {
-			this.holderRead = null ;
+			if (page != null) {
+				page.unpin();
+			}
+			else {
+				this.holderRead = null ;
+			}
 		}
 		
+		/**
+		 * Should be called while held for read.
+		 */
 		public void holdWrite(RoxDeque<Block> blocksToWrite) {
-			if ( this.holderWrite == null ) {
-				byte[] data ;
-				
-				this.holderWrite = data = get();
-				
-				if ( data != null ) {
-					int idx = blocksToWrite.binarySearch(this, BLOCK_COMPARATOR) ;
-					
-					if (idx < 0) {
-						idx = (-idx)-1 ;
-						blocksToWrite.add(idx , this) ;
-					}
+			if ( !isHoldingWrite() ) {
+				if (page != null) {
+					page.setDirty(true);
 				}
+				else {
+					this.holderWrite = holderRead ;
+				}
+				
+				addToWrite(blocksToWrite);
+			}
+		}
+		
+		private void addToWrite(RoxDeque<Block> blocksToWrite) {
+			// The cached bytes will differ from the file until flushed, and the block can be evicted after the flush:
+			modVersion++ ;
+			
+			int idx = blocksToWrite.binarySearch(this, BLOCK_COMPARATOR) ;
+			
+			if (idx < 0) {
+				idx = (-idx)-1 ;
+				blocksToWrite.add(idx , this) ;
 			}
 		}
 		
 		public void releaseWrite() {
-			this.holderWrite = null ;
+			if (page != null) {
+				page.setDirty(false);
+			}
+			else {
+				this.holderWrite = null ;	
+			}
 		}
 		
-		public byte[] getAndHoldRead() {
+		/**
+		 * @return false if the data was already evicted/collected.
+		 */
+		public boolean holdRead() {
+			if (page != null) {
+				return page.pin() ;
+			}
+			
 			byte[] data = get() ;
-			holdRead();
-			return data ;
+			this.holderRead = data ;
+			return data != null ;
 		}
 		
-		public byte[] getAndHoldWrite(RoxDeque<Block> blocksToWrite) {
+		/**
+		 * @return false if the data was already evicted/collected.
+		 */
+		public boolean holdWriteIfCached(RoxDeque<Block> blocksToWrite) {
+			if (page != null) {
+				if ( !page.pin() ) return false ;
+				
+				// Dirty pages aren't evicted, so the page can be unpinned:
+				holdWrite(blocksToWrite);
+				page.unpin();
+				
+				return true ;
+			}
+			
+			if ( holderWrite != null ) return true ;
+			
 			byte[] data = get() ;
-			holdWrite(blocksToWrite);
-			return data ;
+			if (data == null) return false ;
+			
+			this.holderWrite = data ;
+			addToWrite(blocksToWrite);
+			
+			return true ;
 		}
 
 		public void dispose() {
 			this.holderRead = null ;
 			this.holderWrite = null ;
-			this.clear();
+			
+			if (page != null) {
+				page.release();
+			}
+			else {
+				ref.clear();
+			}
 		}
 
 		public int writeInit = -1 ;
@@ -348,6 +668,52 @@ final public class BufferedInputOutput implements DirectReadWriteIO {
 	private final RoxDeque<Block> blocksToWrite = new RoxDeque<>() ;
 	private long unflushedDataSize = 0 ;
 	
+	private void addUnflushedDataSize(long size) {
+		if (size == 0) return ;
+		unflushedDataSize += size ;
+		flushScheduler.addUnflushedBytes(this, size, true);
+	}
+	
+	private void clearUnflushedDataSize() {
+		flushScheduler.addUnflushedBytes(this, -unflushedDataSize, false);
+		unflushedDataSize = 0 ;
+	}
+	
+	/**
+	 * If the unflushed bytes of all the instances of the scheduler are over its limit, the instances holding
+	 * unflushed bytes are flushed by the scheduler threads (an idle instance can hold most of them),
+	 * and the writer flushes its own data only if it holds at least its share of the unflushed bytes.
+	 */
+	private void applyBackPressure() throws IOException {
+		BufferedFlushScheduler flushScheduler = this.flushScheduler ;
+		if ( !flushScheduler.isOverUnflushedLimit() ) return ;
+		
+		flushScheduler.requestFlushes(this);
+		
+		if ( unflushedDataSize * flushScheduler.getUnflushedInstances() >= flushScheduler.getUnflushedBytes() ) {
+			flush(true);
+		}
+	}
+	
+	final private AtomicBoolean backPressureFlushRequested = new AtomicBoolean() ;
+	
+	/**
+	 * @return true if a back-pressure flush wasn't already requested, and should be executed with {@link #backPressureFlush()}.
+	 */
+	protected boolean requestBackPressureFlush() {
+		return backPressureFlushRequested.compareAndSet(false, true) ;
+	}
+	
+	protected void backPressureFlush() {
+		backPressureFlushRequested.set(false);
+		
+		try {
+			flush(true);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
 	private Block getBlock(int blockIdx) throws IOException {
 		if ( blockIdx >= this.blocks.length ) {
 			int blkArraySz = ((blockIdx / 1024)+1) * 1024 ;
@@ -365,36 +731,137 @@ final public class BufferedInputOutput implements DirectReadWriteIO {
 	private Block getBlockForRead(int blockIdx) throws IOException {
 		Block block = getBlock(blockIdx) ;
 		
-		byte[] data = block != null ? block.getAndHoldRead() : null ;
-		
-		if (data == null) {
-			data = instantiateBlockData(blockIdx) ;
-			block = new Block(blockIdx, data) ;
-			block.holdRead();
-			
+		if ( block != null && block.holdRead() ) {
+			if (pageCache != null) pageCache.recordHit();
+		}
+		else {
+			block = newBlock(blockIdx) ;
 			blocks[blockIdx] = block ;
+			
+			if (pageCache != null) pageCache.recordMiss();
 		}
 		
+		detectSequentialRead(blockIdx);
+		
 		return block;
 	}
 
-	private Block getBlockForWrite(int blockIdx) throws IOException {
+	/**
+	 * @return the cached block held for read, or null if not cached.
+	 */
+	private Block getCachedBlockForRead(int blockIdx) throws IOException {
 		Block block = getBlock(blockIdx) ;
+		if ( block == null || !block.holdRead() ) return null ;
+		
+		if (pageCache != null) pageCache.recordHit();
 		
-		byte[] data = block != null ? block.getAndHoldWrite(blocksToWrite) : null ;
+		detectSequentialRead(blockIdx);
 		
-		if (data == null) {
-			data = instantiateBlockData(blockIdx) ;
+		return block ;
+	}
+	
+	/**
+	 * Installs a block loaded by {@link #loadBlock(int, long)} outside the mutex. The loaded block is discarded
+	 * if the block was cached in the meantime or if the data on disk changed since {@code version}.
+	 * 
+	 * @return the block at {@code blockIdx} held for read.
+	 */
+	private Block installBlock(int blockIdx, Block loaded, long version) throws IOException {
+		if ( version == this.modVersion ) {
+			Block block = getBlock(blockIdx) ;
+			
+			if ( block == null || !block.holdRead() ) {
+				blocks[blockIdx] = loaded ;
+				
+				if (pageCache != null) pageCache.recordMiss();
+				
+				detectSequentialRead(blockIdx);
+				
+				return loaded ;
+			}
 			
-			block = new Block(blockIdx, data) ;
-			block.holdWrite(blocksToWrite);
+			loaded.dispose();
 			
-			blocks[blockIdx] = block ;
+			if (pageCache != null) pageCache.recordHit();
+			
+			detectSequentialRead(blockIdx);
+			
+			return block ;
 		}
 		
+		loaded.dispose();
+		
+		return getBlockForRead(blockIdx) ;
+	}
+	
+	/**
+	 * Loads a block with positional IO, without the mutex. The returned block is held for read and isn't installed.
+	 * 
+	 * @param size The length of the data when the load was decided.
+	 */
+	private Block loadBlock(int blockIdx, long size) throws IOException {
+		assert( channel != null ) ;
+		
+		if ( pageCache != null && pageCache.isOffHeap() ) {
+			BufferedPageCache.Page page = pageCache.allocate(blockSize) ;
+			
+			try {
+				readBlockData(blockIdx, page.getBuffer(), size);
+			}
+			catch (IOException e) {
+				page.release();
+				throw e ;
+			}
+			
+			return new Block(blockIdx, page) ;
+		}
+		
+		byte[] data = new byte[blockSize] ;
+		readBlockData(blockIdx, ByteBuffer.wrap(data), size);
+		
+		return new Block(blockIdx, data) ;
+	}
+
+	private Block getBlockForWrite(int blockIdx) throws IOException {
+		Block block = getBlock(blockIdx) ;
+		
+		if ( block != null && block.holdWriteIfCached(blocksToWrite) ) {
+			if (pageCache != null) pageCache.recordHit();
+			return block ;
+		}
+		
+		block = newBlock(blockIdx) ;
+		block.holdWrite(blocksToWrite);
+		block.releaseRead();
+		
+		blocks[blockIdx] = block ;
+		
+		if (pageCache != null) pageCache.recordMiss();
+		
 		return block;
 	}
 	
+	/**
+	 * @return A new block with the data at {@code blockIdx}, already held for read.
+	 */
+	private Block newBlock(int blockIdx) throws IOException {
+		if ( pageCache != null && pageCache.isOffHeap() ) {
+			BufferedPageCache.Page page = pageCache.allocate(blockSize) ;
+			
+			try {
+				readBlockData(blockIdx, page.getBuffer(), size);
+			}
+			catch (IOException e) {
+				page.release();
+				throw e ;
+			}
+			
+			return new Block(blockIdx, page) ;
+		}
+		
+		return new Block(blockIdx, instantiateBlockData(blockIdx)) ;
+	}
+	
 	private byte[] instantiateBlockData(int blockIdx) throws IOException {
 		long initPos = blockIdx*blockSizeL ;
 		
@@ -414,6 +881,64 @@ final public class BufferedInputOutput implements DirectReadWriteIO {
 		return blk ;
 	}
 	
+	static final private byte[] ZEROS = new byte[1024*4] ;
+	
+	/**
+	 * The {@link FileChannel} is shared by all the users of the {@link RandomAccessFile}, and an interrupted thread
+	 * doing channel IO closes it (and the file) for everybody. Interrupted threads use the {@link RandomAccessFile}
+	 * (not interruptible), holding the mutex, and keep the interrupt flag.
+	 */
+	private boolean canUseChannel() {
+		return channel != null && !Thread.currentThread().isInterrupted() ;
+	}
+	
+	/**
+	 * Reads the data at {@code blockIdx} into a recycled off-heap page, or a read-ahead buffer
+	 * (positional IO if there's a {@link FileChannel}, otherwise through the input holding the mutex).
+	 */
+	private void readBlockData(int blockIdx, ByteBuffer data, long size) throws IOException {
+		long initPos = blockIdx*blockSizeL ;
+		
+		long endPos = initPos+blockSize ;
+		
+		if (endPos > size) endPos = size ;
+		
+		int lng = (int) (endPos - initPos) ;
+		
+		ByteBuffer dst = data.duplicate() ;
+		
+		if (lng > 0) {
+			dst.limit(lng) ;
+			
+			if ( canUseChannel() ) {
+				long pos = initPos ;
+				
+				while ( dst.hasRemaining() ) {
+					int r = channel.read(dst, pos) ;
+					if (r < 0) break ;
+					pos += r ;
+				}
+			}
+			else {
+				byte[] blk = new byte[lng] ;
+				
+				synchronized (mutex) {
+					in.seek(initPos);
+					in.read(blk) ;
+				}
+				
+				dst.put(blk) ;
+			}
+		}
+		
+		// Recycled pages aren't zeroed:
+		dst.limit(blockSize) ;
+		
+		while ( dst.hasRemaining() ) {
+			dst.put(ZEROS, 0, Math.min(ZEROS.length, dst.remaining())) ;
+		}
+	}
+	
 	public void setLength(long length) throws IOException {
 		
 		synchronized (mutex) {
@@ -442,6 +967,10 @@ final public class BufferedInputOutput implements DirectReadWriteIO {
 				}
 			}
 			
+			if ( blocksToWrite.isEmpty() ) clearUnflushedDataSize();
+			
+			modVersion++ ;
+			
 			size = length ;
 			out.setLength(length);
 			
@@ -501,15 +1030,20 @@ final public class BufferedInputOutput implements DirectReadWriteIO {
 			
 			//System.out.println("BufferedInputOutput>> -- unflushedDataSize: "+ unflushedDataSize);
 			
+			FlushListener flushListener = this.flushListener ;
+			if (flushListener != null) flushListener.beforeFlush(this) ;
+			
 			for (Block block : blocksToWrite) {
 				assert( block.isHoldingWrite() ) ;
 				flushBlock( block ) ;
 			}
 			
 			blocksToWrite.clear();
-			unflushedDataSize = 0 ;
+			clearUnflushedDataSize();
 			flushDelayedTime = 0 ;
 			
+			if (pageCache != null) pageCache.trim();
+			
 			long outLng = out.length() ;
 			
 			if (this.size != outLng) {
@@ -530,10 +1064,6 @@ final public class BufferedInputOutput implements DirectReadWriteIO {
 		
 		int blockIdx = block.getIndex() ;
 		
-		byte[] blockData = block.get() ;
-		
-		assert(blockData != null) ;
-		
 		long initBlockPos = blockIdx*blockSizeL ;
 		
 		long writeInit = initBlockPos + block.writeInit ;
@@ -555,13 +1085,263 @@ final public class BufferedInputOutput implements DirectReadWriteIO {
 		
 		int writeLng = (int) (writeEnd - writeInit) ;
 		
-		out.seek(writeInit);
-		out.write(blockData, block.writeInit, writeLng);
+		if ( block.isDirect() ) {
+			writeBlockData(block.getBuffer(), block.writeInit, writeInit, writeLng) ;
+		}
+		else {
+			byte[] blockData = block.get() ;
+			assert(blockData != null) ;
+			
+			out.seek(writeInit);
+			out.write(blockData, block.writeInit, writeLng);
+		}
 		
 		block.clearWriteMark();
 		block.releaseWrite();
 	}
 	
+	private void writeBlockData(ByteBuffer data, int dataPos, long pos, int lng) throws IOException {
+		ByteBuffer src = data.duplicate() ;
+		src.limit(dataPos+lng) ;
+		src.position(dataPos) ;
+		
+		if ( canUseChannel() ) {
+			while ( src.hasRemaining() ) {
+				pos += channel.write(src, pos) ;
+			}
+		}
+		else {
+			byte[] blk = new byte[lng] ;
+			src.get(blk) ;
+			
+			synchronized (mutex) {
+				out.seek(pos);
+				out.write(blk);
+			}
+		}
+	}
+	
+	////////////////////////////////////////////////////////////////////////////////////////////
+	
+	static final public int DEFAULT_MAX_READ_AHEAD_BLOCKS = 16 ;
+	
+	/**
+	 * Number of concurrent sequential streams tracked per instance.
+	 */
+	static final private int READ_AHEAD_STREAMS = 4 ;
+	
+	/**
+	 * Consecutive blocks read by a stream before it's considered sequential.
+	 */
+	static final private int READ_AHEAD_THRESHOLD = 2 ;
+	
+	static private ExecutorService readAheadExecutor ;
+	
+	static synchronized private ExecutorService getReadAheadExecutor() {
+		if (readAheadExecutor == null) {
+			final AtomicInteger threadCount = new AtomicInteger() ;
+			int threads = Math.max(2, Runtime.getRuntime().availableProcessors()) ;
+			
+			ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "BufferedInputOutput::readAhead-"+ threadCount.incrementAndGet()) ;
+					thread.setDaemon(true);
+					return thread ;
+				}
+			}) ;
+			
+			executor.allowCoreThreadTimeOut(true);
+			
+			readAheadExecutor = executor ;
+		}
+		
+		return readAheadExecutor ;
+	}
+	
+	private int maxReadAheadBlocks = DEFAULT_MAX_READ_AHEAD_BLOCKS ;
+	
+	final private int[] streamLastBlock = new int[READ_AHEAD_STREAMS] ;
+	final private int[] streamRun = new int[READ_AHEAD_STREAMS] ;
+	final private int[] streamWindow = new int[READ_AHEAD_STREAMS] ;
+	final private int[] streamReadAheadEnd = new int[READ_AHEAD_STREAMS] ;
+	private int streamReplaceIndex = 0 ;
+	
+	private boolean readAheadRunning = false ;
+	private long totalReadAheadBlocks = 0 ;
+	
+	/**
+	 * Incremented when a cached block is modified or cached blocks are discarded, to discard blocks read outside
+	 * the mutex concurrently. A plain flush doesn't need it: it only writes blocks already modified, and a
+	 * block loaded before the modification was already discarded by it.
+	 */
+	private long modVersion = 0 ;
+	
+	/**
+	 * @param maxReadAheadBlocks Maximum window of blocks prefetched for a sequential stream. 0 disables read-ahead.
+	 */
+	public void setMaxReadAheadBlocks(int maxReadAheadBlocks) {
+		if (maxReadAheadBlocks < 0) throw new IllegalArgumentException("Invalid maxReadAheadBlocks: "+ maxReadAheadBlocks) ;
+		
+		synchronized (mutex) {
+			this.maxReadAheadBlocks = maxReadAheadBlocks;
+		}
+	}
+	
+	public int getMaxReadAheadBlocks() {
+		synchronized (mutex) {
+			return maxReadAheadBlocks;
+		}
+	}
+	
+	/**
+	 * @return the number of blocks loaded by read-ahead.
+	 */
+	public long getTotalReadAheadBlocks() {
+		synchronized (mutex) {
+			return totalReadAheadBlocks;
+		}
+	}
+	
+	/**
+	 * Tracks the sequential streams of reads. A stream that reads {@link #READ_AHEAD_THRESHOLD} consecutive blocks gets
+	 * its next blocks prefetched asynchronously, with a window that doubles up to {@link #getMaxReadAheadBlocks()}.
+	 * A read out of all the streams replaces the oldest one, so random access doesn't trigger read-ahead.
+	 */
+	private void detectSequentialRead(int blockIdx) {
+		if (maxReadAheadBlocks <= 0) return ;
+		
+		int stream = -1 ;
+		
+		for (int i = 0; i < READ_AHEAD_STREAMS; i++) {
+			int last = streamLastBlock[i] ;
+			
+			if (last == blockIdx) return ;
+			
+			if (last == blockIdx-1) {
+				stream = i ;
+				break ;
+			}
+		}
+		
+		if (stream < 0) {
+			stream = streamReplaceIndex ;
+			streamReplaceIndex = (streamReplaceIndex+1) % READ_AHEAD_STREAMS ;
+			
+			streamLastBlock[stream] = blockIdx ;
+			streamRun[stream] = 0 ;
+			streamWindow[stream] = 0 ;
+			streamReadAheadEnd[stream] = blockIdx+1 ;
+			return ;
+		}
+		
+		streamLastBlock[stream] = blockIdx ;
+		int run = ++streamRun[stream] ;
+		
+		if (run < READ_AHEAD_THRESHOLD || readAheadRunning) return ;
+		
+		int window = streamWindow[stream] ;
+		int readAheadEnd = streamReadAheadEnd[stream] ;
+		
+		// Still enough blocks ahead:
+		if (readAheadEnd-blockIdx > window/2) return ;
+		
+		window = window == 0 ? READ_AHEAD_THRESHOLD : Math.min(window*2, maxReadAheadBlocks) ;
+		streamWindow[stream] = window ;
+		
+		int from = Math.max(blockIdx+1, readAheadEnd) ;
+		int to = blockIdx+1+window ;
+		
+		int totalBlocks = (int) ((size+blockSize-1)/blockSize) ;
+		if (to > totalBlocks) to = totalBlocks ;
+		
+		if (from >= to) return ;
+		
+		streamReadAheadEnd[stream] = to ;
+		
+		final int readFrom = from ;
+		final int readTo = to ;
+		
+		readAheadRunning = true ;
+		
+		getReadAheadExecutor().execute(new Runnable() {
+			@Override
+			public void run() {
+				readAhead(readFrom, readTo);
+			}
+		});
+	}
+	
+	private void readAhead(int from, int to) {
+		try {
+			for (int i = from; i < to; i++) {
+				if ( !readAheadBlock(i) ) break ;
+			}
+		}
+		catch (ClosedChannelException e) {
+			// The file was closed while reading ahead.
+		}
+		catch (IOException e) {
+			e.printStackTrace();
+		}
+		finally {
+			synchronized (mutex) {
+				readAheadRunning = false ;
+			}
+		}
+	}
+	
+	/**
+	 * Loads a block into the cache. With a {@link FileChannel} the block is read outside the mutex,
+	 * and discarded if the instance was modified in the meantime.
+	 * 
+	 * @return false if the block is out of the data.
+	 */
+	private boolean readAheadBlock(int blockIdx) throws IOException {
+		long version ;
+		long size ;
+		
+		synchronized (mutex) {
+			if ( blockIdx*blockSizeL >= this.size ) return false ;
+			if ( isCached(blockIdx) ) return true ;
+			
+			if (channel == null) {
+				Block block = newBlock(blockIdx) ;
+				block.releaseRead();
+				blocks[blockIdx] = block ;
+				
+				totalReadAheadBlocks++ ;
+				return true ;
+			}
+			
+			version = this.modVersion ;
+			size = this.size ;
+		}
+		
+		Block block = loadBlock(blockIdx, size) ;
+		
+		synchronized (mutex) {
+			if ( version != this.modVersion || isCached(blockIdx) ) {
+				block.dispose();
+				return true ;
+			}
+			
+			block.releaseRead();
+			blocks[blockIdx] = block ;
+			
+			totalReadAheadBlocks++ ;
+			return true ;
+		}
+	}
+	
+	private boolean isCached(int blockIdx) throws IOException {
+		Block block = getBlock(blockIdx) ;
+		if (block == null || !block.holdRead()) return false ;
+		
+		block.releaseRead();
+		return true ;
+	}
+	
 	////////////////////////////////////////////////////////////////////////////////////////////
 
 	public void reset() throws IOException {
@@ -578,6 +1358,9 @@ final public class BufferedInputOutput implements DirectReadWriteIO {
 			}
 			
 			blocksToWrite.clear();
+			clearUnflushedDataSize();
+			
+			modVersion++ ;
 		}
 	}
 	
@@ -730,8 +1513,6 @@ final public class BufferedInputOutput implements DirectReadWriteIO {
 		}
 	}
 	
-	static final private Timer flushTimer = new Timer("BufferedInputOutput::flushTimer",true) ;
-	
 	public void scheduleFlush(int delay) {
 		scheduleFlush(delay, false);
 	}
@@ -740,6 +1521,14 @@ final public class BufferedInputOutput implements DirectReadWriteIO {
 		scheduleFlush(delay, repeatedly, false);
 	}
 	
+	/**
+	 * The pending (not repeated) scheduled flush. Other scheduled flushes are coalesced into it.
+	 */
+	private Runnable scheduledFlushTask ;
+	private ScheduledFuture<?> scheduledFlushFuture ;
+	private long scheduledFlushTime ;
+	private boolean scheduledFlushFromAccumulator ;
+	
 	private void scheduleFlush(int delay, boolean repeatedly, final boolean fromInternalAccumulator) {
 		
 		synchronized (mutex) {
@@ -753,28 +1542,78 @@ final public class BufferedInputOutput implements DirectReadWriteIO {
 				}
 				return ;
 			}
-
-			TimerTask task = new TimerTask() {
+			
+			if (repeatedly) {
+				flushScheduler.scheduleRepeatedly(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							flush(false, true, fromInternalAccumulator);
+						} catch (IOException e) {
+							e.printStackTrace();
+						}
+					}
+				}, delay) ;
 				
+				return ;
+			}
+			
+			long time = System.currentTimeMillis() + delay ;
+			
+			if (scheduledFlushTask != null) {
+				if (scheduledFlushTime <= time) {
+					if (fromInternalAccumulator) scheduledFlushFromAccumulator = true ;
+					return ;
+				}
+				
+				// The new flush is sooner: replaces the pending one, keeping its accumulator flag.
+				scheduledFlushFuture.cancel(false) ;
+			}
+			else {
+				scheduledFlushFromAccumulator = false ;
+			}
+			
+			Runnable task = new Runnable() {
 				@Override
 				public void run() {
-					try {
-						flush(false, true, fromInternalAccumulator);
-					} catch (IOException e) {
-						e.printStackTrace();
-					}
+					runScheduledFlush(this);
 				}
 			};
 			
-			if (repeatedly) {
-				flushTimer.schedule(task, delay,delay);
+			this.scheduledFlushTask = task ;
+			this.scheduledFlushTime = time ;
+			this.scheduledFlushFromAccumulator |= fromInternalAccumulator ;
+			this.scheduledFlushFuture = flushScheduler.schedule(task, delay) ;
+		}
+		
+	}
+	
+	private void runScheduledFlush(Runnable task) {
+		
+		synchronized (mutex) {
+			if (scheduledFlushTask != task) return ;
+			
+			boolean fromInternalAccumulator = scheduledFlushFromAccumulator ;
+			cancelScheduledFlush();
+			
+			try {
+				flush(false, true, fromInternalAccumulator);
+			} catch (IOException e) {
+				e.printStackTrace();
 			}
-			else {
-				flushTimer.schedule(task, delay);	
-			}	
 		}
 		
 	}
+	
+	private void cancelScheduledFlush() {
+		if (scheduledFlushTask == null) return ;
+		
+		scheduledFlushFuture.cancel(false) ;
+		
+		scheduledFlushTask = null ;
+		scheduledFlushFuture = null ;
+		scheduledFlushFromAccumulator = false ;
+	}
 
 	public void dispose() {
 
@@ -790,7 +1629,10 @@ final public class BufferedInputOutput implements DirectReadWriteIO {
 				blocks[i] = null ;
 			}
 			
-			unflushedDataSize = 0 ;
+			clearUnflushedDataSize();
+			cancelScheduledFlush();
+			
+			modVersion++ ;
 			
 		}
 		
@@ -0,0 +1,491 @@
+package roxtools.io;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A page cache with a hard byte budget, that can be shared by many {@link BufferedInputOutput} instances
+ * (see {@link BufferedInputOutput#setDefaultPageCache(BufferedPageCache)}).
+ * <p>
+ * Pages are evicted with the CLOCK (second chance) policy. Pages in use (pinned) or with unflushed
+ * writes (dirty) are never evicted, so the budget can be exceeded while they can't be released:
+ * see {@link #getOvercommittedBytes()}.
+ * <p>
+ * An off-heap cache (see {@link #BufferedPageCache(long, boolean)}) keeps the pages in direct {@link ByteBuffer}s,
+ * sliced from slabs allocated in chunks of up to {@link #SLAB_SIZE} and recycled when pages are evicted,
+ * so the cached data stays out of the Java heap and off the GC's work. A slab with all its pages free is released
+ * while the allocated direct memory is over the budget, so the recycled free memory is capped to the budget.
+ */
+final public class BufferedPageCache {
+
+	static final public class Page {
+
+		final private BufferedPageCache cache ;
+		final private int size ;
+
+		volatile private byte[] data ;
+		volatile private ByteBuffer buffer ;
+		private Slab slab ;
+
+		static final private int EVICTED = -1 ;
+		static final private int EVICTING = -2 ;
+		
+		/**
+		 * Number of pins, {@link #EVICTED} or {@link #EVICTING} (while an eviction attempt checks the dirty flag).
+		 */
+		final private AtomicInteger pins = new AtomicInteger(1) ;
+
+		volatile private boolean referenced = true ;
+		volatile private boolean dirty = false ;
+
+		private int slot = -1 ;
+
+		private Page(BufferedPageCache cache, byte[] data) {
+			this.cache = cache;
+			this.size = data.length ;
+			this.data = data;
+		}
+
+		private Page(BufferedPageCache cache, Slab slab, ByteBuffer buffer) {
+			this.cache = cache;
+			this.size = buffer.capacity() ;
+			this.buffer = buffer;
+			this.slab = slab ;
+		}
+
+		public BufferedPageCache getCache() {
+			return cache;
+		}
+
+		public int size() {
+			return size;
+		}
+
+		/**
+		 * @return the page data, or null if evicted or if it's an off-heap page.
+		 */
+		public byte[] get() {
+			return data;
+		}
+
+		/**
+		 * @return the off-heap page data, or null if evicted or if it's a heap page. Only valid while pinned or dirty,
+		 * since after eviction the buffer is reused by other pages. Use only absolute get/put or duplicates.
+		 */
+		public ByteBuffer getBuffer() {
+			return buffer;
+		}
+
+		public boolean isDirect() {
+			return cache.offHeap ;
+		}
+
+		/**
+		 * Pins the page, so it can't be evicted until {@link #unpin()}.
+		 *
+		 * @return false if the page was already evicted.
+		 */
+		public boolean pin() {
+			while (true) {
+				int p = pins.get() ;
+				if (p == EVICTED) return false ;
+				
+				// The eviction attempt can still fail (dirty page), so waits for its result:
+				if (p == EVICTING) {
+					Thread.onSpinWait();
+					continue ;
+				}
+
+				if ( pins.compareAndSet(p, p+1) ) {
+					this.referenced = true ;
+					return true ;
+				}
+			}
+		}
+
+		public void unpin() {
+			pins.decrementAndGet() ;
+		}
+
+		public boolean isEvicted() {
+			return pins.get() == EVICTED ;
+		}
+
+		public boolean isDirty() {
+			return dirty;
+		}
+
+		/**
+		 * Dirty pages aren't evicted. Should be set while the page is pinned.
+		 */
+		public void setDirty(boolean dirty) {
+			this.dirty = dirty;
+		}
+
+		private boolean tryEvict() {
+			// Setting dirty requires a pin, so a clean unpinned page can only become dirty after a pin:
+			if (dirty) return false ;
+			
+			if ( !pins.compareAndSet(0, EVICTING) ) return false ;
+
+			// Dirty set by a pin/unpin between the check and the CAS:
+			if (dirty) {
+				pins.set(0) ;
+				return false ;
+			}
+			
+			pins.set(EVICTED) ;
+
+			this.data = null ;
+			cache.recycleBuffer(this) ;
+			return true ;
+		}
+
+		/**
+		 * Releases the page from its cache (the page owner discarded it).
+		 */
+		public void release() {
+			cache.release(this) ;
+		}
+
+	}
+
+	////////////////////////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * Maximum size of the direct memory chunks allocated by off-heap caches (also limited by the budget).
+	 */
+	static final public int SLAB_SIZE = 1024*1024 ;
+
+	/**
+	 * A direct memory chunk, sliced in pages of the same size.
+	 */
+	static final private class Slab {
+		final private int pageSize ;
+		final private int capacity ;
+		final private int totalSlices ;
+		final private ArrayDeque<ByteBuffer> freeSlices = new ArrayDeque<>() ;
+
+		/**
+		 * If it's in the list of slabs with free slices.
+		 */
+		private boolean available ;
+
+		private Slab(int pageSize, int slices) {
+			this.pageSize = pageSize ;
+			this.totalSlices = slices ;
+
+			ByteBuffer memory = ByteBuffer.allocateDirect(pageSize*slices) ;
+			this.capacity = memory.capacity() ;
+
+			for (int i = 0; i < slices; i++) {
+				memory.limit( (i+1)*pageSize ) ;
+				memory.position( i*pageSize ) ;
+				freeSlices.add( memory.slice() ) ;
+			}
+		}
+
+		private boolean isAllFree() {
+			return freeSlices.size() == totalSlices ;
+		}
+	}
+
+	private long maxBytes ;
+
+	final private boolean offHeap ;
+
+	/**
+	 * The slabs with free slices, by page size. The most recently recycled slabs are used first,
+	 * so the pages are concentrated and the other slabs can become free.
+	 */
+	final private HashMap<Integer, ArrayDeque<Slab>> freeSlabs ;
+	private long offHeapAllocatedBytes = 0 ;
+
+	private Page[] pages = new Page[1024] ;
+	private int totalPages = 0 ;
+	private int clockHand = 0 ;
+
+	private long usedBytes = 0 ;
+
+	final private AtomicLong hits = new AtomicLong() ;
+	final private AtomicLong misses = new AtomicLong() ;
+	private long evictions = 0 ;
+
+	public BufferedPageCache(long maxBytes) {
+		this(maxBytes, false) ;
+	}
+
+	/**
+	 * @param offHeap If true the pages are kept in pooled direct {@link ByteBuffer}s (see {@link #allocate(int)}).
+	 */
+	public BufferedPageCache(long maxBytes, boolean offHeap) {
+		if (maxBytes <= 0) throw new IllegalArgumentException("Invalid maxBytes: "+ maxBytes) ;
+		this.maxBytes = maxBytes;
+		this.offHeap = offHeap ;
+		this.freeSlabs = offHeap ? new HashMap<Integer, ArrayDeque<Slab>>() : null ;
+	}
+
+	public boolean isOffHeap() {
+		return offHeap;
+	}
+
+	synchronized public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	synchronized public void setMaxBytes(long maxBytes) {
+		if (maxBytes <= 0) throw new IllegalArgumentException("Invalid maxBytes: "+ maxBytes) ;
+		this.maxBytes = maxBytes;
+
+		evict(0) ;
+		releaseFreeSlabs() ;
+	}
+
+	/**
+	 * Evicts pages until the cache is inside its budget (if possible). Called after dirty pages are flushed.
+	 */
+	synchronized public void trim() {
+		if (usedBytes > maxBytes) evict(0) ;
+	}
+	
+	synchronized public long getUsedBytes() {
+		return usedBytes;
+	}
+
+	/**
+	 * @return the bytes over the budget, held by pinned or dirty pages.
+	 */
+	synchronized public long getOvercommittedBytes() {
+		return Math.max(0, usedBytes - maxBytes) ;
+	}
+
+	/**
+	 * @return the direct memory allocated by an off-heap cache, including the recycled buffers not in use
+	 * (capped to the budget, unless the allocated slabs have pages in use).
+	 */
+	synchronized public long getOffHeapAllocatedBytes() {
+		return offHeapAllocatedBytes;
+	}
+
+	synchronized public int getTotalPages() {
+		return totalPages;
+	}
+
+	public long getHits() {
+		return hits.get() ;
+	}
+
+	public long getMisses() {
+		return misses.get() ;
+	}
+
+	synchronized public long getEvictions() {
+		return evictions;
+	}
+
+	public double getHitRatio() {
+		long hits = this.hits.get() ;
+		long total = hits + this.misses.get() ;
+		return total > 0 ? hits / (double) total : 0 ;
+	}
+
+	public void resetStatistics() {
+		hits.set(0) ;
+		misses.set(0) ;
+
+		synchronized (this) {
+			evictions = 0 ;
+		}
+	}
+
+	protected void recordHit() {
+		hits.incrementAndGet() ;
+	}
+
+	protected void recordMiss() {
+		misses.incrementAndGet() ;
+	}
+
+	/**
+	 * Adds a page with {@code data} to the cache, evicting other pages to keep the budget.
+	 *
+	 * @return the new page, already pinned.
+	 */
+	synchronized public Page admit(byte[] data) {
+		if (offHeap) throw new IllegalStateException("Off-heap cache: use allocate()") ;
+
+		evict(data.length) ;
+
+		return addPage( new Page(this, data) ) ;
+	}
+
+	/**
+	 * Adds an off-heap page of {@code size} bytes to the cache, evicting other pages to keep the budget.
+	 * The page buffer is recycled, so its content is undefined.
+	 *
+	 * @return the new page, already pinned.
+	 */
+	synchronized public Page allocate(int size) {
+		if (!offHeap) throw new IllegalStateException("Not an off-heap cache: use admit()") ;
+		if (size <= 0) throw new IllegalArgumentException("Invalid size: "+ size) ;
+
+		evict(size) ;
+
+		return addPage( newOffHeapPage(size) ) ;
+	}
+
+	private Page addPage(Page page) {
+		if ( totalPages == pages.length ) {
+			Page[] pages2 = new Page[ pages.length*2 ] ;
+			System.arraycopy(pages, 0, pages2, 0, totalPages);
+			this.pages = pages2 ;
+		}
+
+		page.slot = totalPages ;
+		pages[totalPages++] = page ;
+
+		usedBytes += page.size ;
+
+		return page ;
+	}
+
+	synchronized private void release(Page page) {
+		if (page.slot < 0) return ;
+
+		page.pins.set(Page.EVICTED) ;
+		page.data = null ;
+		recycleBuffer(page) ;
+
+		removeSlot(page.slot) ;
+	}
+
+	private void removeSlot(int slot) {
+		Page page = pages[slot] ;
+
+		int last = --totalPages ;
+
+		if (slot != last) {
+			Page lastPage = pages[last] ;
+			pages[slot] = lastPage ;
+			lastPage.slot = slot ;
+		}
+
+		pages[last] = null ;
+		page.slot = -1 ;
+
+		usedBytes -= page.size ;
+
+		if (clockHand >= totalPages) clockHand = 0 ;
+	}
+
+	private Page newOffHeapPage(int size) {
+		ArrayDeque<Slab> slabs = freeSlabs.get(size) ;
+
+		if (slabs == null) {
+			slabs = new ArrayDeque<>() ;
+			freeSlabs.put(size, slabs) ;
+		}
+
+		Slab slab = slabs.peek() ;
+
+		if (slab == null) {
+			long slabSize = Math.min(SLAB_SIZE, maxBytes) ;
+			slab = new Slab(size, (int) Math.max(1, slabSize/size)) ;
+
+			offHeapAllocatedBytes += slab.capacity ;
+
+			slabs.push(slab) ;
+			slab.available = true ;
+		}
+
+		ByteBuffer buffer = slab.freeSlices.poll() ;
+
+		if ( slab.freeSlices.isEmpty() ) {
+			slabs.poll() ;
+			slab.available = false ;
+		}
+
+		return new Page(this, slab, buffer) ;
+	}
+
+	private void recycleBuffer(Page page) {
+		ByteBuffer buffer = page.buffer ;
+		if (buffer == null) return ;
+
+		Slab slab = page.slab ;
+
+		page.buffer = null ;
+		page.slab = null ;
+
+		buffer.clear() ;
+		slab.freeSlices.add(buffer) ;
+
+		ArrayDeque<Slab> slabs = freeSlabs.get(slab.pageSize) ;
+
+		if ( slab.isAllFree() && offHeapAllocatedBytes > maxBytes ) {
+			if (slab.available) slabs.remove(slab) ;
+			releaseSlab(slab) ;
+		}
+		else if ( !slab.available ) {
+			slabs.push(slab) ;
+			slab.available = true ;
+		}
+	}
+
+	/**
+	 * The direct memory is freed by the GC, once the pages sliced from the slab aren't referenced.
+	 */
+	private void releaseSlab(Slab slab) {
+		slab.available = false ;
+		offHeapAllocatedBytes -= slab.capacity ;
+	}
+
+	/**
+	 * Releases the slabs with all their pages free while the allocated direct memory is over the budget.
+	 */
+	private void releaseFreeSlabs() {
+		if (!offHeap) return ;
+
+		for (ArrayDeque<Slab> slabs : freeSlabs.values()) {
+			for (Iterator<Slab> it = slabs.iterator(); it.hasNext() && offHeapAllocatedBytes > maxBytes;) {
+				Slab slab = it.next() ;
+
+				if ( slab.isAllFree() ) {
+					it.remove();
+					releaseSlab(slab) ;
+				}
+			}
+		}
+	}
+
+	private void evict(int neededBytes) {
+		// Each page can be visited twice: the first visit only clears the referenced bit.
+		int maxVisits = totalPages*2 ;
+
+		for (int visits = 0; visits < maxVisits && usedBytes + neededBytes > maxBytes && totalPages > 0; visits++) {
+			Page page = pages[clockHand] ;
+
+			if (page.referenced) {
+				page.referenced = false ;
+			}
+			else if ( page.tryEvict() ) {
+				removeSlot(clockHand) ;
+				evictions++ ;
+				continue ;
+			}
+
+			clockHand++ ;
+			if (clockHand >= totalPages) clockHand = 0 ;
+		}
+	}
+
+	@Override
+	synchronized public String toString() {
+		return "BufferedPageCache["+ (offHeap ? "off-heap ; " : "") +"usedBytes: "+ usedBytes +"/"+ maxBytes +" ; pages: "+ totalPages +" ; hits: "+ hits +" ; misses: "+ misses +" ; evictions: "+ evictions +"]" ;
+	}
+
+}
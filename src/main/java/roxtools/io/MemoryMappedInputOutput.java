@@ -0,0 +1,168 @@
+package roxtools.io;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+final public class MemoryMappedInputOutput implements DirectReadWriteIO {
+
+	final private RandomAccessFile inOut ;
+	final private FileChannel channel ;
+
+	private MappedByteBuffer buffer ;
+	private int size ;
+
+	public MemoryMappedInputOutput(RandomAccessFile inOut) throws IOException {
+		this.inOut = inOut;
+		this.channel = inOut.getChannel() ;
+
+		map( inOut.length() );
+	}
+
+	private void map(long length) throws IOException {
+		if (length > Integer.MAX_VALUE) throw new IOException("Can't memory-map file with length > "+ Integer.MAX_VALUE +": "+ length) ;
+
+		this.buffer = channel.map(MapMode.READ_WRITE, 0, length) ;
+		this.size = (int) length ;
+	}
+
+	private ByteBuffer slice(long pos) {
+		ByteBuffer buff = this.buffer.duplicate() ;
+		buff.position( (int) pos ) ;
+		return buff ;
+	}
+
+	private void checkWrite(long pos, int length) throws IOException {
+		if (pos < 0 || pos+length > size) throw new IOException("Writing outside of mapped region: pos: "+ pos +" + length: "+ length +" > "+ size) ;
+	}
+
+	//////////////////////////////////////////////////////
+
+	@Override
+	public int read(long pos) throws IOException {
+		if (pos < 0 || pos >= size) return -1 ;
+		return buffer.get( (int) pos ) & 0xFF ;
+	}
+
+	@Override
+	public int read(long pos, byte[] buffer) throws IOException {
+		return read(pos, buffer, 0, buffer.length) ;
+	}
+
+	@Override
+	public int read(long pos, byte[] buffer, int offset, int length) throws IOException {
+		if (pos < 0 || pos >= size) return -1 ;
+
+		long remain = size-pos ;
+		if (length > remain) length = (int) remain ;
+
+		slice(pos).get(buffer, offset, length) ;
+
+		return length ;
+	}
+
+	@Override
+	public void write(long pos, int b) throws IOException {
+		checkWrite(pos, 1) ;
+		buffer.put( (int) pos , (byte) b ) ;
+	}
+
+	@Override
+	public int write(long pos, byte[] buffer) throws IOException {
+		return write(pos, buffer, 0, buffer.length) ;
+	}
+
+	@Override
+	public int write(long pos, byte[] buffer, int offset, int length) throws IOException {
+		checkWrite(pos, length) ;
+		slice(pos).put(buffer, offset, length) ;
+		return length ;
+	}
+
+	//////////////////////////////////////////////////////
+
+	private long pos = 0 ;
+
+	@Override
+	public void seek(long pos) throws IOException {
+		this.pos = pos ;
+	}
+
+	@Override
+	public long position() throws IOException {
+		return pos ;
+	}
+
+	@Override
+	public long length() throws IOException {
+		return size ;
+	}
+
+	@Override
+	public int read() throws IOException {
+		int b = read(pos) ;
+		if (b >= 0) pos++ ;
+		return b ;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		int read = read(pos, b, off, len) ;
+		if (read > 0) pos += read ;
+		return read ;
+	}
+
+	@Override
+	public int read(byte[] b) throws IOException {
+		return read(b, 0, b.length) ;
+	}
+
+	@Override
+	public void setLength(long length) throws IOException {
+		if (length == size) return ;
+
+		flush(true) ;
+
+		inOut.setLength(length) ;
+		map(length) ;
+
+		if (pos > size) pos = size ;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		write(pos, b) ;
+		pos++ ;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		int w = write(pos, b, off, len) ;
+		pos += w ;
+	}
+
+	@Override
+	public void write(byte[] b) throws IOException {
+		write(b, 0, b.length) ;
+	}
+
+	@Override
+	public void flush() throws IOException {
+		flush(false) ;
+	}
+
+	public void flush(boolean force) throws IOException {
+		if (force) {
+			buffer.force() ;
+		}
+	}
+
+	@Override
+	public void dispose() {
+
+	}
+
+}
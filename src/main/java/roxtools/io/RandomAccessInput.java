@@ -3,6 +3,7 @@ package roxtools.io;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
 
 final class RandomAccessInput extends InputStream implements SeekableInput {
 	final private RandomAccessFile inOut ;
@@ -11,6 +12,10 @@ final class RandomAccessInput extends InputStream implements SeekableInput {
 		this.inOut = inOut;
 	}
 
+	public FileChannel getChannel() {
+		return inOut.getChannel() ;
+	}
+	
 	public void seek(long pos) throws IOException {
 		inOut.seek(pos);
 	}
@@ -4,13 +4,15 @@ import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.zip.GZIPInputStream;
+import java.util.Timer;
+import java.util.TimerTask;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import roxtools.SerializationUtils;
 
 final public class BigBlock {
 	
@@ -22,6 +24,7 @@ final public class BigBlock {
 	
 	private final String name ;
 	private final int compressionLevel ;
+	private final BigBlockCodec codec ;
 	private final BigBlockStorage storage ;
 	
 	public BigBlock(String name, BigBlockStorage storage) {
@@ -29,10 +32,19 @@ final public class BigBlock {
 	}
 	
 	public BigBlock(String name, int compressionLevel, BigBlockStorage storage) {
+		this(name, compressionLevel, BigBlockCodec.GZIP, storage) ;
+	}
+	
+	/**
+	 * @param codec The codec of the entries when building. A loaded BigBlock uses the codec recorded in its index.
+	 */
+	public BigBlock(String name, int compressionLevel, BigBlockCodec codec, BigBlockStorage storage) {
 		this.name = normalizeName(name) ;
 		if (this.name.isEmpty()) throw new IllegalArgumentException("Invalid name: "+ name) ;
+		if (codec == null) throw new NullPointerException("Null codec") ;
 		
 		this.compressionLevel = compressionLevel ;
+		this.codec = codec ;
 		this.storage = storage;
 	}
 	
@@ -46,6 +58,20 @@ final public class BigBlock {
 		this.maxStorageEntries = maxStorageEntries;
 	}
 	
+	private int buildThreads = 1 ;
+	
+	public int getBuildThreads() {
+		return buildThreads;
+	}
+	
+	/**
+	 * @param buildThreads Threads compressing the entries in {@link #build(File[])}. 1 for a serial build.
+	 */
+	public void setBuildThreads(int buildThreads) {
+		if (buildThreads < 1) throw new IllegalArgumentException("Invalid buildThreads: "+ buildThreads) ;
+		this.buildThreads = buildThreads;
+	}
+	
 	public String getName() {
 		return name;
 	}
@@ -54,6 +80,14 @@ final public class BigBlock {
 		return compressionLevel;
 	}
 	
+	/**
+	 * @return the codec of the built or loaded index, otherwise the codec to build.
+	 */
+	public BigBlockCodec getCodec() {
+		BigBlockIndex index = this.index ;
+		return index != null ? index.getCodec() : codec ;
+	}
+	
 	public BigBlockStorage getStorage() {
 		return storage;
 	}
@@ -75,7 +109,13 @@ final public class BigBlock {
 		return build(filesAr);
 	}
 	
-	private BigBlockIndex index ;
+	private volatile BigBlockIndex index ;
+	
+	/**
+	 * Serializes the builds, appends and merges. Readers aren't blocked: each update stores and installs a new index generation,
+	 * and rewritten block parts replace the part files by rename, so buffers already read from previous part mappings stay valid.
+	 */
+	final private Object updateMutex = new Object() ;
 	
 	public BigBlockIndex getIndex() {
 		return index;
@@ -87,7 +127,7 @@ final public class BigBlock {
 	
 	public BigBlockIndex build(File[] files) throws IOException {
 		
-		BigBlockIndex blockIndex = new BigBlockIndex(name,compressionLevel) ;
+		BigBlockIndex blockIndex = new BigBlockIndex(name,compressionLevel,codec) ;
 		
 		for (File file : files) {
 			BigBlockEntry entry = blockIndex.addEntry(file) ;
@@ -97,14 +137,132 @@ final public class BigBlock {
 			}
 		}
 		
-		blockIndex.build(storage, maxStorageEntries) ;
-		
-		this.index = blockIndex ;
+		synchronized (updateMutex) {
+			blockIndex.build(storage, maxStorageEntries, buildThreads) ;
+			
+			this.index = blockIndex ;
+		}
 		
 		return blockIndex ;
 	}
 	
+	public BigBlockIndex append(List<File> files) throws IOException {
+		File[] filesAr = files.toArray(new File[files.size()]) ;
+		return append(filesAr);
+	}
+	
+	/**
+	 * Appends the files to the built (or loaded) BigBlock: only the new files are compressed, to new block parts,
+	 * and a new index generation is stored. Files with the name of an existing entry replace it.
+	 * 
+	 * @see #merge()
+	 */
+	public BigBlockIndex append(File[] files) throws IOException {
+		checkBuilt();
+		
+		synchronized (updateMutex) {
+			BigBlockIndex blockIndex = index.append(storage, files, maxStorageEntries, buildThreads) ;
+			
+			this.index = blockIndex ;
+			
+			return blockIndex ;
+		}
+	}
+	
+	/**
+	 * Merges with {@code minPartEntries} of half {@link #getMaxStorageEntries()}.
+	 * 
+	 * @see #merge(int)
+	 */
+	public int merge() throws IOException {
+		return merge( Math.max(2, maxStorageEntries/2) ) ;
+	}
+	
+	/**
+	 * Compacts the parts with less than {@code minPartEntries} entries, and the parts with mostly replaced entries,
+	 * into new parts, without recompressing the entries. The new index generation is stored before the merged
+	 * parts are removed from the storage.
+	 * 
+	 * @return the number of removed parts (0 if there was nothing to merge).
+	 */
+	public int merge(int minPartEntries) throws IOException {
+		checkBuilt();
+		
+		synchronized (updateMutex) {
+			ArrayList<Integer> removedParts = new ArrayList<>() ;
+			
+			BigBlockIndex blockIndex = index.merge(storage, maxStorageEntries, minPartEntries, removedParts) ;
+			if (blockIndex == null) return 0 ;
+			
+			this.index = blockIndex ;
+			
+			for (Integer part : removedParts) {
+				storage.deleteBigBlockPart(name, part) ;
+			}
+			
+			return removedParts.size() ;
+		}
+	}
+	
+	final static private Timer MERGE_TIMER = new Timer("BigBlock:merger", true) ;
+	
+	private TimerTask backgroundMergeTask ;
+	
+	/**
+	 * Schedules {@link #merge()} every {@code interval} ms, in a background thread shared by all the BigBlocks.
+	 */
+	public void startBackgroundMerge(long interval) {
+		if (interval <= 0) throw new IllegalArgumentException("Invalid interval: "+ interval) ;
+		
+		synchronized (this) {
+			stopBackgroundMerge();
+			
+			this.backgroundMergeTask = new TimerTask() {
+				@Override
+				public void run() {
+					try {
+						int removedParts = merge() ;
+						
+						if (removedParts > 0) {
+							LOG.debug("Merged BigBlock {}: removed parts {}", name, removedParts);
+						}
+					}
+					catch (IOException e) {
+						LOG.error("Error merging BigBlock {}", name, e);
+					}
+				}
+			} ;
+			
+			MERGE_TIMER.schedule(backgroundMergeTask, interval, interval);
+		}
+	}
+	
+	synchronized public boolean isBackgroundMergeRunning() {
+		return backgroundMergeTask != null ;
+	}
+	
+	synchronized public void stopBackgroundMerge() {
+		if (backgroundMergeTask != null) {
+			backgroundMergeTask.cancel() ;
+			backgroundMergeTask = null ;
+		}
+	}
+	
+	/**
+	 * Loads the index. If the storage has a {@link BigBlockIndexTable} the index is lazy (see {@link BigBlockIndex#isLazy()}),
+	 * otherwise all the entries are deserialized.
+	 */
 	public BigBlockIndex load() throws IOException {
+		ByteBuffer indexTable = storage.readStoredIndexTable(name) ;
+		
+		if (indexTable != null) {
+			BigBlockIndex blockIndex = new BigBlockIndex( new BigBlockIndexTable(indexTable) ) ;
+			
+			this.index = blockIndex ;
+			
+			return blockIndex ;
+		}
+		
 		byte[] indexSerial = storage.readStoredBlockIndex(name) ;
 		
 		BigBlockIndex blockIndex = new BigBlockIndex(new ByteArrayInputStream(indexSerial)) ;
@@ -129,7 +287,16 @@ final public class BigBlock {
 	}
 	
 	public byte[] getFileData(String fileName) throws IOException {
-		return getFileData( getFileEntry(fileName) ) ;
+		BigBlockIndex index = this.index ;
+		
+		try {
+			return getFileData( getFileEntry(fileName) ) ;
+		}
+		catch (IOException e) {
+			// The part of the entry may have been removed by a merge:
+			if (this.index == index) throw e ;
+			return getFileData( getFileEntry(fileName) ) ;
+		}
 	}
 	
 	public byte[] getFileDataCompressed(BigBlockEntry blockEntry) throws IOException {
@@ -137,22 +304,23 @@ final public class BigBlock {
 		return dataCompressed ;
 	}
 	
+	/**
+	 * @return the stored data of the entry, possibly a zero-copy slice of the storage (see {@link BigBlockStorage#getEntryDataStoredBuffer(String, BigBlockEntry)}).
+	 */
+	public ByteBuffer getFileDataCompressedBuffer(BigBlockEntry blockEntry) throws IOException {
+		return storage.getEntryDataStoredBuffer(name, blockEntry) ;
+	}
+	
 	public byte[] getFileData(BigBlockEntry blockEntry) throws IOException {
-		byte[] dataCompressed = getFileDataCompressed(blockEntry);
+		ByteBuffer dataCompressed = getFileDataCompressedBuffer(blockEntry);
 		
 		if ( dataCompressed == null ) throw new IOException("Can't get compressed data: "+ blockEntry) ;
 		
-		if ( dataCompressed.length != blockEntry.getStorageLength() ) throw new IOException("Compressed data of differente size of entry: "+ blockEntry) ;
+		if ( dataCompressed.remaining() != blockEntry.getStorageLength() ) throw new IOException("Compressed data of differente size of entry: "+ blockEntry) ;
 		
-		GZIPInputStream gzIn = new GZIPInputStream(new ByteArrayInputStream(dataCompressed)) ;
+		checkBuilt();
 		
-		try {
-			byte[] data = SerializationUtils.readFull(gzIn, blockEntry.getLength()) ;
-			return data ;
-		}
-		finally {
-			gzIn.close();
-		}
+		return index.getCodec().decompress(dataCompressed, blockEntry.getLength()) ;
 	}
 	
 	
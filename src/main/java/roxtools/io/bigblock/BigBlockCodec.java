@@ -0,0 +1,188 @@
+package roxtools.io.bigblock;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.GZIPInputStream;
+
+import roxtools.SerializationUtils;
+
+/**
+ * Codec of the entries of a {@link BigBlock}. The codec ID is recorded in the {@link BigBlockIndex},
+ * so a loaded BigBlock decodes its entries with the codec used to build it.
+ * <p>
+ * Built-in codecs: {@link #GZIP} (default, best ratio), {@link #LZ} (LZ4 style, fast decompression)
+ * and {@link #STORED} (no compression). Other codecs can be registered with {@link #registerCodec(BigBlockCodec)}.
+ */
+public abstract class BigBlockCodec {
+
+	static final public BigBlockCodec GZIP = new GZIPCodec() ;
+	static final public BigBlockCodec STORED = new StoredCodec() ;
+	static final public BigBlockCodec LZ = new BigBlockCodecLZ() ;
+
+	static final public int MAX_CODEC_ID = 0x7FFF ;
+
+	static final private BigBlockCodec[] CODECS = new BigBlockCodec[16] ;
+
+	static {
+		registerCodec(GZIP);
+		registerCodec(STORED);
+		registerCodec(LZ);
+	}
+
+	static synchronized public void registerCodec(BigBlockCodec codec) {
+		BigBlockCodec prev = getCodecImplem(codec.id) ;
+		if (prev != null && prev != codec) throw new IllegalStateException("Codec ID already registered: "+ codec.id +" -> "+ prev) ;
+
+		if (codec.id >= CODECS.length) throw new IllegalArgumentException("Codec ID out of registry range: "+ codec.id) ;
+
+		CODECS[codec.id] = codec ;
+	}
+
+	/**
+	 * @return the codec registered with {@code id}, or null if not registered.
+	 */
+	static synchronized public BigBlockCodec getCodec(int id) {
+		return getCodecImplem(id) ;
+	}
+
+	static private BigBlockCodec getCodecImplem(int id) {
+		return id >= 0 && id < CODECS.length ? CODECS[id] : null ;
+	}
+
+	////////////////////////////////////////////////////////////////////////
+
+	final private int id ;
+	final private String name ;
+
+	protected BigBlockCodec(int id, String name) {
+		if (id < 0 || id > MAX_CODEC_ID) throw new IllegalArgumentException("Invalid codec ID: "+ id) ;
+
+		this.id = id;
+		this.name = name;
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Compresses all the data of {@code in} to {@code out}, without closing {@code out}.
+	 */
+	abstract public void compress(InputStream in, OutputStream out, int compressionLevel) throws IOException ;
+
+	/**
+	 * @param decompressedLength The length of the original data.
+	 */
+	abstract public byte[] decompress(byte[] data, int decompressedLength) throws IOException ;
+
+	/**
+	 * Decompresses the remaining bytes of {@code data}, without changing its position.
+	 * Allows decompression directly from a mapped or direct buffer.
+	 */
+	public byte[] decompress(ByteBuffer data, int decompressedLength) throws IOException {
+		byte[] bytes = new byte[data.remaining()] ;
+		data.duplicate().get(bytes) ;
+		return decompress(bytes, decompressedLength) ;
+	}
+
+	@Override
+	public String toString() {
+		return "BigBlockCodec["+ id +":"+ name +"]" ;
+	}
+
+	////////////////////////////////////////////////////////////////////////
+
+	static final private class GZIPCodec extends BigBlockCodec {
+
+		public GZIPCodec() {
+			super(0, "gzip");
+		}
+
+		@Override
+		public void compress(InputStream in, OutputStream out, int compressionLevel) throws IOException {
+			SerializationUtils.writeToCompressed(in, out, compressionLevel);
+		}
+
+		@Override
+		public byte[] decompress(byte[] data, int decompressedLength) throws IOException {
+			return decompress(new ByteArrayInputStream(data), decompressedLength) ;
+		}
+
+		@Override
+		public byte[] decompress(ByteBuffer data, int decompressedLength) throws IOException {
+			return decompress(new ByteBufferInputStream(data.duplicate()), decompressedLength) ;
+		}
+
+		private byte[] decompress(InputStream in, int decompressedLength) throws IOException {
+			GZIPInputStream gzIn = new GZIPInputStream(in) ;
+
+			try {
+				return SerializationUtils.readFull(gzIn, decompressedLength) ;
+			}
+			finally {
+				gzIn.close();
+			}
+		}
+
+	}
+
+	static final private class StoredCodec extends BigBlockCodec {
+
+		public StoredCodec() {
+			super(1, "stored");
+		}
+
+		@Override
+		public void compress(InputStream in, OutputStream out, int compressionLevel) throws IOException {
+			SerializationUtils.writeTo(in, out);
+		}
+
+		@Override
+		public byte[] decompress(byte[] data, int decompressedLength) throws IOException {
+			if (data.length != decompressedLength) throw new IOException("Stored data of different length: "+ data.length +" != "+ decompressedLength) ;
+			return data ;
+		}
+
+	}
+
+	static final private class ByteBufferInputStream extends InputStream {
+
+		final private ByteBuffer buffer ;
+
+		public ByteBufferInputStream(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read() throws IOException {
+			return buffer.hasRemaining() ? buffer.get() & 0xFF : -1 ;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) return 0 ;
+			
+			int remaining = buffer.remaining() ;
+			if (remaining == 0) return -1 ;
+
+			if (len > remaining) len = remaining ;
+
+			buffer.get(b, off, len) ;
+			return len ;
+		}
+
+		@Override
+		public int available() throws IOException {
+			return buffer.remaining() ;
+		}
+
+	}
+
+}
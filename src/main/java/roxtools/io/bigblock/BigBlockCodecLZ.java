@@ -0,0 +1,201 @@
+package roxtools.io.bigblock;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import roxtools.SerializationUtils;
+
+/**
+ * A pure Java LZ77 block codec, using the LZ4 block format: sequences of a token (literals length and match length nibbles),
+ * the literals and a 2 bytes little-endian match offset. Favors decompression speed over ratio.
+ * The compression level is ignored.
+ */
+final class BigBlockCodecLZ extends BigBlockCodec {
+
+	static final private int MIN_MATCH = 4 ;
+
+	/**
+	 * The last bytes are always literals, and a match can't start in the last {@link #MATCH_START_LIMIT} bytes.
+	 */
+	static final private int LAST_LITERALS = 5 ;
+	static final private int MATCH_START_LIMIT = 12 ;
+
+	static final private int MAX_OFFSET = 0xFFFF ;
+
+	static final private int HASH_LOG = 14 ;
+
+	protected BigBlockCodecLZ() {
+		super(2, "lz");
+	}
+
+	@Override
+	public void compress(InputStream in, OutputStream out, int compressionLevel) throws IOException {
+		byte[] data = SerializationUtils.readAll(in) ;
+
+		byte[] compressed = compress(data, 0, data.length) ;
+
+		out.write(compressed);
+	}
+
+	static private int readInt(byte[] b, int i) {
+		return (b[i] & 0xFF) | ((b[i+1] & 0xFF) << 8) | ((b[i+2] & 0xFF) << 16) | ((b[i+3] & 0xFF) << 24) ;
+	}
+
+	static private int hash(int seq) {
+		return (seq * -1640531535) >>> (32-HASH_LOG) ;
+	}
+
+	static public byte[] compress(byte[] src, int off, int lng) {
+		byte[] dst = new byte[ lng + (lng/255) + 16 ] ;
+
+		// Positions + 1 of the last sequence with each hash (0 for none):
+		int[] table = new int[1 << HASH_LOG] ;
+
+		int end = off+lng ;
+		int matchLimit = end - LAST_LITERALS ;
+		int startLimit = end - MATCH_START_LIMIT ;
+
+		int anchor = off ;
+		int ip = off ;
+		int op = 0 ;
+
+		while (ip < startLimit) {
+			int seq = readInt(src, ip) ;
+			int h = hash(seq) ;
+
+			int ref = table[h]-1 ;
+			table[h] = ip+1 ;
+
+			if ( ref < off || ip-ref > MAX_OFFSET || readInt(src, ref) != seq ) {
+				ip++ ;
+				continue ;
+			}
+
+			int matchLng = MIN_MATCH ;
+			while ( ip+matchLng < matchLimit && src[ref+matchLng] == src[ip+matchLng] ) {
+				matchLng++ ;
+			}
+
+			op = writeSequence(src, anchor, ip-anchor, dst, op, ip-ref, matchLng) ;
+
+			ip += matchLng ;
+			anchor = ip ;
+		}
+
+		op = writeSequence(src, anchor, end-anchor, dst, op, 0, 0) ;
+
+		return Arrays.copyOf(dst, op) ;
+	}
+
+	/**
+	 * @param matchLng 0 for the last sequence (only literals).
+	 */
+	static private int writeSequence(byte[] src, int literalsOff, int literalsLng, byte[] dst, int op, int offset, int matchLng) {
+		int tokenPos = op++ ;
+
+		int token = Math.min(literalsLng, 15) << 4 ;
+
+		if (literalsLng >= 15) op = writeLength(dst, op, literalsLng-15) ;
+
+		System.arraycopy(src, literalsOff, dst, op, literalsLng);
+		op += literalsLng ;
+
+		if (matchLng > 0) {
+			dst[op++] = (byte) offset ;
+			dst[op++] = (byte) (offset >>> 8) ;
+
+			int lng = matchLng-MIN_MATCH ;
+			token |= Math.min(lng, 15) ;
+
+			if (lng >= 15) op = writeLength(dst, op, lng-15) ;
+		}
+
+		dst[tokenPos] = (byte) token ;
+
+		return op ;
+	}
+
+	static private int writeLength(byte[] dst, int op, int lng) {
+		while (lng >= 255) {
+			dst[op++] = (byte) 255 ;
+			lng -= 255 ;
+		}
+		dst[op++] = (byte) lng ;
+		return op ;
+	}
+
+	@Override
+	public byte[] decompress(byte[] data, int decompressedLength) throws IOException {
+		return decompress(ByteBuffer.wrap(data), decompressedLength) ;
+	}
+
+	@Override
+	public byte[] decompress(ByteBuffer data, int decompressedLength) throws IOException {
+		ByteBuffer src = data.duplicate() ;
+
+		byte[] dst = new byte[decompressedLength] ;
+
+		int op = 0 ;
+
+		try {
+			while ( src.hasRemaining() ) {
+				int token = src.get() & 0xFF ;
+
+				int literalsLng = token >>> 4 ;
+				if (literalsLng == 15) literalsLng += readLength(src) ;
+
+				src.get(dst, op, literalsLng) ;
+				op += literalsLng ;
+
+				// Last sequence:
+				if ( !src.hasRemaining() ) break ;
+
+				int offset = (src.get() & 0xFF) | ((src.get() & 0xFF) << 8) ;
+
+				int matchLng = token & 0x0F ;
+				if (matchLng == 15) matchLng += readLength(src) ;
+
+				matchLng += MIN_MATCH ;
+
+				int ref = op-offset ;
+				if (offset == 0 || ref < 0) throw new IOException("Invalid LZ match offset: "+ offset +" at "+ op) ;
+
+				if (offset >= matchLng) {
+					System.arraycopy(dst, ref, dst, op, matchLng);
+					op += matchLng ;
+				}
+				else {
+					// Overlapping match (repeated pattern):
+					for (int i = 0; i < matchLng; i++) {
+						dst[op++] = dst[ref++] ;
+					}
+				}
+			}
+		}
+		catch (IndexOutOfBoundsException | BufferUnderflowException e) {
+			throw new IOException("Corrupted LZ data", e) ;
+		}
+
+		if (op != decompressedLength) throw new IOException("LZ decompressed length different of expected: "+ op +" != "+ decompressedLength) ;
+
+		return dst ;
+	}
+
+	static private int readLength(ByteBuffer src) {
+		int lng = 0 ;
+		int b ;
+
+		do {
+			b = src.get() & 0xFF ;
+			lng += b ;
+		}
+		while (b == 255) ;
+
+		return lng ;
+	}
+
+}
@@ -28,6 +28,14 @@ public class BigBlockEntry implements Comparable<BigBlockEntry>{
 		this.storagePosition = -1 ;
 	}
 	
+	protected BigBlockEntry(String name, int length, int storageLength, int storageBlockPart, long storagePosition) {
+		this.name = name ;
+		this.length = length ;
+		this.storageLength = storageLength ;
+		this.storageBlockPart = storageBlockPart ;
+		this.storagePosition = storagePosition ;
+	}
+	
 	public String getName() {
 		return name;
 	}
@@ -113,12 +121,16 @@ public class BigBlockEntry implements Comparable<BigBlockEntry>{
 	}
 		
 	public int writeLocalFileCompressedTo(OutputStream out, int compressionLevel) throws IOException {
+		return writeLocalFileCompressedTo(out, BigBlockCodec.GZIP, compressionLevel) ;
+	}
+	
+	public int writeLocalFileCompressedTo(OutputStream out, BigBlockCodec codec, int compressionLevel) throws IOException {
 		FileInputStream fin = new FileInputStream(localFile) ;
 		
 		try {
 			OutputStreamWriteCounter writeCounter = new SerializationUtils.OutputStreamWriteCounter(out) ;
 			
-			SerializationUtils.writeToCompressed(fin, writeCounter, compressionLevel);
+			codec.compress(fin, writeCounter, compressionLevel);
 			
 			return writeCounter.getWriteCount() ;
 		}
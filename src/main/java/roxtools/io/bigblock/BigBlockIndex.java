@@ -4,11 +4,21 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.GZIPInputStream;
 
 import roxtools.SerializationUtils;
@@ -17,19 +27,61 @@ import roxtools.VectorLong;
 
 final public class BigBlockIndex {
 
+	/**
+	 * The codec ID is stored in the high bits of the serialized compression level, so the indexes
+	 * of GZIP BigBlocks (codec 0) keep the original format.
+	 */
+	static final private int CODEC_ID_SHIFT = 16 ;
+	static final private int COMPRESSION_LEVEL_MASK = (1 << CODEC_ID_SHIFT) - 1 ;
+	
 	private String name ;
 	private int compressionLevel ;
+	private BigBlockCodec codec ;
 	
 	private long[] bigBlockPartsLengths ; 
 	
 	public BigBlockIndex(String name, int compressionLevel) {
+		this(name, compressionLevel, BigBlockCodec.GZIP) ;
+	}
+	
+	public BigBlockIndex(String name, int compressionLevel, BigBlockCodec codec) {
 		this.name = name ;
 		this.compressionLevel = compressionLevel < 0 ? 4 : compressionLevel ;
+		this.codec = codec ;
+		this.table = null ;
+	}
+	
+	/**
+	 * A lazy index: the entries are looked up in the table (usually memory-mapped) and aren't materialized.
+	 * Can't receive new entries.
+	 */
+	public BigBlockIndex(BigBlockIndexTable table) throws IOException {
+		this.name = table.getName() ;
+		this.compressionLevel = table.getCompressionLevel() ;
+		this.codec = BigBlockCodec.getCodec( table.getCodecId() ) ;
+		this.bigBlockPartsLengths = table.getBigBlockPartsLengths() ;
+		this.table = table ;
+		
+		if (this.codec == null) throw new IOException("Unknown BigBlock codec ID: "+ table.getCodecId()) ;
+	}
+	
+	final private BigBlockIndexTable table ;
+	
+	public boolean isLazy() {
+		return table != null ;
 	}
 	
 	public String getName() {
 		return name;
 	}
+	
+	public int getCompressionLevel() {
+		return compressionLevel;
+	}
+	
+	public BigBlockCodec getCodec() {
+		return codec;
+	}
 
 	public long[] getBigBlockPartsLengths() {
 		return bigBlockPartsLengths;
@@ -38,6 +90,7 @@ final public class BigBlockIndex {
 	final private HashMap<String, BigBlockEntry> entries = new HashMap<>() ;
 
 	public BigBlockEntry addEntry(File file) {
+		if (table != null) throw new IllegalStateException("Can't add entries to a lazy index") ;
 
 		BigBlockEntry entry = new BigBlockEntry(file) ;
 		
@@ -55,12 +108,16 @@ final public class BigBlockIndex {
 	}
 	
 	public int getTotalEntries() {
+		if (table != null) return table.getTotalEntries() ;
+		
 		synchronized (entries) {
 			return entries.size() ;
 		}
 	}
 	
 	public List<BigBlockEntry> getSortedEntries() {
+		if (table != null) return table.getEntries() ;
+		
 		ArrayList<BigBlockEntry> allEntries = new ArrayList<>() ;
 		
 		synchronized (entries) {
@@ -75,22 +132,332 @@ final public class BigBlockIndex {
 	}
 	
 	protected void build(BigBlockStorage storage, int maxStorageEntries) throws IOException {
+		build(storage, maxStorageEntries, 1) ;
+	}
+	
+	/**
+	 * @param threads If > 1, the entries are compressed in parallel by a pool of {@code threads} workers, in order
+	 * preserving batches, while the caller thread appends them to the block parts. The stored data is identical to a serial build.
+	 */
+	protected void build(BigBlockStorage storage, int maxStorageEntries, int threads) throws IOException {
 	
 		List<BigBlockEntry> sortedEntries = getSortedEntries() ;
 		
-		int blockCount = 0 ;
-		int storageEntryHeaderSize = 0 ;
+		this.bigBlockPartsLengths = writeEntries(storage, sortedEntries, maxStorageEntries, threads, 0) ;
+		
+		storeIndex(storage, sortedEntries) ;
+		
+	}
+	
+	/**
+	 * Compresses the entries to new block parts, starting at {@code firstBlockPart}.
+	 * 
+	 * @return the lengths of the written parts.
+	 */
+	private long[] writeEntries(BigBlockStorage storage, List<BigBlockEntry> sortedEntries, int maxStorageEntries, int threads, int firstBlockPart) throws IOException {
+		BuildCursor cursor = new BuildCursor(storage, maxStorageEntries, firstBlockPart) ;
+		
+		if ( threads > 1 && sortedEntries.size() > 1 ) {
+			buildParallel(sortedEntries, cursor, threads);
+		}
+		else {
+			for (BigBlockEntry entry : sortedEntries) {
+				int compressedLng = entry.writeLocalFileCompressedTo(cursor.getBlockOutput(), codec, compressionLevel) ;
+				cursor.entryWritten(entry, compressedLng);
+			}
+		}
+		
+		cursor.close();
+		
+		return cursor.partsLengths.toArray() ;
+	}
+	
+	private void storeIndex(BigBlockStorage storage, List<BigBlockEntry> sortedEntries) throws IOException {
+		byte[] serial = getSerial(sortedEntries) ;
+		
+		storage.storeIndex(name, serial) ;
+		
+		storage.storeIndexTable(name, BigBlockIndexTable.toBytes(this, sortedEntries)) ;
+	}
+	
+	/**
+	 * @return the number of block parts, including the removed (0 length) parts. New parts are appended at this index.
+	 */
+	public int getTotalBlockParts() {
+		return getTotalBlockParts( getSortedEntries() ) ;
+	}
+	
+	private int getTotalBlockParts(List<BigBlockEntry> sortedEntries) {
+		// Indexes built by older versions don't have the length of the last part:
+		int total = bigBlockPartsLengths != null ? bigBlockPartsLengths.length : 0 ;
+		
+		for (BigBlockEntry entry : sortedEntries) {
+			int part = entry.getStorageBlockPart() ;
+			if (part >= total) total = part+1 ;
+		}
 		
-		VectorLong partsLengths = new VectorLong() ;
+		return total ;
+	}
+	
+	/**
+	 * @return the lengths of the first {@code totalParts} parts. Lengths not in the index are calculated from the entries.
+	 */
+	private long[] getPartsLengths(List<BigBlockEntry> sortedEntries, int totalParts) {
+		long[] lengths = new long[totalParts] ;
 		
-		OutputStream blockOutput = storage.openBigBlockOutput(name, blockCount) ;
-		int entriesCount = 0 ;
-		long storageCursor = 0 ;
+		int known = bigBlockPartsLengths != null ? Math.min(bigBlockPartsLengths.length, totalParts) : 0 ;
+		if (known > 0) System.arraycopy(bigBlockPartsLengths, 0, lengths, 0, known);
 		
 		for (BigBlockEntry entry : sortedEntries) {
+			int part = entry.getStorageBlockPart() ;
+			
+			if (part >= known) {
+				long end = entry.getStoragePosition() + entry.getStorageLength() ;
+				if (end > lengths[part]) lengths[part] = end ;
+			}
+		}
+		
+		return lengths ;
+	}
+	
+	static private BigBlockEntry copyEntry(BigBlockEntry entry, int storageBlockPart, long storagePosition) {
+		return new BigBlockEntry(entry.getName(), entry.getLength(), entry.getStorageLength(), storageBlockPart, storagePosition) ;
+	}
+	
+	/**
+	 * Creates the next generation of this index: the {@code files} are compressed to new block parts, after the current ones,
+	 * and the new index (with all the entries) is stored. A file with the name of a current entry replaces it,
+	 * leaving its old data as garbage until a {@link #merge(BigBlockStorage, int, int, List)}.
+	 * <p>
+	 * This index isn't changed, so readers can keep using it while appending.
+	 */
+	protected BigBlockIndex append(BigBlockStorage storage, File[] files, int maxStorageEntries, int threads) throws IOException {
+		BigBlockIndex appended = new BigBlockIndex(name, compressionLevel, codec) ;
+		
+		for (File file : files) {
+			appended.addEntry(file) ;
+		}
+		
+		List<BigBlockEntry> currentEntries = getSortedEntries() ;
+		List<BigBlockEntry> appendedEntries = appended.getSortedEntries() ;
+		
+		int firstBlockPart = getTotalBlockParts(currentEntries) ;
+		
+		long[] appendedLengths = appended.writeEntries(storage, appendedEntries, maxStorageEntries, threads, firstBlockPart) ;
+		
+		BigBlockIndex next = new BigBlockIndex(name, compressionLevel, codec) ;
+		
+		for (BigBlockEntry entry : currentEntries) {
+			next.entries.put(entry.getName(), copyEntry(entry, entry.getStorageBlockPart(), entry.getStoragePosition())) ;
+		}
+		
+		for (BigBlockEntry entry : appendedEntries) {
+			next.entries.put(entry.getName(), entry) ;
+		}
+		
+		long[] lengths = getPartsLengths(currentEntries, firstBlockPart) ;
+		
+		next.bigBlockPartsLengths = Arrays.copyOf(lengths, firstBlockPart + appendedLengths.length) ;
+		System.arraycopy(appendedLengths, 0, next.bigBlockPartsLengths, firstBlockPart, appendedLengths.length);
+		
+		next.storeIndex(storage, next.getSortedEntries()) ;
+		
+		return next ;
+	}
+	
+	/**
+	 * Creates the next generation of this index, compacting the small parts (less than {@code minPartEntries} live entries)
+	 * and the sparse parts (less than half of the length with live entries) into new parts, after the current ones.
+	 * The stored data of the entries is copied without recompression. Parts without live entries are just removed.
+	 * <p>
+	 * The new index is stored before the removal of the merged parts from the storage. This index isn't changed.
+	 * 
+	 * @param removedParts Receives the parts to remove from the storage.
+	 * @return the new index, or null if there's nothing to merge.
+	 */
+	protected BigBlockIndex merge(BigBlockStorage storage, int maxStorageEntries, int minPartEntries, List<Integer> removedParts) throws IOException {
+		List<BigBlockEntry> currentEntries = getSortedEntries() ;
+		
+		int totalParts = getTotalBlockParts(currentEntries) ;
+		long[] lengths = getPartsLengths(currentEntries, totalParts) ;
+		
+		int[] liveEntries = new int[totalParts] ;
+		long[] liveBytes = new long[totalParts] ;
+		
+		for (BigBlockEntry entry : currentEntries) {
+			int part = entry.getStorageBlockPart() ;
+			liveEntries[part]++ ;
+			liveBytes[part] += entry.getStorageLength() ;
+		}
+		
+		boolean[] merged = new boolean[totalParts] ;
+		int smallParts = 0 ;
+		boolean needsMerge = false ;
+		
+		for (int part = 0; part < totalParts; part++) {
+			if ( liveEntries[part] == 0 ) {
+				if ( lengths[part] > 0 ) {
+					merged[part] = true ;
+					needsMerge = true ;
+				}
+			}
+			else if ( liveBytes[part] < lengths[part]/2 ) {
+				merged[part] = true ;
+				needsMerge = true ;
+			}
+			else if ( liveEntries[part] < minPartEntries ) {
+				merged[part] = true ;
+				smallParts++ ;
+			}
+		}
+		
+		// A single small part has nothing to be merged with:
+		if ( !needsMerge && smallParts < 2 ) return null ;
+		
+		BuildCursor cursor = new BuildCursor(storage, maxStorageEntries, totalParts) ;
+		
+		BigBlockIndex next = new BigBlockIndex(name, compressionLevel, codec) ;
+		
+		for (BigBlockEntry entry : currentEntries) {
+			int part = entry.getStorageBlockPart() ;
+			
+			if ( merged[part] ) {
+				byte[] stored = storage.getEntryDataStored(name, entry) ;
+				
+				if ( stored.length != entry.getStorageLength() ) throw new IOException("Stored data of different size of entry: "+ entry) ;
+				
+				BigBlockEntry entryMerged = copyEntry(entry, -1, -1) ;
+				
+				cursor.getBlockOutput().write(stored);
+				cursor.entryWritten(entryMerged, stored.length);
+				
+				next.entries.put(entry.getName(), entryMerged) ;
+			}
+			else {
+				next.entries.put(entry.getName(), copyEntry(entry, part, entry.getStoragePosition())) ;
+			}
+		}
+		
+		cursor.close();
+		
+		long[] mergedLengths = cursor.partsLengths.toArray() ;
+		
+		next.bigBlockPartsLengths = Arrays.copyOf(lengths, totalParts + mergedLengths.length) ;
+		System.arraycopy(mergedLengths, 0, next.bigBlockPartsLengths, totalParts, mergedLengths.length);
+		
+		for (int part = 0; part < totalParts; part++) {
+			if ( merged[part] ) {
+				next.bigBlockPartsLengths[part] = 0 ;
+				removedParts.add(part) ;
+			}
+		}
+		
+		next.storeIndex(storage, next.getSortedEntries()) ;
+		
+		return next ;
+	}
+	
+	private void buildParallel(List<BigBlockEntry> sortedEntries, BuildCursor cursor, int threads) throws IOException {
+		final AtomicInteger threadCount = new AtomicInteger() ;
+		
+		ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "BigBlock:compress-"+ threadCount.incrementAndGet()) ;
+				thread.setDaemon(true);
+				return thread ;
+			}
+		}) ;
+		
+		try {
+			// Entries compressed ahead of the writer, bounding the memory of compressed data:
+			int window = threads*4 ;
+			
+			ArrayDeque<Future<byte[]>> compressing = new ArrayDeque<>() ;
 			
-			int compressedLng = entry.writeLocalFileCompressedTo(blockOutput, compressionLevel) ;
+			int submitted = 0 ;
 			
+			for (BigBlockEntry entry : sortedEntries) {
+				while ( submitted < sortedEntries.size() && compressing.size() < window ) {
+					compressing.add( executor.submit( new CompressTask(sortedEntries.get(submitted++), codec, compressionLevel) ) ) ;
+				}
+				
+				byte[] compressed = getCompressed( compressing.poll() ) ;
+				
+				cursor.getBlockOutput().write(compressed);
+				cursor.entryWritten(entry, compressed.length);
+			}
+		}
+		finally {
+			executor.shutdownNow() ;
+		}
+	}
+	
+	static private byte[] getCompressed(Future<byte[]> future) throws IOException {
+		try {
+			return future.get() ;
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while compressing entries") ;
+		}
+		catch (ExecutionException e) {
+			Throwable cause = e.getCause() ;
+			if (cause instanceof IOException) throw (IOException) cause ;
+			throw new IOException(cause) ;
+		}
+	}
+	
+	static final private class CompressTask implements Callable<byte[]> {
+		final private BigBlockEntry entry ;
+		final private BigBlockCodec codec ;
+		final private int compressionLevel ;
+		
+		public CompressTask(BigBlockEntry entry, BigBlockCodec codec, int compressionLevel) {
+			this.entry = entry;
+			this.codec = codec;
+			this.compressionLevel = compressionLevel;
+		}
+
+		@Override
+		public byte[] call() throws Exception {
+			ByteArrayOutputStream bout = new ByteArrayOutputStream( Math.max(32, entry.getLength()/2) ) ;
+			entry.writeLocalFileCompressedTo(bout, codec, compressionLevel) ;
+			return bout.toByteArray() ;
+		}
+	}
+	
+	/**
+	 * Positions of the entries written to the block parts. Opens a new part every {@code maxStorageEntries},
+	 * only when an entry is written, so there are no empty parts.
+	 */
+	final private class BuildCursor {
+		final private BigBlockStorage storage ;
+		final private int maxStorageEntries ;
+		
+		final private VectorLong partsLengths = new VectorLong() ;
+		
+		private int blockCount ;
+		private int storageEntryHeaderSize = 0 ;
+		
+		private OutputStream blockOutput ;
+		private int entriesCount = 0 ;
+		private long storageCursor = 0 ;
+		
+		public BuildCursor(BigBlockStorage storage, int maxStorageEntries, int firstBlockPart) {
+			this.storage = storage;
+			this.maxStorageEntries = maxStorageEntries;
+			this.blockCount = firstBlockPart ;
+		}
+		
+		public OutputStream getBlockOutput() throws IOException {
+			if (blockOutput == null) {
+				blockOutput = storage.openBigBlockOutput(name, blockCount) ;
+			}
+			return blockOutput ;
+		}
+		
+		public void entryWritten(BigBlockEntry entry, int compressedLng) throws IOException {
 			entry.setStorageLength(compressedLng);
 			entry.setStorageBlockPart(blockCount);
 			entry.setStoragePosition(storageCursor);
@@ -100,23 +467,24 @@ final public class BigBlockIndex {
 			entriesCount++ ;
 			
 			if ( entriesCount >= maxStorageEntries ) {
-				partsLengths.add(storageCursor);
-				
-				storage.closeBigBlockOutput(name, blockCount, blockOutput) ;
-				
-				blockCount++ ;
-				blockOutput = storage.openBigBlockOutput(name, blockCount) ;
-				entriesCount = 0 ;
-				storageCursor = 0 ;
+				closePart();
 			}
 		}
 		
-		this.bigBlockPartsLengths = partsLengths.toArray() ;
-		
-		byte[] serial = getSerial() ;
-		
-		storage.storeIndex(name, serial) ;
+		private void closePart() throws IOException {
+			partsLengths.add(storageCursor);
+			
+			storage.closeBigBlockOutput(name, blockCount, blockOutput) ;
+			
+			blockCount++ ;
+			blockOutput = null ;
+			entriesCount = 0 ;
+			storageCursor = 0 ;
+		}
 		
+		public void close() throws IOException {
+			if (blockOutput != null) closePart();
+		}
 	}
 	
 	public byte[] getSerial() throws IOException {
@@ -135,7 +503,7 @@ final public class BigBlockIndex {
 		if (sortedEntries == null) sortedEntries = getSortedEntries() ;
 		
 		SerializationUtils.writeStringUTF8(name, out);
-		SerializationUtils.writeInt(this.compressionLevel, out);
+		SerializationUtils.writeInt(this.compressionLevel | (codec.getId() << CODEC_ID_SHIFT), out);
 		
 		SerializationUtils.writeLongsBlock(this.bigBlockPartsLengths, out);
 		
@@ -148,13 +516,22 @@ final public class BigBlockIndex {
 	}
 	
 	public BigBlockIndex(InputStream in) throws IOException {
+		this.table = null ;
 		readFrom(new GZIPInputStream(in));
 	}
 	
 	public void readFrom(InputStream in) throws IOException {
+		if (table != null) throw new IllegalStateException("Can't read into a lazy index") ;
 
 		this.name = SerializationUtils.readStringUTF8(in) ;
-		this.compressionLevel = SerializationUtils.readInt(in) ;
+		int compressionLevelAndCodec = SerializationUtils.readInt(in) ;
+		
+		int codecId = compressionLevelAndCodec >>> CODEC_ID_SHIFT ;
+		
+		this.compressionLevel = compressionLevelAndCodec & COMPRESSION_LEVEL_MASK ;
+		this.codec = BigBlockCodec.getCodec(codecId) ;
+		
+		if (this.codec == null) throw new IOException("Unknown BigBlock codec ID: "+ codecId) ;
 		
 		this.bigBlockPartsLengths = SerializationUtils.readLongsBlock(in);
 		
@@ -171,12 +548,16 @@ final public class BigBlockIndex {
 	}
 
 	public boolean containsEntry(String fileName) {
+		if (table != null) return table.containsEntry(fileName) ;
+		
 		synchronized (entries) {
 			return entries.containsKey(fileName) ;
 		}
 	}
 	
 	public BigBlockEntry getEntry(String fileName) {
+		if (table != null) return table.getEntry(fileName) ;
+		
 		synchronized (entries) {
 			return entries.get(fileName) ;
 		}
@@ -0,0 +1,269 @@
+package roxtools.io.bigblock;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A {@link BigBlockIndex} format that can be queried in place (usually memory-mapped), without materializing the entries:
+ * <pre>
+ * header:  magic, version, compressionLevel, codecId, name, bigBlockPartsLengths, totalEntries, tableSize
+ * table:   tableSize slots of [nameHash:int, recordOffset+1:int] (open addressing, linear probing, 0 = empty slot)
+ * records: the entries sorted by name: [nameLength:int, name:UTF-8, length:int, storageLength:int, storageBlockPart:int, storagePosition:long]
+ * </pre>
+ * {@link #getEntry(String)} probes the table and decodes only the matching record.
+ */
+final public class BigBlockIndexTable {
+
+	static final private int MAGIC = 0x42424954 ;
+	static final private int VERSION = 1 ;
+
+	static final private int SLOT_SIZE = 8 ;
+
+	static private int hash(byte[] name) {
+		int h = 1 ;
+		for (int i = 0; i < name.length; i++) {
+			h = 31*h + name[i] ;
+		}
+
+		h ^= h >>> 16 ;
+		h *= 0x85EBCA6B ;
+		h ^= h >>> 13 ;
+
+		return h ;
+	}
+
+	static private int calcTableSize(int totalEntries) {
+		// Load factor <= 0.5:
+		int size = 2 ;
+		while ( size < totalEntries*2L ) size <<= 1 ;
+		return size ;
+	}
+
+	/**
+	 * @param sortedEntries The stored entries of {@code index}, sorted.
+	 */
+	static public byte[] toBytes(BigBlockIndex index, List<BigBlockEntry> sortedEntries) throws IOException {
+		int totalEntries = sortedEntries.size() ;
+
+		byte[][] names = new byte[totalEntries][] ;
+		long recordsSize = 0 ;
+
+		for (int i = 0; i < totalEntries; i++) {
+			names[i] = sortedEntries.get(i).getName().getBytes(StandardCharsets.UTF_8) ;
+			recordsSize += 4 + names[i].length + 4+4+4+8 ;
+		}
+
+		byte[] indexName = index.getName().getBytes(StandardCharsets.UTF_8) ;
+		long[] partsLengths = index.getBigBlockPartsLengths() ;
+		if (partsLengths == null) partsLengths = new long[0] ;
+
+		int tableSize = calcTableSize(totalEntries) ;
+
+		long headerSize = 4*4 + 4 + indexName.length + 4 + partsLengths.length*8L + 4 + 4 ;
+		long totalSize = headerSize + (long) tableSize*SLOT_SIZE + recordsSize ;
+
+		if (totalSize > Integer.MAX_VALUE) throw new IOException("Index table too big: "+ totalSize) ;
+
+		ByteBuffer buffer = ByteBuffer.allocate((int) totalSize) ;
+
+		buffer.putInt(MAGIC) ;
+		buffer.putInt(VERSION) ;
+		buffer.putInt(index.getCompressionLevel()) ;
+		buffer.putInt(index.getCodec().getId()) ;
+
+		buffer.putInt(indexName.length) ;
+		buffer.put(indexName) ;
+
+		buffer.putInt(partsLengths.length) ;
+		for (long lng : partsLengths) {
+			buffer.putLong(lng) ;
+		}
+
+		buffer.putInt(totalEntries) ;
+		buffer.putInt(tableSize) ;
+
+		int tablePos = buffer.position() ;
+		int recordsPos = tablePos + tableSize*SLOT_SIZE ;
+		int mask = tableSize-1 ;
+
+		buffer.position(recordsPos) ;
+
+		for (int i = 0; i < totalEntries; i++) {
+			BigBlockEntry entry = sortedEntries.get(i) ;
+			byte[] name = names[i] ;
+
+			int recordOffset = buffer.position() - recordsPos ;
+
+			buffer.putInt(name.length) ;
+			buffer.put(name) ;
+			buffer.putInt(entry.getLength()) ;
+			buffer.putInt(entry.getStorageLength()) ;
+			buffer.putInt(entry.getStorageBlockPart()) ;
+			buffer.putLong(entry.getStoragePosition()) ;
+
+			int h = hash(name) ;
+			int slot = h & mask ;
+
+			while ( buffer.getInt(tablePos + slot*SLOT_SIZE + 4) != 0 ) {
+				slot = (slot+1) & mask ;
+			}
+
+			buffer.putInt(tablePos + slot*SLOT_SIZE, h) ;
+			buffer.putInt(tablePos + slot*SLOT_SIZE + 4, recordOffset+1) ;
+		}
+
+		return buffer.array() ;
+	}
+
+	////////////////////////////////////////////////////////////////////////
+
+	final private ByteBuffer buffer ;
+
+	final private int compressionLevel ;
+	final private int codecId ;
+	final private String name ;
+	final private long[] bigBlockPartsLengths ;
+	final private int totalEntries ;
+	final private int tableSize ;
+
+	final private int tablePos ;
+	final private int recordsPos ;
+
+	/**
+	 * @param buffer The table bytes. Only read with absolute gets, so it's safe to share between threads.
+	 */
+	public BigBlockIndexTable(ByteBuffer buffer) throws IOException {
+		this.buffer = buffer.slice() ;
+
+		ByteBuffer header = this.buffer.duplicate() ;
+
+		if ( header.remaining() < 8 || header.getInt() != MAGIC ) throw new IOException("Invalid BigBlock index table") ;
+
+		int version = header.getInt() ;
+		if (version != VERSION) throw new IOException("Unsupported BigBlock index table version: "+ version) ;
+
+		this.compressionLevel = header.getInt() ;
+		this.codecId = header.getInt() ;
+
+		byte[] name = new byte[ header.getInt() ] ;
+		header.get(name) ;
+		this.name = new String(name, StandardCharsets.UTF_8) ;
+
+		this.bigBlockPartsLengths = new long[ header.getInt() ] ;
+		for (int i = 0; i < bigBlockPartsLengths.length; i++) {
+			bigBlockPartsLengths[i] = header.getLong() ;
+		}
+
+		this.totalEntries = header.getInt() ;
+		this.tableSize = header.getInt() ;
+
+		if ( tableSize <= 0 || (tableSize & (tableSize-1)) != 0 ) throw new IOException("Invalid BigBlock index table size: "+ tableSize) ;
+
+		this.tablePos = header.position() ;
+		this.recordsPos = tablePos + tableSize*SLOT_SIZE ;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getCompressionLevel() {
+		return compressionLevel;
+	}
+
+	public int getCodecId() {
+		return codecId;
+	}
+
+	public long[] getBigBlockPartsLengths() {
+		return bigBlockPartsLengths.clone();
+	}
+
+	public int getTotalEntries() {
+		return totalEntries;
+	}
+
+	public boolean containsEntry(String fileName) {
+		return findRecord(fileName) >= 0 ;
+	}
+
+	/**
+	 * @return the entry decoded from its record, or null if not present.
+	 */
+	public BigBlockEntry getEntry(String fileName) {
+		int record = findRecord(fileName) ;
+		return record >= 0 ? readEntry(record) : null ;
+	}
+
+	/**
+	 * @return all the entries, sorted.
+	 */
+	public List<BigBlockEntry> getEntries() {
+		ArrayList<BigBlockEntry> entries = new ArrayList<>(totalEntries) ;
+
+		int record = recordsPos ;
+
+		for (int i = 0; i < totalEntries; i++) {
+			entries.add( readEntry(record) ) ;
+			record += 4 + buffer.getInt(record) + 4+4+4+8 ;
+		}
+
+		return entries ;
+	}
+
+	private int findRecord(String fileName) {
+		byte[] name = fileName.getBytes(StandardCharsets.UTF_8) ;
+
+		int h = hash(name) ;
+		int mask = tableSize-1 ;
+		int slot = h & mask ;
+
+		while (true) {
+			int slotPos = tablePos + slot*SLOT_SIZE ;
+
+			int recordOffset = buffer.getInt(slotPos + 4) ;
+			if (recordOffset == 0) return -1 ;
+
+			if ( buffer.getInt(slotPos) == h ) {
+				int record = recordsPos + recordOffset-1 ;
+				if ( isRecordName(record, name) ) return record ;
+			}
+
+			slot = (slot+1) & mask ;
+		}
+	}
+
+	private boolean isRecordName(int record, byte[] name) {
+		if ( buffer.getInt(record) != name.length ) return false ;
+
+		int pos = record+4 ;
+
+		for (int i = 0; i < name.length; i++) {
+			if ( buffer.get(pos+i) != name[i] ) return false ;
+		}
+
+		return true ;
+	}
+
+	private BigBlockEntry readEntry(int record) {
+		int nameLength = buffer.getInt(record) ;
+
+		byte[] name = new byte[nameLength] ;
+		for (int i = 0; i < nameLength; i++) {
+			name[i] = buffer.get(record+4+i) ;
+		}
+
+		int pos = record+4+nameLength ;
+
+		int length = buffer.getInt(pos) ;
+		int storageLength = buffer.getInt(pos+4) ;
+		int storageBlockPart = buffer.getInt(pos+8) ;
+		long storagePosition = buffer.getLong(pos+12) ;
+
+		return new BigBlockEntry(new String(name, StandardCharsets.UTF_8), length, storageLength, storageBlockPart, storagePosition) ;
+	}
+
+}
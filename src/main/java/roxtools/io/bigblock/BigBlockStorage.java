@@ -2,6 +2,7 @@ package roxtools.io.bigblock;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
 public interface BigBlockStorage {
 
@@ -14,5 +15,32 @@ public interface BigBlockStorage {
 	public byte[] readStoredBlockIndex(String name) throws IOException;
 
 	public byte[] getEntryDataStored(String name, BigBlockEntry blockEntry) throws IOException;
+	
+	/**
+	 * @return the stored data of the entry, as a read-only buffer positioned at the data. Implementations can return
+	 * a slice of a shared mapping, avoiding copies.
+	 */
+	default public ByteBuffer getEntryDataStoredBuffer(String name, BigBlockEntry blockEntry) throws IOException {
+		return ByteBuffer.wrap( getEntryDataStored(name, blockEntry) ).asReadOnlyBuffer() ;
+	}
+	
+	/**
+	 * Stores the {@link BigBlockIndexTable} of the index. Storages that don't support it ignore the call.
+	 */
+	default public void storeIndexTable(String name, byte[] table) throws IOException {
+	}
+	
+	/**
+	 * @return the stored {@link BigBlockIndexTable} bytes (ideally memory-mapped), or null if not available.
+	 */
+	default public ByteBuffer readStoredIndexTable(String name) throws IOException {
+		return null ;
+	}
+	
+	/**
+	 * Removes a block part no longer referenced by the index (after a merge). Storages that can't remove parts ignore the call.
+	 */
+	default public void deleteBigBlockPart(String name, int blockPart) throws IOException {
+	}
 
 }
@@ -1,5 +1,6 @@
 package roxtools.io.bigblock;
 
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.FileNotFoundException;
@@ -7,18 +8,40 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
 
 import roxtools.SerializationUtils;
 
 public class BigBlockStorageDirectory implements BigBlockStorage {
 
 	private File directory ;
+	
+	private volatile boolean memoryMapped = true ;
 
 	public BigBlockStorageDirectory(File directory) {
 		if (!directory.isDirectory()) throw new IllegalArgumentException("Invalid store directory: "+ directory) ;
 		this.directory = directory;
 	}
 	
+	public boolean isMemoryMapped() {
+		return memoryMapped;
+	}
+	
+	/**
+	 * @param memoryMapped If true (default) the block parts are read from memory mappings, otherwise with positional
+	 * reads of an open {@link FileChannel}. Applies to the parts opened after the call.
+	 */
+	public void setMemoryMapped(boolean memoryMapped) {
+		this.memoryMapped = memoryMapped;
+	}
+	
 	private File getBlockIndexFile(String name) {
 		return new File(directory, "bigblock--"+name+".index") ;
 	}
@@ -27,6 +50,14 @@ public class BigBlockStorageDirectory implements BigBlockStorage {
 		return listBlockFiles(".index") ;
 	}
 	
+	private File getBlockIndexTableFile(String name) {
+		return new File(directory, "bigblock--"+name+".itable") ;
+	}
+	
+	public File[] listBlockIndexTableFiles() {
+		return listBlockFiles(".itable") ;
+	}
+	
 	private File getBlockFile(String name, int blockPart) {
 		return new File(directory, "bigblock--"+name+"--"+blockPart+".block") ;
 	}
@@ -45,13 +76,23 @@ public class BigBlockStorageDirectory implements BigBlockStorage {
 		});
 	}
 	
+	private File getBlockTempFile(String name, int blockPart) {
+		return new File(directory, getBlockFile(name, blockPart).getName() +".tmp") ;
+	}
+	
+	/**
+	 * The part is written to a temporary file, renamed over the part file by {@link #closeBigBlockOutput(String, int, OutputStream)}.
+	 * An existing part file is never truncated, so its mappings stay valid.
+	 */
 	@Override
 	public OutputStream openBigBlockOutput(String name, int blockPart) throws FileNotFoundException {
-		File blockFile = getBlockFile(name, blockPart) ;
-		
-		return new FileOutputStream(blockFile) ;
+		return new FileOutputStream( getBlockTempFile(name, blockPart) ) ;
 	}
 	
+	/**
+	 * Renames the written part over the part file (the previous mappings keep the previous file), and closes the
+	 * cached reader, so the next reads see the new part.
+	 */
 	@Override
 	public void closeBigBlockOutput(String name, int blockPart, OutputStream blockOutput) throws IOException {
 		try {
@@ -61,13 +102,86 @@ public class BigBlockStorageDirectory implements BigBlockStorage {
 		catch (Exception e) {
 			e.printStackTrace();
 		}
+		
+		moveAtomically( getBlockTempFile(name, blockPart) , getBlockFile(name, blockPart) );
+		
+		closeBlockPartReader(name, blockPart);
 	}
 
 	@Override
 	public void storeIndex(String name, byte[] serial) throws IOException {
 		File indexFile = getBlockIndexFile(name) ;
 		
-		SerializationUtils.writeFile(indexFile, serial);
+		// A previous table is stale until storeIndexTable():
+		getBlockIndexTableFile(name).delete() ;
+		
+		writeFileAtomically(indexFile, serial);
+	}
+	
+	@Override
+	public void storeIndexTable(String name, byte[] table) throws IOException {
+		File tableFile = getBlockIndexTableFile(name) ;
+		
+		writeFileAtomically(tableFile, table);
+	}
+	
+	/**
+	 * Writes to a temporary file and renames it, so a concurrent load (or an existing mapping) never sees a partial
+	 * index of a new generation.
+	 */
+	private void writeFileAtomically(File file, byte[] data) throws IOException {
+		File tmpFile = new File(directory, file.getName() +".tmp") ;
+		
+		SerializationUtils.writeFile(tmpFile, data);
+		
+		moveAtomically(tmpFile, file);
+	}
+	
+	static private void moveAtomically(File tmpFile, File file) throws IOException {
+		try {
+			Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE) ;
+		}
+		catch (AtomicMoveNotSupportedException e) {
+			Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING) ;
+		}
+	}
+	
+	/**
+	 * Deletes the part file. Buffers already returned from its mapping stay valid.
+	 */
+	@Override
+	public void deleteBigBlockPart(String name, int blockPart) throws IOException {
+		closeBlockPartReader(name, blockPart);
+		
+		File blockFile = getBlockFile(name, blockPart) ;
+		
+		if ( blockFile.exists() && !blockFile.delete() ) throw new IOException("Can't delete block part: "+ blockFile) ;
+	}
+	
+	/**
+	 * @return the memory-mapped index table, or null if there isn't one.
+	 */
+	@Override
+	public ByteBuffer readStoredIndexTable(String name) throws IOException {
+		File tableFile = getBlockIndexTableFile(name) ;
+		if ( !tableFile.isFile() ) return null ;
+		
+		RandomAccessFile io = new RandomAccessFile(tableFile, "r") ;
+		
+		try {
+			FileChannel channel = io.getChannel() ;
+			
+			if ( channel.size() > Integer.MAX_VALUE ) return null ;
+			
+			if ( !memoryMapped ) {
+				return ByteBuffer.wrap( SerializationUtils.readFile(tableFile) ) ;
+			}
+			
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()) ;
+		}
+		finally {
+			io.close();
+		}
 	}
 	
 	@Override
@@ -79,26 +193,154 @@ public class BigBlockStorageDirectory implements BigBlockStorage {
 	
 	@Override
 	public byte[] getEntryDataStored(String name, BigBlockEntry blockEntry) throws IOException {
+		ByteBuffer buffer = getEntryDataStoredBuffer(name, blockEntry) ;
+		
+		byte[] data = new byte[ buffer.remaining() ] ;
+		buffer.get(data) ;
+		
+		return data;
+	}
+	
+	/**
+	 * @return a slice of the block part mapping (or a buffer read with positional IO if not memory-mapped).
+	 */
+	@Override
+	public ByteBuffer getEntryDataStoredBuffer(String name, BigBlockEntry blockEntry) throws IOException {
 		int storageLength = blockEntry.getStorageLength();
 		int storageBlockPart = blockEntry.getStorageBlockPart() ;
 		long storagePosition = blockEntry.getStoragePosition() ;
 		
-		
 		if ( storageLength < 0 || storageBlockPart < 0 || storagePosition < 0) throw new IllegalStateException("Getting data from not stored entry: "+ blockEntry) ;
 		
-		File blockFile = getBlockFile(name, storageBlockPart) ;
+		BlockPartReader reader = getBlockPartReader(name, storageBlockPart) ;
 		
-		RandomAccessFile blockIO = new RandomAccessFile(blockFile, "r") ;
+		return reader.read(storagePosition, storageLength) ;
+	}
+	
+	////////////////////////////////////////////////////////////////////////////
+	
+	/**
+	 * An open block part file. Memory-mapped if possible, otherwise read with positional IO.
+	 */
+	static final private class BlockPartReader {
+		final private File file ;
+		final private RandomAccessFile io ;
+		final private FileChannel channel ;
+		final private MappedByteBuffer mapped ;
+		final private long length ;
 		
-		blockIO.seek(storagePosition);
+		public BlockPartReader(File file, boolean memoryMapped) throws IOException {
+			this.file = file ;
+			
+			RandomAccessFile io = new RandomAccessFile(file, "r") ;
+			FileChannel channel = io.getChannel() ;
+			
+			this.length = channel.size() ;
+			
+			if ( memoryMapped && length <= Integer.MAX_VALUE ) {
+				this.mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, length) ;
+				
+				// The mapping stays valid after the file is closed:
+				io.close();
+				
+				this.io = null ;
+				this.channel = null ;
+			}
+			else {
+				this.mapped = null ;
+				this.io = io ;
+				this.channel = channel ;
+			}
+		}
+		
+		public ByteBuffer read(long position, int length) throws IOException {
+			if ( position+length > this.length ) throw new EOFException("Reading outside of block part: "+ position +" + "+ length +" > "+ this.length +" ; "+ file) ;
+			
+			if (mapped != null) {
+				ByteBuffer buffer = mapped.duplicate() ;
+				buffer.limit( (int) (position+length) ) ;
+				buffer.position( (int) position ) ;
+				return buffer.slice() ;
+			}
+			
+			ByteBuffer buffer = ByteBuffer.allocate(length) ;
+			
+			while ( buffer.hasRemaining() ) {
+				int r = channel.read(buffer, position+buffer.position()) ;
+				if (r < 0) throw new EOFException("Unexpected end of block part: "+ file) ;
+			}
+			
+			buffer.flip() ;
+			
+			return buffer.asReadOnlyBuffer() ;
+		}
+		
+		public void close() throws IOException {
+			if (io != null) io.close();
+		}
+	}
+	
+	final private HashMap<String, BlockPartReader> blockPartReaders = new HashMap<>() ;
+	
+	private BlockPartReader getBlockPartReader(String name, int blockPart) throws IOException {
+		String key = name +"--"+ blockPart ;
 		
-		byte[] data = new byte[storageLength] ;
-		blockIO.readFully(data);
+		synchronized (blockPartReaders) {
+			BlockPartReader reader = blockPartReaders.get(key) ;
+			
+			if (reader == null) {
+				reader = new BlockPartReader( getBlockFile(name, blockPart) , memoryMapped ) ;
+				blockPartReaders.put(key, reader) ;
+			}
+			
+			return reader ;
+		}
+	}
+	
+	private void closeBlockPartReader(String name, int blockPart) {
+		String key = name +"--"+ blockPart ;
 		
-		blockIO.close();
+		BlockPartReader reader ;
+		synchronized (blockPartReaders) {
+			reader = blockPartReaders.remove(key) ;
+		}
 		
-		return data;
+		if (reader != null) {
+			try {
+				reader.close();
+			}
+			catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
 	}
 	
+	public int getOpenBlockPartReaders() {
+		synchronized (blockPartReaders) {
+			return blockPartReaders.size() ;
+		}
+	}
+	
+	/**
+	 * Closes the open block part readers. Buffers already returned by {@link #getEntryDataStoredBuffer(String, BigBlockEntry)}
+	 * from mappings stay valid, since mappings are released by the GC.
+	 */
+	public void close() {
+		ArrayList<BlockPartReader> readers ;
+		
+		synchronized (blockPartReaders) {
+			readers = new ArrayList<>( blockPartReaders.values() ) ;
+			blockPartReaders.clear();
+		}
+		
+		for (BlockPartReader reader : readers) {
+			try {
+				reader.close();
+			}
+			catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
 	
 }
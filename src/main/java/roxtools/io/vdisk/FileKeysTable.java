@@ -77,6 +77,8 @@ abstract public class FileKeysTable implements Iterable<Entry<String,int[]>>{
 	
 	private BigLinkedIntListPool listPool ;
 	
+	private boolean loaded = false ;
+	
 	private FileKeysTable() {
 		this.sector = null ;
 		this.keysTables = null ;
@@ -91,8 +93,22 @@ abstract public class FileKeysTable implements Iterable<Entry<String,int[]>>{
 		this.keysTablesHascodes = new IntTable[TOTAL_KEYS_GROUPS] ;
 		
 		instantiateListPool();
+	}
+	
+	/**
+	 * Loads the keys from the sector blocks on the first use, so opening a sector doesn't read all the metadata.
+	 * Should be called holding the sector lock.
+	 */
+	synchronized protected void ensureLoaded() {
+		if (loaded || sector == null) return ;
 		
 		loadAllMetaDataKeys();
+		
+		loaded = true ;
+	}
+	
+	synchronized public boolean isLoaded() {
+		return loaded;
 	}
 	
 	private void instantiateListPool() {
@@ -639,6 +655,8 @@ abstract public class FileKeysTable implements Iterable<Entry<String,int[]>>{
 	
 
 	synchronized protected void notifyMetaDataKeyChange(String key, int blockIndex, int blockSector) {
+		if (!loaded) return ;
+		
 		int keyHashcode = key.hashCode() ;
 		int keyGroup = calcKeyGroup(keyHashcode) ;
 		
@@ -658,6 +676,8 @@ abstract public class FileKeysTable implements Iterable<Entry<String,int[]>>{
 	}
 	
 	synchronized protected void notifyMetaDataKeyRemove(String key, int blockIndex, int blockSector) {
+		if (!loaded) return ;
+		
 		int keyHashcode = key.hashCode();
 		int keyGroup = calcKeyGroup(keyHashcode) ;
 		
@@ -676,7 +696,7 @@ abstract public class FileKeysTable implements Iterable<Entry<String,int[]>>{
 			
 			prevIdents = VDSector.removeIdent(prevIdents, blockIndex, blockSector) ;
 			
-			if ( prevIdents.length > 0 ) {
+			if ( prevIdents != null && prevIdents.length > 0 ) {
 				keysTable.put(key, prevIdents) ;
 			}
 			else {
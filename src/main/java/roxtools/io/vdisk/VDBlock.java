@@ -368,7 +368,7 @@ final public class VDBlock implements Serializable {
 		removeMetaDataParameter() ;
 		
 		metaDataRef = null ;
-		metaDataKey = null ;
+		this.metaDataKey = null ;
 		
 		sector.notifyMetaDataKeyRemove(metaDataKey , blockIndex, getSectorIndex()) ;
 		
@@ -0,0 +1,29 @@
+package roxtools.io.vdisk;
+
+import java.io.IOException;
+
+/**
+ * Thrown when the data of a block doesn't match its stored checksum (torn write or corrupted sector file).
+ */
+public class VDChecksumException extends IOException {
+	private static final long serialVersionUID = -3127715962045096613L;
+
+	final private int sectorIndex ;
+	final private int blockIndex ;
+
+	public VDChecksumException(int sectorIndex, int blockIndex, int expectedChecksum, int checksum) {
+		super("Invalid checksum of block "+ VDBlock.toStringIdent(blockIndex, sectorIndex) +": "+ Integer.toHexString(checksum) +" != "+ Integer.toHexString(expectedChecksum)) ;
+		
+		this.sectorIndex = sectorIndex;
+		this.blockIndex = blockIndex;
+	}
+
+	public int getSectorIndex() {
+		return sectorIndex;
+	}
+
+	public int getBlockIndex() {
+		return blockIndex;
+	}
+
+}
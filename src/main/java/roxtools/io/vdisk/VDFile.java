@@ -5,6 +5,9 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Serializable;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import roxtools.io.SeekableInputOutput;
 
 final public class VDFile implements Serializable {
 	private static final long serialVersionUID = 9196561280215962085L;
@@ -18,6 +21,12 @@ final public class VDFile implements Serializable {
 	private VDBlock blockCursor ;
 	private int blockCursorIdx ;
 	
+	/**
+	 * IO and size changes hold the read lock, block relocation (compaction) holds the write lock.
+	 */
+	final private ReentrantReadWriteLock layoutLock = new ReentrantReadWriteLock() ;
+	private volatile int layoutVersion ;
+	
 	protected VDFile(VDisk vDisk, VDBlock initBlock) {
 		if ( initBlock.hasPrevBlock() ) throw new IllegalArgumentException("Can't have init block of file with previous blocks: "+ initBlock) ;
 		
@@ -52,6 +61,10 @@ final public class VDFile implements Serializable {
 		return this.initBlock.toStringIdent() ;
 	}
 	
+	public VDisk getVDisk() {
+		return vDisk;
+	}
+	
 	protected VDBlock getInitBlock() {
 		return initBlock;
 	}
@@ -60,22 +73,57 @@ final public class VDFile implements Serializable {
 		return totalBlocks;
 	}
 	
+	static private int toIntSize(long size) {
+		if (size > Integer.MAX_VALUE) throw new IllegalStateException("Size out of int range: "+ size +". Use the long API: length(), lengthInDisk(), position(), remaining().") ;
+		return (int) size ;
+	}
+	
 	public int size() {
-		if ( isDeleted() ) return 0 ;
-		return (vDisk.blockSize * (totalBlocks-1)) + endBlock.size() ;
+		return toIntSize( length() ) ;
+	}
+	
+	public long length() {
+		layoutLock.readLock().lock();
+		try {
+			if ( isDeleted() ) return 0 ;
+			return (vDisk.blockSize * (long)(totalBlocks-1)) + endBlock.size() ;
+		}
+		finally {
+			layoutLock.readLock().unlock();
+		}
 	}
 	
 	public int sizeInDisk() {
-		return vDisk.blockSize * totalBlocks ;
+		return toIntSize( lengthInDisk() ) ;
+	}
+	
+	public long lengthInDisk() {
+		return vDisk.blockSize * (long)totalBlocks ;
 	}
 
 	/////////////////////////////////////////////////////////////////////////////////
 	
 	public void setSize(int size) throws IOException {
+		setLength(size) ;
+	}
+	
+	public void setLength(long size) throws IOException {
 		
 		if (size < 0) throw new IllegalArgumentException("negative size: "+ size) ;
 		
-		int blockSize = vDisk.blockSize ;
+		layoutLock.readLock().lock();
+		try {
+			setLengthImplem(size) ;
+		}
+		finally {
+			layoutLock.readLock().unlock();
+		}
+		
+	}
+	
+	private void setLengthImplem(long size) throws IOException {
+		
+		long blockSize = vDisk.blockSize ;
 		
 		// Optimized version for: size == 0 or size <= blockSize
 		if (size <= blockSize) {
@@ -86,37 +134,39 @@ final public class VDFile implements Serializable {
 			
 			assert( initBlock == endBlock ) ;
 			
-			initBlock.setSize(size);
+			initBlock.setSize((int) size);
 			
-			assert( size() == size ) ;
+			assert( length() == size ) ;
 			
 			return ;
 		}
 		
-		int totalBlocks ;
+		long totalBlocks ;
 		{
-			int totalFullBlocks = (size / blockSize) ;
-			int sizeInDiskForSize_fullBlocks = totalFullBlocks * blockSize ;
+			long totalFullBlocks = (size / blockSize) ;
+			long sizeInDiskForSize_fullBlocks = totalFullBlocks * blockSize ;
 			
 			totalBlocks = sizeInDiskForSize_fullBlocks == size ? totalFullBlocks : totalFullBlocks+1 ;
 		} 
 		
-		int sizeInDiskForSize = totalBlocks * blockSize ;
+		if (totalBlocks > Integer.MAX_VALUE) throw new IllegalArgumentException("Size needs too many blocks: "+ size +" / "+ blockSize) ;
+		
+		long sizeInDiskForSize = totalBlocks * blockSize ;
 		
 		///////////////////////////////////////
 		
-		while ( sizeInDisk() > sizeInDiskForSize ) {
+		while ( lengthInDisk() > sizeInDiskForSize ) {
 			boolean removed = removeBlock() ;
 			assert(removed) ;
 		}
 		
-		assert( sizeInDisk() <= sizeInDiskForSize ) ;
+		assert( lengthInDisk() <= sizeInDiskForSize ) ;
 		
 		{
 			VDBlock cursor = initBlock ;
 			
 			while (cursor != null && cursor != endBlock) {
-				cursor.setSize(blockSize);
+				cursor.setSize((int) blockSize);
 				
 				assert( cursor.size() == blockSize ) ;
 				
@@ -124,23 +174,27 @@ final public class VDFile implements Serializable {
 			}
 		}
 		
-		while ( sizeInDisk() < sizeInDiskForSize ) {
-			this.endBlock.setSize(blockSize);
+		while ( lengthInDisk() < sizeInDiskForSize ) {
+			this.endBlock.setSize((int) blockSize);
 			assert( this.endBlock.size() == blockSize ) ;
 			
+			long missingBlocks = (sizeInDiskForSize - lengthInDisk()) / blockSize ;
+			
+			if ( missingBlocks > 1 && this.appendNewBlocks( (int) Math.min(missingBlocks, Integer.MAX_VALUE) ) ) continue ;
+			
 			boolean added = this.appendNewBlock() ;
 			assert(added) ;
 		}
 		
-		assert( sizeInDisk() == sizeInDiskForSize ) ;
+		assert( lengthInDisk() == sizeInDiskForSize ) ;
 		
-		int endBlockSize = size - ( (totalBlocks-1) * blockSize ) ;
+		int endBlockSize = (int) ( size - ( (totalBlocks-1) * blockSize ) ) ;
 		
 		assert( endBlockSize > 0 ) ;
 		
 		this.endBlock.setSize(endBlockSize) ;
 		
-		assert( size() == size ) ;
+		assert( length() == size ) ;
 		
 	}
 	
@@ -165,6 +219,16 @@ final public class VDFile implements Serializable {
 	}
 	
 	public void clear() throws IOException {
+		layoutLock.readLock().lock();
+		try {
+			clearImplem() ;
+		}
+		finally {
+			layoutLock.readLock().unlock();
+		}
+	}
+	
+	private void clearImplem() throws IOException {
 		
 		VDBlock cursor = this.endBlock ;
 		
@@ -189,6 +253,16 @@ final public class VDFile implements Serializable {
 	}
 	
 	public void delete() throws IOException {
+		layoutLock.readLock().lock();
+		try {
+			deleteImplem() ;
+		}
+		finally {
+			layoutLock.readLock().unlock();
+		}
+	}
+	
+	private void deleteImplem() throws IOException {
 		
 		VDBlock cursor = this.endBlock ;
 		
@@ -214,9 +288,13 @@ final public class VDFile implements Serializable {
 
 	/////////////////////////////////////////////////////////////////////////////////
 	
-	private int pos = 0 ;
+	private long pos = 0 ;
 	
 	public int getPosition() {
+		return toIntSize(pos) ;
+	}
+	
+	public long position() {
 		return pos ;
 	}
 	
@@ -224,24 +302,31 @@ final public class VDFile implements Serializable {
 		this.pos = pos ;
 	}
 	
+	public void seek(long pos) {
+		this.pos = pos ;
+	}
+	
 	public void skip(int n) {
 		this.pos += n ;
 	}
 	
+	public void skip(long n) {
+		this.pos += n ;
+	}
+	
 	public int available() {
-		return size() - this.pos ;
+		return toIntSize( remaining() ) ;
+	}
+	
+	public long remaining() {
+		return length() - this.pos ;
 	}
 	
 	public byte[] readFullData() throws IOException {
 		int size = size() ;
 		byte[] buff = new byte[size] ;
 		
-		int prevPos = this.pos ;
-		
-		seek(0) ;
-		read(buff) ;
-		
-		this.pos = prevPos ;
+		readImplem(0, buff, 0, size) ;
 		
 		return buff ;
 	}
@@ -260,24 +345,34 @@ final public class VDFile implements Serializable {
 	}
 	
 	public void read(int pos, byte[] buff, int off, int length) throws IOException {
-		
-		int prevPos = this.pos ;
-		
-		this.pos = pos ;
-		
-		read(buff, off, length) ;
-		
-		this.pos = prevPos ;
-		
+		readImplem(pos, buff, off, length) ;
+	}
+	
+	public void read(long pos, byte[] buff, int off, int length) throws IOException {
+		readImplem(pos, buff, off, length) ;
 	}
 	
 	public void read(byte[] buff, int off, int length) throws IOException {
+		this.pos = readImplem(this.pos, buff, off, length) ;
+	}
+	
+	private long readImplem(long pos, byte[] buff, int off, int length) throws IOException {
+		layoutLock.readLock().lock();
+		try {
+			return readImplemLocked(pos, buff, off, length) ;
+		}
+		finally {
+			layoutLock.readLock().unlock();
+		}
+	}
+	
+	private long readImplemLocked(long pos, byte[] buff, int off, int length) throws IOException {
 		
 		int blockSize = vDisk.blockSize ;
 		
 		while ( length > 0 ) {
-			int blockIdx = pos / blockSize ;
-			int posInBlock = pos - (blockIdx*blockSize) ;
+			int blockIdx = getBlockIndexForPos(pos, blockSize) ;
+			int posInBlock = (int) ( pos - (blockIdx*(long)blockSize) ) ;
 			
 			VDBlock block = getMyBlock(blockIdx) ;
 			
@@ -297,31 +392,82 @@ final public class VDFile implements Serializable {
 			pos += lng ;
 		}
 		
+		return pos ;
 	}
 	
-	public void write(byte[] buff) throws IOException {
-		write(buff, 0, buff.length) ;
-	}
-	
-	public void write(int pos, byte[] buff, int off, int length) throws IOException {
+	static private int getBlockIndexForPos(long pos, int blockSize) throws IOException {
+		if (pos < 0) throw new IOException("Negative position: "+ pos) ;
 		
-		int prevPos = this.pos ;
+		long blockIdx = pos / blockSize ;
+		if (blockIdx > Integer.MAX_VALUE) throw new IOException("Position out of addressable blocks: "+ pos) ;
 		
-		this.pos = pos ;
+		return (int) blockIdx ;
+	}
+	
+	/**
+	 * Should be called holding the read lock of {@link #getLayoutLock()}, until the segments are read.
+	 */
+	protected void collectReadSegments(VDReadBatch batch, long pos, byte[] buff, int off, int length) throws IOException {
 		
-		write(buff, off, length) ;
+		int blockSize = vDisk.blockSize ;
 		
-		this.pos = prevPos ;
+		while ( length > 0 ) {
+			int blockIdx = getBlockIndexForPos(pos, blockSize) ;
+			int posInBlock = (int) ( pos - (blockIdx*(long)blockSize) ) ;
+			
+			VDBlock block = getMyBlock(blockIdx) ;
+			
+			int available = block != null ? block.size() - posInBlock : 0 ;
+			
+			int lng = length < available ? length : available ; 
+			
+			if (lng <= 0) {
+				throw new EOFException("Trying to read at pos "+ pos +" (blockIdx: "+ blockIdx +" ; posInBlock: "+ posInBlock +"), but still need "+ length +" bytes to read.") ;
+			}
+			
+			batch.addSegment(block, posInBlock, buff, off, lng) ;
+			
+			off += lng ;
+			length -= lng ;
+			
+			pos += lng ;
+		}
 		
 	}
 	
+	public void write(byte[] buff) throws IOException {
+		write(buff, 0, buff.length) ;
+	}
+	
+	public void write(int pos, byte[] buff, int off, int length) throws IOException {
+		writeImplem(pos, buff, off, length) ;
+	}
+	
+	public void write(long pos, byte[] buff, int off, int length) throws IOException {
+		writeImplem(pos, buff, off, length) ;
+	}
+	
 	public void write(byte[] buff, int off, int length) throws IOException {
+		this.pos = writeImplem(this.pos, buff, off, length) ;
+	}
+	
+	private long writeImplem(long pos, byte[] buff, int off, int length) throws IOException {
+		layoutLock.readLock().lock();
+		try {
+			return writeImplemLocked(pos, buff, off, length) ;
+		}
+		finally {
+			layoutLock.readLock().unlock();
+		}
+	}
+	
+	private long writeImplemLocked(long pos, byte[] buff, int off, int length) throws IOException {
 		
 		int blockSize = vDisk.blockSize ;
 		
 		while ( length > 0 ) {
-			int blockIdx = pos / blockSize ;
-			int posInBlock = pos - (blockIdx*blockSize) ;
+			int blockIdx = getBlockIndexForPos(pos, blockSize) ;
+			int posInBlock = (int) ( pos - (blockIdx*(long)blockSize) ) ;
 			
 			VDBlock block = getMyBlock(blockIdx) ;
 			
@@ -347,6 +493,7 @@ final public class VDFile implements Serializable {
 			pos += lng ;
 		}
 		
+		return pos ;
 	}
 	
 	private boolean appendNewBlock() throws IOException {
@@ -355,12 +502,14 @@ final public class VDFile implements Serializable {
 		
 		if ( appendNewBlock(sector, endBlock.getBlockIndex()) ) return true ;
 		
-		int totalSectors = vDisk.getTotalSectors() ;
+		// Snapshot, since trailing sectors can be truncated concurrently:
+		VDSector[] sectors = vDisk.getSectors() ;
+		int totalSectors = sectors.length ;
 		
 		int nextSectorIdx = sector.getSectorIndex()+1 ;
 		
 		if (nextSectorIdx < totalSectors) {
-			VDSector nextSector = vDisk.getSector(nextSectorIdx) ;
+			VDSector nextSector = sectors[nextSectorIdx] ;
 			
 			if ( appendNewBlock(nextSector) ) return true ;
 		}
@@ -370,7 +519,7 @@ final public class VDFile implements Serializable {
 		for (int i = 0; i < totalSectors; i++) {
 			if (i == sectorIdx || i == nextSectorIdx) continue ;
 			
-			VDSector sect = vDisk.getSector(i) ;
+			VDSector sect = sectors[i] ;
 			
 			if ( appendNewBlock(sect) ) return true ;
 		}
@@ -385,6 +534,25 @@ final public class VDFile implements Serializable {
 		throw new IOException("Can't find blocks in sectors! VDisk is full! Can't allocate a new block!") ;
 	}
 	
+	private boolean appendNewBlocks(int count) throws IOException {
+		
+		VDSector sector = endBlock.getSector() ;
+		
+		VDBlock[] extent = sector.createBlocksExtent(endBlock.getBlockIndex(), count) ;
+		
+		if (extent == null) return false ;
+		
+		int blockSize = vDisk.blockSize ;
+		
+		for (int i = 0; i < extent.length; i++) {
+			if (i > 0) endBlock.setSize(blockSize) ;
+			
+			appendNewBlock(extent[i]) ;
+		}
+		
+		return true ;
+	}
+	
 	private boolean appendNewBlock(VDSector sector) throws IOException {
 		
 		VDBlock newBlock = sector.createBlock() ;
@@ -422,7 +590,7 @@ final public class VDFile implements Serializable {
 		this.blockCursorIdx = 0 ;
 	}
 	
-	private VDBlock getMyBlock(int myBlockIdx) {
+	synchronized private VDBlock getMyBlock(int myBlockIdx) {
 		
 		if (myBlockIdx == blockCursorIdx) return blockCursor ;
 		
@@ -441,7 +609,7 @@ final public class VDFile implements Serializable {
 		
 		VDBlock block ;
 		if ( cursorDistNext == 1 ) {
-			block = walkCursorNext(initBlock, 0, myBlockIdx) ;
+			block = walkCursorNext(blockCursor, blockCursorIdx, myBlockIdx) ;
 		}
 		else if ( initDist <= endDist && initDist <= cursorDistNext && initDist <= cursorDistPrev ) {
 			block = walkCursorNext(initBlock, 0, myBlockIdx) ;
@@ -493,6 +661,145 @@ final public class VDFile implements Serializable {
 
 	/////////////////////////////////////////////////////////////////////////////////
 	
+	protected ReentrantReadWriteLock getLayoutLock() {
+		return layoutLock;
+	}
+	
+	/**
+	 * Incremented each time the blocks of this file are relocated.
+	 */
+	protected int getLayoutVersion() {
+		return layoutVersion;
+	}
+	
+	/**
+	 * @return the number of links between consecutive blocks of this file that don't point to the next block of the same sector.
+	 */
+	public int countFragments() {
+		layoutLock.readLock().lock();
+		try {
+			if ( isDeleted() ) return 0 ;
+			
+			int fragments = 0 ;
+			
+			VDBlock prev = initBlock ;
+			VDBlock cursor = initBlock.getNextBlock() ;
+			
+			while (cursor != null) {
+				if ( !isContiguous(prev, cursor) ) fragments++ ;
+				
+				prev = cursor ;
+				cursor = cursor.getNextBlock() ;
+			}
+			
+			return fragments ;
+		}
+		finally {
+			layoutLock.readLock().unlock();
+		}
+	}
+	
+	static private boolean isContiguous(VDBlock block, VDBlock next) {
+		return block.getSector() == next.getSector() && block.getBlockIndex()+1 == next.getBlockIndex() ;
+	}
+	
+	/**
+	 * Relocates the blocks after the init block to a contiguous extent of {@code sector}, if that reduces
+	 * the fragments of the file, or keeps them and moves the blocks to a lower sector. The init block
+	 * is never relocated, since it defines the file ID.
+	 * <p>
+	 * The data is copied to the new blocks before relinking them and deleting the old blocks, holding
+	 * the layout write lock, so concurrent IO of this file just waits for the relocation.
+	 * 
+	 * @return the number of relocated blocks.
+	 */
+	protected int relocateBlocks(VDSector sector) throws IOException {
+		
+		layoutLock.writeLock().lock();
+		try {
+			if ( isDeleted() || totalBlocks < 2 ) return 0 ;
+			
+			int count = totalBlocks-1 ;
+			
+			int fragments = 0 ;
+			int maxSectorIndex = -1 ;
+			
+			VDBlock prev = initBlock ;
+			VDBlock cursor = initBlock.getNextBlock() ;
+			
+			while (cursor != null) {
+				if ( !isContiguous(prev, cursor) ) fragments++ ;
+				if ( cursor.getSectorIndex() > maxSectorIndex ) maxSectorIndex = cursor.getSectorIndex() ;
+				
+				prev = cursor ;
+				cursor = cursor.getNextBlock() ;
+			}
+			
+			if (fragments == 0) return 0 ;
+			
+			boolean initSector = sector == initBlock.getSector() ;
+			int refIdx = initSector ? initBlock.getBlockIndex() : -1 ;
+			
+			int extentIdx = sector.findFreeExtentIndex(refIdx, count) ;
+			if (extentIdx < 0) return 0 ;
+			
+			int newFragments = initSector && extentIdx == refIdx+1 ? 0 : 1 ;
+			
+			if ( newFragments > fragments || ( newFragments == fragments && sector.getSectorIndex() >= maxSectorIndex ) ) return 0 ;
+			
+			VDBlock[] extent = sector.createBlocksExtent(refIdx, count, true) ;
+			if (extent == null) return 0 ;
+			
+			try {
+				byte[] buff = new byte[ vDisk.blockSize ] ;
+				
+				VDBlock block = initBlock.getNextBlock() ;
+				
+				for (int i = 0; i < extent.length; i++) {
+					int size = block.size() ;
+					
+					if (size > 0) {
+						block.read(0, buff, 0, size) ;
+						extent[i].write(0, buff, 0, size) ;
+					}
+					
+					block = block.getNextBlock() ;
+				}
+				
+				for (int i = 1; i < extent.length; i++) {
+					extent[i-1].setNextBlock( extent[i] ) ;
+				}
+			}
+			catch (IOException | RuntimeException e) {
+				for (int i = extent.length-1; i >= 0; i--) {
+					extent[i].deleteForce() ;
+				}
+				throw e ;
+			}
+			
+			VDBlock oldBlocks = initBlock.getNextBlock() ;
+			
+			initBlock.unlinkNextBlock() ;
+			initBlock.setNextBlock( extent[0] ) ;
+			
+			oldBlocks.deleteBlockChain() ;
+			
+			synchronized (this) {
+				this.endBlock = extent[extent.length-1] ;
+				resetBlockCursor() ;
+			}
+			
+			layoutVersion++ ;
+			
+			return extent.length ;
+		}
+		finally {
+			layoutLock.writeLock().unlock();
+		}
+		
+	}
+	
+	/////////////////////////////////////////////////////////////////////////////////
 
 	public void setMetaData(VDMetaData metaData) throws IOException {
 		initBlock.setMetaData(metaData);
@@ -534,9 +841,9 @@ final public class VDFile implements Serializable {
 		else {
 			
 			str.append("size: ") ;
-			str.append( this.size() ) ;
+			str.append( this.length() ) ;
 			str.append("/") ;
-			str.append( this.sizeInDisk() ) ;
+			str.append( this.lengthInDisk() ) ;
 			
 			
 			if ( totalBlocks == 1 ) {
@@ -576,19 +883,21 @@ final public class VDFile implements Serializable {
 
 		private VDFile vdFile ;
 		
-		protected MyInputStream(VDFile vdFile) {
+		protected MyInputStream(VDFile vdFile, long streamPos) {
 			this.vdFile = vdFile;
+			this.streamPos = streamPos ;
 		}
 
-		private int streamPos = 0 ;
+		private long streamPos ;
 		
 		@Override
 		public long skip(long n) throws IOException {
 			try {
-				int available = availableNoIOException() ;
+				long available = availableNoIOException() ;
 				
-				int len = (int) n ;
+				long len = n ;
 				if (len > available) len = available ;
+				if (len < 0) len = 0 ;
 				
 				streamPos += len ;
 				
@@ -602,15 +911,16 @@ final public class VDFile implements Serializable {
 		@Override
 		public int available() throws IOException {
 			try {
-				return vdFile.size() - streamPos ;
+				long available = availableNoIOException() ;
+				return available > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) available ;
 			}
 			catch (NullPointerException e) {
 				throw new IOException("Closed stream", e) ;
 			}
 		}
 		
-		private int availableNoIOException() {
-			return vdFile.size() - streamPos ;
+		private long availableNoIOException() {
+			return vdFile.length() - streamPos ;
 		}
 		
 		final private byte[] bufferOneByte = new byte[1] ;
@@ -634,10 +944,10 @@ final public class VDFile implements Serializable {
 		@Override
 		public int read(byte[] b, int off, int len) throws IOException {
 			try {
-				int available = availableNoIOException() ;
+				long available = availableNoIOException() ;
 				if ( available <= 0 ) return -1 ;
 				
-				if (len > available) len = available ;
+				if (len > available) len = (int) available ;
 				
 				vdFile.read(streamPos, b,off,len) ;
 				
@@ -676,7 +986,7 @@ final public class VDFile implements Serializable {
 		if (inputStream == null) {
 			synchronized (this) {
 				if (inputStream != null) return inputStream ;
-				inputStream = new MyInputStream(this) ;
+				inputStream = new MyInputStream(this, 0) ;
 			}
 		}
 		
@@ -684,18 +994,23 @@ final public class VDFile implements Serializable {
 	}
 	
 	public InputStream createInputStream() {
-		return new MyInputStream(this) ;
+		return new MyInputStream(this, 0) ;
+	}
+	
+	public InputStream createInputStream(long pos) {
+		return new MyInputStream(this, pos) ;
 	}
 	
 	final static private class MyOutputStream extends OutputStream {
 		
 		private VDFile vdFile ;
 		
-		public MyOutputStream(VDFile vdFile) {
+		public MyOutputStream(VDFile vdFile, long streamPos) {
 			this.vdFile = vdFile;
+			this.streamPos = streamPos ;
 		}
 
-		private int streamPos = 0 ;
+		private long streamPos ;
 		
 		final private byte[] bufferOneByte = new byte[1] ;
 		
@@ -751,7 +1066,7 @@ final public class VDFile implements Serializable {
 		if (outputStream == null) {
 			synchronized (this) {
 				if (outputStream != null) return outputStream ;
-				outputStream = new MyOutputStream(this) ;
+				outputStream = new MyOutputStream(this, 0) ;
 			}
 		}
 		
@@ -759,7 +1074,100 @@ final public class VDFile implements Serializable {
 	}
 	
 	public OutputStream createOutputStream() {
-		return new MyOutputStream(this) ;
+		return new MyOutputStream(this, 0) ;
+	}
+	
+	public OutputStream createOutputStream(long pos) {
+		return new MyOutputStream(this, pos) ;
+	}
+	
+	final static private class MySeekableIO implements SeekableInputOutput {
+		
+		final private VDFile vdFile ;
+		
+		private long pos = 0 ;
+		
+		public MySeekableIO(VDFile vdFile) {
+			this.vdFile = vdFile;
+		}
+
+		@Override
+		public void seek(long pos) throws IOException {
+			this.pos = pos ;
+		}
+
+		@Override
+		public long position() throws IOException {
+			return pos ;
+		}
+
+		@Override
+		public long length() throws IOException {
+			return vdFile.length() ;
+		}
+		
+		final private byte[] bufferOneByte = new byte[1] ;
+
+		@Override
+		public int read() throws IOException {
+			if ( pos >= vdFile.length() ) return -1 ;
+			
+			vdFile.read(pos, bufferOneByte, 0, 1) ;
+			pos++ ;
+			
+			return bufferOneByte[0] & 0xff ;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			long available = vdFile.length() - pos ;
+			if ( available <= 0 ) return -1 ;
+			
+			if (len > available) len = (int) available ;
+			
+			vdFile.read(pos, b, off, len) ;
+			pos += len ;
+			
+			return len ;
+		}
+
+		@Override
+		public int read(byte[] b) throws IOException {
+			return read(b, 0, b.length) ;
+		}
+
+		@Override
+		public void setLength(long length) throws IOException {
+			vdFile.setLength(length) ;
+			if (pos > length) pos = length ;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			bufferOneByte[0] = (byte)b ;
+			write(bufferOneByte, 0, 1) ;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			vdFile.write(pos, b, off, len) ;
+			pos += len ;
+		}
+
+		@Override
+		public void write(byte[] b) throws IOException {
+			write(b, 0, b.length) ;
+		}
+
+		@Override
+		public void flush() throws IOException {
+			
+		}
+		
+	}
+	
+	public SeekableInputOutput createSeekableIO() {
+		return new MySeekableIO(this) ;
 	}
 	
 }
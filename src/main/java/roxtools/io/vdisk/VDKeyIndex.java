@@ -0,0 +1,882 @@
+package roxtools.io.vdisk;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+
+import roxtools.SerializationUtils;
+
+/**
+ * Persistent sorted index of metadata keys -> file idents (blockIndex, sectorIndex pairs) of a {@link VDisk}.
+ * <p>
+ * LSM style: changes go to a sorted in-memory table, that is flushed to immutable sorted run files.
+ * Each run keeps in memory only a sparse index (the first key of each block of entries), so point lookups
+ * are a binary search + one block read per run, and prefix/range iteration only reads the blocks in range.
+ * Runs are merged when there are more than {@link #DEFAULT_MAX_RUNS}.
+ * <p>
+ * A manifest lists the runs and is marked clean only at {@link #close()}. If the VDisk isn't closed properly,
+ * the index is rebuilt from the sectors on the next open.
+ */
+final public class VDKeyIndex {
+
+	static public final String INDEX_DIR_NAME = "keys.index" ;
+
+	static final private String MANIFEST_FILE_NAME = "manifest" ;
+	static final private String RUN_FILE_PREFIX = "run." ;
+
+	static final private int MANIFEST_MAGIC = 0x56444b49 ;
+	static final private int RUN_MAGIC = 0x56444b52 ;
+
+	static final public int DEFAULT_MEMTABLE_SIZE = 1024*64 ;
+	static final public int DEFAULT_MAX_RUNS = 8 ;
+	static final public int RUN_BLOCK_ENTRIES = 64 ;
+
+	static final private int[] TOMBSTONE = new int[0] ;
+
+	static public File getIndexDir(File vdiskDir) {
+		return new File(vdiskDir, INDEX_DIR_NAME) ;
+	}
+
+	static public boolean exists(File vdiskDir) {
+		return new File( getIndexDir(vdiskDir) , MANIFEST_FILE_NAME ).isFile() ;
+	}
+
+	//////////////////////////////////////////////////////////////////////
+
+	final private VDisk vDisk ;
+	final private File dir ;
+
+	final private TreeMap<String, int[]> memtable = new TreeMap<String, int[]>() ;
+	final private ArrayList<SortedRun> runs = new ArrayList<SortedRun>() ;
+
+	private long nextRunSeq = 0 ;
+
+	private int memtableSize = DEFAULT_MEMTABLE_SIZE ;
+	private int maxRuns = DEFAULT_MAX_RUNS ;
+
+	private boolean rebuilt = false ;
+	private boolean closed = false ;
+
+	private VDKeyIndex(VDisk vDisk) {
+		this.vDisk = vDisk;
+		this.dir = getIndexDir( vDisk.getVDiskDir() ) ;
+	}
+
+	/**
+	 * Opens the index of the VDisk, creating or rebuilding it from the sectors if needed.
+	 */
+	static protected VDKeyIndex open(VDisk vDisk) throws IOException {
+		VDKeyIndex index = new VDKeyIndex(vDisk) ;
+
+		index.dir.mkdirs() ;
+
+		if ( !index.loadManifest() ) {
+			index.rebuild() ;
+		}
+
+		index.writeManifest(false) ;
+
+		return index ;
+	}
+
+	public VDisk getVDisk() {
+		return vDisk;
+	}
+
+	synchronized public boolean isRebuilt() {
+		return rebuilt;
+	}
+
+	synchronized public int getTotalRuns() {
+		return runs.size() ;
+	}
+
+	synchronized public int getMemtableSize() {
+		return memtableSize;
+	}
+
+	synchronized public void setMemtableSize(int memtableSize) {
+		if (memtableSize < 1) throw new IllegalArgumentException("Invalid memtableSize: "+ memtableSize) ;
+		this.memtableSize = memtableSize;
+	}
+
+	synchronized public int getMaxRuns() {
+		return maxRuns;
+	}
+
+	synchronized public void setMaxRuns(int maxRuns) {
+		if (maxRuns < 1) throw new IllegalArgumentException("Invalid maxRuns: "+ maxRuns) ;
+		this.maxRuns = maxRuns;
+	}
+
+	//////////////////////////////////////////////////////////////////////
+
+	private File getManifestFile() {
+		return new File(dir, MANIFEST_FILE_NAME) ;
+	}
+
+	private File getRunFile(long seq) {
+		return new File(dir, RUN_FILE_PREFIX+seq) ;
+	}
+
+	private boolean loadManifest() throws IOException {
+		File manifestFile = getManifestFile() ;
+		if ( !manifestFile.isFile() ) return false ;
+
+		long[] runsSeqs ;
+
+		DataInputStream in = new DataInputStream( new FileInputStream(manifestFile) ) ;
+
+		try {
+			if ( in.readInt() != MANIFEST_MAGIC ) return false ;
+
+			boolean clean = in.readBoolean() ;
+			if (!clean) return false ;
+
+			this.nextRunSeq = in.readLong() ;
+
+			runsSeqs = new long[ in.readInt() ] ;
+
+			for (int i = 0; i < runsSeqs.length; i++) {
+				runsSeqs[i] = in.readLong() ;
+			}
+		}
+		catch (IOException e) {
+			return false ;
+		}
+		finally {
+			in.close();
+		}
+
+		try {
+			for (long seq : runsSeqs) {
+				runs.add( new SortedRun( seq , getRunFile(seq) ) ) ;
+			}
+		}
+		catch (IOException e) {
+			closeRuns() ;
+			runs.clear();
+			return false ;
+		}
+
+		return true ;
+	}
+
+	private void writeManifest(boolean clean) throws IOException {
+		File manifestFile = getManifestFile() ;
+		File tmpFile = new File(dir, MANIFEST_FILE_NAME+".tmp") ;
+
+		FileOutputStream fout = new FileOutputStream(tmpFile) ;
+
+		try {
+			DataOutputStream out = new DataOutputStream( new BufferedOutputStream(fout) ) ;
+
+			out.writeInt(MANIFEST_MAGIC);
+			out.writeBoolean(clean);
+			out.writeLong(nextRunSeq);
+			out.writeInt( runs.size() );
+
+			for (SortedRun run : runs) {
+				out.writeLong(run.seq);
+			}
+
+			out.flush();
+			fout.getFD().sync();
+		}
+		finally {
+			fout.close();
+		}
+
+		Files.move(tmpFile.toPath(), manifestFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE) ;
+	}
+
+	private void deleteUnreferencedRunFiles() {
+		File[] files = dir.listFiles(new FileFilter() {
+			@Override
+			public boolean accept(File file) {
+				return file.getName().startsWith(RUN_FILE_PREFIX) ;
+			}
+		}) ;
+
+		if (files == null) return ;
+
+		for (File file : files) {
+			boolean referenced = false ;
+
+			for (SortedRun run : runs) {
+				if ( run.file.equals(file) ) {
+					referenced = true ;
+					break ;
+				}
+			}
+
+			if (!referenced) file.delete() ;
+		}
+	}
+
+	private void rebuild() throws IOException {
+		closeRuns() ;
+		runs.clear();
+		memtable.clear();
+
+		writeManifest(false) ;
+		deleteUnreferencedRunFiles() ;
+
+		int totalSectors = vDisk.getTotalSectors() ;
+
+		for (int i = 0; i < totalSectors; i++) {
+			VDSector sector = vDisk.getSector(i) ;
+
+			for (Entry<String, int[]> entry : sector.getMetaDataKeysEntries()) {
+				int[] idents = entry.getValue() ;
+
+				for (int j = 0; j < idents.length; j+=2) {
+					add(entry.getKey(), idents[j], idents[j+1]) ;
+				}
+			}
+		}
+
+		flush() ;
+
+		this.rebuilt = true ;
+	}
+
+	//////////////////////////////////////////////////////////////////////
+
+	synchronized public int[] get(String key) throws IOException {
+		checkOpen() ;
+
+		int[] idents = getImplem(key) ;
+
+		return idents != null && idents.length > 0 ? idents.clone() : null ;
+	}
+
+	synchronized public boolean contains(String key) throws IOException {
+		checkOpen() ;
+
+		int[] idents = getImplem(key) ;
+
+		return idents != null && idents.length > 0 ;
+	}
+
+	private int[] getImplem(String key) throws IOException {
+		int[] idents = memtable.get(key) ;
+		if (idents != null) return idents ;
+
+		for (int i = runs.size()-1; i >= 0; i--) {
+			idents = runs.get(i).get(key) ;
+			if (idents != null) return idents ;
+		}
+
+		return null ;
+	}
+
+	synchronized public void add(String key, int blockIndex, int sectorIndex) throws IOException {
+		checkOpen() ;
+
+		int[] idents = getImplem(key) ;
+
+		int[] idents2 = idents == null || idents.length == 0 ? new int[] { blockIndex , sectorIndex } : VDSector.joinIdents(idents, blockIndex, sectorIndex) ;
+
+		if (idents2 == idents) return ;
+
+		memtable.put(key, idents2) ;
+
+		checkMemtableSize() ;
+	}
+
+	synchronized public void remove(String key, int blockIndex, int sectorIndex) throws IOException {
+		checkOpen() ;
+
+		int[] idents = getImplem(key) ;
+		if (idents == null || idents.length == 0) return ;
+
+		int[] idents2 = VDSector.removeIdent(idents, blockIndex, sectorIndex) ;
+
+		if (idents2 == idents) return ;
+
+		memtable.put(key, idents2 != null ? idents2 : TOMBSTONE) ;
+
+		checkMemtableSize() ;
+	}
+
+	private void checkOpen() throws IOException {
+		if (closed) throw new IOException("Key index closed: "+ dir) ;
+	}
+
+	private void checkMemtableSize() throws IOException {
+		if ( memtable.size() >= memtableSize ) {
+			flush() ;
+		}
+	}
+
+	/**
+	 * Writes the in-memory changes to a new sorted run, merging the runs if there are more than {@link #getMaxRuns()}.
+	 */
+	synchronized public void flush() throws IOException {
+		if ( memtable.isEmpty() ) return ;
+
+		boolean fullMerge = runs.isEmpty() ;
+
+		long seq = nextRunSeq++ ;
+
+		SortedRun run = SortedRun.write( seq , getRunFile(seq) , new ArrayList<Entry<String, int[]>>( memtable.entrySet() ).iterator() , fullMerge ) ;
+
+		runs.add(run) ;
+		memtable.clear();
+
+		if ( runs.size() > maxRuns ) {
+			mergeRuns() ;
+		}
+		else {
+			writeManifest(false) ;
+		}
+	}
+
+	private void mergeRuns() throws IOException {
+		long seq = nextRunSeq++ ;
+
+		MergeCursor cursor = new MergeCursor(null, null) ;
+
+		SortedRun merged = SortedRun.write( seq , getRunFile(seq) , cursor , true ) ;
+
+		ArrayList<SortedRun> prevRuns = new ArrayList<SortedRun>(runs) ;
+
+		runs.clear();
+		runs.add(merged) ;
+
+		writeManifest(false) ;
+
+		for (SortedRun run : prevRuns) {
+			run.close() ;
+			run.file.delete() ;
+		}
+	}
+
+	//////////////////////////////////////////////////////////////////////
+
+	/**
+	 * Collects the keys in order, starting after {@code afterKey} (or from {@code prefix}), that start with {@code prefix}.
+	 *
+	 * @return true if there are more keys after the collected ones.
+	 */
+	synchronized protected boolean collectKeys(String prefix, String afterKey, int limit, List<String> keys) throws IOException {
+		checkOpen() ;
+
+		MergeCursor cursor = new MergeCursor(prefix, afterKey) ;
+
+		int count = 0 ;
+
+		while ( cursor.hasNext() ) {
+			Entry<String, int[]> entry = cursor.next() ;
+			String key = entry.getKey() ;
+
+			if ( prefix != null && !key.startsWith(prefix) ) return false ;
+
+			if (count >= limit) return true ;
+
+			keys.add(key) ;
+			count++ ;
+		}
+
+		return false ;
+	}
+
+	public ArrayList<String> getKeys() throws IOException {
+		return getKeysWithPrefix(null) ;
+	}
+
+	public ArrayList<String> getKeysWithPrefix(String prefix) throws IOException {
+		ArrayList<String> keys = new ArrayList<String>() ;
+		collectKeys(prefix, null, Integer.MAX_VALUE, keys) ;
+		return keys ;
+	}
+
+	public Iterator<String> iterateKeys() {
+		return iterateKeys(null) ;
+	}
+
+	/**
+	 * Iterates the keys in order, reading them in batches (each batch seeks the runs after the last returned key).
+	 */
+	public Iterator<String> iterateKeys(String prefix) {
+		return new KeysIterator(prefix) ;
+	}
+
+	static final private int ITERATOR_BATCH_SIZE = 1024 ;
+
+	final private class KeysIterator implements Iterator<String> {
+		final private String prefix ;
+
+		final private ArrayList<String> batch = new ArrayList<String>() ;
+		private int batchCursor = 0 ;
+		private boolean hasMoreBatches = true ;
+		private String lastKey = null ;
+
+		public KeysIterator(String prefix) {
+			this.prefix = prefix;
+		}
+
+		private boolean prepareNext() {
+			if ( batchCursor < batch.size() ) return true ;
+			if ( !hasMoreBatches ) return false ;
+
+			batch.clear();
+			batchCursor = 0 ;
+
+			try {
+				hasMoreBatches = collectKeys(prefix, lastKey, ITERATOR_BATCH_SIZE, batch) ;
+			}
+			catch (IOException e) {
+				throw new IllegalStateException(e) ;
+			}
+
+			return !batch.isEmpty() ;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return prepareNext() ;
+		}
+
+		@Override
+		public String next() {
+			if ( !prepareNext() ) throw new NoSuchElementException() ;
+			return lastKey = batch.get(batchCursor++) ;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException() ;
+		}
+	}
+
+	//////////////////////////////////////////////////////////////////////
+
+	/**
+	 * Merges the memtable and the runs in key order. For equal keys the newest source wins. Tombstones are skipped.
+	 */
+	final private class MergeCursor implements Iterator<Entry<String, int[]>> {
+		final private EntrySource[] sources ;
+		private Entry<String, int[]> next ;
+
+		public MergeCursor(String prefix, String afterKey) throws IOException {
+			String fromKey = afterKey != null ? afterKey : prefix ;
+			boolean inclusive = afterKey == null ;
+
+			this.sources = new EntrySource[ runs.size()+1 ] ;
+
+			Map<String, int[]> memtableRange = fromKey != null ? memtable.tailMap(fromKey, inclusive) : memtable ;
+			sources[0] = new MemtableSource( memtableRange.entrySet().iterator() ) ;
+
+			for (int i = 0; i < runs.size(); i++) {
+				sources[i+1] = runs.get( runs.size()-1-i ).createSource(fromKey, inclusive) ;
+			}
+
+			for (EntrySource source : sources) {
+				source.advance() ;
+			}
+		}
+
+		private boolean prepareNext() throws IOException {
+			while ( next == null ) {
+				EntrySource min = null ;
+
+				for (EntrySource source : sources) {
+					if (source.key == null) continue ;
+
+					if ( min == null || source.key.compareTo(min.key) < 0 ) min = source ;
+				}
+
+				if (min == null) return false ;
+
+				String key = min.key ;
+				int[] value = min.value ;
+
+				for (EntrySource source : sources) {
+					if ( source.key != null && source.key.equals(key) ) source.advance() ;
+				}
+
+				if (value.length > 0) {
+					next = new SimpleImmutableEntry<String, int[]>(key, value) ;
+				}
+			}
+
+			return true ;
+		}
+
+		@Override
+		public boolean hasNext() {
+			try {
+				return prepareNext() ;
+			}
+			catch (IOException e) {
+				throw new IllegalStateException(e) ;
+			}
+		}
+
+		@Override
+		public Entry<String, int[]> next() {
+			if ( !hasNext() ) throw new NoSuchElementException() ;
+
+			Entry<String, int[]> entry = next ;
+			next = null ;
+			return entry ;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException() ;
+		}
+	}
+
+	static abstract private class EntrySource {
+		protected String key ;
+		protected int[] value ;
+
+		abstract protected void advance() throws IOException ;
+	}
+
+	static final private class MemtableSource extends EntrySource {
+		final private Iterator<Entry<String, int[]>> iterator ;
+
+		public MemtableSource(Iterator<Entry<String, int[]>> iterator) {
+			this.iterator = iterator;
+		}
+
+		@Override
+		protected void advance() {
+			if ( iterator.hasNext() ) {
+				Entry<String, int[]> entry = iterator.next() ;
+				key = entry.getKey() ;
+				value = entry.getValue() ;
+			}
+			else {
+				key = null ;
+				value = null ;
+			}
+		}
+	}
+
+	//////////////////////////////////////////////////////////////////////
+
+	static final private class SortedRun {
+		final private long seq ;
+		final private File file ;
+
+		final private RandomAccessFile io ;
+
+		final private String[] blocksKeys ;
+		final private long[] blocksOffsets ;
+		final private long indexOffset ;
+
+		public SortedRun(long seq, File file) throws IOException {
+			this.seq = seq;
+			this.file = file;
+			this.io = new RandomAccessFile(file, "r") ;
+
+			boolean ok = false ;
+
+			try {
+				long length = io.length() ;
+				if (length < 20) throw new IOException("Invalid run file: "+ file) ;
+
+				io.seek(length-20);
+
+				this.indexOffset = io.readLong() ;
+				int totalBlocks = io.readInt() ;
+				io.readInt() ;
+
+				if ( io.readInt() != RUN_MAGIC ) throw new IOException("Invalid run file magic: "+ file) ;
+
+				this.blocksKeys = new String[totalBlocks] ;
+				this.blocksOffsets = new long[totalBlocks] ;
+
+				byte[] index = new byte[ (int) (length-20-indexOffset) ] ;
+
+				io.seek(indexOffset);
+				io.readFully(index);
+
+				ByteBuffer buffer = ByteBuffer.wrap(index) ;
+
+				for (int i = 0; i < totalBlocks; i++) {
+					blocksKeys[i] = readKey(buffer) ;
+					blocksOffsets[i] = buffer.getLong() ;
+				}
+
+				ok = true ;
+			}
+			finally {
+				if (!ok) io.close();
+			}
+		}
+
+		static private String readKey(ByteBuffer buffer) {
+			int lng = buffer.getInt() ;
+			String key = new String( buffer.array() , buffer.position() , lng , SerializationUtils.CHARSET_UTF8 ) ;
+			buffer.position( buffer.position()+lng ) ;
+			return key ;
+		}
+
+		static private int[] readIdents(ByteBuffer buffer) {
+			int[] idents = new int[ buffer.getInt() ] ;
+
+			for (int i = 0; i < idents.length; i++) {
+				idents[i] = buffer.getInt() ;
+			}
+
+			return idents ;
+		}
+
+		static private void skipIdents(ByteBuffer buffer) {
+			int lng = buffer.getInt() ;
+			buffer.position( buffer.position() + lng*4 ) ;
+		}
+
+		static private int writeKey(DataOutputStream out, String key) throws IOException {
+			byte[] bs = key.getBytes(SerializationUtils.CHARSET_UTF8) ;
+			out.writeInt(bs.length);
+			out.write(bs);
+			return 4 + bs.length ;
+		}
+
+		static protected SortedRun write(long seq, File file, Iterator<Entry<String, int[]>> entries, boolean dropTombstones) throws IOException {
+			ArrayList<String> blocksKeys = new ArrayList<String>() ;
+			ArrayList<Long> blocksOffsets = new ArrayList<Long>() ;
+
+			FileOutputStream fout = new FileOutputStream(file) ;
+
+			try {
+				DataOutputStream out = new DataOutputStream( new BufferedOutputStream(fout, 1024*64) ) ;
+
+				long pos = 0 ;
+				int totalEntries = 0 ;
+
+				while ( entries.hasNext() ) {
+					Entry<String, int[]> entry = entries.next() ;
+					int[] idents = entry.getValue() ;
+
+					if ( dropTombstones && idents.length == 0 ) continue ;
+
+					if ( totalEntries % RUN_BLOCK_ENTRIES == 0 ) {
+						blocksKeys.add( entry.getKey() ) ;
+						blocksOffsets.add(pos) ;
+					}
+
+					pos += writeKey(out, entry.getKey()) ;
+
+					out.writeInt(idents.length);
+					for (int ident : idents) {
+						out.writeInt(ident);
+					}
+
+					pos += 4 + idents.length*4 ;
+
+					totalEntries++ ;
+				}
+
+				long indexOffset = pos ;
+
+				for (int i = 0; i < blocksKeys.size(); i++) {
+					writeKey(out, blocksKeys.get(i)) ;
+					out.writeLong( blocksOffsets.get(i) );
+				}
+
+				out.writeLong(indexOffset);
+				out.writeInt( blocksKeys.size() );
+				out.writeInt(totalEntries);
+				out.writeInt(RUN_MAGIC);
+
+				out.flush();
+				fout.getFD().sync();
+			}
+			finally {
+				fout.close();
+			}
+
+			return new SortedRun(seq, file) ;
+		}
+
+		/**
+		 * @return index of the last block with first key <= key, or -1.
+		 */
+		private int findBlock(String key) {
+			int low = 0 ;
+			int high = blocksKeys.length-1 ;
+			int found = -1 ;
+
+			while (low <= high) {
+				int mid = (low + high) >>> 1 ;
+
+				if ( blocksKeys[mid].compareTo(key) <= 0 ) {
+					found = mid ;
+					low = mid+1 ;
+				}
+				else {
+					high = mid-1 ;
+				}
+			}
+
+			return found ;
+		}
+
+		private ByteBuffer readBlock(int blockIdx) throws IOException {
+			long init = blocksOffsets[blockIdx] ;
+			long end = blockIdx+1 < blocksOffsets.length ? blocksOffsets[blockIdx+1] : indexOffset ;
+
+			byte[] buff = new byte[ (int) (end-init) ] ;
+
+			io.seek(init);
+			io.readFully(buff);
+
+			return ByteBuffer.wrap(buff) ;
+		}
+
+		protected int[] get(String key) throws IOException {
+			int blockIdx = findBlock(key) ;
+			if (blockIdx < 0) return null ;
+
+			ByteBuffer buffer = readBlock(blockIdx) ;
+
+			while ( buffer.hasRemaining() ) {
+				String k = readKey(buffer) ;
+				int cmp = k.compareTo(key) ;
+
+				if (cmp == 0) return readIdents(buffer) ;
+				if (cmp > 0) return null ;
+
+				skipIdents(buffer) ;
+			}
+
+			return null ;
+		}
+
+		protected EntrySource createSource(String fromKey, boolean inclusive) {
+			int blockIdx = fromKey != null ? Math.max( findBlock(fromKey) , 0 ) : 0 ;
+			return new RunSource(this, blockIdx, fromKey, inclusive) ;
+		}
+
+		protected void close() {
+			try {
+				io.close();
+			}
+			catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	static final private class RunSource extends EntrySource {
+		final private SortedRun run ;
+		private int blockIdx ;
+		private ByteBuffer buffer ;
+
+		private String fromKey ;
+		final private boolean inclusive ;
+
+		public RunSource(SortedRun run, int blockIdx, String fromKey, boolean inclusive) {
+			this.run = run;
+			this.blockIdx = blockIdx;
+			this.fromKey = fromKey;
+			this.inclusive = inclusive;
+		}
+
+		@Override
+		protected void advance() throws IOException {
+			while (true) {
+				if ( buffer == null || !buffer.hasRemaining() ) {
+					if ( blockIdx >= run.blocksKeys.length ) {
+						key = null ;
+						value = null ;
+						return ;
+					}
+
+					buffer = run.readBlock(blockIdx++) ;
+				}
+
+				String k = SortedRun.readKey(buffer) ;
+
+				if (fromKey != null) {
+					int cmp = k.compareTo(fromKey) ;
+
+					if ( cmp < 0 || (cmp == 0 && !inclusive) ) {
+						SortedRun.skipIdents(buffer) ;
+						continue ;
+					}
+
+					fromKey = null ;
+				}
+
+				key = k ;
+				value = SortedRun.readIdents(buffer) ;
+				return ;
+			}
+		}
+	}
+
+	//////////////////////////////////////////////////////////////////////
+
+	private void closeRuns() {
+		for (SortedRun run : runs) {
+			run.close();
+		}
+	}
+
+	synchronized public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * Flushes the in-memory changes and marks the index as clean.
+	 */
+	synchronized public void close() throws IOException {
+		if (closed) return ;
+
+		flush() ;
+
+		writeManifest(true) ;
+
+		closeRuns() ;
+
+		closed = true ;
+	}
+
+	/**
+	 * Closes and deletes the index files.
+	 */
+	synchronized protected void delete() {
+		closeRuns() ;
+		runs.clear();
+		memtable.clear();
+
+		closed = true ;
+
+		File[] files = dir.listFiles() ;
+
+		if (files != null) {
+			for (File file : files) {
+				file.delete() ;
+			}
+		}
+
+		dir.delete() ;
+	}
+
+}
@@ -0,0 +1,209 @@
+package roxtools.io.vdisk;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+
+/**
+ * Collects reads of many {@link VDFile}s (or many ranges of the same file) and executes them
+ * in one pass: reads are grouped by sector and sorted by block position, so each sector is
+ * locked once per batch and adjacent regions are read with a single positional read.
+ */
+final public class VDReadBatch {
+
+	static final class Segment {
+		final VDSector sector ;
+		final int blockIndex ;
+		final int posInBlock ;
+		final byte[] buffer ;
+		final int offset ;
+		final int length ;
+
+		Segment(VDSector sector, int blockIndex, int posInBlock, byte[] buffer, int offset, int length) {
+			this.sector = sector;
+			this.blockIndex = blockIndex;
+			this.posInBlock = posInBlock;
+			this.buffer = buffer;
+			this.offset = offset;
+			this.length = length;
+		}
+	}
+
+	static final private class Request {
+		final VDFile file ;
+		final long pos ;
+		final byte[] buffer ;
+		final int offset ;
+		final int length ;
+		final int layoutVersion ;
+
+		Request(VDFile file, long pos, byte[] buffer, int offset, int length) {
+			this.file = file;
+			this.pos = pos;
+			this.buffer = buffer;
+			this.offset = offset;
+			this.length = length;
+			this.layoutVersion = file.getLayoutVersion() ;
+		}
+	}
+
+	static final private SegmentComparator SEGMENT_COMPARATOR = new SegmentComparator() ;
+
+	static private class SegmentComparator implements Comparator<Segment> {
+
+		@Override
+		public int compare(Segment o1, Segment o2) {
+			int cmp = Integer.compare( o1.sector.getSectorIndex() , o2.sector.getSectorIndex() ) ;
+			if (cmp != 0) return cmp ;
+
+			cmp = Integer.compare( o1.blockIndex , o2.blockIndex ) ;
+			if (cmp != 0) return cmp ;
+
+			return Integer.compare( o1.posInBlock , o2.posInBlock ) ;
+		}
+
+	}
+
+	final private VDisk vDisk ;
+	final private ArrayList<Segment> segments = new ArrayList<Segment>() ;
+	final private ArrayList<Request> requests = new ArrayList<Request>() ;
+
+	public VDReadBatch(VDisk vDisk) {
+		this.vDisk = vDisk;
+	}
+
+	public VDisk getVDisk() {
+		return vDisk;
+	}
+
+	public byte[] add(VDFile file) throws IOException {
+		byte[] buff = new byte[ file.size() ] ;
+		add(file, 0, buff, 0, buff.length) ;
+		return buff ;
+	}
+
+	public byte[] add(VDFile file, long pos, int length) throws IOException {
+		byte[] buff = new byte[length] ;
+		add(file, pos, buff, 0, length) ;
+		return buff ;
+	}
+
+	public void add(VDFile file, long pos, byte[] buff, int off, int length) throws IOException {
+		if ( file.getVDisk() != this.vDisk ) throw new IllegalArgumentException("File from other VDisk: "+ file) ;
+		if ( off < 0 || length < 0 || off+length > buff.length ) throw new IndexOutOfBoundsException("off: "+ off +" ; length: "+ length +" ; buffer: "+ buff.length) ;
+
+		file.getLayoutLock().readLock().lock();
+		try {
+			Request request = new Request(file, pos, buff, off, length) ;
+
+			file.collectReadSegments(this, pos, buff, off, length) ;
+
+			requests.add(request) ;
+		}
+		finally {
+			file.getLayoutLock().readLock().unlock();
+		}
+	}
+
+	protected void addSegment(VDBlock block, int posInBlock, byte[] buff, int off, int length) {
+		segments.add( new Segment(block.getSector(), block.getBlockIndex(), posInBlock, buff, off, length) ) ;
+	}
+
+	public int getTotalSegments() {
+		return segments.size() ;
+	}
+
+	public boolean isEmpty() {
+		return segments.isEmpty() ;
+	}
+
+	public void clear() {
+		segments.clear();
+		requests.clear();
+	}
+
+	public void execute() throws IOException {
+
+		// Blocks of the files can't be relocated (compaction) while their segments are read:
+		VDFile[] files = lockFiles() ;
+
+		try {
+			for (Request request : requests) {
+				if ( request.file.getLayoutVersion() != request.layoutVersion ) {
+					recollectSegments() ;
+					break ;
+				}
+			}
+
+			executeSegments() ;
+		}
+		finally {
+			unlockFiles(files) ;
+			requests.clear();
+		}
+
+	}
+
+	private VDFile[] lockFiles() {
+		IdentityHashMap<VDFile, Boolean> files = new IdentityHashMap<VDFile, Boolean>() ;
+
+		for (Request request : requests) {
+			files.put(request.file, Boolean.TRUE) ;
+		}
+
+		VDFile[] locked = new VDFile[ files.size() ] ;
+		int count = 0 ;
+
+		try {
+			for (VDFile file : files.keySet()) {
+				file.getLayoutLock().readLock().lock();
+				locked[count++] = file ;
+			}
+		}
+		catch (RuntimeException e) {
+			unlockFiles( Arrays.copyOf(locked, count) ) ;
+			throw e ;
+		}
+
+		return locked ;
+	}
+
+	static private void unlockFiles(VDFile[] files) {
+		for (VDFile file : files) {
+			file.getLayoutLock().readLock().unlock();
+		}
+	}
+
+	private void recollectSegments() throws IOException {
+		segments.clear();
+
+		for (Request request : requests) {
+			request.file.collectReadSegments(this, request.pos, request.buffer, request.offset, request.length) ;
+		}
+	}
+
+	private void executeSegments() throws IOException {
+
+		Segment[] segments = this.segments.toArray( new Segment[this.segments.size()] ) ;
+		this.segments.clear();
+
+		Arrays.sort(segments, SEGMENT_COMPARATOR) ;
+
+		int init = 0 ;
+
+		while ( init < segments.length ) {
+			VDSector sector = segments[init].sector ;
+
+			int end = init+1 ;
+			while ( end < segments.length && segments[end].sector == sector ) end++ ;
+
+			sector.readFromBlocks(segments, init, end) ;
+
+			init = end ;
+		}
+
+	}
+
+}
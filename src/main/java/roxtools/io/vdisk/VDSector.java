@@ -7,15 +7,21 @@ import java.io.RandomAccessFile;
 import java.io.Serializable;
 import java.lang.ref.SoftReference;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map.Entry;
 import java.util.NoSuchElementException;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.CRC32C;
 
 import roxtools.SerializationUtils;
 import roxtools.io.BufferedInputOutput;
 import roxtools.io.DirectReadWriteIO;
+import roxtools.io.MemoryMappedInputOutput;
 import roxtools.io.RandomAccessInputOutput;
 import roxtools.io.vdisk.VDisk.FilesMetaDataKeyFilter;
 
@@ -39,9 +45,17 @@ final public class VDSector implements Serializable {
 	static public File createSectorFile(VDisk vDisk, int sectorIndex) {
 		return new File( vDisk.getVDiskDir() , sectorIndex+SECTOR_FILE_SUFIX );
 	}
+	
+	static public final String CHECKSUMS_FILE_SUFIX = ".crc" ;
+	
+	static public File createChecksumsFile(File vdiskDir, int sectorIndex) {
+		return new File( vdiskDir , sectorIndex+SECTOR_FILE_SUFIX+CHECKSUMS_FILE_SUFIX );
+	}
 
 	static private final SoftReference<VDBlock> NULL_REF_BLOCK = new SoftReference<VDBlock>(null) ;
 	
+	static final public int BLOCK_LOCK_STRIPES = 64 ;
+	
 
 	final private VDisk vDisk ;
 	final protected boolean isMetadataDisk ;
@@ -56,14 +70,24 @@ final public class VDSector implements Serializable {
 	final private File sectorFile ;
 	
 	transient private SoftReference<VDBlock>[] blocks ;
+	transient private BitSet usedBlocks ;
+	transient private int freeBlocks ;
 	
 	transient private RandomAccessFile io ;
-	transient private DirectReadWriteIO bufferedIO ;
+	transient volatile private DirectReadWriteIO bufferedIO ;
 
 	transient private byte[] header ;
 	
 	transient private FileKeysTable keysTable ;
 	
+	transient private Object[] blockLocks ;
+	
+	/**
+	 * LSN of the last WAL record of this sector. The WAL is committed up to it before the header, or a metadata
+	 * disk block, is written to the sector file.
+	 */
+	transient volatile private long walLSN ;
+	
 	protected VDSector(VDisk vDisk, int sectorIndex) throws IOException {
 		super();
 		this.vDisk = vDisk;
@@ -93,31 +117,63 @@ final public class VDSector implements Serializable {
 		
 		this.blocks = new SoftReference[ vDisk.sectorSize ] ;
 		
+		this.blockLocks = new Object[BLOCK_LOCK_STRIPES] ;
+		for (int i = 0; i < blockLocks.length; i++) {
+			blockLocks[i] = new Object() ;
+		}
+		
 		if (this.io.length() != vDisk.totalSectorSize) {
 			eraseSector() ;
 		}
 		
-		if ( this.vDisk.isIsbufferedIO() ) {
-			BufferedInputOutput bufferedInputOutput = new BufferedInputOutput(this.vDisk.sectorIOBufferSize, this.io) ;
-			bufferedInputOutput.setFlushAccumulatorDelay( 1000*10 );
-			bufferedInputOutput.setFlushAccumulatorSize( Math.max( blockSize*100 , (isMetadataDisk() ? 1024*128 : 1024*512) ) );
-			
-			this.bufferedIO = bufferedInputOutput ;
-		}
-		else {
-			this.bufferedIO = new RandomAccessInputOutput(this.io) ;
+		switch ( this.vDisk.getIOMode() ) {
+			case BUFFERED: {
+				BufferedInputOutput bufferedInputOutput = new BufferedInputOutput(this.vDisk.sectorIOBufferSize, this.io) ;
+				bufferedInputOutput.setFlushAccumulatorDelay( 1000*10 );
+				bufferedInputOutput.setFlushAccumulatorSize( Math.max( blockSize*100 , (isMetadataDisk() ? 1024*128 : 1024*512) ) );
+				
+				if ( isMetadataDisk() ) {
+					// Metadata blocks are logged, and can't be flushed before their records are durable:
+					bufferedInputOutput.setFlushListener(new BufferedInputOutput.FlushListener() {
+						@Override
+						public void beforeFlush(BufferedInputOutput bufferedInputOutput) throws IOException {
+							commitWAL() ;
+						}
+					});
+				}
+				
+				this.bufferedIO = bufferedInputOutput ;
+				break ;
+			}
+			case MEMORY_MAPPED: {
+				this.bufferedIO = new MemoryMappedInputOutput(this.io) ;
+				break ;
+			}
+			default: {
+				this.bufferedIO = new RandomAccessInputOutput(this.io) ;
+				break ;
+			}
 		}
 		
 		this.header = new byte[ vDisk.sectorHeaderSize ] ;
 		
 		read(0, header, 0, header.length) ;
 		
+		this.usedBlocks = new BitSet( this.blocks.length ) ;
+		this.freeBlocks = this.blocks.length ;
+		
 		for (int i = 0; i < this.blocks.length; i++) {
 			boolean unused = isHeaderBlockUnused(i) ;
 			this.blocks[i] = unused ? null : NULL_REF_BLOCK ;
+			
+			if (!unused) markBlockUsed(i) ;
 		}
 		
 		keysTable = !this.isMetadataDisk() ? new FileKeysTable.Implementation(this) : FileKeysTable.DUMMY ;
+		
+		if ( vDisk.isBlockChecksumsEnabled() ) {
+			enableChecksums() ;
+		}
 	}
 	
 	private void eraseSector() throws IOException {
@@ -157,12 +213,66 @@ final public class VDSector implements Serializable {
 		return vDisk.sectorSize ;
 	}
 	
+	synchronized public int getFreeBlocks() {
+		return freeBlocks ;
+	}
+	
+	private void markBlockUsed(int blockIndex) {
+		if ( usedBlocks.get(blockIndex) ) return ;
+		usedBlocks.set(blockIndex) ;
+		freeBlocks-- ;
+	}
+	
+	private void markBlockFree(int blockIndex) {
+		if ( !usedBlocks.get(blockIndex) ) return ;
+		usedBlocks.clear(blockIndex) ;
+		freeBlocks++ ;
+	}
+	
 	//////////////////////////////////////////////////////////////////////
 	
 	synchronized protected void read(int pos, byte[] buff, int off, int lng) throws IOException {
+		readFully(bufferedIO, pos, buff, off, lng) ;
+	}
+	
+	private Object getBlockLock(int blockIndex) {
+		return blockLocks[ blockIndex % blockLocks.length ] ;
+	}
+	
+	private boolean isConcurrentBlockReads() {
+		return vDisk.isConcurrentBlockReadsEnabled() && !(bufferedIO instanceof RandomAccessInputOutput) ;
+	}
+	
+	protected void readFromBlock(int blockIndex, int posInsideBlock, byte[] buff, int off, int lng) throws IOException {
+		if (posInsideBlock+lng > blockSize) throw new IOException("Reading outside of blockSize: pos:"+ posInsideBlock+" + lng:"+lng +" > "+ blockSize) ;
+		
+		int blockInitPos = header.length + ( blockIndex * blockSize ) ;
+		
+		if ( isConcurrentBlockReads() ) {
+			DirectReadWriteIO bufferedIO = this.bufferedIO ;
+			if (bufferedIO == null) throw new IOException("Sector closed: "+ sectorIndex) ;
+			
+			synchronized ( getBlockLock(blockIndex) ) {
+				if ( shouldVerifyChecksum(blockIndex) ) verifyChecksum(bufferedIO, blockIndex, false) ;
+				
+				readFully(bufferedIO, blockInitPos+ posInsideBlock, buff, off, lng) ;
+			}
+		}
+		else {
+			synchronized (this) {
+				if ( shouldVerifyChecksum(blockIndex) ) verifyChecksum(bufferedIO, blockIndex, false) ;
+				
+				read(blockInitPos+ posInsideBlock, buff, off, lng) ;
+			}
+		}
+		
+	}
+	
+	static private void readFully(DirectReadWriteIO io, int pos, byte[] buff, int off, int lng) throws IOException {
 		
 		int r ;
-		while ( lng > 0 && (r = bufferedIO.read(pos, buff, off, lng)) >= 0 ) {
+		while ( lng > 0 && (r = io.read(pos, buff, off, lng)) >= 0 ) {
+			pos += r ;
 			off += r ;
 			lng -= r ;
 		}
@@ -170,13 +280,75 @@ final public class VDSector implements Serializable {
 		if (lng != 0) throw new EOFException("Trying to read from position "+ pos +". Still needing "+ lng +" bytes to read.") ;
 	}
 	
-	synchronized protected void readFromBlock(int blockIndex, int posInsideBlock, byte[] buff, int off, int lng) throws IOException {
-		if (posInsideBlock+lng > blockSize) throw new IOException("Reading outside of blockSize: pos:"+ posInsideBlock+" + lng:"+lng +" > "+ blockSize) ;
+	static final public int READ_COALESCE_MAX_GAP = 1024*8 ;
+	static final public int READ_COALESCE_MAX_LENGTH = 1024*1024 ;
+	
+	synchronized protected void readFromBlocks(VDReadBatch.Segment[] segments, int init, int end) throws IOException {
 		
-		int blockInitPos = header.length + ( blockIndex * blockSize ) ;
+		if ( this.checksums != null ) {
+			int lastBlock = -1 ;
+			
+			for (int i = init; i < end; i++) {
+				int blockIndex = segments[i].blockIndex ;
+				if (blockIndex == lastBlock) continue ;
+				
+				if ( shouldVerifyChecksum(blockIndex) ) verifyChecksum(bufferedIO, blockIndex, false) ;
+				lastBlock = blockIndex ;
+			}
+		}
 		
-		read(blockInitPos+ posInsideBlock, buff, off, lng) ;
+		byte[] runBuffer = null ;
 		
+		int i = init ;
+		
+		while ( i < end ) {
+			VDReadBatch.Segment first = segments[i] ;
+			
+			int runInit = getBlockSegmentPosition(first) ;
+			int runEnd = runInit + first.length ;
+			
+			int j = i+1 ;
+			
+			while ( j < end ) {
+				VDReadBatch.Segment seg = segments[j] ;
+				
+				int segInit = getBlockSegmentPosition(seg) ;
+				int segEnd = segInit + seg.length ;
+				
+				if ( segInit - runEnd > READ_COALESCE_MAX_GAP ) break ;
+				if ( Math.max(runEnd, segEnd) - runInit > READ_COALESCE_MAX_LENGTH ) break ;
+				
+				if (segEnd > runEnd) runEnd = segEnd ;
+				j++ ;
+			}
+			
+			if ( j == i+1 ) {
+				read(runInit, first.buffer, first.offset, first.length) ;
+			}
+			else {
+				int runLength = runEnd - runInit ;
+				
+				if ( runBuffer == null || runBuffer.length < runLength ) {
+					runBuffer = new byte[runLength] ;
+				}
+				
+				read(runInit, runBuffer, 0, runLength) ;
+				
+				for (int k = i; k < j; k++) {
+					VDReadBatch.Segment seg = segments[k] ;
+					System.arraycopy(runBuffer, getBlockSegmentPosition(seg) - runInit, seg.buffer, seg.offset, seg.length) ;
+				}
+			}
+			
+			i = j ;
+		}
+		
+	}
+	
+	private int getBlockSegmentPosition(VDReadBatch.Segment segment) {
+		if (segment.posInBlock+segment.length > blockSize) throw new IllegalStateException("Reading outside of blockSize: pos:"+ segment.posInBlock+" + lng:"+segment.length +" > "+ blockSize) ;
+		
+		return header.length + ( segment.blockIndex * blockSize ) + segment.posInBlock ;
 	}
 	
 	synchronized protected void writeToBlock(int blockIndex, int posInsideBlock, byte[] buff, int off, int lng) throws IOException {
@@ -186,7 +358,23 @@ final public class VDSector implements Serializable {
 		
 		int pos = blockInitPos + posInsideBlock ;
 		
-		bufferedIO.write(pos, buff, off, lng) ;
+		if (isMetadataDisk) {
+			VDWriteAheadLog wal = vDisk.getWriteAheadLog() ;
+			
+			if (wal != null) {
+				// Logged before the write, since a buffered write can be flushed at any time (see commitWAL()):
+				walLSN = wal.logData(true, sectorIndex, blockIndex, posInsideBlock, buff, off, lng) ;
+				
+				// Not buffered IO writes directly to the file (or to a mapping flushed by the OS):
+				if ( !(bufferedIO instanceof BufferedInputOutput) ) wal.commit(walLSN) ;
+			}
+		}
+		
+		synchronized ( getBlockLock(blockIndex) ) {
+			bufferedIO.write(pos, buff, off, lng) ;
+		}
+		
+		markChecksumStale(blockIndex) ;
 		
 	}
 	
@@ -215,6 +403,9 @@ final public class VDSector implements Serializable {
 		int end = pos + blockUsageSizeBytes ;
 		
 		if ( end > headerUnflushed_end ) headerUnflushed_end = end ;
+		
+		VDWriteAheadLog wal = vDisk.getWriteAheadLog() ;
+		if (wal != null) walLSN = wal.logHeader(isMetadataDisk, sectorIndex, blockIndex, usage) ;
 	}
 	
 	synchronized protected boolean isHeaderBlockUnused(int blockIndex) {
@@ -239,10 +430,34 @@ final public class VDSector implements Serializable {
 			if ( force || hasUnflushedHeader() ) {
 				writeHeaderImplem(force) ;
 			}
+			else if ( hasUnflushedChecksums() ) {
+				writeChecksums(false) ;
+			}
 		}
 		
 	}
 	
+	synchronized protected boolean isEmpty() {
+		return freeBlocks == blocks.length ;
+	}
+	
+	/**
+	 * Closes and deletes the sector file if the sector has no used blocks. After that no block can be allocated in this sector.
+	 */
+	synchronized protected boolean deleteIfEmpty() throws IOException {
+		if ( closed || !isEmpty() ) return false ;
+		
+		close() ;
+		
+		this.freeBlocks = 0 ;
+		
+		if ( !sectorFile.delete() ) throw new IOException("Can't delete sector file: "+ sectorFile) ;
+		
+		createChecksumsFile(vDisk.getVDiskDir(), sectorIndex).delete() ;
+		
+		return true ;
+	}
+	
 	synchronized protected boolean isClose() throws IOException {
 		return closed ;
 	}
@@ -253,16 +468,14 @@ final public class VDSector implements Serializable {
 		
 		this.keysTable.close() ;
 		
-		if ( this.bufferedIO instanceof BufferedInputOutput ) {
-			BufferedInputOutput bufferedInputOutput = (BufferedInputOutput) this.bufferedIO ;
-			bufferedInputOutput.flush(true);
-		}
-		else {
-			this.bufferedIO.flush();	
-		}
+		flushIO(true) ;
 		
 		this.io.close() ;
 		
+		if (this.checksumsIO != null) {
+			this.checksumsIO.close() ;
+		}
+		
 		this.closed = true;
 		
 		this.bufferedIO.dispose() ;
@@ -272,8 +485,14 @@ final public class VDSector implements Serializable {
 	}
 	
 	private void writeHeader() throws IOException {
+		
+		VDWriteAheadLog wal = vDisk.getWriteAheadLog() ;
 	
-		if ( vDisk.isAsyncWriteHeadersEnabled() ) {
+		if ( wal != null ) {
+			wal.commit( getWALLSN() ) ;
+			scheduleAsyncWriteHeaders() ;
+		}
+		else if ( vDisk.isAsyncWriteHeadersEnabled() ) {
 			scheduleAsyncWriteHeaders() ;
 		}
 		else {
@@ -282,6 +501,26 @@ final public class VDSector implements Serializable {
 		
 	}
 	
+	private long getWALLSN() {
+		return walLSN ;
+	}
+	
+	/**
+	 * Commits the WAL up to the last record of this sector, so nothing of the sector reaches the file before its log record.
+	 */
+	private void commitWAL() throws IOException {
+		VDWriteAheadLog wal = vDisk.getWriteAheadLog() ;
+		if (wal != null) wal.commit(walLSN) ;
+	}
+	
+	synchronized protected void syncHeader() throws IOException {
+		if ( isClose() ) return ;
+		
+		writeHeaderImplem(true) ;
+		
+		io.getFD().sync() ;
+	}
+	
 	private class AsyncWriteHeader extends TimerTask {
 
 		@Override
@@ -321,6 +560,9 @@ final public class VDSector implements Serializable {
 	
 	synchronized private void writeHeaderImplem(boolean force) throws IOException {
 		
+		// The header entries logged after the last commit (the async write, flushes and syncs write all of them):
+		commitWAL() ;
+		
 		int unflushedLng = headerUnflushed_end - headerUnflushed_init ;
 		
 		if (unflushedLng <= 0) {
@@ -338,11 +580,23 @@ final public class VDSector implements Serializable {
 		headerUnflushed_init = Integer.MAX_VALUE ;
 		headerUnflushed_end = -1 ;
 		
+		flushIO(force) ;
+		
+		writeChecksums(force) ;
+		
+	}
+	
+	protected void flushIO(boolean force) throws IOException {
+		
 		if (force) {
 			if ( bufferedIO instanceof BufferedInputOutput ) {
 				BufferedInputOutput bufferedInputOutput = (BufferedInputOutput) bufferedIO ;
 				bufferedInputOutput.flush(force);
 			}
+			else if ( bufferedIO instanceof MemoryMappedInputOutput ) {
+				MemoryMappedInputOutput memoryMappedInputOutput = (MemoryMappedInputOutput) bufferedIO ;
+				memoryMappedInputOutput.flush(force);
+			}
 			else {
 				bufferedIO.flush();	
 			}
@@ -351,9 +605,271 @@ final public class VDSector implements Serializable {
 			bufferedIO.flush();	
 		}
 		
+	}
+	
+	//////////////////////////////////////////////////////////////////////
+	// Block checksums: CRC32C of the data of each block ([0, size)), kept in a side file as [crc, size] pairs.
+	// Written blocks are marked as stale (not verified) and their checksums are computed when the header is flushed.
+	// The side file only has checksums of data already flushed: a block becoming stale has its entry invalidated
+	// (size -1) before its data can be flushed, and the new checksums are only written after the data flush.
+	
+	transient volatile private int[] checksums ;
+	transient private boolean[] staleChecksums ;
+	// Blocks verified since the last write, so each block is verified once (scrubs always verify):
+	transient private boolean[] verifiedChecksums ;
+	transient private RandomAccessFile checksumsIO ;
+	
+	private int checksumsUnflushed_init = Integer.MAX_VALUE ;
+	private int checksumsUnflushed_end = -1 ;
+	
+	synchronized protected boolean isChecksumsEnabled() {
+		return checksums != null ;
+	}
+	
+	synchronized protected void enableChecksums() throws IOException {
+		if ( checksums != null ) return ;
+		
+		File file = createChecksumsFile(vDisk.getVDiskDir(), sectorIndex) ;
+		
+		int sz = blocks.length ;
+		
+		RandomAccessFile checksumsIO = new RandomAccessFile(file, "rw") ;
+		
+		int[] checksums = null ;
+		
+		if ( checksumsIO.length() == sz*2*4L ) {
+			byte[] bytes = new byte[sz*2*4] ;
+			checksumsIO.readFully(bytes) ;
+			
+			checksums = SerializationUtils.readInts(bytes, 0, bytes.length) ;
+		}
+		
+		boolean[] staleChecksums = new boolean[sz] ;
+		
+		if (checksums == null) {
+			checksums = new int[sz*2] ;
+			checksumsIO.setLength(sz*2*4L) ;
+			
+			for (int i = 0; i < sz; i++) {
+				staleChecksums[i] = usedBlocks.get(i) ;
+			}
+		}
+		else {
+			// Checksums of a different size than the header are from unflushed writes:
+			for (int i = 0; i < sz; i++) {
+				if ( usedBlocks.get(i) && checksums[i*2+1] != getHeaderBlockUsage(i)[0] ) {
+					staleChecksums[i] = true ;
+				}
+			}
+		}
+		
+		this.checksumsIO = checksumsIO ;
+		this.staleChecksums = staleChecksums ;
+		this.verifiedChecksums = new boolean[sz] ;
+		this.checksums = checksums ;
 		
+		for (int i = 0; i < sz; i++) {
+			if ( staleChecksums[i] ) markChecksumsUnflushed(i) ;
+		}
+		
+		writeChecksums(false) ;
+	}
+	
+	synchronized protected void disableChecksums() throws IOException {
+		if ( checksums == null ) return ;
+		
+		this.checksums = null ;
+		this.staleChecksums = null ;
+		this.verifiedChecksums = null ;
+		
+		checksumsIO.close() ;
+		checksumsIO = null ;
+		
+		checksumsUnflushed_init = Integer.MAX_VALUE ;
+		checksumsUnflushed_end = -1 ;
+		
+		createChecksumsFile(vDisk.getVDiskDir(), sectorIndex).delete() ;
+	}
+	
+	static final private int CHECKSUM_INVALID_SIZE = -1 ;
+	
+	private void markChecksumStale(int blockIndex) throws IOException {
+		if ( checksums == null ) return ;
+		
+		boolean wasStale ;
+		
+		synchronized ( getBlockLock(blockIndex) ) {
+			wasStale = staleChecksums[blockIndex] ;
+			staleChecksums[blockIndex] = true ;
+			verifiedChecksums[blockIndex] = false ;
+		}
+		
+		if (!wasStale) {
+			// The data can be flushed before the new checksum, so the old one can't stay in the file:
+			checksums[blockIndex*2+1] = CHECKSUM_INVALID_SIZE ;
+			
+			byte[] bytes = new byte[2*4] ;
+			SerializationUtils.writeInts( new int[] { checksums[blockIndex*2] , CHECKSUM_INVALID_SIZE } , bytes, 0) ;
+			
+			checksumsIO.seek( blockIndex*2*4L ) ;
+			checksumsIO.write(bytes) ;
+		}
+		
+		markChecksumsUnflushed(blockIndex) ;
+	}
+	
+	private void markChecksumsUnflushed(int blockIndex) {
+		if ( blockIndex < checksumsUnflushed_init ) checksumsUnflushed_init = blockIndex ;
+		if ( blockIndex+1 > checksumsUnflushed_end ) checksumsUnflushed_end = blockIndex+1 ;
+	}
+	
+	synchronized private boolean hasUnflushedChecksums() {
+		return checksumsUnflushed_end > checksumsUnflushed_init ;
+	}
+	
+	/**
+	 * @return true if there's no written data waiting to be flushed (delayed by a {@link BufferedInputOutput}).
+	 */
+	private boolean isIOFlushed() {
+		if ( bufferedIO instanceof BufferedInputOutput ) {
+			return !((BufferedInputOutput) bufferedIO).hasUnflushedData() ;
+		}
+		return true ;
+	}
+	
+	/**
+	 * Computes and writes the stale checksums, only if the data of the sector was already flushed. Otherwise they
+	 * stay stale (invalid in the side file) until a header flush after the data flush.
+	 */
+	synchronized private void writeChecksums(boolean force) throws IOException {
+		int[] checksums = this.checksums ;
+		if ( checksums == null ) return ;
+		
+		if ( hasUnflushedChecksums() && isIOFlushed() ) {
+			int init = checksumsUnflushed_init ;
+			int end = checksumsUnflushed_end ;
+			
+			byte[] buff = null ;
+			
+			for (int i = init; i < end; i++) {
+				if ( !staleChecksums[i] ) continue ;
+				
+				int size = getHeaderBlockUsage(i)[0] ;
+				
+				if (buff == null) buff = new byte[blockSize] ;
+				
+				synchronized ( getBlockLock(i) ) {
+					read(header.length + ( i * blockSize ), buff, 0, size) ;
+					
+					checksums[i*2] = calcChecksum(buff, 0, size) ;
+					checksums[i*2+1] = size ;
+					staleChecksums[i] = false ;
+				}
+			}
+			
+			byte[] bytes = new byte[ (end-init)*2*4 ] ;
+			SerializationUtils.writeInts( Arrays.copyOfRange(checksums, init*2, end*2) , bytes, 0) ;
+			
+			checksumsIO.seek( init*2*4L ) ;
+			checksumsIO.write(bytes) ;
+			
+			checksumsUnflushed_init = Integer.MAX_VALUE ;
+			checksumsUnflushed_end = -1 ;
+		}
+		
+		if (force) {
+			checksumsIO.getFD().sync() ;
+		}
+	}
+	
+	static private int calcChecksum(byte[] buff, int off, int lng) {
+		CRC32C crc = new CRC32C() ;
+		crc.update(buff, off, lng) ;
+		return (int) crc.getValue() ;
+	}
+	
+	private boolean shouldVerifyChecksum(int blockIndex) {
+		boolean[] verifiedChecksums = this.verifiedChecksums ;
+		if ( verifiedChecksums == null || verifiedChecksums[blockIndex] ) return false ;
+		
+		switch ( vDisk.getChecksumVerifyPolicy() ) {
+			case ALWAYS: return true ;
+			case SAMPLED: return ThreadLocalRandom.current().nextInt( vDisk.getChecksumSampleRate() ) == 0 ;
+			default: return false ;
+		}
+	}
+	
+	/**
+	 * Verifies the checksum of a block, if it's not stale. Holds the block lock while reading the block,
+	 * so it's also safe in concurrent block reads (that don't hold the sector monitor).
+	 * 
+	 * @param force If false, skips a block already verified since its last write.
+	 */
+	private void verifyChecksum(DirectReadWriteIO io, int blockIndex, boolean force) throws IOException {
+		int[] checksums = this.checksums ;
+		boolean[] staleChecksums = this.staleChecksums ;
+		boolean[] verifiedChecksums = this.verifiedChecksums ;
+		if ( checksums == null || staleChecksums == null || verifiedChecksums == null ) return ;
+		
+		int checksum ;
+		int calcChecksum ;
+		
+		synchronized ( getBlockLock(blockIndex) ) {
+			if ( staleChecksums[blockIndex] ) return ;
+			if ( verifiedChecksums[blockIndex] && !force ) return ;
+			
+			checksum = checksums[blockIndex*2] ;
+			int size = checksums[blockIndex*2+1] ;
+			
+			byte[] buff = new byte[size] ;
+			readFully(io, header.length + ( blockIndex * blockSize ), buff, 0, size) ;
+			
+			calcChecksum = calcChecksum(buff, 0, size) ;
+			
+			verifiedChecksums[blockIndex] = calcChecksum == checksum ;
+		}
+		
+		if ( calcChecksum != checksum ) {
+			throw new VDChecksumException(sectorIndex, blockIndex, checksum, calcChecksum) ;
+		}
+	}
+	
+	/**
+	 * Verifies the checksums of all the used (and not stale) blocks.
+	 * 
+	 * @param corruptedBlocks Collects the idents of the blocks with invalid checksum.
+	 * @return the number of verified blocks.
+	 */
+	protected int scrubChecksums(List<String> corruptedBlocks) throws IOException {
+		BitSet used ;
+		
+		synchronized (this) {
+			if ( checksums == null || closed ) return 0 ;
+			used = (BitSet) usedBlocks.clone() ;
+		}
+		
+		int verified = 0 ;
+		
+		for (int i = used.nextSetBit(0); i >= 0; i = used.nextSetBit(i+1)) {
+			synchronized (this) {
+				if ( closed ) break ;
+				
+				try {
+					verifyChecksum(bufferedIO, i, true) ;
+				}
+				catch (VDChecksumException e) {
+					corruptedBlocks.add( VDBlock.toStringIdent(i, sectorIndex) ) ;
+				}
+				
+				verified++ ;
+			}
+		}
+		
+		return verified ;
 	}
 	
+	//////////////////////////////////////////////////////////////////////
+	
 	synchronized protected boolean isBlockUsed(int blockIndex) {
 		return !isHeaderBlockUnused(blockIndex) ;
 	}
@@ -438,7 +954,7 @@ final public class VDSector implements Serializable {
 	synchronized public void getMetaDataKeys( List<String> keys ) {
 		
 		synchronized (keysTable) {
-			Iterator<String> iteratorKeys = keysTable.iteratorKeys() ;
+			Iterator<String> iteratorKeys = getKeysTable().iteratorKeys() ;
 			
 			while ( iteratorKeys.hasNext() ) {
 				String key = iteratorKeys.next() ;
@@ -451,7 +967,7 @@ final public class VDSector implements Serializable {
 	synchronized public void getMetaDataKeysWithPrefix( String prefix, List<String> keys ) {
 		
 		synchronized (keysTable) {
-			Iterator<String> iteratorKeys = keysTable.iteratorKeys() ;
+			Iterator<String> iteratorKeys = getKeysTable().iteratorKeys() ;
 			
 			while ( iteratorKeys.hasNext() ) {
 				String key = iteratorKeys.next() ;
@@ -464,7 +980,7 @@ final public class VDSector implements Serializable {
 	synchronized public void getMetaDataKeys( FilesMetaDataKeyFilter filter, List<String> keys ) {
 		
 		synchronized (keysTable) {
-			Iterator<String> iteratorKeys = keysTable.iteratorKeys() ;
+			Iterator<String> iteratorKeys = getKeysTable().iteratorKeys() ;
 			
 			while ( iteratorKeys.hasNext() ) {
 				String key = iteratorKeys.next() ;
@@ -475,7 +991,16 @@ final public class VDSector implements Serializable {
 	}
 	
 	public Iterator<String> iterateMetaDataKeys() {
-		return keysTable.iteratorKeys() ;
+		return getKeysTable().iteratorKeys() ;
+	}
+	
+	protected Iterable<Entry<String, int[]>> getMetaDataKeysEntries() {
+		return getKeysTable() ;
+	}
+	
+	synchronized private FileKeysTable getKeysTable() {
+		keysTable.ensureLoaded() ;
+		return keysTable ;
 	}
 	
 	synchronized protected VDBlock getBlock(int blockIndex) {
@@ -506,11 +1031,7 @@ final public class VDSector implements Serializable {
 		VDBlock block ;
 		
 		synchronized (this) {
-			block = new VDBlock(this, blockIndex, true) ;
-			
-			this.blocks[blockIndex] = new SoftReference<VDBlock>(block) ;
-			
-			writeHeaderBlockUsage(blockIndex, block.usage) ;
+			block = createBlockAtNoHeaderWrite(blockIndex) ;
 		}
 		
 		writeHeader() ;
@@ -518,65 +1039,150 @@ final public class VDSector implements Serializable {
 		return block ;
 	}
 	
+	private VDBlock createBlockAtNoHeaderWrite(int blockIndex) throws IOException {
+		VDBlock block = new VDBlock(this, blockIndex, true) ;
+		
+		this.blocks[blockIndex] = new SoftReference<VDBlock>(block) ;
+		markBlockUsed(blockIndex) ;
+		markChecksumStale(blockIndex) ;
+		
+		writeHeaderBlockUsage(blockIndex, block.usage) ;
+		
+		return block ;
+	}
+	
 	synchronized protected VDBlock createBlock() throws IOException {
+		if (freeBlocks == 0) return null ;
+		
+		int i = usedBlocks.nextClearBit(0) ;
+		if (i >= blocks.length) return null ;
+		
+		return createBlockAtImplem(i) ;
+	}
+	
+	synchronized protected VDBlock createBlockNearIndex(int idx) throws IOException {
+		if (freeBlocks == 0) return null ;
+		
 		int sz = blocks.length ;
 		
-		for (int i = 0; i < sz; i++) {
-			SoftReference<VDBlock> ref = blocks[i] ;
-			if (ref == null) return createBlockAtImplem(i) ;
+		int next = idx+1 < sz ? usedBlocks.nextClearBit(idx+1) : sz ;
+		int prev = idx-1 >= 0 ? usedBlocks.previousClearBit(idx-1) : -1 ;
+		
+		if ( next < sz && prev >= 0 ) {
+			return createBlockAtImplem( next-idx <= idx-prev ? next : prev ) ;
+		}
+		else if ( next < sz ) {
+			return createBlockAtImplem(next) ;
+		}
+		else if ( prev >= 0 ) {
+			return createBlockAtImplem(prev) ;
 		}
 		
 		return null ;
 	}
 	
-	synchronized protected VDBlock createBlockNearIndex(int idx) throws IOException {
+	synchronized protected VDBlock createBlockAfterIndex(int idx) throws IOException {
+		if (freeBlocks == 0 || idx+1 >= blocks.length) return null ;
+		
+		int i = usedBlocks.nextClearBit(idx+1) ;
+		if (i >= blocks.length) return null ;
+		
+		return createBlockAtImplem(i) ;
+	}
+	
+	synchronized protected VDBlock createBlockBeforeIndex(int idx) throws IOException {
+		if (freeBlocks == 0 || idx-1 < 0) return null ;
+		
+		int i = usedBlocks.previousClearBit(idx-1) ;
+		if (i < 0) return null ;
+		
+		return createBlockAtImplem(i) ;
+	}
+	
+	/**
+	 * Allocates up to {@code maxBlocks} contiguous blocks, preferring a full-length extent after {@code idx}.
+	 * If there's no free extent of that length, returns the first free extent after {@code idx} (wrapping to the sector start).
+	 * 
+	 * @return the allocated blocks in index order, or null if the sector is full.
+	 */
+	synchronized protected VDBlock[] createBlocksExtent(int idx, int maxBlocks) throws IOException {
+		return createBlocksExtent(idx, maxBlocks, false) ;
+	}
+	
+	/**
+	 * Same as {@link #createBlocksExtent(int, int)}, but if {@code fullOnly} is set only an extent of exactly {@code maxBlocks} is allocated.
+	 */
+	synchronized protected VDBlock[] createBlocksExtent(int idx, int maxBlocks, boolean fullOnly) throws IOException {
+		if (freeBlocks == 0 || maxBlocks <= 0) return null ;
+		
+		if (maxBlocks > freeBlocks) {
+			if (fullOnly) return null ;
+			maxBlocks = freeBlocks ;
+		}
+		
 		int sz = blocks.length ;
+		int from = idx+1 < sz ? idx+1 : 0 ;
+		
+		int init = findFreeExtent(from, maxBlocks) ;
+		int lng = maxBlocks ;
 		
-		int next = idx+1 ;
-		int prev = idx-1 ;
+		if (init < 0 && fullOnly) {
+			init = findFreeExtent(0, maxBlocks) ;
+			if (init < 0) return null ;
+		}
 		
-		while (true) {
+		if (init < 0) {
+			init = usedBlocks.nextClearBit(from) ;
+			if (init >= sz) init = usedBlocks.nextClearBit(0) ;
+			if (init >= sz) return null ;
 			
-			if ( next < sz && prev >= 0 ) {
-				SoftReference<VDBlock> refNext = blocks[next] ;
-				if (refNext == null) return createBlockAtImplem(next) ;
-				
-				SoftReference<VDBlock> refPrev = blocks[prev] ;
-				if (refPrev == null) return createBlockAtImplem(prev) ;
-				
-				next++ ;
-				prev-- ;
-			}
-			else  if ( next < sz ) {
-				return createBlockAfterIndex(next) ;
-			}
-			else if ( prev >= 0 ) {
-				return createBlockBeforeIndex(prev) ;
-			}
+			int end = usedBlocks.nextSetBit(init) ;
+			if (end < 0) end = sz ;
 			
+			lng = Math.min(end-init, maxBlocks) ;
+		}
+		
+		VDBlock[] extent = new VDBlock[lng] ;
+		
+		for (int i = 0; i < lng; i++) {
+			extent[i] = createBlockAtNoHeaderWrite(init+i) ;
 		}
 		
+		writeHeader() ;
+		
+		return extent ;
 	}
 	
-	synchronized protected VDBlock createBlockAfterIndex(int idx) throws IOException {
+	/**
+	 * @return the start index of the free extent of {@code lng} blocks that {@link #createBlocksExtent(int, int, boolean)} would allocate (full only), or -1.
+	 */
+	synchronized protected int findFreeExtentIndex(int idx, int lng) {
+		if (lng <= 0 || lng > freeBlocks) return -1 ;
+		
 		int sz = blocks.length ;
-
-		for (int i = idx+1; i < sz; i++) {
-			SoftReference<VDBlock> ref = blocks[i] ;
-			if (ref == null) return createBlockAtImplem(i) ;
-		}
+		int from = idx+1 < sz ? idx+1 : 0 ;
 		
-		return null ;
+		int init = findFreeExtent(from, lng) ;
+		if (init < 0) init = findFreeExtent(0, lng) ;
+		
+		return init ;
 	}
 	
-	synchronized protected VDBlock createBlockBeforeIndex(int idx) throws IOException {
-
-		for (int i = idx-1; i >= 0; i--) {
-			SoftReference<VDBlock> ref = blocks[i] ;
-			if (ref == null) return createBlockAtImplem(i) ;
+	private int findFreeExtent(int fromIndex, int lng) {
+		int sz = blocks.length ;
+		
+		int i = usedBlocks.nextClearBit(fromIndex) ;
+		
+		while ( i+lng <= sz ) {
+			int end = usedBlocks.nextSetBit(i) ;
+			if (end < 0) end = sz ;
+			
+			if (end-i >= lng) return i ;
+			
+			i = usedBlocks.nextClearBit(end) ;
 		}
 		
-		return null ;
+		return -1 ;
 	}
 	
 	protected void deleteBlock(int blockIndex) throws IOException {
@@ -593,6 +1199,8 @@ final public class VDSector implements Serializable {
 			block.setInternalsDeleted() ;
 			
 			this.blocks[blockIndex] = null ;
+			markBlockFree(blockIndex) ;
+			markChecksumStale(blockIndex) ;
 			
 			writeHeaderBlockUsage(blockIndex, block.usage) ;
 		}
@@ -652,6 +1260,7 @@ final public class VDSector implements Serializable {
 			if ( size < blockSize && block.hasNextBlock() ) throw new IOException("Can't set size of a block that have next block! Blocks with next block need to have full size.") ;
 			
 			block.setInternalsSize(size) ;
+			markChecksumStale(blockIndex) ;
 			
 			writeHeaderBlockUsage(blockIndex, block.usage) ;
 		}
@@ -838,19 +1447,25 @@ final public class VDSector implements Serializable {
 	}
 	
 	synchronized protected int[] getMetaDataKey(String key) {
-		return keysTable.getFileIdent(key) ;
+		return getKeysTable().getFileIdent(key) ;
 	}
 	
 	synchronized protected boolean containsMetaDataKey(String key) {
-		return keysTable.containsFileIdent(key) ;
+		return getKeysTable().containsFileIdent(key) ;
 	}
 	
-	public void notifyMetaDataKeyChange(String key, int blockIndex, int blockSector) {
+	public void notifyMetaDataKeyChange(String key, int blockIndex, int blockSector) throws IOException {
 		keysTable.notifyMetaDataKeyChange(key, blockIndex, blockSector);
+		
+		VDKeyIndex keyIndex = vDisk.getKeyIndex() ;
+		if (keyIndex != null) keyIndex.add(key, blockIndex, blockSector) ;
 	}
 
-	public void notifyMetaDataKeyRemove(String key, int blockIndex, int blockSector) {
+	public void notifyMetaDataKeyRemove(String key, int blockIndex, int blockSector) throws IOException {
 		keysTable.notifyMetaDataKeyRemove(key, blockIndex, blockSector);
+		
+		VDKeyIndex keyIndex = vDisk.getKeyIndex() ;
+		if (keyIndex != null) keyIndex.remove(key, blockIndex, blockSector) ;
 	}
 	
 	////////////////////////////////////////////////////////////////////////
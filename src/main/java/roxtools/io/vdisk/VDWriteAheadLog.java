@@ -0,0 +1,555 @@
+package roxtools.io.vdisk;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.zip.CRC32;
+
+import roxtools.SerializationUtils;
+
+/**
+ * Append-only redo log of {@link VDSector} header entries (block size, links and metadata parameters)
+ * and of metadata disk block writes.
+ * <p>
+ * Writers append records to an in-memory buffer and call {@link #commit(long)}: the first committer
+ * writes and fsyncs everything appended so far, while the others wait for it, so concurrent writers
+ * share one fsync. Header pages are written lazily and the log is truncated at each checkpoint.
+ * On open, {@link #recover(File, Layout, Layout)} replays the log into the sector files.
+ */
+final public class VDWriteAheadLog {
+
+	static public final String WAL_FILE_PREFIX = "vdisk.wal." ;
+
+	static final private byte RECORD_HEADER = 1 ;
+	static final private byte RECORD_DATA = 2 ;
+
+	static final public int DEFAULT_CHECKPOINT_SIZE = 1024*1024*4 ;
+
+	static public File getWALFile(File dir, long seq) {
+		return new File(dir, WAL_FILE_PREFIX+seq) ;
+	}
+
+	static public long getWALFileSequence(File file) {
+		String name = file.getName() ;
+
+		if ( !name.startsWith(WAL_FILE_PREFIX) ) return -1 ;
+
+		try {
+			return Long.parseLong( name.substring(WAL_FILE_PREFIX.length()) ) ;
+		}
+		catch (NumberFormatException e) {
+			return -1 ;
+		}
+	}
+
+	static public File[] listWALFiles(File dir) {
+		File[] files = dir.listFiles(new FileFilter() {
+			@Override
+			public boolean accept(File file) {
+				return file.isFile() && getWALFileSequence(file) >= 0 ;
+			}
+		}) ;
+
+		if (files == null) return new File[0] ;
+
+		Arrays.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(File o1, File o2) {
+				return Long.compare( getWALFileSequence(o1) , getWALFileSequence(o2) ) ;
+			}
+		});
+
+		return files ;
+	}
+
+	//////////////////////////////////////////////////////////////////////
+
+	static final public class Layout {
+		final protected File dir ;
+		final protected int blockSize ;
+		final protected int sectorSize ;
+		final protected int blockUsageSizeBytes ;
+
+		public Layout(File dir, int blockSize, int sectorSize, int blockUsageSizeBytes) {
+			this.dir = dir;
+			this.blockSize = blockSize;
+			this.sectorSize = sectorSize;
+			this.blockUsageSizeBytes = blockUsageSizeBytes;
+		}
+
+		protected int getSectorHeaderSize() {
+			return blockUsageSizeBytes * sectorSize ;
+		}
+
+		protected long getTotalSectorSize() {
+			return getSectorHeaderSize() + ( blockSize * (long) sectorSize ) ;
+		}
+	}
+
+	/**
+	 * Replays all the log files found in {@code dir} into the sector files of the disks, syncs them and deletes the log.
+	 * Replay stops at the first truncated or corrupted record (a write interrupted by a crash).
+	 *
+	 * @return the number of replayed records.
+	 */
+	static protected int recover(File dir, Layout diskLayout, Layout metadataLayout) throws IOException {
+		File[] walFiles = listWALFiles(dir) ;
+		if (walFiles.length == 0) return 0 ;
+
+		HashMap<File, RandomAccessFile> sectorsIO = new HashMap<File, RandomAccessFile>() ;
+
+		int replayed = 0 ;
+
+		try {
+			byte[] buff = new byte[1024] ;
+			CRC32 crc = new CRC32() ;
+
+			replay:
+			for (File walFile : walFiles) {
+				DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream(walFile) , 1024*64 ) ) ;
+
+				try {
+					while (true) {
+						int lng ;
+						try {
+							lng = in.readInt() ;
+
+							if (lng < 10) break replay ;
+							if (lng > buff.length) buff = new byte[ Math.max(lng , buff.length*2) ] ;
+
+							in.readFully(buff, 0, lng) ;
+
+							crc.reset();
+							crc.update(buff, 0, lng);
+
+							if ( in.readInt() != (int) crc.getValue() ) break replay ;
+						}
+						catch (EOFException e) {
+							break ;
+						}
+
+						Layout layout = buff[1] != 0 ? metadataLayout : diskLayout ;
+
+						int sectorIndex = SerializationUtils.readInt(buff, 2) ;
+						int blockIndex = SerializationUtils.readInt(buff, 6) ;
+
+						RandomAccessFile io = getSectorIO(sectorsIO, layout, sectorIndex) ;
+
+						if ( buff[0] == RECORD_HEADER ) {
+							int usageLng = lng-10 ;
+							if (usageLng != layout.blockUsageSizeBytes) throw new IOException("Invalid WAL header record size: "+ usageLng +" != "+ layout.blockUsageSizeBytes) ;
+
+							io.seek( blockIndex * (long) layout.blockUsageSizeBytes );
+							io.write(buff, 10, usageLng);
+						}
+						else if ( buff[0] == RECORD_DATA ) {
+							int posInBlock = SerializationUtils.readInt(buff, 10) ;
+							int dataLng = lng-14 ;
+
+							io.seek( layout.getSectorHeaderSize() + ( blockIndex * (long) layout.blockSize ) + posInBlock );
+							io.write(buff, 14, dataLng);
+						}
+						else {
+							throw new IOException("Invalid WAL record type: "+ buff[0]) ;
+						}
+
+						replayed++ ;
+					}
+				}
+				finally {
+					in.close();
+				}
+			}
+
+			for (RandomAccessFile io : sectorsIO.values()) {
+				io.getFD().sync();
+			}
+		}
+		finally {
+			for (RandomAccessFile io : sectorsIO.values()) {
+				try {
+					io.close();
+				}
+				catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+
+		for (File walFile : walFiles) {
+			walFile.delete() ;
+		}
+
+		return replayed ;
+	}
+
+	static private RandomAccessFile getSectorIO(Map<File, RandomAccessFile> sectorsIO, Layout layout, int sectorIndex) throws IOException {
+		if (sectorIndex < 0) throw new IOException("Invalid WAL sector index: "+ sectorIndex) ;
+
+		File sectorFile = new File( layout.dir , sectorIndex+VDSector.SECTOR_FILE_SUFIX ) ;
+
+		RandomAccessFile io = sectorsIO.get(sectorFile) ;
+
+		if (io == null) {
+			io = new RandomAccessFile(sectorFile, "rw") ;
+
+			long totalSectorSize = layout.getTotalSectorSize() ;
+			if ( io.length() < totalSectorSize ) io.setLength(totalSectorSize) ;
+
+			sectorsIO.put(sectorFile, io) ;
+		}
+
+		return io ;
+	}
+
+	//////////////////////////////////////////////////////////////////////
+
+	final private VDisk vDisk ;
+	final private File dir ;
+
+	final private Object checkpointMutex = new Object() ;
+	private volatile int checkpointSize = DEFAULT_CHECKPOINT_SIZE ;
+
+	private long segmentSeq ;
+	private RandomAccessFile segmentIO ;
+	private FileChannel segmentChannel ;
+	private long segmentSize ;
+
+	private byte[] pending = new byte[1024*8] ;
+	private byte[] pendingSpare = new byte[1024*8] ;
+	private int pendingSize ;
+
+	private long appendedLSN ;
+	private long durableLSN ;
+
+	private boolean syncing ;
+	private IOException failure ;
+	private boolean closed ;
+
+	private long totalRecords ;
+	private long totalCommits ;
+	private long totalSyncs ;
+
+	final private CRC32 crc = new CRC32() ;
+
+	protected VDWriteAheadLog(VDisk vDisk) throws IOException {
+		this.vDisk = vDisk;
+		this.dir = vDisk.getVDiskDir() ;
+
+		File[] walFiles = listWALFiles(dir) ;
+		long lastSeq = walFiles.length > 0 ? getWALFileSequence( walFiles[walFiles.length-1] ) : -1 ;
+
+		openSegment(lastSeq+1) ;
+	}
+
+	private void openSegment(long seq) throws IOException {
+		this.segmentSeq = seq ;
+		this.segmentIO = new RandomAccessFile( getWALFile(dir, seq) , "rw" ) ;
+		this.segmentIO.setLength(0);
+		this.segmentChannel = segmentIO.getChannel() ;
+		this.segmentSize = 0 ;
+	}
+
+	public VDisk getVDisk() {
+		return vDisk;
+	}
+
+	public int getCheckpointSize() {
+		return checkpointSize;
+	}
+
+	public void setCheckpointSize(int checkpointSize) {
+		if (checkpointSize < 1024) throw new IllegalArgumentException("Invalid checkpointSize: "+ checkpointSize) ;
+		this.checkpointSize = checkpointSize;
+	}
+
+	synchronized public long getTotalRecords() {
+		return totalRecords;
+	}
+
+	/**
+	 * @return the number of {@link #commit(long)} calls. With concurrent committers it's greater than {@link #getTotalSyncs()}.
+	 */
+	synchronized public long getTotalCommits() {
+		return totalCommits;
+	}
+
+	synchronized public long getTotalSyncs() {
+		return totalSyncs;
+	}
+
+	/**
+	 * @return the LSN of the last appended record (durable after a {@link #commit(long)} of it).
+	 */
+	synchronized public long getAppendedLSN() {
+		return appendedLSN;
+	}
+
+	synchronized public long getDurableLSN() {
+		return durableLSN;
+	}
+
+	synchronized public boolean isClosed() {
+		return closed;
+	}
+
+	//////////////////////////////////////////////////////////////////////
+
+	synchronized protected long logHeader(boolean metadataDisk, int sectorIndex, int blockIndex, int[] usage) {
+		int off = beginRecord(RECORD_HEADER, metadataDisk, sectorIndex, blockIndex, usage.length*4) ;
+
+		SerializationUtils.writeInts(usage, pending, off) ;
+
+		return endRecord(off + usage.length*4) ;
+	}
+
+	synchronized protected long logData(boolean metadataDisk, int sectorIndex, int blockIndex, int posInBlock, byte[] buff, int off, int lng) {
+		int recOff = beginRecord(RECORD_DATA, metadataDisk, sectorIndex, blockIndex, 4+lng) ;
+
+		SerializationUtils.writeInt(posInBlock, pending, recOff) ;
+		System.arraycopy(buff, off, pending, recOff+4, lng) ;
+
+		return endRecord(recOff + 4+lng) ;
+	}
+
+	private int recordInit ;
+
+	private int beginRecord(byte type, boolean metadataDisk, int sectorIndex, int blockIndex, int payloadSize) {
+		int recordSize = 4 + 10 + payloadSize + 4 ;
+
+		if ( pendingSize+recordSize > pending.length ) {
+			pending = Arrays.copyOf(pending, Math.max(pending.length*2 , pendingSize+recordSize)) ;
+		}
+
+		recordInit = pendingSize ;
+
+		SerializationUtils.writeInt(10 + payloadSize, pending, recordInit) ;
+
+		int off = recordInit+4 ;
+
+		pending[off] = type ;
+		pending[off+1] = (byte) (metadataDisk ? 1 : 0) ;
+		SerializationUtils.writeInt(sectorIndex, pending, off+2) ;
+		SerializationUtils.writeInt(blockIndex, pending, off+6) ;
+
+		return off+10 ;
+	}
+
+	private long endRecord(int end) {
+		int bodyInit = recordInit+4 ;
+
+		crc.reset();
+		crc.update(pending, bodyInit, end-bodyInit);
+
+		SerializationUtils.writeInt((int) crc.getValue(), pending, end) ;
+
+		pendingSize = end+4 ;
+
+		totalRecords++ ;
+
+		return ++appendedLSN ;
+	}
+
+	/**
+	 * Blocks until all the records up to {@code lsn} are durable. Concurrent callers are grouped in a single write + fsync.
+	 */
+	public void commit(long lsn) throws IOException {
+		byte[] batch ;
+		int batchSize ;
+		long batchLSN ;
+		FileChannel channel ;
+
+		synchronized (this) {
+			totalCommits++ ;
+
+			while (true) {
+				if (failure != null) throw new IOException("WAL write failed", failure) ;
+				if (durableLSN >= lsn) return ;
+				if (closed) throw new IOException("WAL closed: "+ dir) ;
+
+				if (!syncing) break ;
+
+				try {
+					wait();
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted while waiting WAL commit") ;
+				}
+			}
+
+			syncing = true ;
+
+			batch = pending ;
+			batchSize = pendingSize ;
+			batchLSN = appendedLSN ;
+			channel = segmentChannel ;
+
+			pending = pendingSpare ;
+			pendingSize = 0 ;
+		}
+
+		boolean checkpoint = false ;
+
+		try {
+			writeFully(channel, batch, batchSize) ;
+			channel.force(false);
+
+			synchronized (this) {
+				durableLSN = batchLSN ;
+				segmentSize += batchSize ;
+				totalSyncs++ ;
+
+				checkpoint = segmentSize >= checkpointSize ;
+			}
+		}
+		catch (IOException e) {
+			synchronized (this) {
+				failure = e ;
+			}
+			throw e ;
+		}
+		finally {
+			synchronized (this) {
+				pendingSpare = batch ;
+				syncing = false ;
+				notifyAll();
+			}
+		}
+
+		if (checkpoint) scheduleCheckpoint() ;
+	}
+
+	static private void writeFully(FileChannel channel, byte[] buff, int lng) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(buff, 0, lng) ;
+
+		while ( buffer.hasRemaining() ) {
+			channel.write(buffer) ;
+		}
+	}
+
+	private void waitNotSyncing() throws InterruptedIOException {
+		while (syncing) {
+			try {
+				wait();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting WAL sync") ;
+			}
+		}
+	}
+
+	/**
+	 * Writes the pending records and starts a new log file.
+	 *
+	 * @return the sequence of the last closed log file.
+	 */
+	synchronized private long rotate() throws IOException {
+		waitNotSyncing() ;
+
+		if (failure != null) throw new IOException("WAL write failed", failure) ;
+
+		writeFully(segmentChannel, pending, pendingSize) ;
+		segmentChannel.force(false);
+
+		pendingSize = 0 ;
+		durableLSN = appendedLSN ;
+		totalSyncs++ ;
+
+		long prevSeq = segmentSeq ;
+
+		segmentIO.close();
+
+		openSegment(prevSeq+1) ;
+
+		notifyAll();
+
+		return prevSeq ;
+	}
+
+	private void deleteSegments(long untilSeq) {
+		for (File walFile : listWALFiles(dir)) {
+			if ( getWALFileSequence(walFile) <= untilSeq ) walFile.delete() ;
+		}
+	}
+
+	/**
+	 * Syncs the header pages of all sectors and truncates the log.
+	 */
+	protected void checkpoint() throws IOException {
+		synchronized (checkpointMutex) {
+			if ( isClosed() ) return ;
+
+			long seq = rotate() ;
+
+			vDisk.syncSectors() ;
+
+			deleteSegments(seq) ;
+		}
+	}
+
+	final static private Timer CHECKPOINT_TIMER = new Timer("VDisk:wal_checkpoint", true) ;
+
+	private boolean checkpointScheduled = false ;
+
+	synchronized private void scheduleCheckpoint() {
+		if (checkpointScheduled || closed) return ;
+		checkpointScheduled = true ;
+
+		CHECKPOINT_TIMER.schedule(new TimerTask() {
+			@Override
+			public void run() {
+				synchronized (VDWriteAheadLog.this) {
+					checkpointScheduled = false ;
+				}
+
+				try {
+					checkpoint();
+				}
+				catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}, 0) ;
+	}
+
+	/**
+	 * Checkpoints and closes the log, deleting its files.
+	 */
+	protected void close() throws IOException {
+		synchronized (checkpointMutex) {
+			if ( isClosed() ) return ;
+
+			rotate() ;
+
+			vDisk.syncSectors() ;
+
+			synchronized (this) {
+				waitNotSyncing() ;
+
+				closed = true ;
+				segmentIO.close();
+
+				notifyAll();
+			}
+
+			deleteSegments(Long.MAX_VALUE) ;
+		}
+	}
+
+}
@@ -11,8 +11,15 @@ import java.nio.channels.FileLock;
 import java.nio.channels.OverlappingFileLockException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import roxtools.FileUtils;
 import roxtools.Mutex;
@@ -22,6 +29,18 @@ final public class VDisk implements Serializable {
 
 	static final public boolean DISABLE_VDISK_BUFFERED_IO = System.getProperty("DISABLE_VDISK_BUFFERED_IO") != null ;
 	
+	static public enum IOMode {
+		RANDOM_ACCESS ,
+		BUFFERED ,
+		MEMORY_MAPPED
+	}
+	
+	static public enum ChecksumVerifyPolicy {
+		ALWAYS ,
+		SAMPLED ,
+		OFF
+	}
+	
 	static final private ArrayList<WeakReference<VDisk>> vDiskInstances = new ArrayList<WeakReference<VDisk>>() ;
 	
 	private final File vdiskDir ;
@@ -40,11 +59,13 @@ final public class VDisk implements Serializable {
 	
 	final private Mutex sectorMUTEX = new Mutex() ;
 	private VDSector[] sectors ;
+	// Copy-on-write: only replaced (never modified) while holding sectorMUTEX, so lookups can read it without locks:
 	transient volatile private VDSector[] sectorsVolatile ;
 	private boolean staticSectorSize ;
 	
 	////////////////////////////////////////////////////////
 
+	final private IOMode ioMode ;
 	final private boolean isbufferedIO ;
 	final private boolean isMetadataDisk ;
 	final private VDisk metadataDisk ;
@@ -53,6 +74,8 @@ final public class VDisk implements Serializable {
 	static final private int BLOCK_USAGE_SIZE          = 1    + 1          + 1           + 1          + 1           + 1     + 1     ;
 	static final private int BLOCK_USAGE_SIZE_METADATA = 1    + 1          + 1           + 1          + 1                            ;
 	
+	static final private int METADATA_BLOCK_SIZE = 32 ;
+	
 	final protected int blockUsageSize ;
 	final protected int blockUsageSizeBytes ;
 	
@@ -63,22 +86,28 @@ final public class VDisk implements Serializable {
 	}
 	
 	public VDisk(File vdiskDir, int blockSize, int sectorSize, int totalSectors, boolean bufferedIO) throws IOException {
-		this(vdiskDir, blockSize, sectorSize, totalSectors, bufferedIO, false) ;
+		this(vdiskDir, blockSize, sectorSize, totalSectors, bufferedIO ? IOMode.BUFFERED : IOMode.RANDOM_ACCESS) ;
+	}
+	
+	public VDisk(File vdiskDir, int blockSize, int sectorSize, int totalSectors, IOMode ioMode) throws IOException {
+		this(vdiskDir, blockSize, sectorSize, totalSectors, ioMode, false) ;
 	}
 	
-	private VDisk(File vdiskDir, int blockSize, int sectorSize, int totalSectors, boolean bufferedIO, boolean isMetadataDisk) throws IOException {
+	private VDisk(File vdiskDir, int blockSize, int sectorSize, int totalSectors, IOMode ioMode, boolean isMetadataDisk) throws IOException {
 		if ( !vdiskDir.isDirectory() ) throw new IllegalArgumentException("Invalid vdiskDir: "+ vdiskDir) ;
 		if ( blockSize < 4 || blockSize > MAX_BLOCK_SIZE ) throw new IllegalArgumentException("Invalid blockSize: "+ blockSize) ;
 		if ( sectorSize < 4 || sectorSize > MAX_SECTOR_SIZE ) throw new IllegalArgumentException("Invalid sectorSize: "+ sectorSize) ;
+		if ( ioMode == null ) throw new NullPointerException("Null ioMode") ;
 		
 		this.vdiskDir = vdiskDir;
 		
-		if (DISABLE_VDISK_BUFFERED_IO && bufferedIO) {
+		if (DISABLE_VDISK_BUFFERED_IO && ioMode == IOMode.BUFFERED) {
 			System.out.println("VDisk> ** DISABLE_VDISK_BUFFERED_IO: "+ vdiskDir);
-			bufferedIO = false ;
+			ioMode = IOMode.RANDOM_ACCESS ;
 		}
 		
-		this.isbufferedIO = bufferedIO ;
+		this.ioMode = ioMode ;
+		this.isbufferedIO = ioMode == IOMode.BUFFERED ;
 		this.isMetadataDisk = isMetadataDisk ;
 		
 		if (!isMetadataDisk) {
@@ -92,7 +121,12 @@ final public class VDisk implements Serializable {
 			File metaDataDir = new File(vdiskDir, "metadata.disk") ;
 			metaDataDir.mkdirs() ;
 			
-			this.metadataDisk = new VDisk(metaDataDir, 32, sectorSize, 0, bufferedIO, true) ;
+			VDWriteAheadLog.recover(vdiskDir,
+					new VDWriteAheadLog.Layout(vdiskDir, blockSize, sectorSize, BLOCK_USAGE_SIZE*4) ,
+					new VDWriteAheadLog.Layout(metaDataDir, METADATA_BLOCK_SIZE, sectorSize, BLOCK_USAGE_SIZE_METADATA*4)
+			) ;
+			
+			this.metadataDisk = new VDisk(metaDataDir, METADATA_BLOCK_SIZE, sectorSize, 0, ioMode, true) ;
 			
 			this.blockUsageSize = BLOCK_USAGE_SIZE ;
 			this.blockUsageSizeBytes = BLOCK_USAGE_SIZE*4 ;
@@ -112,6 +146,8 @@ final public class VDisk implements Serializable {
 				
 		this.sectorIOBufferSize = calculateSectorIOBufferSize() ;
 		
+		this.blockChecksums = !isMetadataDisk && VDSector.createChecksumsFile(vdiskDir, 0).exists() ;
+		
 		if (totalSectors >= 1) {
 			int[] indexes = listSectorsFilesIndexesChecked() ;
 			
@@ -138,6 +174,10 @@ final public class VDisk implements Serializable {
 			this.staticSectorSize = false ;
 		}
 		
+		if ( !isMetadataDisk && VDKeyIndex.exists(vdiskDir) ) {
+			this.keyIndex = VDKeyIndex.open(this) ;
+		}
+		
 		addToVDiskInstances();
 	}
 	
@@ -221,6 +261,10 @@ final public class VDisk implements Serializable {
 		return isbufferedIO;
 	}
 	
+	public IOMode getIOMode() {
+		return ioMode != null ? ioMode : ( isbufferedIO ? IOMode.BUFFERED : IOMode.RANDOM_ACCESS ) ;
+	}
+	
 	protected boolean isMetadataDisk() {
 		return this.isMetadataDisk ;
 	}
@@ -307,15 +351,11 @@ final public class VDisk implements Serializable {
 	}
 	
 	public int getTotalSectors() {
-		synchronized (sectorMUTEX) {
-			return sectors.length ;
-		}
+		return sectorsVolatile.length ;
 	}
 	
 	protected VDSector getSector(int sectorIndex) {
-		synchronized (sectorMUTEX) {
-			return sectors[sectorIndex] ;
-		}
+		return sectorsVolatile[sectorIndex] ;
 	}
 	
 	protected VDSector getSectorNoSynch(int sectorIndex) {
@@ -361,7 +401,7 @@ final public class VDisk implements Serializable {
 				while (true) {
 					sectorCursor++ ;
 					
-					if (sectorCursor >= sectors.length) return false ;
+					if (sectorCursor >= sectorsVolatile.length) return false ;
 					
 					sectorIterator = getSector(sectorCursor).iterateRootBlocksIdents() ;
 					hasNext = sectorIterator.hasNext() ;
@@ -389,6 +429,16 @@ final public class VDisk implements Serializable {
 	}
 	
 	public ArrayList<String> getFilesMetaDataKeys() {
+		
+		VDKeyIndex keyIndex = this.keyIndex ;
+		if (keyIndex != null) {
+			try {
+				return keyIndex.getKeys() ;
+			}
+			catch (IOException e) {
+				throw new IllegalStateException(e) ;
+			}
+		}
 	
 		synchronized (sectorMUTEX) {
 			int totalSectors = getTotalSectors() ;
@@ -409,6 +459,16 @@ final public class VDisk implements Serializable {
 	
 	public ArrayList<String> getFilesMetaDataKeysWithPrefix(String prefix) {
 		
+		VDKeyIndex keyIndex = this.keyIndex ;
+		if (keyIndex != null) {
+			try {
+				return keyIndex.getKeysWithPrefix(prefix) ;
+			}
+			catch (IOException e) {
+				throw new IllegalStateException(e) ;
+			}
+		}
+		
 		synchronized (sectorMUTEX) {
 			int totalSectors = getTotalSectors() ;
 			
@@ -432,6 +492,20 @@ final public class VDisk implements Serializable {
 	
 	public ArrayList<String> getFilesMetaDataKeys( FilesMetaDataKeyFilter filter ) {
 		
+		VDKeyIndex keyIndex = this.keyIndex ;
+		if (keyIndex != null) {
+			ArrayList<String> keys = new ArrayList<String>() ;
+			
+			Iterator<String> iterator = keyIndex.iterateKeys() ;
+			
+			while ( iterator.hasNext() ) {
+				String key = iterator.next() ;
+				if ( filter.accept(key) ) keys.add(key) ;
+			}
+			
+			return keys ;
+		}
+		
 		synchronized (sectorMUTEX) {
 			int totalSectors = getTotalSectors() ;
 			
@@ -451,6 +525,9 @@ final public class VDisk implements Serializable {
 	
 	public Iterator<String> iterateFileMetaDataKeys() {
 		
+		VDKeyIndex keyIndex = this.keyIndex ;
+		if (keyIndex != null) return keyIndex.iterateKeys() ;
+		
 		return new Iterator<String>() {
 			int sectorCursor = 0 ;
 			Iterator<String> sectorIterator = getSector(0).iterateMetaDataKeys() ;
@@ -463,7 +540,7 @@ final public class VDisk implements Serializable {
 				while (true) {
 					sectorCursor++ ;
 					
-					if (sectorCursor >= sectors.length) return false ;
+					if (sectorCursor >= sectorsVolatile.length) return false ;
 					
 					sectorIterator = getSector(sectorCursor).iterateMetaDataKeys() ;
 					hasNext = sectorIterator.hasNext() ;
@@ -508,12 +585,9 @@ final public class VDisk implements Serializable {
 	}
 	
 	public boolean containsFileByID(int blockIndex, int sectorIndex) {
-		VDBlock block ;
-		synchronized (sectorMUTEX) {
-			VDSector sector = getSector(sectorIndex) ;
-			
-			block = sector.getBlock(blockIndex) ;
-		}
+		VDSector sector = getSectorNoSynch(sectorIndex) ;
+		
+		VDBlock block = sector.getBlock(blockIndex) ;
 		
 		if (block == null) return false ;
 		
@@ -521,15 +595,27 @@ final public class VDisk implements Serializable {
 	}
 	
 	public VDFile getFileByID(int blockIndex, int sectorIndex) {
-		synchronized (sectorMUTEX) {
-			VDSector sector = getSector(sectorIndex) ;
-			
-			VDBlock block = sector.getBlock(blockIndex) ;
-			
-			if (block == null) return null ;
-			
-			return block.getVDFile() ;
+		VDSector sector = getSectorNoSynch(sectorIndex) ;
+		
+		VDBlock block = sector.getBlock(blockIndex) ;
+		
+		if (block == null) return null ;
+		
+		return block.getVDFile() ;
+	}
+	
+	public byte[][] readFullData(VDFile... files) throws IOException {
+		VDReadBatch batch = new VDReadBatch(this) ;
+		
+		byte[][] datas = new byte[files.length][] ;
+		
+		for (int i = 0; i < files.length; i++) {
+			datas[i] = batch.add(files[i]) ;
 		}
+		
+		batch.execute();
+		
+		return datas ;
 	}
 	
 	public VDFile getOrCreateFileWithMetaDataKey(String metaDataKey) throws IOException {
@@ -634,6 +720,73 @@ final public class VDisk implements Serializable {
 		}
 	}
 	
+	/**
+	 * Deletes the trailing sectors without used blocks (keeping at least 1 sector).
+	 * Only for VDisks with a dynamic number of sectors.
+	 * 
+	 * @return the number of deleted sectors.
+	 */
+	public int truncateEmptySectors() throws IOException {
+		if (staticSectorSize) return 0 ;
+		
+		VDSector[] sectors = this.sectorsVolatile ;
+		if ( sectors.length <= 1 || !sectors[sectors.length-1].isEmpty() ) return 0 ;
+		
+		VDWriteAheadLog wal = this.writeAheadLog ;
+		
+		if (wal != null) {
+			// Logged records of the sectors to delete can't be replayed after them:
+			wal.checkpoint() ;
+		}
+		
+		synchronized (sectorMUTEX) {
+			int sz = this.sectors.length ;
+			
+			while ( sz > 1 && this.sectors[sz-1].deleteIfEmpty() ) {
+				sz-- ;
+			}
+			
+			int deleted = this.sectors.length - sz ;
+			
+			if (deleted > 0) {
+				this.sectorsVolatile = this.sectors = Arrays.copyOf(this.sectors, sz) ;
+			}
+			
+			return deleted ;
+		}
+	}
+	
+	protected VDSector[] getSectors() {
+		return sectorsVolatile ;
+	}
+	
+	transient private VDiskCompactor compactor ;
+	
+	/**
+	 * The compactor of this VDisk, that can relocate fragmented files and truncate empty sectors while the VDisk is in use.
+	 * 
+	 * @see VDiskCompactor#startBackgroundCompaction(long)
+	 */
+	public VDiskCompactor getCompactor() {
+		if (isMetadataDisk) throw new IllegalStateException("Can't compact metadata disk") ;
+		
+		synchronized (this) {
+			if (compactor == null) {
+				compactor = new VDiskCompactor(this) ;
+			}
+			return compactor ;
+		}
+	}
+	
+	/**
+	 * Runs a (throttled) compaction pass. See {@link #getCompactor()}.
+	 * 
+	 * @return the number of relocated blocks.
+	 */
+	public int compact() throws IOException {
+		return getCompactor().compact() ;
+	}
+	
 	private boolean asyncWriteHeaders = true ;
 	
 	public void setAsyncWriteHeaders(boolean asyncWriteHeaders) {
@@ -644,10 +797,282 @@ final public class VDisk implements Serializable {
 		return asyncWriteHeaders;
 	}
 	
+	private volatile boolean concurrentBlockReads = false ;
+	
+	/**
+	 * When enabled, block reads don't hold the sector monitor, only a per-block lock stripe,
+	 * allowing parallel reads of different blocks of the same sector. Header and block linkage
+	 * mutations are still exclusive. Ignored for {@link IOMode#RANDOM_ACCESS}, since its IO is stateful (seek + read).
+	 */
+	public void setConcurrentBlockReads(boolean concurrentBlockReads) {
+		this.concurrentBlockReads = concurrentBlockReads;
+		
+		if (this.metadataDisk != null) {
+			this.metadataDisk.setConcurrentBlockReads(concurrentBlockReads);
+		}
+	}
+	
+	public boolean isConcurrentBlockReadsEnabled() {
+		return concurrentBlockReads;
+	}
+	
+	transient volatile private VDWriteAheadLog writeAheadLog ;
+	
+	/**
+	 * When enabled, header updates (block links, sizes and metadata keys) are logged and group committed
+	 * to a write-ahead log before returning, and header pages are only written lazily (at checkpoints).
+	 * The log is replayed when the VDisk is opened after a crash.
+	 */
+	public void setWriteAheadLog(boolean enabled) throws IOException {
+		if (isMetadataDisk) throw new IllegalStateException("Can't set WAL of metadata disk") ;
+		
+		synchronized (this) {
+			if ( enabled == (this.writeAheadLog != null) ) return ;
+			
+			if (enabled) {
+				VDWriteAheadLog wal = new VDWriteAheadLog(this) ;
+				
+				syncSectors() ;
+				
+				setWriteAheadLogInstance(wal) ;
+			}
+			else {
+				VDWriteAheadLog wal = this.writeAheadLog ;
+				
+				setWriteAheadLogInstance(null) ;
+				
+				wal.close() ;
+			}
+		}
+	}
+	
+	private void setWriteAheadLogInstance(VDWriteAheadLog wal) {
+		this.writeAheadLog = wal ;
+		
+		if (this.metadataDisk != null) {
+			this.metadataDisk.writeAheadLog = wal ;
+		}
+	}
+	
+	public boolean isWriteAheadLogEnabled() {
+		return writeAheadLog != null ;
+	}
+	
+	public VDWriteAheadLog getWriteAheadLog() {
+		return writeAheadLog;
+	}
+	
+	/**
+	 * Writes all sector headers and syncs the sector files (including the metadata disk).
+	 */
+	protected void syncSectors() throws IOException {
+		
+		synchronized (sectorMUTEX) {
+			int sz = this.sectors.length ;
+			
+			for (int i = 0; i < sz; i++) {
+				this.sectors[i].syncHeader() ;
+			}
+		}
+		
+		if (this.metadataDisk != null) {
+			this.metadataDisk.syncSectors() ;
+		}
+		
+	}
+	
+	transient volatile private boolean blockChecksums ;
+	
+	static final public int DEFAULT_CHECKSUM_SAMPLE_RATE = 16 ;
+	
+	private volatile ChecksumVerifyPolicy checksumVerifyPolicy = ChecksumVerifyPolicy.ALWAYS ;
+	private volatile int checksumSampleRate = DEFAULT_CHECKSUM_SAMPLE_RATE ;
+	
+	/**
+	 * Enables a CRC32C checksum per block, stored in a side file of each sector (see {@link VDSector#CHECKSUMS_FILE_SUFIX}).
+	 * Once enabled, it's also enabled on the next opens. Checksums are updated when the sector headers are flushed,
+	 * and blocks written after that aren't verified until the next flush.
+	 * 
+	 * @see #setChecksumVerifyPolicy(ChecksumVerifyPolicy)
+	 * @see #scrub(int)
+	 */
+	public void setBlockChecksums(boolean enabled) throws IOException {
+		if (isMetadataDisk) throw new IllegalStateException("Can't set checksums of metadata disk") ;
+		
+		synchronized (sectorMUTEX) {
+			if ( enabled == this.blockChecksums ) return ;
+			
+			this.blockChecksums = enabled ;
+			
+			int sz = this.sectors.length ;
+			
+			for (int i = 0; i < sz; i++) {
+				if (enabled) {
+					this.sectors[i].enableChecksums() ;
+				}
+				else {
+					this.sectors[i].disableChecksums() ;
+				}
+			}
+		}
+	}
+	
+	public boolean isBlockChecksumsEnabled() {
+		return blockChecksums ;
+	}
+	
+	/**
+	 * How block reads verify the checksums: {@link ChecksumVerifyPolicy#SAMPLED} verifies 1 of each {@link #getChecksumSampleRate()} reads.
+	 * A block is verified only once after each write (or reopen), further reads don't verify it again ({@link #scrub(int)} always does).
+	 * A read of a block with invalid checksum throws {@link VDChecksumException}.
+	 */
+	public void setChecksumVerifyPolicy(ChecksumVerifyPolicy checksumVerifyPolicy) {
+		if ( checksumVerifyPolicy == null ) throw new NullPointerException("Null checksumVerifyPolicy") ;
+		this.checksumVerifyPolicy = checksumVerifyPolicy;
+	}
+	
+	public ChecksumVerifyPolicy getChecksumVerifyPolicy() {
+		return checksumVerifyPolicy;
+	}
+	
+	public void setChecksumSampleRate(int checksumSampleRate) {
+		if (checksumSampleRate < 1) throw new IllegalArgumentException("Invalid checksumSampleRate: "+ checksumSampleRate) ;
+		this.checksumSampleRate = checksumSampleRate;
+	}
+	
+	public int getChecksumSampleRate() {
+		return checksumSampleRate;
+	}
+	
+	static final public class ScrubResult {
+		final private int verifiedBlocks ;
+		final private List<String> corruptedBlocks ;
+		
+		protected ScrubResult(int verifiedBlocks, List<String> corruptedBlocks) {
+			this.verifiedBlocks = verifiedBlocks;
+			this.corruptedBlocks = corruptedBlocks;
+		}
+		
+		public int getVerifiedBlocks() {
+			return verifiedBlocks;
+		}
+		
+		/**
+		 * @return the idents ({@link VDBlock#toStringIdent()}) of the blocks with invalid checksum.
+		 */
+		public List<String> getCorruptedBlocks() {
+			return corruptedBlocks;
+		}
+		
+		public boolean isOk() {
+			return corruptedBlocks.isEmpty() ;
+		}
+		
+		@Override
+		public String toString() {
+			return "ScrubResult[verifiedBlocks: "+ verifiedBlocks +" ; corruptedBlocks: "+ corruptedBlocks +"]" ;
+		}
+	}
+	
+	/**
+	 * Verifies the checksums of all the used blocks, scrubbing up to {@code parallelism} sectors in parallel.
+	 */
+	public ScrubResult scrub(int parallelism) throws IOException {
+		if ( !blockChecksums ) throw new IllegalStateException("Block checksums not enabled") ;
+		if (parallelism < 1) throw new IllegalArgumentException("Invalid parallelism: "+ parallelism) ;
+		
+		flush() ;
+		
+		VDSector[] sectors = this.sectorsVolatile ;
+		
+		List<String> corruptedBlocks = Collections.synchronizedList( new ArrayList<String>() ) ;
+		
+		ExecutorService executor = Executors.newFixedThreadPool( Math.min(parallelism, sectors.length) ) ;
+		
+		try {
+			ArrayList<Future<Integer>> futures = new ArrayList<Future<Integer>>(sectors.length) ;
+			
+			for (final VDSector sector : sectors) {
+				futures.add( executor.submit(new Callable<Integer>() {
+					@Override
+					public Integer call() throws Exception {
+						return sector.scrubChecksums(corruptedBlocks) ;
+					}
+				}) ) ;
+			}
+			
+			int verifiedBlocks = 0 ;
+			
+			for (Future<Integer> future : futures) {
+				verifiedBlocks += future.get() ;
+			}
+			
+			ArrayList<String> corrupted = new ArrayList<String>(corruptedBlocks) ;
+			Collections.sort(corrupted) ;
+			
+			return new ScrubResult(verifiedBlocks, corrupted) ;
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Scrub interrupted", e) ;
+		}
+		catch (ExecutionException e) {
+			Throwable cause = e.getCause() ;
+			if (cause instanceof IOException) throw (IOException) cause ;
+			throw new IOException("Scrub error", cause) ;
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+	
+	transient volatile private VDKeyIndex keyIndex ;
+	
+	/**
+	 * Enables a persistent sorted index of the metadata keys (stored at {@link VDKeyIndex#INDEX_DIR_NAME}),
+	 * used for key lookups and prefix iteration instead of scanning the sectors. Once enabled, it's also
+	 * enabled on the next opens, and the sectors' key tables are only loaded if needed.
+	 * Enabling builds the index from the sectors, and shouldn't be done concurrently with metadata changes.
+	 */
+	public void setPersistentKeyIndex(boolean enabled) throws IOException {
+		if (isMetadataDisk) throw new IllegalStateException("Can't set key index of metadata disk") ;
+		
+		synchronized (this) {
+			if ( enabled == (this.keyIndex != null) ) return ;
+			
+			if (enabled) {
+				this.keyIndex = VDKeyIndex.open(this) ;
+			}
+			else {
+				VDKeyIndex keyIndex = this.keyIndex ;
+				this.keyIndex = null ;
+				keyIndex.delete() ;
+			}
+		}
+	}
+	
+	public boolean isPersistentKeyIndexEnabled() {
+		return keyIndex != null ;
+	}
+	
+	public VDKeyIndex getKeyIndex() {
+		return keyIndex;
+	}
+	
 	////////////////////////////////////////////////////////////
 	
 	protected int[] getMetaDataKey(String key) {
 		
+		VDKeyIndex keyIndex = this.keyIndex ;
+		if (keyIndex != null) {
+			try {
+				return keyIndex.get(key) ;
+			}
+			catch (IOException e) {
+				throw new IllegalStateException(e) ;
+			}
+		}
+		
 		synchronized (sectorMUTEX) {
 			int sz = sectors.length ;
 			
@@ -671,6 +1096,16 @@ final public class VDisk implements Serializable {
 	
 	protected int[] getMetaDataKeyFirstIdent(String key) {
 		
+		VDKeyIndex keyIndex = this.keyIndex ;
+		if (keyIndex != null) {
+			try {
+				return keyIndex.get(key) ;
+			}
+			catch (IOException e) {
+				throw new IllegalStateException(e) ;
+			}
+		}
+		
 		synchronized (sectorMUTEX) {
 			int sz = sectors.length ;
 			
@@ -690,6 +1125,17 @@ final public class VDisk implements Serializable {
 	private int containsMetaDataKey_lastSectorIndex = -1 ;
 	
 	protected boolean containsMetaDataKey(String key) {
+		
+		VDKeyIndex keyIndex = this.keyIndex ;
+		if (keyIndex != null) {
+			try {
+				return keyIndex.contains(key) ;
+			}
+			catch (IOException e) {
+				throw new IllegalStateException(e) ;
+			}
+		}
+		
 		synchronized (sectorMUTEX) {
 			int sz = sectors.length ;
 			
@@ -837,7 +1283,40 @@ final public class VDisk implements Serializable {
 	private void closeImplem() {
 		if ( isClosed() ) return ;
 		
+		VDiskCompactor compactor ;
+		synchronized (this) {
+			compactor = this.compactor ;
+		}
+		
+		if (compactor != null) {
+			compactor.stop() ;
+		}
+		
 		flush(true) ;
+		
+		VDWriteAheadLog wal = this.writeAheadLog ;
+		
+		if (wal != null && !isMetadataDisk) {
+			try {
+				wal.close() ;
+			}
+			catch (IOException e) {
+				e.printStackTrace();
+			}
+			
+			setWriteAheadLogInstance(null) ;
+		}
+		
+		VDKeyIndex keyIndex = this.keyIndex ;
+		
+		if (keyIndex != null) {
+			try {
+				keyIndex.close() ;
+			}
+			catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
 	
 		synchronized (sectorMUTEX) {
 			int sz = this.sectors.length ;
@@ -0,0 +1,216 @@
+package roxtools.io.vdisk;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * Online compaction of a {@link VDisk}: relocates the blocks of fragmented files to contiguous extents
+ * (preferring the sector of the file's init block, then the lower sectors) and truncates the trailing empty sectors.
+ * <p>
+ * Each file is relocated holding only its own layout lock (see {@link VDFile#relocateBlocks(VDSector)}),
+ * so the VDisk stays online, and relocations are throttled by {@link #setMaxBlocksPerSecond(int)}
+ * to not starve foreground IO.
+ */
+final public class VDiskCompactor {
+
+	static final public int DEFAULT_MAX_BLOCKS_PER_SECOND = 1024*4 ;
+
+	static final public long DEFAULT_COMPACTION_INTERVAL = 1000*60*10 ;
+
+	final static private Timer COMPACTION_TIMER = new Timer("VDisk:compactor", true) ;
+
+	final private VDisk vDisk ;
+
+	final private Object compactionMutex = new Object() ;
+
+	private volatile int maxBlocksPerSecond = DEFAULT_MAX_BLOCKS_PER_SECOND ;
+
+	// Incremented by stop(): a pass started (or scheduled) before it stops, including a pass still waiting for compactionMutex.
+	private volatile int stopGeneration = 0 ;
+
+	private TimerTask backgroundTask ;
+
+	private volatile long totalRelocatedFiles ;
+	private volatile long totalRelocatedBlocks ;
+	private volatile long totalTruncatedSectors ;
+
+	protected VDiskCompactor(VDisk vDisk) {
+		this.vDisk = vDisk;
+	}
+
+	public VDisk getVDisk() {
+		return vDisk;
+	}
+
+	/**
+	 * @param maxBlocksPerSecond Maximum relocated blocks per second. 0 disables throttling.
+	 */
+	public void setMaxBlocksPerSecond(int maxBlocksPerSecond) {
+		if (maxBlocksPerSecond < 0) throw new IllegalArgumentException("Invalid maxBlocksPerSecond: "+ maxBlocksPerSecond) ;
+		this.maxBlocksPerSecond = maxBlocksPerSecond;
+	}
+
+	public int getMaxBlocksPerSecond() {
+		return maxBlocksPerSecond;
+	}
+
+	public long getTotalRelocatedFiles() {
+		return totalRelocatedFiles;
+	}
+
+	public long getTotalRelocatedBlocks() {
+		return totalRelocatedBlocks;
+	}
+
+	public long getTotalTruncatedSectors() {
+		return totalTruncatedSectors;
+	}
+
+	/**
+	 * Runs a compaction pass over all the files of the VDisk.
+	 *
+	 * @return the number of relocated blocks.
+	 */
+	public int compact() throws IOException {
+		return compact(stopGeneration) ;
+	}
+
+	private int compact(int generation) throws IOException {
+
+		synchronized (compactionMutex) {
+			int relocatedBlocks = 0 ;
+
+			long throttleInit = System.currentTimeMillis() ;
+			long throttleBlocks = 0 ;
+
+			VDSector[] sectors = vDisk.getSectors() ;
+
+			for (int i = 0; i < sectors.length; i++) {
+				List<String> ids = sectors[i].getRootBlocksIdents() ;
+
+				for (String id : ids) {
+					if ( stopGeneration != generation || vDisk.isClosed() ) return relocatedBlocks ;
+
+					VDFile file = vDisk.getFileByID(id) ;
+					if (file == null) continue ;
+
+					int relocated = relocate(file) ;
+
+					if (relocated > 0) {
+						relocatedBlocks += relocated ;
+
+						totalRelocatedFiles++ ;
+						totalRelocatedBlocks += relocated ;
+
+						throttleBlocks += relocated ;
+						throttle(throttleInit, throttleBlocks) ;
+					}
+				}
+			}
+
+			if ( stopGeneration != generation || vDisk.isClosed() ) return relocatedBlocks ;
+
+			totalTruncatedSectors += vDisk.truncateEmptySectors() ;
+
+			return relocatedBlocks ;
+		}
+
+	}
+
+	private int relocate(VDFile file) throws IOException {
+		if ( file.getTotalBlocks() < 2 || file.countFragments() == 0 ) return 0 ;
+
+		VDSector initSector = file.getInitBlock().getSector() ;
+
+		int relocated = file.relocateBlocks(initSector) ;
+		if (relocated > 0) return relocated ;
+
+		VDSector[] sectors = vDisk.getSectors() ;
+
+		for (VDSector sector : sectors) {
+			if ( sector == initSector || sector.getFreeBlocks() < file.getTotalBlocks()-1 ) continue ;
+
+			relocated = file.relocateBlocks(sector) ;
+			if (relocated > 0) return relocated ;
+		}
+
+		return 0 ;
+	}
+
+	private void throttle(long throttleInit, long throttleBlocks) throws IOException {
+		int maxBlocksPerSecond = this.maxBlocksPerSecond ;
+		if (maxBlocksPerSecond <= 0) return ;
+
+		long minElapsed = (throttleBlocks * 1000) / maxBlocksPerSecond ;
+		long sleep = minElapsed - (System.currentTimeMillis() - throttleInit) ;
+
+		if (sleep <= 0) return ;
+
+		try {
+			Thread.sleep(sleep) ;
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Compaction interrupted") ;
+		}
+	}
+
+	/////////////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * Schedules compaction passes every {@code interval} ms, in a background thread shared by all the VDisks.
+	 */
+	public void startBackgroundCompaction(long interval) {
+		if (interval <= 0) throw new IllegalArgumentException("Invalid interval: "+ interval) ;
+
+		synchronized (this) {
+			stopBackgroundTask() ;
+
+			final int generation = this.stopGeneration ;
+
+			this.backgroundTask = new TimerTask() {
+				@Override
+				public void run() {
+					try {
+						compact(generation) ;
+					}
+					catch (IOException e) {
+						e.printStackTrace();
+					}
+				}
+			} ;
+
+			COMPACTION_TIMER.schedule(this.backgroundTask, interval, interval) ;
+		}
+	}
+
+	synchronized public boolean isBackgroundCompactionRunning() {
+		return backgroundTask != null ;
+	}
+
+	/**
+	 * Stops the background compaction, waiting for a running pass to finish (it stops at the next file).
+	 * Passes started before the stop, even if still waiting to run, won't compact anything.
+	 */
+	public void stop() {
+		synchronized (this) {
+			stopBackgroundTask() ;
+			this.stopGeneration++ ;
+		}
+
+		synchronized (compactionMutex) {
+			// Just waits the running pass.
+		}
+	}
+
+	private void stopBackgroundTask() {
+		if (backgroundTask != null) {
+			backgroundTask.cancel() ;
+			backgroundTask = null ;
+		}
+	}
+
+}
@@ -3,12 +3,15 @@ package roxtools;
 import org.junit.jupiter.api.Test;
 import roxtools.BigLinkedIntListPool.BigLinkedIntList;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Random;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class BigLinkedIntListPoolTest {
@@ -230,14 +233,152 @@ public class BigLinkedIntListPoolTest {
 
     @Test
     public void testRandomOperations() {
-        testRandomOperationsImplem(100, 1000, 10);
+        testRandomOperationsImplem(new BigLinkedIntListPool(), 100, 1000, 10);
     }
 
-    private void testRandomOperationsImplem(int totalLists, int operationsPerList, int repetitions) {
+    @Test
+    public void testRandomOperationsOffHeap() {
+        var pool = new BigLinkedIntListPool(1, 1024, true);
 
-        Random rand = new Random(1232746512);
+        testRandomOperationsImplem(pool, 100, 1000, 10);
 
-        BigLinkedIntListPool pool = new BigLinkedIntListPool();
+        assertTrue(pool.isOffHeap());
+        assertTrue(pool.getBlocks() > 1);
+    }
+
+    @Test
+    public void testFileBacked() throws IOException {
+        var file = FileUtils.createTempFile("big-linked-int-list-pool", ".data");
+
+        try {
+            var expected = new ArrayList<int[]>();
+            var states = new ArrayList<int[]>();
+
+            try (var pool = new BigLinkedIntListPool(file, 1, 1000)) {
+                var rand = new Random(123);
+
+                for (var i = 0 ; i < 50 ; i++) {
+                    var list = pool.createLinkedListUnreferenced();
+
+                    for (var j = 0 ; j < 100 + i ; j++) {
+                        list.add(rand.nextInt());
+                    }
+
+                    list.remove(10);
+                    list.removeFirst();
+
+                    expected.add(list.toIntArray());
+                    states.add(pool.getLinkedListState(list));
+                }
+
+                testRandomOperationsImplem(pool, 10, 100, 2);
+
+                assertThrows(IllegalArgumentException.class, () -> pool.getLinkedListState(pool.createLinkedList()));
+
+                // Collected referenced lists release their slots, persisted lists must keep theirs:
+                System.gc();
+                pool.createLinkedList().add(-2);
+
+                assertEquals(file, pool.getFile());
+            }
+
+            try (var pool = new BigLinkedIntListPool(file, 1, 64)) {
+                assertEquals(1000, pool.blockSize, "Reopened blockSize doesn't match expected value");
+                assertTrue(pool.getBlocks() > 1);
+
+                for (var i = 0 ; i < states.size() ; i++) {
+                    var list = pool.openLinkedListUnreferenced(states.get(i));
+
+                    assertArrayEquals(expected.get(i), list.toIntArray(), "Reopened list [" + i + "] doesn't match expected values");
+                    assertEquals(expected.get(i)[expected.get(i).length - 1], (int) list.getLast(), "Reopened list last value doesn't match expected value");
+
+                    list.add(-1);
+                    list.removeFirst();
+                }
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testBulkOperations() {
+        testBulkOperationsImplem(new BigLinkedIntListPool(1, 100));
+        testBulkOperationsImplem(new BigLinkedIntListPool(1, 100, true));
+    }
+
+    private void testBulkOperationsImplem(BigLinkedIntListPool pool) {
+        var rand = new Random(123);
+
+        var list = pool.createLinkedList();
+        var expected = new ArrayList<Integer>();
+
+        for (var i = 0 ; i < 1000 ; i++) {
+            var v = rand.nextInt(1000);
+            list.add(v);
+            expected.add(v);
+        }
+
+        var forEachValues = new ArrayList<Integer>();
+        list.forEachInt(forEachValues::add);
+
+        assertEquals(expected, forEachValues, "forEachInt values don't match expected values");
+
+        var cursor = list.cursor();
+        var buffer = new int[64];
+        var cursorValues = new ArrayList<Integer>();
+        int n;
+
+        while ((n = cursor.drainTo(buffer)) > 0) {
+            for (var i = 0 ; i < n ; i++) {
+                cursorValues.add(buffer[i]);
+            }
+        }
+
+        assertEquals(expected, cursorValues, "Cursor values don't match expected values");
+        assertEquals(0, cursor.remaining(), "Cursor remaining doesn't match expected value");
+
+        var copy = new int[10];
+        list.copyIntoArray(copy, 2, 8);
+        for (var i = 0 ; i < 8 ; i++) {
+            assertEquals((int) expected.get(i), copy[i + 2], "Copied value [" + i + "] doesn't match expected value");
+        }
+
+        // Removes the first and last elements too:
+        expected.set(0, -1);
+        list.set(0, -1);
+        expected.set(expected.size() - 1, -1);
+        list.set(expected.size() - 1, -1);
+
+        var poolSize = pool.size();
+
+        var removed = list.removeIf(v -> v < 0 || v % 3 == 0);
+        var expectedRemoved = expected.size();
+        expected.removeIf(v -> v < 0 || v % 3 == 0);
+        expectedRemoved -= expected.size();
+
+        assertEquals(expectedRemoved, removed, "Removed count doesn't match expected value");
+        assertEquals(expected.size(), list.size(), "Size after removeIf doesn't match expected value");
+        assertEquals(poolSize - removed, pool.size(), "Pool size after removeIf doesn't match expected value");
+        assertEquals(expected, list.toList(), "Values after removeIf don't match expected values");
+        assertEquals(expected.get(expected.size() - 1), list.getLast(), "Last value after removeIf doesn't match expected value");
+        assertEquals(expected.get(expected.size() - 10), list.getFromTail(expected.size() - 10), "Value from tail after removeIf doesn't match expected value");
+
+        list.add(5000);
+        expected.add(5000);
+        assertEquals(expected, list.toList(), "Values after removeIf and add don't match expected values");
+
+        assertEquals(list.size(), list.removeIf(v -> true), "removeIf of all elements doesn't match expected value");
+        assertTrue(list.isEmpty());
+
+        list.add(7);
+        assertEquals(7, (int) list.getFirst(), "First value after removing all doesn't match expected value");
+        assertEquals(7, (int) list.getLast(), "Last value after removing all doesn't match expected value");
+    }
+
+    private void testRandomOperationsImplem(BigLinkedIntListPool pool, int totalLists, int operationsPerList, int repetitions) {
+
+        Random rand = new Random(1232746512);
 
         ArrayList<BigLinkedIntList> lists = new ArrayList<BigLinkedIntList>();
 
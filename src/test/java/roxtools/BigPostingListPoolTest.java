@@ -0,0 +1,185 @@
+package roxtools;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class BigPostingListPoolTest {
+
+    static private int[] randomSorted(Random random, int size, int maxGap) {
+        var values = new int[size];
+        var value = random.nextInt(1000) - 500;
+
+        for (var i = 0 ; i < size ; i++) {
+            value += 1 + random.nextInt(maxGap);
+            values[i] = value;
+        }
+
+        return values;
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 10, 1000, 100000})
+    void postingListAddAndIterate(int size) {
+        var pool = new BigPostingListPool(1, 16, 32);
+        var random = new Random(size);
+
+        var values = randomSorted(random, size, 300);
+
+        var list = pool.createPostingList();
+        list.addAll(values);
+
+        assertAll(
+                () -> assertEquals(size, list.size(), "Size doesn't match expected value"),
+                () -> assertEquals(values[0], (int) list.getFirst(), "First value doesn't match expected value"),
+                () -> assertEquals(values[size - 1], (int) list.getLast(), "Last value doesn't match expected value"),
+                () -> assertArrayEquals(values, list.toIntArray(), "Values don't match expected values")
+        );
+
+        for (var i = 0 ; i < 100 ; i++) {
+            var target = values[0] - 10 + random.nextInt(values[size - 1] - values[0] + 20);
+
+            var idx = Arrays.binarySearch(values, target);
+            if (idx < 0) idx = -(idx + 1);
+
+            var cursor = list.cursor();
+            var found = cursor.skipTo(target);
+
+            assertEquals(idx < size, found, "skipTo(" + target + ") result doesn't match expected value");
+            if (found) {
+                assertEquals(values[idx], cursor.value(), "skipTo(" + target + ") value doesn't match expected value");
+            }
+
+            assertEquals(idx < size && values[idx] == target, list.contains(target), "contains(" + target + ") doesn't match expected value");
+        }
+
+        var chunks = pool.size();
+        assertEquals(list.getChunks(), chunks, "Used chunks doesn't match expected value");
+
+        list.clear();
+
+        assertAll(
+                () -> assertEquals(0, list.size(), "Size after clear doesn't match expected value"),
+                () -> assertNull(list.getFirst(), "First value after clear should be null"),
+                () -> assertEquals(0, pool.size(), "Used chunks after clear doesn't match expected value"),
+                () -> assertFalse(list.cursor().next(), "Cursor after clear shouldn't have values")
+        );
+
+        // Released chunks are reused:
+        list.addAll(values);
+        assertEquals(chunks, pool.size(), "Used chunks after reuse doesn't match expected value");
+        assertArrayEquals(values, list.toIntArray(), "Values after reuse don't match expected values");
+    }
+
+    @Test
+    void postingListCursorSkipTo() {
+        var pool = new BigPostingListPool();
+        var list = pool.createPostingList();
+
+        for (var i = 0 ; i < 10000 ; i++) {
+            list.add(i * 3);
+        }
+
+        var cursor = list.cursor();
+
+        assertAll(
+                () -> assertTrue(cursor.skipTo(100), "skipTo(100) should find a value"),
+                () -> assertEquals(102, cursor.value(), "skipTo(100) value doesn't match expected value"),
+                () -> assertTrue(cursor.skipTo(50), "skipTo of a smaller target should keep the current value"),
+                () -> assertEquals(102, cursor.value(), "Cursor shouldn't move backwards"),
+                () -> assertTrue(cursor.next(), "next() after skipTo should have a value"),
+                () -> assertEquals(105, cursor.value(), "next() after skipTo value doesn't match expected value"),
+                () -> assertTrue(cursor.skipTo(29997), "skipTo(29997) should find the last value"),
+                () -> assertFalse(cursor.next(), "Cursor should be at the end"),
+                () -> assertFalse(cursor.skipTo(0), "skipTo after end shouldn't find values"),
+                () -> assertThrows(IllegalArgumentException.class, () -> list.add(29997), "Unsorted value shouldn't be accepted")
+        );
+
+        var extremes = pool.createPostingList();
+        extremes.addAll(new int[] {Integer.MIN_VALUE, -1, 0, Integer.MAX_VALUE});
+
+        assertArrayEquals(new int[] {Integer.MIN_VALUE, -1, 0, Integer.MAX_VALUE}, extremes.toIntArray(), "Extreme values don't match expected values");
+    }
+
+    @Test
+    void postingListIntersectAndUnion() {
+        var pool = new BigPostingListPool(1, 64, 64);
+        var random = new Random(123);
+
+        for (var round = 0 ; round < 20 ; round++) {
+            var valuesA = randomSorted(random, 1 + random.nextInt(5000), 1 + random.nextInt(20));
+            var valuesB = randomSorted(random, 1 + random.nextInt(500), 1 + random.nextInt(200));
+
+            var a = pool.createPostingList();
+            a.addAll(valuesA);
+
+            var b = pool.createPostingList();
+            b.addAll(valuesB);
+
+            var setA = new TreeSet<Integer>();
+            for (var v : valuesA) setA.add(v);
+
+            var expectedIntersection = new TreeSet<Integer>();
+            var expectedUnion = new TreeSet<>(setA);
+            for (var v : valuesB) {
+                if (setA.contains(v)) expectedIntersection.add(v);
+                expectedUnion.add(v);
+            }
+
+            var intersection = pool.intersect(a, b);
+            var intersection2 = pool.intersect(b, a);
+            var union = pool.union(a, b);
+
+            var r = round;
+            assertAll(
+                    () -> assertArrayEquals(expectedIntersection.stream().mapToInt(v -> v).toArray(), intersection.toIntArray(), "Intersection doesn't match expected values, round " + r),
+                    () -> assertArrayEquals(expectedIntersection.stream().mapToInt(v -> v).toArray(), intersection2.toIntArray(), "Reversed intersection doesn't match expected values, round " + r),
+                    () -> assertArrayEquals(expectedUnion.stream().mapToInt(v -> v).toArray(), union.toIntArray(), "Union doesn't match expected values, round " + r)
+            );
+
+            a.clear();
+            b.clear();
+            intersection.clear();
+            intersection2.clear();
+            union.clear();
+        }
+
+        assertEquals(0, pool.size(), "Used chunks after clear doesn't match expected value");
+
+        var empty = pool.createPostingList();
+        var list = pool.createPostingList();
+        list.addAll(new int[] {1, 2, 3});
+
+        assertEquals(0, pool.intersect(empty, list).size(), "Intersection with empty list should be empty");
+        assertArrayEquals(new int[] {1, 2, 3}, pool.union(empty, list).toIntArray(), "Union with empty list doesn't match expected values");
+    }
+
+    @Test
+    void postingListMemory() {
+        var pool = new BigPostingListPool();
+        var list = pool.createPostingList();
+
+        var size = 1000000;
+        for (var i = 0 ; i < size ; i++) {
+            list.add(i * 7);
+        }
+
+        var linkedListMemory = size * 12L;
+        var usedMemory = pool.size() * (5 * 4L + 128);
+
+        assertTrue(usedMemory * 10 < linkedListMemory, "Posting list memory (" + usedMemory + ") should be an order of magnitude smaller than a linked list (" + linkedListMemory + ")");
+    }
+
+}
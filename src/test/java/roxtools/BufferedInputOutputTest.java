@@ -1,16 +1,35 @@
 package roxtools;
 
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
+import org.junit.jupiter.params.provider.ValueSource;
+import roxtools.io.BufferedFlushScheduler;
 import roxtools.io.BufferedInputOutput;
+import roxtools.io.BufferedPageCache;
 import roxtools.io.ByteArrayInputOutput;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.params.provider.Arguments.arguments;
 
 public class BufferedInputOutputTest {
@@ -146,4 +165,545 @@ public class BufferedInputOutputTest {
         );
     }
 
+    @Test
+    void testSharedPageCache() throws IOException {
+        var blockSize = 16;
+        var pageCache = new BufferedPageCache(blockSize * 8);
+
+        var ios = new BufferedInputOutput[3];
+        var datas = new byte[ios.length][];
+
+        for (var i = 0 ; i < ios.length ; i++) {
+            var byteArrayInputOutput = new ByteArrayInputOutput(1000);
+            ios[i] = new BufferedInputOutput(blockSize, byteArrayInputOutput, byteArrayInputOutput, null, pageCache);
+
+            datas[i] = new byte[1000];
+            for (var j = 0 ; j < datas[i].length ; j++) {
+                datas[i][j] = (byte) (i * 7 + j);
+            }
+
+            ios[i].write(0, datas[i]);
+
+            assertSame(pageCache, ios[i].getPageCache(), "Page cache doesn't match expected value");
+        }
+
+        assertTrue(pageCache.getOvercommittedBytes() > 0, "Dirty pages shouldn't be evicted");
+
+        for (var io : ios) {
+            io.flush(true);
+        }
+
+        for (var loop = 0 ; loop < 3 ; loop++) {
+            for (var i = 0 ; i < ios.length ; i++) {
+                var buff = new byte[datas[i].length];
+                ios[i].read(0, buff, 0, buff.length);
+                assertArrayEquals(datas[i], buff, "Data doesn't match expected value");
+            }
+        }
+
+        for (var i = 0 ; i < 100 ; i++) {
+            assertEquals(datas[0][5] & 0xFF, ios[0].read(5), "Byte doesn't match expected value");
+        }
+
+        assertAll(
+                () -> assertTrue(pageCache.getUsedBytes() <= pageCache.getMaxBytes(), "Used bytes should be inside the budget: " + pageCache),
+                () -> assertTrue(pageCache.getEvictions() > 0, "Pages should be evicted: " + pageCache),
+                () -> assertTrue(pageCache.getMisses() > 0, "Cache should have misses: " + pageCache),
+                () -> assertTrue(pageCache.getHits() >= 99, "Cache should have hits: " + pageCache)
+        );
+
+        for (var io : ios) {
+            io.dispose();
+        }
+
+        assertAll(
+                () -> assertEquals(0, pageCache.getUsedBytes(), "Used bytes doesn't match expected value after dispose"),
+                () -> assertEquals(0, pageCache.getTotalPages(), "Total pages doesn't match expected value after dispose")
+        );
+    }
+
+    @Test
+    void testOffHeapPageCache() throws IOException {
+        var blockSize = 16;
+        var pageCache = new BufferedPageCache(blockSize * 8, true);
+
+        var file = FileUtils.createTempFile("test-offheap-page-cache", "junit-temp");
+
+        try (var randomAccessFile = new RandomAccessFile(file, "rw")) {
+            var byteArrayInputOutput = new ByteArrayInputOutput(1000);
+
+            var ios = new BufferedInputOutput[] {
+                    new BufferedInputOutput(blockSize, randomAccessFile, null, pageCache),
+                    new BufferedInputOutput(blockSize, byteArrayInputOutput, byteArrayInputOutput, null, pageCache)
+            };
+
+            var datas = new byte[ios.length][];
+
+            for (var i = 0 ; i < ios.length ; i++) {
+                datas[i] = new byte[1000];
+                for (var j = 0 ; j < datas[i].length ; j++) {
+                    datas[i][j] = (byte) (i * 13 + j);
+                }
+
+                ios[i].write(0, datas[i], 0, 500);
+                ios[i].flush(true);
+
+                ios[i].write(500, datas[i], 500, 500);
+                ios[i].write(3, datas[i][3]);
+                ios[i].flush(true);
+            }
+
+            assertArrayEquals(datas[0], Files.readAllBytes(file.toPath()), "File data doesn't match expected value");
+
+            for (var loop = 0 ; loop < 3 ; loop++) {
+                for (var i = 0 ; i < ios.length ; i++) {
+                    var buff = new byte[datas[i].length];
+                    ios[i].read(0, buff, 0, buff.length);
+                    assertArrayEquals(datas[i], buff, "Data doesn't match expected value");
+                    assertEquals(datas[i][999] & 0xFF, ios[i].read(999), "Byte doesn't match expected value");
+                }
+            }
+
+            assertAll(
+                    () -> assertTrue(pageCache.isOffHeap(), "Page cache should be off-heap"),
+                    () -> assertTrue(pageCache.getUsedBytes() <= pageCache.getMaxBytes(), "Used bytes should be inside the budget: " + pageCache),
+                    () -> assertTrue(pageCache.getEvictions() > 0, "Pages should be evicted: " + pageCache),
+                    () -> assertTrue(pageCache.getOffHeapAllocatedBytes() < BufferedPageCache.SLAB_SIZE, "Slabs should be limited by the budget: " + pageCache)
+            );
+
+            for (var io : ios) {
+                io.dispose();
+            }
+
+            assertAll(
+                    () -> assertEquals(0, pageCache.getUsedBytes(), "Used bytes doesn't match expected value after dispose"),
+                    () -> assertTrue(pageCache.getOffHeapAllocatedBytes() <= pageCache.getMaxBytes(), "Free slabs over the budget should be released: " + pageCache)
+            );
+
+            pageCache.setMaxBytes(blockSize * 2);
+
+            assertTrue(pageCache.getOffHeapAllocatedBytes() <= blockSize * 2, "Free slabs over a reduced budget should be released: " + pageCache);
+        } finally {
+            file.delete();
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void testSharedPageCacheConcurrentWriters(boolean offHeap) throws Exception {
+        var blockSize = 32;
+        var totalBlocks = 16;
+        var writers = 4;
+
+        // Budget under the dirty pages, so every allocation tries to evict the dirty pages of all the instances:
+        var pageCache = new BufferedPageCache(blockSize * 4, offHeap);
+
+        var files = new ArrayList<File>();
+        var randomAccessFiles = new ArrayList<RandomAccessFile>();
+        var ios = new BufferedInputOutput[writers];
+        var expected = new byte[writers][blockSize * totalBlocks];
+
+        var executor = Executors.newFixedThreadPool(writers * 2);
+
+        try {
+            for (var i = 0 ; i < writers ; i++) {
+                var file = FileUtils.createTempFile("test-shared-cache-writers", "junit-temp");
+                files.add(file);
+
+                var randomAccessFile = new RandomAccessFile(file, "rw");
+                randomAccessFiles.add(randomAccessFile);
+
+                ios[i] = new BufferedInputOutput(blockSize, randomAccessFile, null, pageCache);
+                ios[i].write(0, expected[i]);
+                ios[i].flush(true);
+            }
+
+            var running = new AtomicBoolean(true);
+            var futures = new ArrayList<Future<?>>();
+
+            for (var w = 0 ; w < writers ; w++) {
+                var io = ios[w];
+                var data = expected[w];
+                var seed = w;
+
+                futures.add(executor.submit(() -> {
+                    var random = new Random(seed);
+
+                    for (var i = 0 ; i < 20000 ; i++) {
+                        var pos = random.nextInt(data.length - 8);
+                        var lng = 1 + random.nextInt(8);
+
+                        for (var j = 0 ; j < lng ; j++) {
+                            data[pos + j] = (byte) random.nextInt();
+                        }
+
+                        io.write(pos, data, pos, lng);
+
+                        if (i % 5000 == 0) io.flush(true);
+                    }
+
+                    return null;
+                }));
+
+                // Sequential and random readers load pages outside the writer's mutex:
+                futures.add(executor.submit(() -> {
+                    var buff = new byte[blockSize * 2];
+                    var pos = 0;
+
+                    while (running.get()) {
+                        io.read(pos, buff, 0, buff.length);
+                        pos = (pos + blockSize) % (data.length - buff.length);
+                    }
+
+                    return null;
+                }));
+            }
+
+            for (var i = 0 ; i < futures.size() ; i += 2) {
+                futures.get(i).get(60, TimeUnit.SECONDS);
+            }
+
+            running.set(false);
+
+            for (var future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+
+            for (var i = 0 ; i < writers ; i++) {
+                ios[i].flush(true);
+
+                var r = i;
+                assertAll(
+                        () -> assertFalse(ios[r].hasUnflushedData(), "Writer " + r + " shouldn't have unflushed data"),
+                        () -> assertArrayEquals(expected[r], Files.readAllBytes(files.get(r).toPath()), "File data of writer " + r + " doesn't match expected value"),
+                        () -> assertArrayEquals(expected[r], ios[r].toByteArray(), "Data of writer " + r + " doesn't match expected value")
+                );
+            }
+
+            assertTrue(pageCache.getEvictions() > 0, "Pages should be evicted: " + pageCache);
+
+            for (var io : ios) {
+                io.dispose();
+            }
+        } finally {
+            executor.shutdownNow();
+
+            for (var randomAccessFile : randomAccessFiles) {
+                randomAccessFile.close();
+            }
+
+            for (var file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    @Test
+    void testFlushScheduler() throws Exception {
+        var flushScheduler = new BufferedFlushScheduler(2, 100);
+
+        try {
+            var byteArrayInputOutput = new ByteArrayInputOutput(1000);
+            var io = new BufferedInputOutput(16, byteArrayInputOutput, byteArrayInputOutput);
+            io.setFlushScheduler(flushScheduler);
+
+            var data = new byte[1000];
+            for (var i = 0 ; i < data.length ; i++) {
+                data[i] = (byte) (i * 3);
+            }
+
+            // Back-pressure: over the limit the writer flushes its own data:
+            io.write(0, data, 0, 50);
+
+            assertAll(
+                    () -> assertTrue(io.hasUnflushedData(), "Data under the limit shouldn't be flushed"),
+                    () -> assertEquals(50, flushScheduler.getUnflushedBytes(), "Unflushed bytes doesn't match expected value")
+            );
+
+            io.write(50, data, 50, 100);
+
+            assertAll(
+                    () -> assertFalse(io.hasUnflushedData(), "Data over the limit should be flushed"),
+                    () -> assertEquals(0, flushScheduler.getUnflushedBytes(), "Unflushed bytes doesn't match expected value after back-pressure")
+            );
+
+            // An idle instance holding most of the unflushed bytes is flushed by the scheduler, not the writer:
+            var idleInputOutput = new ByteArrayInputOutput(1000);
+            var idleIo = new BufferedInputOutput(16, idleInputOutput, idleInputOutput);
+            idleIo.setFlushScheduler(flushScheduler);
+
+            idleIo.write(0, data, 0, 90);
+            io.write(0, data, 0, 20);
+
+            for (var i = 0 ; i < 500 && idleIo.hasUnflushedData() ; i++) {
+                Thread.sleep(10);
+            }
+
+            assertAll(
+                    () -> assertFalse(idleIo.hasUnflushedData(), "Idle instance data should be flushed"),
+                    () -> assertTrue(io.hasUnflushedData(), "Writer data under its share shouldn't be flushed"),
+                    () -> assertEquals(20, flushScheduler.getUnflushedBytes(), "Unflushed bytes doesn't match expected value after idle flush"),
+                    () -> assertEquals(1, flushScheduler.getUnflushedInstances(), "Unflushed instances doesn't match expected value")
+            );
+
+            assertArrayEquals(Arrays.copyOf(data, 90), Arrays.copyOf(idleInputOutput.toByteArray(), 90), "Idle instance flushed data doesn't match expected value");
+
+            idleIo.dispose();
+            io.flush(true);
+
+            // Scheduled flushes are coalesced:
+            flushScheduler.setMaxUnflushedBytes(0);
+
+            io.write(150, data, 150, 850);
+
+            io.scheduleFlush(1000 * 60);
+            io.scheduleFlush(1000 * 60);
+            io.scheduleFlush(1000 * 30);
+
+            assertEquals(1, flushScheduler.getPendingTasks(), "Pending tasks doesn't match expected value");
+
+            io.scheduleFlush(10);
+
+            assertEquals(1, flushScheduler.getPendingTasks(), "Pending tasks doesn't match expected value after a sooner flush");
+
+            for (var i = 0 ; i < 500 && io.hasUnflushedData() ; i++) {
+                Thread.sleep(10);
+            }
+
+            assertAll(
+                    () -> assertFalse(io.hasUnflushedData(), "Scheduled flush should be executed"),
+                    () -> assertEquals(0, flushScheduler.getPendingTasks(), "Pending tasks doesn't match expected value after flush"),
+                    () -> assertEquals(0, flushScheduler.getUnflushedBytes(), "Unflushed bytes doesn't match expected value after flush")
+            );
+
+            assertArrayEquals(data, byteArrayInputOutput.toByteArray(), "Flushed data doesn't match expected value");
+
+            io.dispose();
+        } finally {
+            flushScheduler.shutdown();
+        }
+    }
+
+    @Test
+    void testReadAhead() throws Exception {
+        var blockSize = 64;
+        var totalBlocks = 100;
+
+        var file = FileUtils.createTempFile("test-read-ahead", "junit-temp");
+
+        try (var randomAccessFile = new RandomAccessFile(file, "rw")) {
+            var data = new byte[blockSize * totalBlocks];
+            for (var i = 0 ; i < data.length ; i++) {
+                data[i] = (byte) (i * 11);
+            }
+
+            var io = new BufferedInputOutput(blockSize, randomAccessFile);
+            io.write(0, data);
+            io.flush(true);
+            io.dispose();
+
+            // Random access doesn't trigger read-ahead:
+            var buff = new byte[blockSize];
+
+            for (var i = 0 ; i < totalBlocks ; i++) {
+                var blockIdx = (i * 37) % totalBlocks;
+                io.read(blockIdx * (long) blockSize, buff);
+            }
+
+            assertEquals(0, io.getTotalReadAheadBlocks(), "Read-ahead blocks doesn't match expected value for random access");
+
+            io.dispose();
+
+            // Sequential access:
+            io.read(0, buff);
+            io.read(blockSize, buff);
+            io.read(blockSize * 2, buff);
+
+            for (var i = 0 ; i < 500 && io.getTotalReadAheadBlocks() == 0 ; i++) {
+                Thread.sleep(10);
+            }
+
+            assertTrue(io.getTotalReadAheadBlocks() > 0, "Sequential access should trigger read-ahead");
+
+            var readData = new byte[data.length];
+
+            for (var pos = 0 ; pos < data.length ; pos += 10) {
+                io.read(pos, readData, pos, Math.min(10, data.length - pos));
+            }
+
+            assertArrayEquals(data, readData, "Data doesn't match expected value");
+
+            io.setMaxReadAheadBlocks(0);
+            assertEquals(0, io.getMaxReadAheadBlocks(), "Max read-ahead blocks doesn't match expected value");
+
+            io.dispose();
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    void testInterruptedPositionalIO() throws Exception {
+        var blockSize = 64;
+        var totalBlocks = 20;
+
+        var file = FileUtils.createTempFile("test-interrupted-io", "junit-temp");
+
+        try (var randomAccessFile = new RandomAccessFile(file, "rw")) {
+            var data = new byte[blockSize * totalBlocks];
+            for (var i = 0 ; i < data.length ; i++) {
+                data[i] = (byte) (i * 13);
+            }
+
+            var io = new BufferedInputOutput(blockSize, randomAccessFile);
+            io.write(0, data);
+            io.flush(true);
+            io.dispose();
+
+            var readData = new byte[data.length];
+
+            // An interrupted thread can't close the shared channel:
+            Thread.currentThread().interrupt();
+
+            try {
+                io.read(0, readData);
+                io.write(0, data, 0, blockSize);
+                io.flush(true);
+            } finally {
+                assertTrue(Thread.interrupted(), "Interrupt flag should be preserved");
+            }
+
+            assertArrayEquals(data, readData, "Data doesn't match expected value");
+            assertTrue(randomAccessFile.getChannel().isOpen(), "Channel should be open");
+
+            io.dispose();
+
+            Arrays.fill(readData, (byte) 0);
+            io.read(0, readData);
+
+            assertArrayEquals(data, readData, "Data doesn't match expected value after interrupt");
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    void testConcurrentPositionalReads() throws Exception {
+        var blockSize = 64;
+        var totalBlocks = 16;
+        var pageCache = new BufferedPageCache(blockSize * 4);
+
+        var file = FileUtils.createTempFile("test-positional-reads", "junit-temp");
+
+        var executor = Executors.newFixedThreadPool(5);
+
+        try (var randomAccessFile = new RandomAccessFile(file, "rw")) {
+            // Each block has its generation, the last one flushed is in flushedGenerations:
+            var flushedGenerations = new AtomicIntegerArray(totalBlocks);
+
+            var io = new BufferedInputOutput(blockSize, randomAccessFile, null, pageCache);
+
+            for (var i = 0 ; i < totalBlocks ; i++) {
+                io.write(i * (long) blockSize, createVersionedBlock(blockSize, i, 0));
+            }
+
+            io.flush(true);
+            io.dispose();
+
+            var writerDone = new AtomicBoolean();
+            var futures = new ArrayList<Future<Integer>>();
+
+            for (var t = 0 ; t < 4 ; t++) {
+                var seed = t;
+                futures.add(executor.submit(() -> {
+                    var readBlocks = 3;
+                    var buff = new byte[blockSize * readBlocks];
+                    var minGenerations = new int[readBlocks];
+                    var reads = 0;
+
+                    for (var i = 0 ; i < 2000 || !writerDone.get() ; i++) {
+                        var blockIdx = ((seed * 7919 + i * 131) * 17) % (totalBlocks - readBlocks);
+
+                        for (var b = 0 ; b < readBlocks ; b++) {
+                            minGenerations[b] = flushedGenerations.get(blockIdx + b);
+                        }
+
+                        var r = io.read(blockIdx * (long) blockSize, buff, 0, buff.length);
+                        if (r != buff.length) throw new IllegalStateException("Invalid read length: " + r);
+
+                        for (var b = 0 ; b < readBlocks ; b++) {
+                            var generation = checkVersionedBlock(buff, b * blockSize, blockSize, blockIdx + b);
+
+                            if (generation < minGenerations[b]) {
+                                throw new IllegalStateException("Stale block " + (blockIdx + b) + ": generation " + generation + " < " + minGenerations[b]);
+                            }
+                        }
+
+                        reads += r;
+                    }
+
+                    return reads;
+                }));
+            }
+
+            // Rewrites blocks with new generations, invalidating the blocks read concurrently:
+            futures.add(executor.submit(() -> {
+                try {
+                    var generations = new int[totalBlocks];
+
+                    for (var i = 0 ; i < 20000 ; i++) {
+                        var blockIdx = (i * 997) % totalBlocks;
+                        var generation = ++generations[blockIdx];
+
+                        io.write(blockIdx * (long) blockSize, createVersionedBlock(blockSize, blockIdx, generation));
+                        io.flush(i % 100 == 0);
+
+                        flushedGenerations.set(blockIdx, generation);
+                    }
+                } finally {
+                    writerDone.set(true);
+                }
+                return 0;
+            }));
+
+            for (var future : futures) {
+                future.get();
+            }
+
+            assertTrue(pageCache.getMisses() > 0, "Cache should have misses: " + pageCache);
+
+            io.dispose();
+        } finally {
+            executor.shutdown();
+            file.delete();
+        }
+    }
+
+    private static byte[] createVersionedBlock(int blockSize, int blockIdx, int generation) {
+        var block = new byte[blockSize];
+        SerializationUtils.writeInt(blockIdx, block, 0);
+        SerializationUtils.writeInt(generation, block, 4);
+
+        for (var i = 8 ; i < blockSize ; i++) {
+            block[i] = (byte) (generation * 31 + i);
+        }
+
+        return block;
+    }
+
+    /**
+     * @return the generation of the block, checking that the block isn't torn.
+     */
+    private static int checkVersionedBlock(byte[] buff, int offset, int blockSize, int blockIdx) {
+        var generation = SerializationUtils.readInt(buff, offset + 4);
+
+        var expected = createVersionedBlock(blockSize, blockIdx, generation);
+
+        for (var i = 0 ; i < blockSize ; i++) {
+            if (buff[offset + i] != expected[i]) throw new IllegalStateException("Invalid data of block " + blockIdx + " at: " + i);
+        }
+
+        return generation;
+    }
+
 }
@@ -0,0 +1,164 @@
+package roxtools;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.HashSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ConcurrentBigHashMapTest {
+
+    @ParameterizedTest
+    @ValueSource(ints = {100000, 2000000})
+    void concurrentBigHashMapIntegerIntegerCreation(int totalInserts) {
+        var map = new ConcurrentBigHashMap<Integer, Integer>();
+
+        for (var i = 0 ; i < totalInserts ; i++) {
+            map.put(i, i * 10);
+        }
+
+        assertEquals(totalInserts, map.size(), "Size doesn't match expected value");
+
+        var keys = new HashSet<Integer>();
+        for (var entry : map.entrySet()) {
+            assertEquals(entry.getKey() * 10, (int) entry.getValue(), "Entry Value doesn't match expected value");
+            keys.add(entry.getKey());
+        }
+
+        assertEquals(totalInserts, keys.size(), "Number of keys from EntrySet doesn't match the number of total values");
+
+        for (int key = 0 ; key < totalInserts ; key++) {
+            assertEquals(key * 10, (int) map.get(key), "Value of key [" + key + "] doesn't match expected value");
+        }
+
+        for (int key = totalInserts ; key < totalInserts + 1000 ; key++) {
+            assertFalse(map.containsKey(key), "Map shouldn't contain key [" + key + "]");
+        }
+
+        for (int key = 0 ; key < totalInserts / 2 ; key++) {
+            assertEquals(key * 10, (int) map.remove(key), "Removed value of key [" + key + "] doesn't match expected value");
+        }
+
+        assertEquals(totalInserts - (totalInserts / 2), map.size(), "Size doesn't match expected values after removals");
+
+        for (int key = 0 ; key < totalInserts ; key++) {
+            var containsKey = map.containsKey(key);
+
+            if (key < totalInserts / 2) {
+                assertFalse(containsKey, "Map shouldn't contain key [" + key + "]");
+            }
+            else {
+                assertTrue(containsKey, "Map should contain key [" + key + "]");
+            }
+        }
+
+        map.compact();
+
+        assertEquals(totalInserts - (totalInserts / 2), map.size(), "Size doesn't match expected values after compact");
+        assertEquals(totalInserts - 1, (int) map.get(totalInserts - 1) / 10, "Value after compact doesn't match expected value");
+    }
+
+    @Test
+    void concurrentMapOperations() {
+        var map = new ConcurrentBigHashMap<String, String>(4);
+
+        assertAll(
+                () -> assertEquals(4, map.getSegments(), "Segments doesn't match expected value"),
+                () -> assertNull(map.putIfAbsent("a", "1"), "putIfAbsent of new key should return null"),
+                () -> assertEquals("1", map.putIfAbsent("a", "2"), "putIfAbsent of existing key should return current value"),
+                () -> assertEquals("1", map.get("a"), "putIfAbsent shouldn't replace value"),
+                () -> assertFalse(map.replace("a", "2", "3"), "replace with wrong old value should fail"),
+                () -> assertTrue(map.replace("a", "1", "3"), "replace with old value should succeed"),
+                () -> assertEquals("3", map.replace("a", "4"), "replace should return previous value"),
+                () -> assertNull(map.replace("b", "4"), "replace of absent key should return null"),
+                () -> assertFalse(map.remove("a", "3"), "remove with wrong value should fail"),
+                () -> assertTrue(map.remove("a", "4"), "remove with value should succeed"),
+                () -> assertTrue(map.isEmpty(), "Map should be empty"),
+                () -> assertEquals("x", map.computeIfAbsent("c", k -> "x"), "computeIfAbsent value doesn't match expected value"),
+                () -> assertEquals("xy", map.merge("c", "y", String::concat), "merge value doesn't match expected value"),
+                () -> assertThrows(NullPointerException.class, () -> map.put("d", null), "Null values shouldn't be allowed")
+        );
+
+        map.clear();
+        assertEquals(0, map.size(), "Size after clear doesn't match expected value");
+    }
+
+    @Test
+    void concurrentReadsAndWrites() throws InterruptedException, ExecutionException, TimeoutException {
+        var map = new ConcurrentBigHashMap<Integer, Integer>(8);
+
+        var threads = 4;
+        var keysPerThread = 100000;
+
+        var executor = Executors.newFixedThreadPool(threads * 2);
+        var running = new AtomicBoolean(true);
+
+        try {
+            var writers = new Future<?>[threads];
+            var readers = new Future<?>[threads];
+
+            for (var t = 0 ; t < threads ; t++) {
+                var base = t * keysPerThread;
+
+                writers[t] = executor.submit(() -> {
+                    for (var i = 0 ; i < keysPerThread ; i++) {
+                        map.put(base + i, base + i);
+                    }
+                    // Removals force rehashes while readers are running:
+                    for (var i = 0 ; i < keysPerThread ; i += 2) {
+                        map.remove(base + i);
+                    }
+                });
+
+                readers[t] = executor.submit(() -> {
+                    var reads = 0;
+                    while (running.get()) {
+                        var key = (int) (Math.random() * threads * keysPerThread);
+                        var val = map.get(key);
+                        if (val != null && val != key) throw new IllegalStateException("Read value " + val + " for key " + key);
+                        reads++;
+                    }
+                    return reads;
+                });
+            }
+
+            for (var writer : writers) {
+                writer.get(60, TimeUnit.SECONDS);
+            }
+
+            running.set(false);
+
+            for (var reader : readers) {
+                reader.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            running.set(false);
+            executor.shutdownNow();
+        }
+
+        assertEquals(threads * keysPerThread / 2, map.size(), "Size doesn't match expected value");
+
+        for (var key = 0 ; key < threads * keysPerThread ; key++) {
+            if (key % 2 == 0) {
+                assertNull(map.get(key), "Removed key [" + key + "] shouldn't be in map");
+            }
+            else {
+                assertEquals(key, (int) map.get(key), "Value of key [" + key + "] doesn't match expected value");
+            }
+        }
+    }
+
+}
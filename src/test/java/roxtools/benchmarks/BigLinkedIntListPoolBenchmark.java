@@ -0,0 +1,71 @@
+package roxtools.benchmarks;
+
+import org.junit.jupiter.api.Disabled;
+import org.junit.jupiter.api.Test;
+import roxtools.BigLinkedIntListPool;
+import roxtools.BigLinkedIntListPool.BigLinkedIntList;
+
+public class BigLinkedIntListPoolBenchmark {
+
+    private static final int TOTAL_LISTS = 1000;
+    private static final int LIST_SIZE = 5000;
+    private static final int ROUNDS = 5;
+
+    @Test
+    @Disabled
+    void benchmark() {
+        var pool = new BigLinkedIntListPool();
+
+        var lists = new BigLinkedIntList[TOTAL_LISTS];
+        for (var i = 0 ; i < lists.length ; i++) {
+            lists[i] = pool.createLinkedList();
+        }
+
+        // Interleaved adds, so the elements of a list are spread in the pool:
+        for (var j = 0 ; j < LIST_SIZE ; j++) {
+            for (var list : lists) {
+                list.add(j);
+            }
+        }
+
+        for (var round = 0 ; round < ROUNDS ; round++) {
+            System.out.println("---------------------------------------------------");
+            System.out.println("Round: " + round + " ; lists: " + TOTAL_LISTS + " ; size: " + LIST_SIZE);
+
+            var time = System.nanoTime();
+            long sum = 0;
+            for (var list : lists) {
+                for (Integer v : list) {
+                    sum += v;
+                }
+            }
+            show("Iterator<Integer>", System.nanoTime() - time, sum);
+
+            time = System.nanoTime();
+            var sumForEach = new long[1];
+            for (var list : lists) {
+                list.forEachInt(v -> sumForEach[0] += v);
+            }
+            show("forEachInt", System.nanoTime() - time, sumForEach[0]);
+
+            time = System.nanoTime();
+            sum = 0;
+            var buffer = new int[1024];
+            for (var list : lists) {
+                var cursor = list.cursor();
+                int n;
+                while ((n = cursor.drainTo(buffer)) > 0) {
+                    for (var i = 0 ; i < n ; i++) {
+                        sum += buffer[i];
+                    }
+                }
+            }
+            show("cursor.drainTo", System.nanoTime() - time, sum);
+        }
+    }
+
+    private void show(String name, long time, long sum) {
+        System.out.printf("%-20s %6d ms ; (%d)%n", name, time / 1000000, sum);
+    }
+
+}
@@ -0,0 +1,125 @@
+package roxtools.benchmarks;
+
+import org.junit.jupiter.api.Disabled;
+import org.junit.jupiter.api.Test;
+import roxtools.collection.PrimitiveHashMapLongFloat;
+import roxtools.collection.PrimitiveOpenHashMapLongLong;
+
+import java.util.HashMap;
+import java.util.Random;
+
+public class PrimitiveOpenHashMapBenchmark {
+
+    private static final int TOTAL_KEYS = 2000000;
+    private static final int ROUNDS = 5;
+
+    @Test
+    @Disabled
+    void benchmark() {
+        var random = new Random(123);
+
+        var keys = new long[TOTAL_KEYS];
+        for (var i = 0 ; i < keys.length ; i++) {
+            keys[i] = random.nextLong();
+        }
+
+        for (var round = 0 ; round < ROUNDS ; round++) {
+            System.out.println("---------------------------------------------------");
+            System.out.println("Round: " + round + " ; keys: " + TOTAL_KEYS);
+
+            benchOpenHashMap(keys);
+            benchPrimitiveHashMapLongFloat(keys);
+            benchHashMap(keys);
+        }
+    }
+
+    private void benchOpenHashMap(long[] keys) {
+        var time = System.nanoTime();
+
+        var map = new PrimitiveOpenHashMapLongLong();
+        for (var i = 0 ; i < keys.length ; i++) {
+            map.put(keys[i], i);
+        }
+
+        var timePut = System.nanoTime() - time;
+        time = System.nanoTime();
+
+        long sum = 0;
+        for (var key : keys) {
+            sum += map.get(key);
+        }
+
+        var timeGet = System.nanoTime() - time;
+        time = System.nanoTime();
+
+        var cursor = map.cursor();
+        while (cursor.next()) {
+            sum += cursor.value();
+        }
+
+        var timeIterate = System.nanoTime() - time;
+
+        show(map.getClass().getSimpleName(), timePut, timeGet, timeIterate, sum);
+    }
+
+    private void benchPrimitiveHashMapLongFloat(long[] keys) {
+        var time = System.nanoTime();
+
+        var map = new PrimitiveHashMapLongFloat();
+        for (var i = 0 ; i < keys.length ; i++) {
+            map.putPrimitive(keys[i], i);
+        }
+
+        var timePut = System.nanoTime() - time;
+        time = System.nanoTime();
+
+        long sum = 0;
+        for (var key : keys) {
+            sum += map.getPrimitive(key);
+        }
+
+        var timeGet = System.nanoTime() - time;
+        time = System.nanoTime();
+
+        for (var entry : map.entrySet()) {
+            sum += entry.getValue();
+        }
+
+        var timeIterate = System.nanoTime() - time;
+
+        show(map.getClass().getSimpleName(), timePut, timeGet, timeIterate, sum);
+    }
+
+    private void benchHashMap(long[] keys) {
+        var time = System.nanoTime();
+
+        var map = new HashMap<Long, Long>();
+        for (var i = 0 ; i < keys.length ; i++) {
+            map.put(keys[i], (long) i);
+        }
+
+        var timePut = System.nanoTime() - time;
+        time = System.nanoTime();
+
+        long sum = 0;
+        for (var key : keys) {
+            sum += map.get(key);
+        }
+
+        var timeGet = System.nanoTime() - time;
+        time = System.nanoTime();
+
+        for (var value : map.values()) {
+            sum += value;
+        }
+
+        var timeIterate = System.nanoTime() - time;
+
+        show(map.getClass().getSimpleName(), timePut, timeGet, timeIterate, sum);
+    }
+
+    private void show(String name, long timePut, long timeGet, long timeIterate, long sum) {
+        System.out.printf("%-30s put: %6d ms ; get: %6d ms ; iterate: %6d ms ; (%d)%n", name, timePut / 1000000, timeGet / 1000000, timeIterate / 1000000, sum);
+    }
+
+}
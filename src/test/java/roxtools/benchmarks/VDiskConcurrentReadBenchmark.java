@@ -0,0 +1,93 @@
+package roxtools.benchmarks;
+
+import org.junit.jupiter.api.Disabled;
+import org.junit.jupiter.api.Test;
+import roxtools.FileUtils;
+import roxtools.io.vdisk.VDFile;
+import roxtools.io.vdisk.VDisk;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class VDiskConcurrentReadBenchmark {
+
+    private static final int TOTAL_FILES = 10000;
+    private static final int READS_PER_THREAD = 200000;
+
+    @Test
+    @Disabled
+    void benchmark() throws Exception {
+        for (var ioMode : new VDisk.IOMode[] {VDisk.IOMode.BUFFERED, VDisk.IOMode.MEMORY_MAPPED}) {
+            for (var threads : new int[] {1, 4, 16, 32}) {
+                var timeSynchronized = benchmarkImpl(ioMode, threads, false);
+                var timeConcurrent = benchmarkImpl(ioMode, threads, true);
+
+                System.out.println("================================================== " + ioMode + " ; threads: " + threads);
+                System.out.println("synchronized reads: " + timeSynchronized + "ms ; " + opsPerSec(threads, timeSynchronized) + " reads/s");
+                System.out.println("concurrent reads:   " + timeConcurrent + "ms ; " + opsPerSec(threads, timeConcurrent) + " reads/s");
+            }
+        }
+    }
+
+    private long opsPerSec(int threads, long time) {
+        return (threads * (long) READS_PER_THREAD * 1000) / Math.max(time, 1);
+    }
+
+    private long benchmarkImpl(VDisk.IOMode ioMode, int threads, boolean concurrentBlockReads) throws Exception {
+        var vDiskDir = FileUtils.createTempDirectory("bench-vdisk-");
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+        try {
+            var vDisk = new VDisk(vDiskDir, 256, 1024 * 64, 0, ioMode);
+            vDisk.setConcurrentBlockReads(concurrentBlockReads);
+
+            var files = createFiles(vDisk);
+
+            var time = System.currentTimeMillis();
+
+            var futures = new ArrayList<Future<?>>();
+
+            for (var t = 0 ; t < threads ; t++) {
+                var seed = t;
+                futures.add(executor.submit(() -> {
+                    var buff = new byte[256];
+                    for (var i = 0 ; i < READS_PER_THREAD ; i++) {
+                        var file = files[(seed * 7919 + i * 31) % files.length];
+                        file.read(0, buff, 0, buff.length);
+                    }
+                    return null;
+                }));
+            }
+
+            for (var future : futures) {
+                future.get();
+            }
+
+            time = System.currentTimeMillis() - time;
+
+            vDisk.close();
+
+            return time;
+        } finally {
+            executor.shutdown();
+            FileUtils.deleteTree(vDiskDir.getParentFile(), vDiskDir);
+        }
+    }
+
+    private VDFile[] createFiles(VDisk vDisk) throws IOException {
+        var files = new VDFile[TOTAL_FILES];
+        var data = new byte[256];
+
+        for (var i = 0 ; i < files.length ; i++) {
+            data[0] = (byte) i;
+            files[i] = vDisk.createFile();
+            files[i].setFullData(data);
+        }
+
+        return files;
+    }
+
+}
@@ -0,0 +1,89 @@
+package roxtools.benchmarks;
+
+import org.junit.jupiter.api.Disabled;
+import org.junit.jupiter.api.Test;
+import roxtools.FileUtils;
+import roxtools.io.vdisk.VDisk;
+
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class VDiskLookupBenchmark {
+
+    private static final int TOTAL_FILES = 20000;
+    private static final int LOOKUPS_PER_THREAD = 2000000;
+    private static final int WARMUP_ROUNDS = 2;
+
+    @Test
+    @Disabled
+    void benchmark() throws Exception {
+        var vDiskDir = FileUtils.createTempDirectory("bench-vdisk-lookup-");
+
+        try {
+            var vDisk = new VDisk(vDiskDir, 64, 1024 * 8, 0);
+
+            var ids = new int[TOTAL_FILES * 2];
+
+            for (var i = 0 ; i < TOTAL_FILES ; i++) {
+                var file = vDisk.createFile();
+                var id = file.getID();
+                var idx = id.indexOf('@');
+                ids[i * 2] = Integer.parseInt(id.substring(0, idx));
+                ids[i * 2 + 1] = Integer.parseInt(id.substring(idx + 1));
+            }
+
+            System.out.println("sectors: " + vDisk.getTotalSectors() + " ; files: " + TOTAL_FILES);
+
+            for (var threads : new int[] {1, 2, 4, 8, 16, 32}) {
+                for (var i = 0 ; i < WARMUP_ROUNDS ; i++) {
+                    benchmarkImpl(vDisk, ids, threads);
+                }
+
+                var time = benchmarkImpl(vDisk, ids, threads);
+
+                System.out.println("threads: " + threads + " ; time: " + time + "ms ; " + opsPerSec(threads, time) + " lookups/s");
+            }
+
+            vDisk.close();
+        } finally {
+            FileUtils.deleteTree(vDiskDir.getParentFile(), vDiskDir);
+        }
+    }
+
+    private long opsPerSec(int threads, long time) {
+        return (threads * (long) LOOKUPS_PER_THREAD * 1000) / Math.max(time, 1);
+    }
+
+    private long benchmarkImpl(VDisk vDisk, int[] ids, int threads) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+        try {
+            var time = System.currentTimeMillis();
+
+            var futures = new ArrayList<Future<Integer>>();
+
+            for (var t = 0 ; t < threads ; t++) {
+                var seed = t;
+                futures.add(executor.submit(() -> {
+                    var found = 0;
+                    for (var i = 0 ; i < LOOKUPS_PER_THREAD ; i++) {
+                        var f = ((seed * 7919 + i * 31) % TOTAL_FILES) * 2;
+                        if (vDisk.getFileByID(ids[f], ids[f + 1]) != null) found++;
+                    }
+                    return found;
+                }));
+            }
+
+            for (var future : futures) {
+                if (future.get() != LOOKUPS_PER_THREAD) throw new IllegalStateException("Lookup failed");
+            }
+
+            return System.currentTimeMillis() - time;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+}
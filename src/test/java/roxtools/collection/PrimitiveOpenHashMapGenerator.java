@@ -0,0 +1,127 @@
+package roxtools.collection;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Generates the {@code PrimitiveOpenHashMap*} classes from {@code src/main/templates/roxtools/collection/PrimitiveOpenHashMap.java.template}.
+ * <p>
+ * The template has {@code ${NAME}} placeholders and {@code //#if FLAG}, {@code //#else} and {@code //#endif} lines.
+ * Run from the project directory after changing the template: the generated sources are committed.
+ */
+public class PrimitiveOpenHashMapGenerator {
+
+    static final Path TEMPLATE = Path.of("src/main/templates/roxtools/collection/PrimitiveOpenHashMap.java.template");
+    static final Path OUTPUT_DIR = Path.of("src/main/java/roxtools/collection");
+
+    static final String[][] TYPES = {
+            // key, value
+            {"int", "int"},
+            {"int", "long"},
+            {"long", "long"},
+            {"long", "int"},
+            {"int", "Object"},
+            {"long", "Object"},
+    };
+
+    public static void main(String[] args) throws IOException {
+        for (var entry : generateAll().entrySet()) {
+            var file = OUTPUT_DIR.resolve(entry.getKey() + ".java");
+            Files.writeString(file, entry.getValue(), StandardCharsets.UTF_8);
+            System.out.println("Generated: " + file);
+        }
+    }
+
+    /**
+     * @return the generated sources by class name.
+     */
+    static Map<String, String> generateAll() throws IOException {
+        var template = Files.readString(TEMPLATE, StandardCharsets.UTF_8);
+
+        var sources = new LinkedHashMap<String, String>();
+
+        for (var types : TYPES) {
+            var key = types[0];
+            var value = types[1];
+            var objectValue = value.equals("Object");
+
+            var className = "PrimitiveOpenHashMap" + capitalize(key) + capitalize(value);
+
+            var vars = new LinkedHashMap<String, String>();
+            vars.put("CLASS", className);
+            vars.put("GENERIC", objectValue ? "<V>" : "");
+            vars.put("GENERIC_CONSUMER", objectValue ? "<? super V>" : "");
+            vars.put("KEY", key);
+            vars.put("VAL", objectValue ? "V" : value);
+            vars.put("NO_VALUE", objectValue ? "null" : "noValue");
+            // Typed literals, to not emit redundant casts:
+            vars.put("KEY_ZERO", zeroLiteral(key));
+            vars.put("VAL_ZERO", objectValue ? "null" : zeroLiteral(value));
+
+            var flags = objectValue ? Set.of(key.equals("long") ? "LONG_KEY" : "INT_KEY") : Set.of(key.equals("long") ? "LONG_KEY" : "INT_KEY", "PRIMITIVE_VALUE");
+
+            sources.put(className, generate(template, vars, flags));
+        }
+
+        return sources;
+    }
+
+    static String generate(String template, Map<String, String> vars, Set<String> flags) {
+        var out = new StringBuilder();
+
+        // Each level: [parent active, branch active]
+        var conditions = new ArrayDeque<boolean[]>();
+        var active = true;
+
+        for (var line : template.split("\n", -1)) {
+            var directive = line.trim();
+
+            if (directive.startsWith("//#if ")) {
+                var branch = flags.contains(directive.substring(6).trim());
+                conditions.push(new boolean[] {active, branch});
+                active = active && branch;
+                continue;
+            }
+            else if (directive.equals("//#else")) {
+                var condition = conditions.peek();
+                condition[1] = !condition[1];
+                active = condition[0] && condition[1];
+                continue;
+            }
+            else if (directive.equals("//#endif")) {
+                active = conditions.pop()[0];
+                continue;
+            }
+
+            if (!active) continue;
+
+            for (var var : vars.entrySet()) {
+                line = line.replace("${" + var.getKey() + "}", var.getValue());
+            }
+
+            out.append(line).append('\n');
+        }
+
+        if (!conditions.isEmpty()) throw new IllegalStateException("Unclosed //#if in template");
+
+        // The template ends with a new line:
+        out.setLength(out.length() - 1);
+
+        return out.toString();
+    }
+
+    static private String zeroLiteral(String type) {
+        return type.equals("long") ? "0L" : "0";
+    }
+
+    static private String capitalize(String s) {
+        return Character.toUpperCase(s.charAt(0)) + s.substring(1);
+    }
+
+}
@@ -0,0 +1,158 @@
+package roxtools.collection;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PrimitiveOpenHashMapTest {
+
+    @ParameterizedTest
+    @ValueSource(ints = {10, 1000, 100000})
+    void primitiveOpenHashMapIntIntRandomOperations(int totalKeys) {
+        var map = new PrimitiveOpenHashMapIntInt();
+        var expected = new HashMap<Integer, Integer>();
+
+        var random = new Random(totalKeys);
+
+        for (var i = 0 ; i < totalKeys * 10 ; i++) {
+            // Small key range, with negative keys and 0, to have collisions and removals:
+            var key = random.nextInt(totalKeys * 2) - totalKeys / 2;
+            var op = random.nextInt(4);
+
+            if (op < 2) {
+                var value = random.nextInt();
+                var prev = expected.put(key, value);
+                assertEquals(prev != null ? prev : 0, map.put(key, value), "Previous value of key [" + key + "] doesn't match expected value");
+            }
+            else if (op == 2) {
+                var prev = expected.remove(key);
+                assertEquals(prev != null ? prev : 0, map.remove(key), "Removed value of key [" + key + "] doesn't match expected value");
+            }
+            else {
+                assertEquals(expected.containsKey(key), map.containsKey(key), "containsKey of [" + key + "] doesn't match expected value");
+            }
+        }
+
+        assertEquals(expected.size(), map.size(), "Size doesn't match expected value");
+
+        for (var entry : expected.entrySet()) {
+            assertEquals((int) entry.getValue(), map.get(entry.getKey()), "Value of key [" + entry.getKey() + "] doesn't match expected value");
+        }
+
+        var iterated = new HashMap<Integer, Integer>();
+        var cursor = map.cursor();
+        while (cursor.next()) {
+            assertNull(iterated.put(cursor.key(), cursor.value()), "Cursor key [" + cursor.key() + "] shouldn't repeat");
+        }
+
+        assertEquals(expected, iterated, "Cursor entries don't match expected entries");
+
+        var forEachCount = new int[1];
+        map.forEach((k, v) -> {
+            assertEquals((int) expected.get(k), v, "forEach value of key [" + k + "] doesn't match expected value");
+            forEachCount[0]++;
+        });
+
+        assertEquals(expected.size(), forEachCount[0], "forEach count doesn't match expected value");
+        assertEquals(expected.size(), map.keysToArray().length, "Keys array length doesn't match expected value");
+
+        map.trim();
+
+        for (var entry : expected.entrySet()) {
+            assertEquals((int) entry.getValue(), map.get(entry.getKey()), "Value of key [" + entry.getKey() + "] after trim doesn't match expected value");
+        }
+
+        map.clear();
+
+        assertAll(
+                () -> assertEquals(0, map.size(), "Size after clear doesn't match expected value"),
+                () -> assertFalse(map.containsKey(0), "Map shouldn't contain key 0 after clear")
+        );
+    }
+
+    @Test
+    void primitiveOpenHashMapNoValueAndAddTo() {
+        var map = new PrimitiveOpenHashMapLongLong(4, 0.5f, -1);
+
+        assertAll(
+                () -> assertEquals(-1, map.get(10), "Absent key should return noValue"),
+                () -> assertEquals(7, map.addTo(10, 8), "addTo of absent key should start from noValue"),
+                () -> assertEquals(10, map.addTo(10, 3), "addTo value doesn't match expected value"),
+                () -> assertEquals(5, map.addTo(0, 6), "addTo of key 0 should start from noValue"),
+                () -> assertEquals(2, map.size(), "Size doesn't match expected value"),
+                () -> assertEquals(5, map.remove(0), "Removed value of key 0 doesn't match expected value"),
+                () -> assertEquals(-1, map.remove(0), "Removed absent key should return noValue"),
+                () -> assertEquals(99, map.getOrDefault(20, 99), "getOrDefault of absent key should return default"),
+                () -> assertEquals(10, map.putIfAbsent(10, 1), "putIfAbsent should return current value"),
+                () -> assertEquals(10, map.get(10), "putIfAbsent shouldn't replace value")
+        );
+
+        var counts = new PrimitiveOpenHashMapIntLong();
+        for (var i = 0 ; i < 10000 ; i++) {
+            counts.addTo(i % 100, i);
+        }
+
+        assertEquals(100, counts.size(), "Counts size doesn't match expected value");
+        assertEquals(495000, counts.get(0), "Count of key 0 doesn't match expected value");
+    }
+
+    @Test
+    void primitiveOpenHashMapObjectValues() {
+        var map = new PrimitiveOpenHashMapLongObject<String>();
+
+        for (var i = -500L ; i < 500L ; i++) {
+            assertNull(map.put(i * 1000003L, "v" + i), "No value should previously exist for key [" + i + "]");
+        }
+
+        assertEquals(1000, map.size(), "Size doesn't match expected value");
+
+        for (var i = -500L ; i < 500L ; i += 2) {
+            assertEquals("v" + i, map.remove(i * 1000003L), "Removed value of key [" + i + "] doesn't match expected value");
+        }
+
+        for (var i = -500L ; i < 500L ; i++) {
+            var key = i * 1000003L;
+            if (i % 2 == 0) {
+                assertFalse(map.containsKey(key), "Map shouldn't contain key [" + key + "]");
+            }
+            else {
+                assertEquals("v" + i, map.get(key), "Value of key [" + key + "] doesn't match expected value");
+            }
+        }
+
+        var cursor = map.cursor();
+        while (cursor.next()) {
+            cursor.setValue(cursor.value() + "!");
+        }
+
+        assertEquals("v1!", map.get(1000003L), "Value set by cursor doesn't match expected value");
+
+        var intMap = new PrimitiveOpenHashMapIntObject<String>();
+        intMap.put(0, "zero");
+        intMap.put(1, "one");
+
+        assertEquals("{0=zero, 1=one}", intMap.toString(), "toString doesn't match expected value");
+    }
+
+    @Test
+    void generatedSourcesAreUpToDate() throws IOException {
+        for (var entry : PrimitiveOpenHashMapGenerator.generateAll().entrySet()) {
+            var file = PrimitiveOpenHashMapGenerator.OUTPUT_DIR.resolve(entry.getKey() + ".java");
+
+            assertEquals(entry.getValue(), Files.readString(file, StandardCharsets.UTF_8), "Generated source out of date (run PrimitiveOpenHashMapGenerator): " + file);
+        }
+    }
+
+}
@@ -3,8 +3,14 @@ package roxtools.io.bigblock;
 import org.junit.jupiter.api.Test;
 import roxtools.FileUtils;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
 
 import static org.junit.jupiter.api.Assertions.assertAll;
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
@@ -51,6 +57,381 @@ public class BigBlockTest {
         }
     }
 
+    @Test
+    void testParallelBuild() throws IOException {
+        var sourceDir = FileUtils.createTempDirectory("test-bigblock-source");
+        var storageDir1 = FileUtils.createTempDirectory("test-bigblock-");
+        var storageDir2 = FileUtils.createTempDirectory("test-bigblock-");
+
+        var storage1 = new BigBlockStorageDirectory(storageDir1);
+        var storage2 = new BigBlockStorageDirectory(storageDir2);
+
+        try {
+            for (var i = 0 ; i < 100 ; i++) {
+                var name = "test" + i + ".txt";
+                var content = "content" + i;
+                FileUtils.saveFile(new File(sourceDir, name), content);
+            }
+
+            var bigBlock1 = new BigBlock("test1", storage1);
+            bigBlock1.setMaxStorageEntries(7);
+            var blockIndex1 = bigBlock1.buildFromDirectory(sourceDir);
+
+            var bigBlock2 = new BigBlock("test1", storage2);
+            bigBlock2.setMaxStorageEntries(7);
+            bigBlock2.setBuildThreads(4);
+            var blockIndex2 = bigBlock2.buildFromDirectory(sourceDir);
+
+            testBigBlockEntries(bigBlock2, blockIndex2);
+
+            assertAll(
+                    () -> assertEquals(4, bigBlock2.getBuildThreads(), "Build threads doesn't match expected value"),
+                    () -> assertArrayEquals(blockIndex1.getSerial(), blockIndex2.getSerial(), "Parallel index doesn't match serial index")
+            );
+
+            var blockFiles1 = storage1.listBlockFiles();
+            var blockFiles2 = storage2.listBlockFiles();
+            Arrays.sort(blockFiles1);
+            Arrays.sort(blockFiles2);
+
+            assertEquals(blockFiles1.length, blockFiles2.length, "Total block files doesn't match expected value");
+
+            for (var i = 0 ; i < blockFiles1.length ; i++) {
+                assertEquals(blockFiles1[i].getName(), blockFiles2[i].getName(), "Block file name doesn't match expected value");
+                assertArrayEquals(Files.readAllBytes(blockFiles1[i].toPath()), Files.readAllBytes(blockFiles2[i].toPath()), "Parallel block file doesn't match serial block file: " + blockFiles2[i]);
+            }
+        } finally {
+            FileUtils.deleteTree(sourceDir.getParentFile(), sourceDir);
+            sourceDir.delete();
+
+            cleanStorageDirectory(storage1);
+            storageDir1.delete();
+
+            cleanStorageDirectory(storage2);
+            storageDir2.delete();
+        }
+    }
+
+    @Test
+    void testCodecs() throws IOException {
+        var sourceDir = FileUtils.createTempDirectory("test-bigblock-source");
+        var storageDir = FileUtils.createTempDirectory("test-bigblock-");
+
+        var storage = new BigBlockStorageDirectory(storageDir);
+
+        try {
+            for (var i = 0 ; i < 100 ; i++) {
+                var name = "test" + i + ".txt";
+                var content = "content" + i;
+                FileUtils.saveFile(new File(sourceDir, name), content);
+            }
+
+            for (var codec : new BigBlockCodec[] {BigBlockCodec.GZIP, BigBlockCodec.STORED, BigBlockCodec.LZ}) {
+                var name = "test-" + codec.getName();
+
+                var bigBlock = new BigBlock(name, 4, codec, storage);
+                bigBlock.setMaxStorageEntries(30);
+
+                var blockIndex = bigBlock.buildFromDirectory(sourceDir);
+
+                testBigBlockEntries(bigBlock, blockIndex);
+
+                var bigBlock2 = new BigBlock(name, new BigBlockStorageDirectory(storageDir));
+                var blockIndex2 = bigBlock2.load();
+
+                assertAll(
+                        () -> assertEquals(codec, bigBlock2.getCodec(), "Loaded codec doesn't match expected value"),
+                        () -> assertEquals(4, blockIndex2.getCompressionLevel(), "Loaded compression level doesn't match expected value")
+                );
+
+                testBigBlockEntries(bigBlock2, blockIndex2);
+            }
+        } finally {
+            FileUtils.deleteTree(sourceDir.getParentFile(), sourceDir);
+            sourceDir.delete();
+
+            cleanStorageDirectory(storage);
+            storageDir.delete();
+        }
+    }
+
+    @Test
+    void testLZCodec() throws IOException {
+        var random = new Random(123);
+
+        for (var size : new int[] {0, 1, 5, 13, 100, 1000, 70000, 300000}) {
+            var data = new byte[size];
+
+            for (var i = 0 ; i < size ; i++) {
+                // Runs, repeated patterns and noise:
+                data[i] = (byte) ((i / 300) % 3 == 0 ? random.nextInt(256) : (i % 7) * (i / 1000));
+            }
+
+            var bout = new ByteArrayOutputStream();
+            BigBlockCodec.LZ.compress(new ByteArrayInputStream(data), bout, 4);
+
+            var compressed = bout.toByteArray();
+
+            assertArrayEquals(data, BigBlockCodec.LZ.decompress(compressed, size), "LZ data of size " + size + " doesn't match expected value");
+
+            if (size >= 1000) {
+                assertTrue(compressed.length < size, "LZ data of size " + size + " should be compressed: " + compressed.length);
+            }
+        }
+    }
+
+    @Test
+    void testBlockPartReaders() throws IOException {
+        var sourceDir = FileUtils.createTempDirectory("test-bigblock-source");
+        var storageDir = FileUtils.createTempDirectory("test-bigblock-");
+
+        var storage = new BigBlockStorageDirectory(storageDir);
+
+        try {
+            for (var i = 0 ; i < 100 ; i++) {
+                var name = "test" + i + ".txt";
+                var content = "content" + i;
+                FileUtils.saveFile(new File(sourceDir, name), content);
+            }
+
+            var bigBlock = new BigBlock("test1", storage);
+            bigBlock.setMaxStorageEntries(30);
+            bigBlock.buildFromDirectory(sourceDir);
+
+            for (var memoryMapped : new boolean[] {true, false}) {
+                var storage2 = new BigBlockStorageDirectory(storageDir);
+                storage2.setMemoryMapped(memoryMapped);
+
+                var bigBlock2 = new BigBlock("test1", storage2);
+                var blockIndex2 = bigBlock2.load();
+
+                testBigBlockEntries(bigBlock2, blockIndex2);
+
+                var entry = blockIndex2.getEntry("test7.txt");
+                var buffer = bigBlock2.getFileDataCompressedBuffer(entry);
+
+                assertAll(
+                        () -> assertTrue(storage2.isMemoryMapped() == memoryMapped, "Memory mapped doesn't match expected value"),
+                        () -> assertEquals(4, storage2.getOpenBlockPartReaders(), "Open block part readers doesn't match expected value"),
+                        () -> assertTrue(buffer.isReadOnly(), "Stored data buffer should be read-only"),
+                        () -> assertEquals(entry.getStorageLength(), buffer.remaining(), "Stored data buffer length doesn't match expected value"),
+                        () -> assertArrayEquals(bigBlock2.getFileDataCompressed(entry), storage.getEntryDataStored("test1", entry), "Stored data doesn't match expected value"),
+                        () -> assertArrayEquals("content7".getBytes(), bigBlock2.getCodec().decompress(buffer, entry.getLength()), "Data decompressed from buffer doesn't match expected value")
+                );
+
+                storage2.close();
+
+                assertEquals(0, storage2.getOpenBlockPartReaders(), "Open block part readers doesn't match expected value after close");
+            }
+        } finally {
+            FileUtils.deleteTree(sourceDir.getParentFile(), sourceDir);
+            sourceDir.delete();
+
+            storage.close();
+            cleanStorageDirectory(storage);
+            storageDir.delete();
+        }
+    }
+
+    @Test
+    void testRebuildKeepsMappedBuffers() throws IOException {
+        var sourceDir = FileUtils.createTempDirectory("test-bigblock-source");
+        var storageDir = FileUtils.createTempDirectory("test-bigblock-");
+
+        var storage = new BigBlockStorageDirectory(storageDir);
+
+        try {
+            for (var i = 0 ; i < 100 ; i++) {
+                FileUtils.saveFile(new File(sourceDir, "test" + i + ".txt"), "content" + i);
+            }
+
+            var bigBlock = new BigBlock("test1", storage);
+            bigBlock.setMaxStorageEntries(30);
+            bigBlock.buildFromDirectory(sourceDir);
+
+            var entry = bigBlock.getIndex().getEntry("test7.txt");
+            var buffer = bigBlock.getFileDataCompressedBuffer(entry);
+            var compressed = bigBlock.getFileDataCompressed(entry);
+
+            // Rebuilds the same parts with other contents, while the previous buffer is in use:
+            for (var i = 0 ; i < 100 ; i++) {
+                FileUtils.saveFile(new File(sourceDir, "test" + i + ".txt"), "rebuilt-content-" + i);
+            }
+
+            bigBlock.buildFromDirectory(sourceDir);
+
+            var data = new byte[buffer.remaining()];
+            buffer.duplicate().get(data);
+
+            var tmpFiles = storageDir.listFiles((dir, name) -> name.endsWith(".tmp"));
+
+            assertAll(
+                    () -> assertArrayEquals(compressed, data, "Previous buffer data doesn't match expected value"),
+                    () -> assertArrayEquals("content7".getBytes(), bigBlock.getCodec().decompress(buffer, entry.getLength()), "Data decompressed from previous buffer doesn't match expected value"),
+                    () -> assertArrayEquals("rebuilt-content-7".getBytes(), bigBlock.getFileData("test7.txt"), "Rebuilt data doesn't match expected value"),
+                    () -> assertEquals(0, tmpFiles.length, "Temporary files doesn't match expected value")
+            );
+        } finally {
+            FileUtils.deleteTree(sourceDir.getParentFile(), sourceDir);
+            sourceDir.delete();
+
+            storage.close();
+            cleanStorageDirectory(storage);
+            storageDir.delete();
+        }
+    }
+
+    @Test
+    void testLazyIndex() throws IOException {
+        var sourceDir = FileUtils.createTempDirectory("test-bigblock-source");
+        var storageDir = FileUtils.createTempDirectory("test-bigblock-");
+
+        var storage = new BigBlockStorageDirectory(storageDir);
+
+        try {
+            for (var i = 0 ; i < 100 ; i++) {
+                var name = "test" + i + ".txt";
+                var content = "content" + i;
+                FileUtils.saveFile(new File(sourceDir, name), content);
+            }
+
+            var bigBlock = new BigBlock("test1", 4, BigBlockCodec.LZ, storage);
+            bigBlock.setMaxStorageEntries(30);
+            var blockIndex = bigBlock.buildFromDirectory(sourceDir);
+
+            assertFalse(blockIndex.isLazy(), "Built index shouldn't be lazy");
+
+            var bigBlock2 = new BigBlock("test1", new BigBlockStorageDirectory(storageDir));
+            var blockIndex2 = bigBlock2.load();
+
+            testBigBlockEntries(bigBlock2, blockIndex2);
+
+            assertAll(
+                    () -> assertTrue(blockIndex2.isLazy(), "Loaded index should be lazy"),
+                    () -> assertEquals(BigBlockCodec.LZ, blockIndex2.getCodec(), "Lazy index codec doesn't match expected value"),
+                    () -> assertArrayEquals(blockIndex.getBigBlockPartsLengths(), blockIndex2.getBigBlockPartsLengths(), "Lazy index parts lengths doesn't match expected value"),
+                    () -> assertEquals(blockIndex.getSortedEntries().toString(), blockIndex2.getSortedEntries().toString(), "Lazy index entries don't match expected value"),
+                    () -> assertArrayEquals(blockIndex.getSerial(), blockIndex2.getSerial(), "Lazy index serial doesn't match expected value")
+            );
+
+            // Without the table, the full index is loaded:
+            deleteFiles(storage.listBlockIndexTableFiles());
+
+            var bigBlock3 = new BigBlock("test1", new BigBlockStorageDirectory(storageDir));
+            var blockIndex3 = bigBlock3.load();
+
+            assertFalse(blockIndex3.isLazy(), "Index without table shouldn't be lazy");
+
+            testBigBlockEntries(bigBlock3, blockIndex3);
+        } finally {
+            FileUtils.deleteTree(sourceDir.getParentFile(), sourceDir);
+            sourceDir.delete();
+
+            cleanStorageDirectory(storage);
+            storageDir.delete();
+        }
+    }
+
+    @Test
+    void testAppendAndMerge() throws IOException {
+        var sourceDir = FileUtils.createTempDirectory("test-bigblock-source");
+        var appendDir = FileUtils.createTempDirectory("test-bigblock-append");
+        var storageDir = FileUtils.createTempDirectory("test-bigblock-");
+
+        var storage = new BigBlockStorageDirectory(storageDir);
+
+        try {
+            for (var i = 0 ; i < 100 ; i++) {
+                var name = "test" + i + ".txt";
+                var content = "content" + i;
+                FileUtils.saveFile(new File(sourceDir, name), content);
+            }
+
+            var bigBlock = new BigBlock("test1", storage);
+            bigBlock.setMaxStorageEntries(30);
+            var blockIndex = bigBlock.buildFromDirectory(sourceDir);
+
+            testBigBlockEntries(bigBlock, blockIndex);
+
+            assertEquals(4, blockIndex.getBigBlockPartsLengths().length, "Parts lengths should include the last part");
+            assertEquals(4, storage.listBlockFiles().length, "Total block files doesn't match expected value");
+
+            var part0 = Files.readAllBytes(new File(storageDir, "bigblock--test1--0.block").toPath());
+
+            var appendFiles = new ArrayList<File>();
+
+            for (var i = 100 ; i < 120 ; i++) {
+                var file = new File(appendDir, "test" + i + ".txt");
+                FileUtils.saveFile(file, "content" + i);
+                appendFiles.add(file);
+            }
+
+            var replacedFile = new File(appendDir, "test0.txt");
+            FileUtils.saveFile(replacedFile, "replaced0");
+            appendFiles.add(replacedFile);
+
+            var blockIndex2 = bigBlock.append(appendFiles);
+
+            assertAll(
+                    () -> assertEquals(120, blockIndex2.getTotalEntries(), "Total entries after append doesn't match expected value"),
+                    () -> assertEquals(5, blockIndex2.getTotalBlockParts(), "Total block parts after append doesn't match expected value"),
+                    () -> assertEquals(4, blockIndex2.getEntry("test0.txt").getStorageBlockPart(), "Replaced entry block part doesn't match expected value"),
+                    () -> assertEquals(0, blockIndex.getEntry("test0.txt").getStorageBlockPart(), "Previous index generation shouldn't change"),
+                    () -> assertArrayEquals(part0, Files.readAllBytes(new File(storageDir, "bigblock--test1--0.block").toPath()), "Existing block part shouldn't be rewritten"),
+                    () -> assertArrayEquals("replaced0".getBytes(), bigBlock.getFileData("test0.txt"), "Replaced entry data doesn't match expected value")
+            );
+
+            testAppendedEntries(bigBlock);
+
+            var bigBlock2 = new BigBlock("test1", new BigBlockStorageDirectory(storageDir));
+            bigBlock2.setMaxStorageEntries(30);
+            bigBlock2.load();
+
+            testAppendedEntries(bigBlock2);
+
+            // Part 3 (10 entries) and the appended part 4 (21 entries) are small:
+            assertEquals(0, bigBlock2.merge(), "Merge with a single small part shouldn't remove parts");
+            assertEquals(2, bigBlock2.merge(25), "Removed parts by merge doesn't match expected value");
+
+            var blockIndex3 = bigBlock2.getIndex();
+
+            assertAll(
+                    () -> assertEquals(120, blockIndex3.getTotalEntries(), "Total entries after merge doesn't match expected value"),
+                    () -> assertEquals(7, blockIndex3.getTotalBlockParts(), "Total block parts after merge doesn't match expected value"),
+                    () -> assertEquals(0, blockIndex3.getBigBlockPartsLengths()[3], "Removed part length should be 0"),
+                    () -> assertEquals(5, storage.listBlockFiles().length, "Total block files after merge doesn't match expected value"),
+                    () -> assertEquals(0, bigBlock2.merge(25), "Merge of merged parts shouldn't remove parts")
+            );
+
+            testAppendedEntries(bigBlock2);
+
+            var bigBlock3 = new BigBlock("test1", new BigBlockStorageDirectory(storageDir));
+            bigBlock3.load();
+
+            testAppendedEntries(bigBlock3);
+        } finally {
+            FileUtils.deleteTree(sourceDir.getParentFile(), sourceDir);
+            sourceDir.delete();
+
+            FileUtils.deleteTree(appendDir.getParentFile(), appendDir);
+            appendDir.delete();
+
+            cleanStorageDirectory(storage);
+            storageDir.delete();
+        }
+    }
+
+    private void testAppendedEntries(BigBlock bigBlock) throws IOException {
+        assertEquals(120, bigBlock.getIndex().getTotalEntries(), "Total entries doesn't match expected value");
+
+        for (var i = 0 ; i < 120 ; i++) {
+            var name = "test" + i + ".txt";
+            var content = i == 0 ? "replaced0" : "content" + i;
+
+            assertArrayEquals(content.getBytes(), bigBlock.getFileData(name), "Entry [" + name + "]: File data doesn't match expected value");
+        }
+    }
+
     private void testBigBlockEntries(BigBlock bigBlock, BigBlockIndex blockIndex) {
         assertEquals(100, blockIndex.getTotalEntries(), "Total entries doesn't match expected value");
 
@@ -81,6 +462,7 @@ public class BigBlockTest {
 
     private void cleanStorageDirectory(BigBlockStorageDirectory storageDirectory) {
         deleteFiles(storageDirectory.listBlockIndexFiles());
+        deleteFiles(storageDirectory.listBlockIndexTableFiles());
         deleteFiles(storageDirectory.listBlockFiles());
     }
 
@@ -2,16 +2,753 @@ package roxtools.io.vdisk;
 
 import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import roxtools.FileUtils;
 
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class VDiskTest {
 
+    static byte[] createData(int seed, int size) {
+        var data = new byte[size];
+
+        for (var i = 0 ; i < size ; i++) {
+            data[i] = (byte) (seed * 31 + i);
+        }
+
+        return data;
+    }
+
+    @ParameterizedTest
+    @EnumSource(VDisk.IOMode.class)
+    void testIOMode(VDisk.IOMode ioMode) throws IOException {
+        var vDiskDir = FileUtils.createTempDirectory("test-vdisk-" + ioMode);
+
+        try {
+            var vDisk = new VDisk(vDiskDir, 128, 256, 0, ioMode);
+
+            assertEquals(ioMode, vDisk.getIOMode(), "IO mode doesn't match expected value");
+
+            var ids = new String[50];
+
+            for (var i = 0 ; i < ids.length ; i++) {
+                var file = vDisk.createFile();
+                file.setFullData(createData(i, i * 37));
+                file.setMetaData(new VDMetaData("file-" + i));
+                ids[i] = file.getID();
+            }
+
+            vDisk.close();
+
+            var vDisk2 = new VDisk(vDiskDir, 128, 256, 0, ioMode);
+
+            for (var i = 0 ; i < ids.length ; i++) {
+                var file = vDisk2.getFileByID(ids[i]);
+                assertNotNull(file, "File not found: " + ids[i]);
+                assertArrayEquals(createData(i, i * 37), file.readFullData(), "Data doesn't match expected value for file [" + i + "]");
+
+                var file2 = vDisk2.getFirstFileByMetaDataKey("file-" + i);
+                assertEquals(ids[i], file2.getID(), "File by metadata key doesn't match expected ID");
+            }
+
+            vDisk2.close();
+        } finally {
+            FileUtils.deleteTree(vDiskDir.getParentFile(), vDiskDir);
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(VDisk.IOMode.class)
+    void testReadBatch(VDisk.IOMode ioMode) throws IOException {
+        var vDiskDir = FileUtils.createTempDirectory("test-vdisk-batch-" + ioMode);
+
+        try {
+            var vDisk = new VDisk(vDiskDir, 32, 64, 0, ioMode);
+
+            var files = new VDFile[300];
+
+            for (var i = 0 ; i < files.length ; i++) {
+                files[i] = vDisk.createFile();
+                files[i].setFullData(createData(i, (i * 13) % 150));
+            }
+
+            assertTrue(vDisk.getTotalSectors() > 1, "Files should be spread across sectors");
+
+            var datas = vDisk.readFullData(files);
+
+            for (var i = 0 ; i < files.length ; i++) {
+                assertArrayEquals(createData(i, (i * 13) % 150), datas[i], "Batch data doesn't match expected value for file [" + i + "]");
+            }
+
+            var file = files[files.length - 1];
+            var expected = createData(files.length - 1, file.size());
+
+            var batch = new VDReadBatch(vDisk);
+            var range1 = batch.add(file, 40, 30);
+            var range2 = batch.add(file, 0, 10);
+            var range3 = batch.add(file, 5, 60);
+            batch.execute();
+
+            assertAll(
+                    () -> assertArrayEquals(Arrays.copyOfRange(expected, 40, 70), range1, "Range [40..70] doesn't match expected value"),
+                    () -> assertArrayEquals(Arrays.copyOfRange(expected, 0, 10), range2, "Range [0..10] doesn't match expected value"),
+                    () -> assertArrayEquals(Arrays.copyOfRange(expected, 5, 65), range3, "Range [5..65] doesn't match expected value"),
+                    () -> assertTrue(batch.isEmpty(), "Batch should be empty after execution")
+            );
+
+            assertThrows(EOFException.class, () -> batch.add(file, file.size() - 5, 10), "Reading after end of file should fail");
+
+            vDisk.close();
+        } finally {
+            FileUtils.deleteTree(vDiskDir.getParentFile(), vDiskDir);
+        }
+    }
+
+    @Test
+    void testLongAddressing() throws IOException {
+        var vDiskDir = FileUtils.createTempDirectory("test-vdisk-long-");
+
+        try {
+            var vDisk = new VDisk(vDiskDir, 64, 256, 0);
+
+            var file = vDisk.createFile();
+            var data = createData(7, 1000);
+
+            file.setLength(data.length);
+            file.write(0L, data, 0, data.length);
+
+            assertAll(
+                    () -> assertEquals(1000L, file.length(), "Length doesn't match expected value"),
+                    () -> assertEquals(1024L, file.lengthInDisk(), "Length in disk doesn't match expected value"),
+                    () -> assertEquals(file.length(), (long) file.size(), "Length and size should be the same")
+            );
+
+            file.seek(100L);
+            file.skip(50L);
+
+            assertAll(
+                    () -> assertEquals(150L, file.position(), "Position doesn't match expected value"),
+                    () -> assertEquals(850L, file.remaining(), "Remaining doesn't match expected value")
+            );
+
+            var seekableIO = file.createSeekableIO();
+            seekableIO.seek(990L);
+
+            var buff = new byte[20];
+            assertEquals(10, seekableIO.read(buff), "Read at end of file should be truncated");
+            assertArrayEquals(Arrays.copyOfRange(data, 990, 1000), Arrays.copyOf(buff, 10), "Read at end of file doesn't match expected value");
+            assertEquals(-1, seekableIO.read(), "Read after end of file should return -1");
+
+            seekableIO.write(new byte[] {1, 2, 3});
+            assertEquals(1003L, file.length(), "Length doesn't match expected value after append");
+
+            var in = file.createInputStream(500L);
+            var buff2 = new byte[100];
+            assertEquals(100, in.read(buff2), "Stream read length doesn't match expected value");
+            assertArrayEquals(Arrays.copyOfRange(data, 500, 600), buff2, "Stream data doesn't match expected value");
+            assertEquals(403L, in.skip(Long.MAX_VALUE), "Stream skip doesn't match expected value");
+            assertEquals(-1, in.read(), "Stream should be at end");
+
+            seekableIO.setLength(200L);
+            assertEquals(200L, file.length(), "Length doesn't match expected value after truncate");
+            assertEquals(200L, seekableIO.position(), "Position should be truncated to length");
+
+            vDisk.close();
+        } finally {
+            FileUtils.deleteTree(vDiskDir.getParentFile(), vDiskDir);
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(VDisk.IOMode.class)
+    void testConcurrentBlockReads(VDisk.IOMode ioMode) throws Exception {
+        var vDiskDir = FileUtils.createTempDirectory("test-vdisk-concurrent-" + ioMode);
+        var executor = Executors.newFixedThreadPool(8);
+
+        try {
+            var vDisk = new VDisk(vDiskDir, 64, 512, 0, ioMode);
+            vDisk.setConcurrentBlockReads(true);
+
+            assertTrue(vDisk.isConcurrentBlockReadsEnabled(), "Concurrent block reads should be enabled");
+
+            var files = new VDFile[100];
+
+            for (var i = 0 ; i < files.length ; i++) {
+                files[i] = vDisk.createFile();
+                files[i].setFullData(createData(i, 100 + i * 3));
+            }
+
+            var futures = new ArrayList<Future<Boolean>>();
+
+            for (var t = 0 ; t < 8 ; t++) {
+                var seed = t;
+                futures.add(executor.submit(() -> {
+                    for (var loop = 0 ; loop < 200 ; loop++) {
+                        var i = (seed * 7 + loop) % files.length;
+                        var expected = createData(i, 100 + i * 3);
+                        var buff = new byte[expected.length];
+                        files[i].read(0, buff, 0, buff.length);
+                        if (!Arrays.equals(expected, buff)) return false;
+                    }
+                    return true;
+                }));
+            }
+
+            for (var future : futures) {
+                assertTrue(future.get(), "Concurrent read returned unexpected data");
+            }
+
+            vDisk.close();
+        } finally {
+            executor.shutdown();
+            FileUtils.deleteTree(vDiskDir.getParentFile(), vDiskDir);
+        }
+    }
+
+    @Test
+    void testExtentAllocation() throws IOException {
+        var vDiskDir = FileUtils.createTempDirectory("test-vdisk-extent-");
+
+        try {
+            var vDisk = new VDisk(vDiskDir, 64, 256, 0);
+
+            var file1 = vDisk.createFile();
+            var file2 = vDisk.createFile();
+
+            var sector = vDisk.getSector(0);
+            var freeBlocks = sector.getFreeBlocks();
+
+            var data = createData(3, 64 * 20 + 10);
+            file1.setFullData(data);
+
+            assertEquals(21, file1.getTotalBlocks(), "Total blocks doesn't match expected value");
+            assertEquals(freeBlocks - 20, sector.getFreeBlocks(), "Free blocks doesn't match expected value");
+
+            var block = file1.getInitBlock().getNextBlock();
+            var blockIndex = block.getBlockIndex();
+
+            while (block.getNextBlock() != null) {
+                var next = block.getNextBlock();
+                assertEquals(block.getBlockIndex() + 1, next.getBlockIndex(), "Extent blocks should be contiguous");
+                block = next;
+            }
+
+            assertTrue(blockIndex > file2.getInitBlock().getBlockIndex(), "Extent should be allocated after used blocks");
+            assertArrayEquals(data, file1.readFullData(), "Data doesn't match expected value");
+
+            file2.delete();
+            assertEquals(freeBlocks - 19, sector.getFreeBlocks(), "Free blocks doesn't match expected value after delete");
+
+            var file1ID = file1.getID();
+            vDisk.close();
+
+            var vDisk2 = new VDisk(vDiskDir, 64, 256, 0);
+
+            assertAll(
+                    () -> assertEquals(freeBlocks - 19, vDisk2.getSector(0).getFreeBlocks(), "Free blocks doesn't match expected value after reopen"),
+                    () -> assertArrayEquals(data, vDisk2.getFileByID(file1ID).readFullData(), "Data doesn't match expected value after reopen")
+            );
+
+            vDisk2.close();
+        } finally {
+            FileUtils.deleteTree(vDiskDir.getParentFile(), vDiskDir);
+        }
+    }
+
+    @Test
+    void testCompaction() throws Exception {
+        var vDiskDir = FileUtils.createTempDirectory("test-vdisk-compaction-");
+        var executor = Executors.newSingleThreadExecutor();
+
+        try {
+            var vDisk = new VDisk(vDiskDir, 64, 32, 0);
+
+            var files = new VDFile[4];
+            var datas = new byte[files.length][];
+
+            for (var i = 0 ; i < files.length ; i++) {
+                files[i] = vDisk.createFile();
+                datas[i] = new byte[0];
+            }
+
+            // Interleaved appends, so the files blocks are fragmented:
+            for (var round = 0 ; round < 10 ; round++) {
+                for (var i = 0 ; i < files.length ; i++) {
+                    var chunk = createData(i * 100 + round, round < 9 ? 64 : 30);
+                    files[i].write(files[i].length(), chunk, 0, chunk.length);
+
+                    var data = Arrays.copyOf(datas[i], datas[i].length + chunk.length);
+                    System.arraycopy(chunk, 0, data, datas[i].length, chunk.length);
+                    datas[i] = data;
+                }
+            }
+
+            assertEquals(2, vDisk.getTotalSectors(), "Total sectors doesn't match expected value");
+            assertTrue(files[0].countFragments() > 1, "File should be fragmented");
+
+            files[2].delete();
+            files[3].delete();
+
+            var ids = new String[] {files[0].getID(), files[1].getID()};
+
+            var compactor = vDisk.getCompactor();
+            compactor.setMaxBlocksPerSecond(0);
+
+            var reader = executor.submit(() -> {
+                for (var loop = 0 ; loop < 2000 ; loop++) {
+                    var i = loop % 2;
+                    if (!Arrays.equals(datas[i], files[i].readFullData())) return false;
+                }
+                return true;
+            });
+
+            var passes = 0;
+            while (vDisk.compact() > 0) {
+                passes++;
+            }
+
+            assertTrue(reader.get(), "Concurrent read returned unexpected data");
+
+            assertAll(
+                    () -> assertTrue(compactor.getTotalRelocatedFiles() >= 2, "Relocated files doesn't match expected value"),
+                    () -> assertEquals(1, compactor.getTotalTruncatedSectors(), "Truncated sectors doesn't match expected value"),
+                    () -> assertEquals(1, vDisk.getTotalSectors(), "Total sectors doesn't match expected value after compaction"),
+                    () -> assertTrue(files[0].countFragments() <= 1, "File 0 should be contiguous"),
+                    () -> assertTrue(files[1].countFragments() <= 1, "File 1 should be contiguous"),
+                    () -> assertEquals(ids[0], files[0].getID(), "File ID doesn't match expected value"),
+                    () -> assertArrayEquals(datas[0], files[0].readFullData(), "Data doesn't match expected value"),
+                    () -> assertArrayEquals(datas[1], vDisk.getFileByID(ids[1]).readFullData(), "Data doesn't match expected value")
+            );
+
+            assertTrue(passes > 0, "Compaction should relocate blocks");
+            assertEquals(0, vDisk.compact(), "Compaction of compacted VDisk should relocate nothing");
+
+            var readBatch = new VDReadBatch(vDisk);
+            var batchData = readBatch.add(files[1]);
+            vDisk.compact();
+            readBatch.execute();
+            assertArrayEquals(datas[1], batchData, "Batch data doesn't match expected value");
+
+            vDisk.close();
+
+            assertFalse(new File(vDiskDir, "1" + VDSector.SECTOR_FILE_SUFIX).exists(), "Truncated sector file should be deleted");
+
+            var vDisk2 = new VDisk(vDiskDir, 64, 32, 0);
+
+            assertAll(
+                    () -> assertEquals(1, vDisk2.getTotalSectors(), "Total sectors doesn't match expected value after reopen"),
+                    () -> assertEquals(2, vDisk2.getFilesIDs().size(), "Total files doesn't match expected value after reopen"),
+                    () -> assertArrayEquals(datas[0], vDisk2.getFileByID(ids[0]).readFullData(), "Data doesn't match expected value after reopen"),
+                    () -> assertArrayEquals(datas[1], vDisk2.getFileByID(ids[1]).readFullData(), "Data doesn't match expected value after reopen")
+            );
+
+            vDisk2.close();
+        } finally {
+            executor.shutdown();
+            FileUtils.deleteTree(vDiskDir.getParentFile(), vDiskDir);
+        }
+    }
+
+    @Test
+    void testBlockChecksums() throws IOException {
+        var vDiskDir = FileUtils.createTempDirectory("test-vdisk-checksums-");
+
+        try {
+            var vDisk = new VDisk(vDiskDir, 64, 64, 0);
+
+            assertFalse(vDisk.isBlockChecksumsEnabled(), "Checksums should be disabled by default");
+
+            var ids = new String[10];
+
+            for (var i = 0 ; i < ids.length ; i++) {
+                var file = vDisk.createFile();
+                file.setFullData(createData(i, 100 + i * 10));
+                ids[i] = file.getID();
+            }
+
+            vDisk.setBlockChecksums(true);
+
+            var file3 = vDisk.getFileByID(ids[3]);
+            file3.setFullData(createData(33, 130));
+
+            var totalBlocks = 0;
+            for (var id : ids) {
+                totalBlocks += vDisk.getFileByID(id).getTotalBlocks();
+            }
+            var expectedBlocks = totalBlocks;
+
+            var result = vDisk.scrub(4);
+
+            assertAll(
+                    () -> assertTrue(result.isOk(), "Scrub shouldn't find corrupted blocks: " + result),
+                    () -> assertEquals(expectedBlocks, result.getVerifiedBlocks(), "Verified blocks doesn't match expected value"),
+                    () -> assertArrayEquals(createData(33, 130), vDisk.getFileByID(ids[3]).readFullData(), "Data doesn't match expected value")
+            );
+
+            var blockIndex = file3.getInitBlock().getNextBlock().getBlockIndex();
+            var headerSize = vDisk.sectorHeaderSize;
+
+            vDisk.close();
+
+            try (var io = new RandomAccessFile(VDSector.createSectorFile(vDisk, 0), "rw")) {
+                io.seek(headerSize + blockIndex * 64L + 10);
+                io.write(0xFF ^ createData(33, 130)[64 + 10]);
+            }
+
+            var vDisk2 = new VDisk(vDiskDir, 64, 64, 0);
+
+            assertTrue(vDisk2.isBlockChecksumsEnabled(), "Checksums should be enabled after reopen");
+
+            var ex = assertThrows(VDChecksumException.class, () -> vDisk2.getFileByID(ids[3]).readFullData());
+            assertEquals(blockIndex, ex.getBlockIndex(), "Corrupted block doesn't match expected value");
+
+            assertArrayEquals(createData(4, 140), vDisk2.getFileByID(ids[4]).readFullData(), "Data doesn't match expected value");
+
+            var result2 = vDisk2.scrub(2);
+
+            assertAll(
+                    () -> assertFalse(result2.isOk(), "Scrub should find the corrupted block"),
+                    () -> assertEquals(VDBlock.toStringIdent(blockIndex, 0), result2.getCorruptedBlocks().get(0), "Corrupted block doesn't match expected value"),
+                    () -> assertEquals(1, result2.getCorruptedBlocks().size(), "Corrupted blocks doesn't match expected value")
+            );
+
+            vDisk2.setChecksumVerifyPolicy(VDisk.ChecksumVerifyPolicy.OFF);
+            assertEquals(130, vDisk2.getFileByID(ids[3]).readFullData().length, "Read with verification off shouldn't fail");
+
+            vDisk2.setChecksumVerifyPolicy(VDisk.ChecksumVerifyPolicy.ALWAYS);
+            vDisk2.getFileByID(ids[3]).setFullData(createData(34, 130));
+            assertArrayEquals(createData(34, 130), vDisk2.getFileByID(ids[3]).readFullData(), "Data doesn't match expected value after rewrite");
+            assertTrue(vDisk2.scrub(2).isOk(), "Scrub shouldn't find corrupted blocks after rewrite");
+
+            vDisk2.setBlockChecksums(false);
+            assertFalse(VDSector.createChecksumsFile(vDiskDir, 0).exists(), "Checksums file should be deleted");
+
+            vDisk2.close();
+        } finally {
+            FileUtils.deleteTree(vDiskDir.getParentFile(), vDiskDir);
+        }
+    }
+
+    static void copyDiskFiles(File srcDir, File destDir) throws IOException {
+        destDir.mkdirs();
+
+        for (var file : srcDir.listFiles()) {
+            if (file.getName().equals("vdisk.lock")) continue;
+
+            if (file.isDirectory()) {
+                copyDiskFiles(file, new File(destDir, file.getName()));
+            } else {
+                FileUtils.copyFile(file, new File(destDir, file.getName()));
+            }
+        }
+    }
+
+    @Test
+    void testWriteAheadLog() throws IOException {
+        var vDiskDir = FileUtils.createTempDirectory("test-vdisk-wal-");
+        var crashDir = FileUtils.createTempDirectory("test-vdisk-wal-crash-");
+
+        try {
+            var vDisk = new VDisk(vDiskDir, 64, 256, 0, VDisk.IOMode.RANDOM_ACCESS);
+            vDisk.setWriteAheadLog(true);
+
+            assertTrue(vDisk.isWriteAheadLogEnabled(), "WAL should be enabled");
+
+            var ids = new String[30];
+
+            for (var i = 0 ; i < ids.length ; i++) {
+                var file = vDisk.createFile();
+                file.setFullData(createData(i, 10 + i * 23));
+                file.setMetaData(new VDMetaData("wal-file-" + i));
+                ids[i] = file.getID();
+            }
+
+            // Simulates a crash: copies the disk files without closing it:
+            copyDiskFiles(vDiskDir, crashDir);
+
+            assertTrue(VDWriteAheadLog.listWALFiles(crashDir).length > 0, "WAL files should exist before recovery");
+
+            vDisk.close();
+
+            assertEquals(0, VDWriteAheadLog.listWALFiles(vDiskDir).length, "WAL files should be deleted after close");
+
+            var vDisk2 = new VDisk(crashDir, 64, 256, 0, VDisk.IOMode.RANDOM_ACCESS);
+
+            assertEquals(0, VDWriteAheadLog.listWALFiles(crashDir).length, "WAL files should be deleted after recovery");
+
+            for (var i = 0 ; i < ids.length ; i++) {
+                var file = vDisk2.getFileByID(ids[i]);
+                assertNotNull(file, "File not found after recovery: " + ids[i]);
+                assertArrayEquals(createData(i, 10 + i * 23), file.readFullData(), "Data doesn't match expected value for file [" + i + "]");
+
+                var file2 = vDisk2.getFirstFileByMetaDataKey("wal-file-" + i);
+                assertNotNull(file2, "File by metadata key not found after recovery: wal-file-" + i);
+                assertEquals(ids[i], file2.getID(), "File by metadata key doesn't match expected ID");
+            }
+
+            vDisk2.close();
+        } finally {
+            FileUtils.deleteTree(vDiskDir.getParentFile(), vDiskDir);
+            FileUtils.deleteTree(crashDir.getParentFile(), crashDir);
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(value = VDisk.IOMode.class, names = {"BUFFERED", "RANDOM_ACCESS"})
+    void testWriteAheadLogOrdering(VDisk.IOMode ioMode) throws IOException {
+        var vDiskDir = FileUtils.createTempDirectory("test-vdisk-wal-order-");
+        var crashDir = FileUtils.createTempDirectory("test-vdisk-wal-order-crash-");
+
+        try {
+            // Small sectors, so the files have links between sectors:
+            var vDisk = new VDisk(vDiskDir, 64, 8, 0, ioMode);
+            vDisk.setWriteAheadLog(true);
+
+            var wal = vDisk.getWriteAheadLog();
+
+            var ids = new String[20];
+
+            for (var i = 0 ; i < ids.length ; i++) {
+                var file = vDisk.createFile();
+                file.setFullData(createData(i, 100 + i * 57));
+                file.setMetaData(new VDMetaData("order-file-" + i));
+                ids[i] = file.getID();
+            }
+
+            // A header entry logged and not committed yet, written by a flush:
+            var sector = vDisk.getSectors()[0];
+            sector.writeHeaderBlockUsage(0, sector.getHeaderBlockUsage(0));
+
+            assertTrue(wal.getDurableLSN() < wal.getAppendedLSN(), "Header entry shouldn't be committed yet");
+
+            sector.flushHeader(true);
+
+            assertEquals(wal.getAppendedLSN(), wal.getDurableLSN(), "Header written before its log record");
+
+            // A metadata block logged: buffered writes are committed by the flush, direct writes before the write:
+            var metadataSector = vDisk.getMetadataDisk().getSectors()[0];
+
+            var block = new byte[16];
+            metadataSector.readFromBlock(0, 0, block, 0, block.length);
+            metadataSector.writeToBlock(0, 0, block, 0, block.length);
+
+            if (ioMode == VDisk.IOMode.BUFFERED) {
+                assertTrue(wal.getDurableLSN() < wal.getAppendedLSN(), "Metadata block shouldn't be committed yet");
+
+                metadataSector.flushIO(true);
+            }
+
+            assertEquals(wal.getAppendedLSN(), wal.getDurableLSN(), "Metadata block written before its log record");
+
+            // Rewrites the files, growing and shrinking them, flushing the headers between the writes:
+            for (var i = 0 ; i < ids.length ; i++) {
+                var file = vDisk.getFileByID(ids[i]);
+                file.setFullData(createData(i * 7, (i % 2 == 0) ? 300 + i * 31 : 20 + i));
+
+                if (i % 3 == 0) vDisk.flush();
+            }
+
+            // Simulates a crash: copies the disk files without closing it:
+            copyDiskFiles(vDiskDir, crashDir);
+
+            vDisk.close();
+
+            var vDisk2 = new VDisk(crashDir, 64, 8, 0, ioMode);
+
+            for (var i = 0 ; i < ids.length ; i++) {
+                var file = vDisk2.getFileByID(ids[i]);
+                assertNotNull(file, "File not found after recovery: " + ids[i]);
+
+                var data = createData(i * 7, (i % 2 == 0) ? 300 + i * 31 : 20 + i);
+                var metaDataKey = "order-file-" + i;
+
+                assertAll(
+                        () -> assertEquals(data.length, file.length(), "Length doesn't match expected value for file: " + file),
+                        () -> assertEquals((data.length + 63) / 64, file.getTotalBlocks(), "Linked blocks doesn't match expected value for file: " + file),
+                        () -> assertEquals(file.getID(), vDisk2.getFirstFileByMetaDataKey(metaDataKey).getID(), "File by metadata key doesn't match expected ID")
+                );
+
+                // Only the headers and the metadata are logged: unflushed buffered data is lost in a crash.
+                if (ioMode != VDisk.IOMode.BUFFERED) {
+                    assertArrayEquals(data, file.readFullData(), "Data doesn't match expected value for file: " + file);
+                }
+            }
+
+            vDisk2.close();
+        } finally {
+            FileUtils.deleteTree(vDiskDir.getParentFile(), vDiskDir);
+            FileUtils.deleteTree(crashDir.getParentFile(), crashDir);
+        }
+    }
+
+    @Test
+    void testWriteAheadLogGroupCommit() throws Exception {
+        var vDiskDir = FileUtils.createTempDirectory("test-vdisk-wal-group-");
+
+        var writers = 8;
+        var executor = Executors.newFixedThreadPool(writers);
+
+        try {
+            var vDisk = new VDisk(vDiskDir, 64, 1024, 0, VDisk.IOMode.RANDOM_ACCESS);
+            vDisk.setWriteAheadLog(true);
+
+            var wal = vDisk.getWriteAheadLog();
+
+            var startLatch = new CountDownLatch(1);
+            var futures = new ArrayList<Future<String[]>>();
+
+            for (var t = 0 ; t < writers ; t++) {
+                var writer = t;
+                futures.add(executor.submit(() -> {
+                    startLatch.await();
+
+                    var ids = new String[50];
+
+                    for (var i = 0 ; i < ids.length ; i++) {
+                        var file = vDisk.createFile();
+                        file.setFullData(createData(writer * 1000 + i, 10 + i * 7));
+                        ids[i] = file.getID();
+                    }
+
+                    return ids;
+                }));
+            }
+
+            var commits0 = wal.getTotalCommits();
+            var syncs0 = wal.getTotalSyncs();
+
+            // All the writers commit at the same time:
+            startLatch.countDown();
+
+            var allIds = new ArrayList<String[]>();
+            for (var future : futures) {
+                allIds.add(future.get());
+            }
+
+            var commits = wal.getTotalCommits() - commits0;
+            var syncs = wal.getTotalSyncs() - syncs0;
+
+            assertTrue(syncs < commits, "Concurrent commits should be grouped: syncs " + syncs + " >= commits " + commits);
+
+            for (var t = 0 ; t < writers ; t++) {
+                var ids = allIds.get(t);
+
+                for (var i = 0 ; i < ids.length ; i++) {
+                    assertArrayEquals(createData(t * 1000 + i, 10 + i * 7), vDisk.getFileByID(ids[i]).readFullData(), "Data doesn't match expected value for file [" + t + ":" + i + "]");
+                }
+            }
+
+            vDisk.close();
+        } finally {
+            executor.shutdown();
+            FileUtils.deleteTree(vDiskDir.getParentFile(), vDiskDir);
+        }
+    }
+
+    @Test
+    void testPersistentKeyIndex() throws IOException {
+        var vDiskDir = FileUtils.createTempDirectory("test-vdisk-keyindex-");
+        var crashDir = FileUtils.createTempDirectory("test-vdisk-keyindex-crash-");
+
+        try {
+            var vDisk = new VDisk(vDiskDir, 64, 512, 0);
+            vDisk.setPersistentKeyIndex(true);
+
+            var keyIndex = vDisk.getKeyIndex();
+            keyIndex.setMemtableSize(50);
+            keyIndex.setMaxRuns(3);
+
+            var ids = new String[300];
+
+            for (var i = 0 ; i < ids.length ; i++) {
+                var file = vDisk.createFile();
+                file.setFullData(createData(i, 10));
+                file.setMetaData(new VDMetaData((i % 2 == 0 ? "a/" : "b/") + String.format("%04d", i)));
+                ids[i] = file.getID();
+            }
+
+            for (var i = 0 ; i < 20 ; i++) {
+                vDisk.getFileByID(ids[i]).delete();
+            }
+
+            assertTrue(keyIndex.getTotalRuns() <= 3, "Runs should be merged");
+
+            var expectedA = new ArrayList<String>();
+            for (var i = 20 ; i < ids.length ; i += 2) {
+                expectedA.add("a/" + String.format("%04d", i));
+            }
+
+            assertAll(
+                    () -> assertEquals(expectedA, vDisk.getFilesMetaDataKeysWithPrefix("a/"), "Keys with prefix don't match expected value"),
+                    () -> assertEquals(280, vDisk.getFilesMetaDataKeys().size(), "Total keys doesn't match expected value"),
+                    () -> assertEquals(ids[21], vDisk.getFirstFileByMetaDataKey("b/0021").getID(), "File by metadata key doesn't match expected ID"),
+                    () -> assertTrue(vDisk.getFirstFileByMetaDataKey("a/0010") == null, "Deleted key should not be found"),
+                    () -> assertTrue(!vDisk.containsFileByMetaDataKey("b/0011"), "Deleted key should not be found")
+            );
+
+            // Simulates a crash after the sectors are flushed, but with the index not closed:
+            vDisk.flush(true);
+            copyDiskFiles(vDiskDir, crashDir);
+
+            vDisk.close();
+
+            var vDisk2 = new VDisk(vDiskDir, 64, 512, 0);
+
+            assertAll(
+                    () -> assertTrue(vDisk2.isPersistentKeyIndexEnabled(), "Key index should be enabled after reopen"),
+                    () -> assertTrue(!vDisk2.getKeyIndex().isRebuilt(), "Key index should not be rebuilt after a clean close"),
+                    () -> assertEquals(expectedA, vDisk2.getFilesMetaDataKeysWithPrefix("a/"), "Keys with prefix don't match expected value after reopen"),
+                    () -> assertEquals(ids[299], vDisk2.getFirstFileByMetaDataKey("b/0299").getID(), "File by metadata key doesn't match expected ID after reopen")
+            );
+
+            var iterator = vDisk2.iterateFileMetaDataKeys();
+            var count = 0;
+            String prev = null;
+
+            while (iterator.hasNext()) {
+                var key = iterator.next();
+                assertTrue(prev == null || prev.compareTo(key) < 0, "Keys should be iterated in order");
+                prev = key;
+                count++;
+            }
+
+            assertEquals(280, count, "Iterated keys doesn't match expected value");
+
+            vDisk2.close();
+
+            var vDisk3 = new VDisk(crashDir, 64, 512, 0);
+
+            assertAll(
+                    () -> assertTrue(vDisk3.getKeyIndex().isRebuilt(), "Key index should be rebuilt after a crash"),
+                    () -> assertEquals(expectedA, vDisk3.getFilesMetaDataKeysWithPrefix("a/"), "Keys with prefix don't match expected value after rebuild")
+            );
+
+            vDisk3.close();
+        } finally {
+            FileUtils.deleteTree(vDiskDir.getParentFile(), vDiskDir);
+            FileUtils.deleteTree(crashDir.getParentFile(), crashDir);
+        }
+    }
+
     @Test
     @Disabled
     public void test() throws IOException {